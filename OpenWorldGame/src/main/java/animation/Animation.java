@@ -1,85 +1,69 @@
 package animation;
 
-import java.util.List;
-
-import window.Window;
-
+/**
+ * An animation clip, stored as translation, rotation and scale keys for each
+ * node of the skeleton, which can be sampled at any time in between. Shared by
+ * every entity with the model, so it doesn't change once loaded (see Animator).
+ */
 public class Animation {
-	
-	private List<KeyFrame> keyFrames;
-	private int currentFrame;
+
 	private String name;
-	private double duration;
-	
-	private double timeCounter = 0;
-	
-	private double durationSeconds;
-	
-	private double speedFactor = 1.0f;
-	
+	// In seconds.
+	private float duration;
+
+	private KeyTrack translations;
+	private KeyTrack rotations;
+	private KeyTrack scales;
+
 	/**
-	 * 
+	 *
 	 * @param name
-	 * @param keyFrames
 	 * @param duration
-	 * 	- Measured in 'ticks!'.
-	 * @param ticksPerSec
+	 * 	- Measured in seconds.
+	 * @param translations
+	 * @param rotations
+	 * @param scales
 	 */
-	public Animation(String name, List<KeyFrame> keyFrames, double duration, double ticksPerSec) {
+	public Animation(String name, float duration, KeyTrack translations, KeyTrack rotations, KeyTrack scales) {
 		this.name = name;
-		this.keyFrames = keyFrames;
 		this.duration = duration;
-		currentFrame = 0;
-		
-		durationSeconds = duration / ticksPerSec;
+		this.translations = translations;
+		this.rotations = rotations;
+		this.scales = scales;
 	}
 
-	public List<KeyFrame> getKeyFrames() {
-		return keyFrames;
-	}
-
-	public int getCurrentFrame() {
-		return currentFrame;
+	/**
+	 * Writes the local transform of every node at the given time, laid out as in
+	 * Pose. Nodes without keys are left with no transformation.
+	 * @param local
+	 * 	- Can be longer than needed, so pooled buffers can be used.
+	 */
+	public void sample(float time, float[] local, int nodeCount) {
+		for (int i=0; i<nodeCount; i++) {
+			int pointer = i * Pose.FLOATS_PER_NODE;
+			Pose.setIdentity(local, i);
+			translations.sample(i, time, local, pointer + Pose.TRANSLATION);
+			rotations.sample(i, time, local, pointer + Pose.ROTATION);
+			scales.sample(i, time, local, pointer + Pose.SCALE);
+		}
 	}
 
 	public String getName() {
 		return name;
 	}
 
-	public double getDuration() {
+	public float getDuration() {
 		return duration;
 	}
-	
-	public KeyFrame getNextFrame() {
-		update();
-		return this.keyFrames.get(currentFrame);
-	}
-	
-	public void reset() {
-		currentFrame = 0;
-		timeCounter = 0;
-	}
-	
-	public void increaseSpeedFactor() {
-		this.speedFactor += 0.01f;
-	}
-	
-	public void decreaseSpeedFactor() {
-		double newSpeed = speedFactor - 0.01f;
-		if (newSpeed > 0) {
-			speedFactor = newSpeed;
-		}
-	}
-	
-	public void update() {
-		timeCounter += Window.getLastFrameTime();
-		
-		double frameLength = durationSeconds / (keyFrames.size()) * speedFactor;
-		
-		while (timeCounter >= frameLength) {
-			currentFrame++;
-			timeCounter -= frameLength;
-			currentFrame %= keyFrames.size();
+
+	/**
+	 * @return The time wrapped back into the animation, so it loops either way.
+	 */
+	public float loop(float time) {
+		if (duration <= 0) {
+			return time;
 		}
+		time %= duration;
+		return time < 0 ? time + duration : time;
 	}
 }
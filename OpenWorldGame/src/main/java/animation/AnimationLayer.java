@@ -0,0 +1,82 @@
+package animation;
+
+/**
+ * An animation played on top of an Animator's main one. An override layer
+ * replaces the pose of the nodes it is masked to, an additive layer adds how
+ * far its animation moves from its first frame.
+ * @author Billy
+ *
+ */
+public class AnimationLayer {
+
+	private final Animation animation;
+	private final boolean additive;
+	private final BoneMask mask;
+	// The first frame, which additive animations are relative to.
+	private final float[] referencePose;
+
+	private float weight = 1;
+	private float time = 0;
+	private float speed = 1;
+
+	/**
+	 * @param mask
+	 * 	- Which nodes it affects. Null for all of them.
+	 */
+	public AnimationLayer(Animation animation, boolean additive, BoneMask mask, Skeleton skeleton) {
+		this.animation = animation;
+		this.additive = additive;
+		this.mask = mask;
+		if (additive) {
+			referencePose = new float[skeleton.getNodeCount() * Pose.FLOATS_PER_NODE];
+			animation.sample(0, referencePose, skeleton.getNodeCount());
+		} else {
+			referencePose = null;
+		}
+	}
+
+	public void update(float delta) {
+		time = animation.loop(time + delta * speed);
+	}
+
+	/**
+	 * Applies the layer on top of the local transforms.
+	 */
+	public void apply(float[] local, int nodeCount) {
+		if (weight <= 0) {
+			return;
+		}
+		float[] layerPose = PosePool.get(PosePool.LAYER, nodeCount);
+		animation.sample(time, layerPose, nodeCount);
+		if (additive) {
+			PoseBlender.add(local, layerPose, referencePose, weight, mask, local, nodeCount);
+		} else {
+			PoseBlender.blend(local, layerPose, weight, mask, local, nodeCount);
+		}
+	}
+
+	/**
+	 * @param weight
+	 * 	- From 0 (no effect) to 1.
+	 */
+	public void setWeight(float weight) {
+		this.weight = weight;
+	}
+
+	public float getWeight() {
+		return weight;
+	}
+
+	public void setSpeed(float speed) {
+		this.speed = speed;
+	}
+
+	public Animation getAnimation() {
+		return animation;
+	}
+
+	public boolean isAdditive() {
+		return additive;
+	}
+
+}
@@ -0,0 +1,141 @@
+package animation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import entities.AnimatedEntity;
+import toolbox.ParallelRows;
+
+/**
+ * Poses every animated entity each frame. The poses are worked out in parallel,
+ * on the common fork/join pool, and written one after another into a single
+ * palette of joint transforms, ready to be uploaded in one go.
+ *
+ * Each entity is given its offset into the palette first, so the workers never
+ * write to the same part of it.
+ *
+ * Posing is the expensive part, so it is only done as often as it can be seen.
+ * Every entity's animation clock moves on each frame, but entities further from
+ * the camera are posed every few frames, taking turns so the work is spread
+ * evenly, and the furthest only pose a reduced skeleton. Entities which weren't
+ * drawn last frame aren't posed at all. Anything not posed keeps its last pose
+ * in the palette.
+ * @author Billy
+ *
+ */
+public class AnimationSystem {
+
+	// A mat4 per joint, column major.
+	public static final int FLOATS_PER_JOINT = 16;
+	// Posing is cheap for one entity, so a task does a few to be worth handing out.
+	private static final int ENTITIES_PER_TASK = 8;
+
+	// Entities are posed every frame up to the first distance, every 2nd frame up to
+	// the next and so on. Past the last they are posed every 8th frame, reduced.
+	private static final float[] LOD_DISTANCES = {80, 160, 320};
+	private static final int[] LOD_INTERVALS = {1, 2, 4, 8};
+
+	private float[] palette = new float[1024 * FLOATS_PER_JOINT];
+	private int jointCount = 0;
+
+	// The entities to pose this frame, and whether each is reduced.
+	private int[] posed = new int[64];
+	private boolean[] reduced = new boolean[64];
+	private int posedCount = 0;
+	private int frame = 0;
+
+	/**
+	 * Moves every entity's animation on and poses those that need it, filling the
+	 * palette.
+	 * @param delta
+	 * 	- Time since the last update, in seconds.
+	 */
+	public void update(List<AnimatedEntity> entities, Vector3f cameraPosition, float delta) {
+		frame++;
+		jointCount = 0;
+		posedCount = 0;
+		if (posed.length < entities.size()) {
+			posed = new int[entities.size() * 2];
+			reduced = new boolean[posed.length];
+		}
+		for (int i=0; i<entities.size(); i++) {
+			AnimatedEntity entity = entities.get(i);
+			entity.getAnimator().update(delta);
+			boolean visible = entity.isVisible();
+			entity.setVisible(false);
+			// Entities which have moved in the palette (e.g. new ones) have nothing there yet.
+			boolean moved = entity.getPaletteOffset() != jointCount;
+			entity.setPaletteOffset(jointCount);
+			jointCount += entity.getModel().getJointCount();
+			if (moved) {
+				schedule(i, false);
+			} else if (visible) {
+				int lod = getLod(entity, cameraPosition);
+				// Offset by the index so entities at the same LOD take turns.
+				if ((frame + i) % LOD_INTERVALS[lod] == 0) {
+					schedule(i, lod == LOD_INTERVALS.length - 1);
+				}
+			}
+		}
+		if (jointCount * FLOATS_PER_JOINT > palette.length) {
+			// Keeps the poses of entities which won't be posed this frame.
+			palette = Arrays.copyOf(palette, Math.max(palette.length * 2, jointCount * FLOATS_PER_JOINT));
+		}
+		ParallelRows.forEach(posedCount, ENTITIES_PER_TASK, (start, end) -> {
+			for (int i=start; i<end; i++) {
+				pose(entities.get(posed[i]), reduced[i]);
+			}
+		});
+	}
+
+	/**
+	 * @return The joint transforms of every entity, from each one's palette offset.
+	 */
+	public float[] getPalette() {
+		return palette;
+	}
+
+	/**
+	 * @return The number of joints in the palette.
+	 */
+	public int getJointCount() {
+		return jointCount;
+	}
+
+	/**
+	 * @return The number of entities posed in the last update.
+	 */
+	public int getPosedCount() {
+		return posedCount;
+	}
+
+	private void schedule(int entity, boolean reducedPose) {
+		posed[posedCount] = entity;
+		reduced[posedCount] = reducedPose;
+		posedCount++;
+	}
+
+	private int getLod(AnimatedEntity entity, Vector3f cameraPosition) {
+		float distanceSquared = entity.getPosition().distanceSquared(cameraPosition);
+		for (int i=0; i<LOD_DISTANCES.length; i++) {
+			if (distanceSquared < LOD_DISTANCES[i] * LOD_DISTANCES[i]) {
+				return i;
+			}
+		}
+		return LOD_DISTANCES.length;
+	}
+
+	private void pose(AnimatedEntity entity, boolean reducedPose) {
+		Animator animator = entity.getAnimator();
+		animator.applyPose(reducedPose);
+		Matrix4f[] joints = animator.getPose().getJointTransforms();
+		int offset = entity.getPaletteOffset() * FLOATS_PER_JOINT;
+		for (int i=0; i<joints.length; i++) {
+			joints[i].get(palette, offset + i * FLOATS_PER_JOINT);
+		}
+	}
+
+}
@@ -0,0 +1,172 @@
+package animation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays animations on one entity. The animations themselves are shared by every
+ * entity with the same model, so how far through one an entity is (and the pose
+ * it ends up in) is kept here instead.
+ *
+ * The main animation can be cross-faded to another, with both playing while the
+ * old one fades out. Layers are then applied on top, in the order they were
+ * added.
+ * @author Billy
+ *
+ */
+public class Animator {
+
+	private final Skeleton skeleton;
+	private final Pose pose;
+
+	private Animation animation;
+	// How far through the animation, in seconds.
+	private float time = 0;
+	private float speed = 1;
+
+	// The animation being faded out, if any.
+	private Animation previous;
+	private float previousTime = 0;
+	private float fadeDuration = 0;
+	private float fadeTime = 0;
+
+	private List<AnimationLayer> layers = new ArrayList<AnimationLayer>();
+
+	public Animator(Skeleton skeleton) {
+		this.skeleton = skeleton;
+		this.pose = new Pose(skeleton);
+	}
+
+	/**
+	 * Starts playing the animation from the beginning, straight away. Null leaves
+	 * the entity in its current pose.
+	 */
+	public void play(Animation animation) {
+		this.animation = animation;
+		this.time = 0;
+		this.previous = null;
+	}
+
+	/**
+	 * Starts playing the animation from the beginning, fading the current one out
+	 * over the duration. Does nothing if the animation is already playing.
+	 * @param duration
+	 * 	- In seconds.
+	 */
+	public void crossFade(Animation animation, float duration) {
+		if (animation == this.animation) {
+			return;
+		}
+		if (this.animation == null || animation == null || duration <= 0) {
+			play(animation);
+			return;
+		}
+		previous = this.animation;
+		previousTime = time;
+		fadeDuration = duration;
+		fadeTime = 0;
+		this.animation = animation;
+		this.time = 0;
+	}
+
+	/**
+	 * @param additive
+	 * 	- Whether the animation is added to the pose, relative to its first frame,
+	 * 	rather than replacing it.
+	 * @param mask
+	 * 	- Which nodes it affects. Null for all of them.
+	 * @return The layer, for setting its weight.
+	 */
+	public AnimationLayer addLayer(Animation animation, boolean additive, BoneMask mask) {
+		AnimationLayer layer = new AnimationLayer(animation, additive, mask, skeleton);
+		layers.add(layer);
+		return layer;
+	}
+
+	public void removeLayer(AnimationLayer layer) {
+		layers.remove(layer);
+	}
+
+	/**
+	 * Moves the animations on. Cheap, so is done for every entity on the main thread.
+	 */
+	public void update(float delta) {
+		if (animation != null) {
+			time = animation.loop(time + delta * speed);
+		}
+		if (previous != null) {
+			previousTime = previous.loop(previousTime + delta * speed);
+			fadeTime += delta;
+			if (fadeTime >= fadeDuration) {
+				previous = null;
+			}
+		}
+		for (int i=0; i<layers.size(); i++) {
+			layers.get(i).update(delta);
+		}
+	}
+
+	/**
+	 * Samples and mixes the animations and composes the joint transforms. Only
+	 * touches this animator's pose (and the thread's PosePool buffers), so
+	 * animators can be posed in parallel.
+	 */
+	public void applyPose() {
+		applyPose(false);
+	}
+
+	/**
+	 * @param reduced
+	 * 	- Whether to only pose the skeleton's reduced set of nodes, for entities
+	 * 	too far away for the rest to be seen.
+	 */
+	public void applyPose(boolean reduced) {
+		if (animation == null && layers.isEmpty()) {
+			return;
+		}
+		float[] local = pose.getLocalTransforms();
+		int nodeCount = reduced ? skeleton.getReducedNodeCount() : pose.getNodeCount();
+		if (animation != null) {
+			animation.sample(time, local, nodeCount);
+		}
+		if (previous != null) {
+			float[] fading = PosePool.get(PosePool.FADE, nodeCount);
+			previous.sample(previousTime, fading, nodeCount);
+			PoseBlender.blend(fading, local, fadeTime / fadeDuration, null, local, nodeCount);
+		}
+		for (int i=0; i<layers.size(); i++) {
+			layers.get(i).apply(local, nodeCount);
+		}
+		skeleton.computeJointTransforms(pose, reduced);
+	}
+
+	public Animation getAnimation() {
+		return animation;
+	}
+
+	public float getTime() {
+		return time;
+	}
+
+	/**
+	 * @param speed
+	 * 	- How fast the main animation plays, 1 being its normal speed. Negative
+	 * 	plays it backwards.
+	 */
+	public void setSpeed(float speed) {
+		this.speed = speed;
+	}
+
+	public float getSpeed() {
+		return speed;
+	}
+
+	public Pose getPose() {
+		return pose;
+	}
+
+	public Skeleton getSkeleton() {
+		return skeleton;
+	}
+
+}
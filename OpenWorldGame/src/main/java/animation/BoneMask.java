@@ -0,0 +1,59 @@
+package animation;
+
+/**
+ * How much an animation layer affects each node of a skeleton, e.g. so that a
+ * waving animation only moves the arm and the legs carry on walking. Nodes start
+ * with a weight of 0.
+ * @author Billy
+ *
+ */
+public class BoneMask {
+
+	private final Skeleton skeleton;
+	private final float[] weights;
+
+	public BoneMask(Skeleton skeleton) {
+		this.skeleton = skeleton;
+		this.weights = new float[skeleton.getNodeCount()];
+	}
+
+	/**
+	 * Sets the weight of the named node and everything below it in the hierarchy.
+	 * Unknown names are ignored, so one mask can be used with similar skeletons.
+	 * @return This mask, so calls can be chained.
+	 */
+	public BoneMask include(String nodeName, float weight) {
+		int root = skeleton.getNodeIndex(nodeName);
+		if (root < 0) {
+			return this;
+		}
+		boolean[] included = new boolean[weights.length];
+		included[root] = true;
+		weights[root] = weight;
+		// Parents come before their children, so one pass finds every descendant.
+		for (int i=root + 1; i<weights.length; i++) {
+			int parent = skeleton.getParent(i);
+			if (parent >= 0 && included[parent]) {
+				included[i] = true;
+				weights[i] = weight;
+			}
+		}
+		return this;
+	}
+
+	public BoneMask include(String nodeName) {
+		return include(nodeName, 1);
+	}
+
+	/**
+	 * Sets the weight of the named node and everything below it to 0.
+	 */
+	public BoneMask exclude(String nodeName) {
+		return include(nodeName, 0);
+	}
+
+	public float getWeight(int node) {
+		return weights[node];
+	}
+
+}
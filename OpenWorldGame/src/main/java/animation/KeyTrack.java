@@ -0,0 +1,149 @@
+package animation;
+
+/**
+ * One kind of keyframe (translation, rotation or scale) for every node of a
+ * skeleton, in flat arrays. Each node's keys are stored one after another, in
+ * chronological order, so a track is three arrays however many nodes it has.
+ *
+ * Translations and scales (3 components) are linearly interpolated between keys,
+ * rotations (4 component quaternions) are spherically interpolated.
+ * @author Billy
+ *
+ */
+public class KeyTrack {
+
+	private final int components;
+	// Index of each node's first key. One longer than the number of nodes.
+	private final int[] starts;
+	// In seconds.
+	private final float[] times;
+	private final float[] values;
+
+	/**
+	 * @param components
+	 * 	- Floats per key, 3 for vectors and 4 for quaternions.
+	 * @param keyCounts
+	 * 	- Number of keys for each node. Nodes with none are left in their default
+	 * 	transform.
+	 */
+	public KeyTrack(int components, int[] keyCounts) {
+		this.components = components;
+		starts = new int[keyCounts.length + 1];
+		for (int i=0; i<keyCounts.length; i++) {
+			starts[i + 1] = starts[i] + keyCounts[i];
+		}
+		int keyCount = starts[keyCounts.length];
+		times = new float[keyCount];
+		values = new float[keyCount * components];
+	}
+
+	/**
+	 * @param key
+	 * 	- The key's index amongst the node's keys.
+	 * @param w
+	 * 	- Ignored for 3 component tracks.
+	 */
+	public void setKey(int node, int key, float time, float x, float y, float z, float w) {
+		int index = starts[node] + key;
+		times[index] = time;
+		int pointer = index * components;
+		values[pointer] = x;
+		values[pointer + 1] = y;
+		values[pointer + 2] = z;
+		if (components == 4) {
+			values[pointer + 3] = w;
+		}
+	}
+
+	public int getKeyCount(int node) {
+		return starts[node + 1] - starts[node];
+	}
+
+	/**
+	 * Interpolates the node's value at the given time, holding the first and last
+	 * keys before and after them.
+	 * @param out
+	 * 	- Written to at offset, unless the node has no keys.
+	 * @return False if the node has no keys.
+	 */
+	public boolean sample(int node, float time, float[] out, int offset) {
+		int start = starts[node];
+		int end = starts[node + 1];
+		if (start == end) {
+			return false;
+		}
+		int key = findKey(start, end, time);
+		if (key == end - 1 || time <= times[key]) {
+			System.arraycopy(values, key * components, out, offset, components);
+			return true;
+		}
+		float blend = (time - times[key]) / (times[key + 1] - times[key]);
+		if (components == 4) {
+			slerp(key * components, (key + 1) * components, blend, out, offset);
+		} else {
+			int a = key * components;
+			int b = a + components;
+			for (int i=0; i<components; i++) {
+				out[offset + i] = values[a + i] + (values[b + i] - values[a + i]) * blend;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The last key at or before the time, or the first key if there is none.
+	 */
+	private int findKey(int start, int end, float time) {
+		int low = start;
+		int high = end - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (times[middle] <= time) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Spherical interpolation between the quaternions at a and b, taking the
+	 * shortest way round. Done on the floats so it can't allocate, and can be
+	 * run for many poses at once.
+	 */
+	private void slerp(int a, int b, float blend, float[] out, int offset) {
+		float ax = values[a], ay = values[a + 1], az = values[a + 2], aw = values[a + 3];
+		float bx = values[b], by = values[b + 1], bz = values[b + 2], bw = values[b + 3];
+		float cos = ax * bx + ay * by + az * bz + aw * bw;
+		if (cos < 0) {
+			cos = -cos;
+			bx = -bx;
+			by = -by;
+			bz = -bz;
+			bw = -bw;
+		}
+		float scaleA;
+		float scaleB;
+		if (cos > 0.9995f) {
+			// Too close together for the sine to be accurate, and a straight line will do.
+			scaleA = 1 - blend;
+			scaleB = blend;
+		} else {
+			float angle = (float) Math.acos(cos);
+			float sin = (float) Math.sin(angle);
+			scaleA = (float) Math.sin((1 - blend) * angle) / sin;
+			scaleB = (float) Math.sin(blend * angle) / sin;
+		}
+		float x = ax * scaleA + bx * scaleB;
+		float y = ay * scaleA + by * scaleB;
+		float z = az * scaleA + bz * scaleB;
+		float w = aw * scaleA + bw * scaleB;
+		float inverseLength = 1 / (float) Math.sqrt(x * x + y * y + z * z + w * w);
+		out[offset] = x * inverseLength;
+		out[offset + 1] = y * inverseLength;
+		out[offset + 2] = z * inverseLength;
+		out[offset + 3] = w * inverseLength;
+	}
+
+}
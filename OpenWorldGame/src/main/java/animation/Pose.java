@@ -0,0 +1,86 @@
+package animation;
+
+import org.joml.Matrix4f;
+
+/**
+ * Somewhere to sample an animation into and turn it into joint transforms, made
+ * once and then reused every frame so that animating doesn't allocate.
+ *
+ * The local transform of each node (relative to its parent) is stored as
+ * FLOATS_PER_NODE floats: translation, rotation quaternion then scale.
+ * @author Billy
+ *
+ */
+public class Pose {
+
+	public static final int TRANSLATION = 0;
+	public static final int ROTATION = 3;
+	public static final int SCALE = 7;
+	public static final int FLOATS_PER_NODE = 10;
+
+	private final float[] localTransforms;
+	// Model space transform of each node.
+	private final Matrix4f[] nodeTransforms;
+	// What the shader needs, from the bind pose to the animated pose in model space.
+	private final Matrix4f[] jointTransforms;
+
+	public Pose(Skeleton skeleton) {
+		localTransforms = new float[skeleton.getNodeCount() * FLOATS_PER_NODE];
+		nodeTransforms = new Matrix4f[skeleton.getNodeCount()];
+		for (int i=0; i<nodeTransforms.length; i++) {
+			nodeTransforms[i] = new Matrix4f();
+		}
+		jointTransforms = new Matrix4f[skeleton.getJointCount()];
+		for (int i=0; i<jointTransforms.length; i++) {
+			jointTransforms[i] = new Matrix4f();
+		}
+		setIdentity();
+	}
+
+	/**
+	 * Puts every node back to no translation or rotation and a scale of 1.
+	 */
+	public void setIdentity() {
+		for (int i=0; i<nodeTransforms.length; i++) {
+			setIdentity(i);
+		}
+	}
+
+	public void setIdentity(int node) {
+		setIdentity(localTransforms, node);
+	}
+
+	/**
+	 * Does the same for a node of any array of local transforms.
+	 */
+	public static void setIdentity(float[] local, int node) {
+		int pointer = node * FLOATS_PER_NODE;
+		for (int i=0; i<FLOATS_PER_NODE; i++) {
+			local[pointer + i] = 0;
+		}
+		local[pointer + ROTATION + 3] = 1;
+		local[pointer + SCALE] = 1;
+		local[pointer + SCALE + 1] = 1;
+		local[pointer + SCALE + 2] = 1;
+	}
+
+	public int getNodeCount() {
+		return nodeTransforms.length;
+	}
+
+	public float[] getLocalTransforms() {
+		return localTransforms;
+	}
+
+	public Matrix4f[] getNodeTransforms() {
+		return nodeTransforms;
+	}
+
+	/**
+	 * Only up to date after Skeleton.computeJointTransforms().
+	 */
+	public Matrix4f[] getJointTransforms() {
+		return jointTransforms;
+	}
+
+}
@@ -0,0 +1,122 @@
+package animation;
+
+/**
+ * Mixes poses together. Works straight on arrays of local transforms, laid out
+ * as in Pose, so blending a crowd doesn't create (or chase pointers to) any
+ * objects. Rotations are mixed with a normalised lerp, which is close enough to
+ * a slerp between poses of the same skeleton and much cheaper.
+ *
+ * The output may be the same array as either input.
+ * @author Billy
+ *
+ */
+public class PoseBlender {
+
+	/**
+	 * Mixes from one pose towards another, node by node.
+	 * @param weight
+	 * 	- 0 gives from, 1 gives to.
+	 * @param mask
+	 * 	- Weights for each node, multiplied with the weight. Null for all nodes.
+	 */
+	public static void blend(float[] from, float[] to, float weight, BoneMask mask, float[] out, int nodeCount) {
+		for (int i=0; i<nodeCount; i++) {
+			float w = mask == null ? weight : weight * mask.getWeight(i);
+			int p = i * Pose.FLOATS_PER_NODE;
+			if (w <= 0) {
+				copyNode(from, out, p);
+				continue;
+			} else if (w >= 1) {
+				copyNode(to, out, p);
+				continue;
+			}
+			for (int j=Pose.TRANSLATION; j<Pose.TRANSLATION + 3; j++) {
+				out[p + j] = from[p + j] + (to[p + j] - from[p + j]) * w;
+			}
+			for (int j=Pose.SCALE; j<Pose.SCALE + 3; j++) {
+				out[p + j] = from[p + j] + (to[p + j] - from[p + j]) * w;
+			}
+			int r = p + Pose.ROTATION;
+			float dot = from[r] * to[r] + from[r + 1] * to[r + 1] + from[r + 2] * to[r + 2] + from[r + 3] * to[r + 3];
+			// The shortest way round.
+			float toWeight = dot < 0 ? -w : w;
+			float fromWeight = 1 - w;
+			float x = from[r] * fromWeight + to[r] * toWeight;
+			float y = from[r + 1] * fromWeight + to[r + 1] * toWeight;
+			float z = from[r + 2] * fromWeight + to[r + 2] * toWeight;
+			float qw = from[r + 3] * fromWeight + to[r + 3] * toWeight;
+			setNormalised(out, r, x, y, z, qw);
+		}
+	}
+
+	/**
+	 * Adds the difference between an additive pose and its reference pose onto the
+	 * base pose. e.g. a breathing animation, relative to its first frame, could be
+	 * added to any other.
+	 * @param weight
+	 * 	- How much of the difference to add.
+	 * @param mask
+	 * 	- Weights for each node, multiplied with the weight. Null for all nodes.
+	 */
+	public static void add(float[] base, float[] additive, float[] reference, float weight, BoneMask mask,
+			float[] out, int nodeCount) {
+		for (int i=0; i<nodeCount; i++) {
+			float w = mask == null ? weight : weight * mask.getWeight(i);
+			int p = i * Pose.FLOATS_PER_NODE;
+			if (w <= 0) {
+				copyNode(base, out, p);
+				continue;
+			}
+			for (int j=Pose.TRANSLATION; j<Pose.TRANSLATION + 3; j++) {
+				out[p + j] = base[p + j] + (additive[p + j] - reference[p + j]) * w;
+			}
+			for (int j=Pose.SCALE; j<Pose.SCALE + 3; j++) {
+				float ratio = reference[p + j] != 0 ? additive[p + j] / reference[p + j] : 1;
+				out[p + j] = base[p + j] * (1 + (ratio - 1) * w);
+			}
+			int r = p + Pose.ROTATION;
+			// delta = inverse(reference) * additive, so that reference * delta = additive.
+			float rx = -reference[r], ry = -reference[r + 1], rz = -reference[r + 2], rw = reference[r + 3];
+			float ax = additive[r], ay = additive[r + 1], az = additive[r + 2], aw = additive[r + 3];
+			float dx = rw * ax + rx * aw + ry * az - rz * ay;
+			float dy = rw * ay - rx * az + ry * aw + rz * ax;
+			float dz = rw * az + rx * ay - ry * ax + rz * aw;
+			float dw = rw * aw - rx * ax - ry * ay - rz * az;
+			if (w < 1) {
+				// Towards the identity rotation by the weight.
+				if (dw < 0) {
+					dx = -dx;
+					dy = -dy;
+					dz = -dz;
+					dw = -dw;
+				}
+				dx *= w;
+				dy *= w;
+				dz *= w;
+				dw = 1 - w + dw * w;
+			}
+			// out = base * delta
+			float bx = base[r], by = base[r + 1], bz = base[r + 2], bw = base[r + 3];
+			setNormalised(out, r,
+					bw * dx + bx * dw + by * dz - bz * dy,
+					bw * dy - bx * dz + by * dw + bz * dx,
+					bw * dz + bx * dy - by * dx + bz * dw,
+					bw * dw - bx * dx - by * dy - bz * dz);
+		}
+	}
+
+	private static void copyNode(float[] source, float[] out, int pointer) {
+		if (source != out) {
+			System.arraycopy(source, pointer, out, pointer, Pose.FLOATS_PER_NODE);
+		}
+	}
+
+	private static void setNormalised(float[] out, int pointer, float x, float y, float z, float w) {
+		float inverseLength = 1 / (float) Math.sqrt(x * x + y * y + z * z + w * w);
+		out[pointer] = x * inverseLength;
+		out[pointer + 1] = y * inverseLength;
+		out[pointer + 2] = z * inverseLength;
+		out[pointer + 3] = w * inverseLength;
+	}
+
+}
@@ -0,0 +1,34 @@
+package animation;
+
+/**
+ * Scratch arrays for poses which are only needed part way through posing an
+ * entity (the animation being faded out, a layer, ...). Each thread has its own
+ * few, grown to fit the biggest skeleton they've been used for, so posing a
+ * crowd in parallel doesn't allocate.
+ * @author Billy
+ *
+ */
+public class PosePool {
+
+	public static final int FADE = 0;
+	public static final int LAYER = 1;
+	private static final int BUFFER_COUNT = 2;
+
+	private static final ThreadLocal<float[][]> buffers = ThreadLocal.withInitial(() -> new float[BUFFER_COUNT][0]);
+
+	/**
+	 * @param buffer
+	 * 	- Which of the thread's buffers, FADE or LAYER.
+	 * @return An array of local transforms with room for the nodes. Its contents
+	 * 	are left over from whatever last used it.
+	 */
+	public static float[] get(int buffer, int nodeCount) {
+		float[][] threadBuffers = buffers.get();
+		int length = nodeCount * Pose.FLOATS_PER_NODE;
+		if (threadBuffers[buffer].length < length) {
+			threadBuffers[buffer] = new float[length];
+		}
+		return threadBuffers[buffer];
+	}
+
+}
@@ -0,0 +1,181 @@
+package animation;
+
+import java.util.Arrays;
+
+import org.joml.Matrix4f;
+
+/**
+ * The node hierarchy of an animated model, flattened so that every node comes
+ * after its parent, and which of the nodes are the joints the meshes are
+ * skinned to.
+ *
+ * Not every node is a joint (some just group others), but they all have to be
+ * animated for the joints below them to end up in the right place.
+ *
+ * The nodes are in order of depth, so the first few make a smaller skeleton of
+ * their own. Far away entities are posed with just those, and the joints below
+ * them follow their nearest posed ancestor rigidly (fingers with the hand, say).
+ * @author Billy
+ *
+ */
+public class Skeleton {
+
+	// The fraction of the hierarchy's levels, from the top, in the reduced skeleton.
+	private static final float REDUCED_DEPTH = 0.6f;
+
+	private final String[] nodeNames;
+	// -1 for the root.
+	private final int[] parents;
+	// The node each joint is, or -1 if it isn't in the hierarchy.
+	private final int[] jointNodes;
+	// From model space to each joint's space in the bind pose.
+	private final Matrix4f[] offsetMatrices;
+	private final Matrix4f rootTransformation;
+	// The number of nodes in the reduced skeleton.
+	private final int reducedNodeCount;
+	// For joints outside the reduced skeleton, the joint they follow, or -1 for none.
+	private final int[] reducedJointSources;
+
+	public Skeleton(String[] nodeNames, int[] parents, int[] jointNodes,
+			Matrix4f[] offsetMatrices, Matrix4f rootTransformation) {
+		this.nodeNames = nodeNames;
+		this.parents = parents;
+		this.jointNodes = jointNodes;
+		this.offsetMatrices = offsetMatrices;
+		this.rootTransformation = rootTransformation;
+		this.reducedNodeCount = findReducedNodeCount();
+		this.reducedJointSources = findReducedJointSources();
+	}
+
+	/**
+	 * Composes the pose's local transforms down the hierarchy, then works out the
+	 * joint transforms from them. Allocates nothing.
+	 */
+	public void computeJointTransforms(Pose pose) {
+		computeJointTransforms(pose, false);
+	}
+
+	/**
+	 * @param reduced
+	 * 	- Whether to only use the first getReducedNodeCount() nodes of the pose.
+	 */
+	public void computeJointTransforms(Pose pose, boolean reduced) {
+		int nodeCount = reduced ? reducedNodeCount : parents.length;
+		float[] local = pose.getLocalTransforms();
+		Matrix4f[] nodeTransforms = pose.getNodeTransforms();
+		for (int i=0; i<nodeCount; i++) {
+			int p = i * Pose.FLOATS_PER_NODE;
+			nodeTransforms[i].translationRotateScale(
+					local[p], local[p + 1], local[p + 2],
+					local[p + 3], local[p + 4], local[p + 5], local[p + 6],
+					local[p + 7], local[p + 8], local[p + 9]);
+			if (parents[i] >= 0) {
+				// Parents come first, so are already in model space.
+				nodeTransforms[i].mulLocal(nodeTransforms[parents[i]]);
+			}
+		}
+		Matrix4f[] jointTransforms = pose.getJointTransforms();
+		for (int i=0; i<jointNodes.length; i++) {
+			if (jointNodes[i] >= nodeCount) {
+				continue;
+			} else if (jointNodes[i] >= 0) {
+				rootTransformation.mul(nodeTransforms[jointNodes[i]], jointTransforms[i]);
+			} else {
+				jointTransforms[i].set(rootTransformation);
+			}
+			jointTransforms[i].mul(offsetMatrices[i]);
+		}
+		if (reduced) {
+			for (int i=0; i<jointNodes.length; i++) {
+				if (jointNodes[i] < nodeCount) {
+					continue;
+				} else if (reducedJointSources[i] >= 0) {
+					jointTransforms[i].set(jointTransforms[reducedJointSources[i]]);
+				} else {
+					jointTransforms[i].identity();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Nodes are in order of depth, so this is where the first level past the
+	 * reduced depth starts.
+	 */
+	private int findReducedNodeCount() {
+		int[] depths = new int[parents.length];
+		int maxDepth = 0;
+		for (int i=0; i<parents.length; i++) {
+			depths[i] = parents[i] >= 0 ? depths[parents[i]] + 1 : 0;
+			maxDepth = Math.max(maxDepth, depths[i]);
+		}
+		int reducedDepth = (int) (maxDepth * REDUCED_DEPTH);
+		int count = 0;
+		while (count < parents.length && depths[count] <= reducedDepth) {
+			count++;
+		}
+		return count;
+	}
+
+	private int[] findReducedJointSources() {
+		int[] nodeJoints = new int[parents.length];
+		Arrays.fill(nodeJoints, -1);
+		for (int i=0; i<jointNodes.length; i++) {
+			if (jointNodes[i] >= 0) {
+				nodeJoints[jointNodes[i]] = i;
+			}
+		}
+		int[] sources = new int[jointNodes.length];
+		for (int i=0; i<jointNodes.length; i++) {
+			sources[i] = -1;
+			if (jointNodes[i] < reducedNodeCount) {
+				continue;
+			}
+			int ancestor = parents[jointNodes[i]];
+			while (ancestor >= 0) {
+				if (ancestor < reducedNodeCount && nodeJoints[ancestor] >= 0) {
+					sources[i] = nodeJoints[ancestor];
+					break;
+				}
+				ancestor = parents[ancestor];
+			}
+		}
+		return sources;
+	}
+
+	/**
+	 * @return The index of the named node, or -1 if there isn't one.
+	 */
+	public int getNodeIndex(String name) {
+		for (int i=0; i<nodeNames.length; i++) {
+			if (nodeNames[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public String getNodeName(int node) {
+		return nodeNames[node];
+	}
+
+	public int getParent(int node) {
+		return parents[node];
+	}
+
+	public int getNodeCount() {
+		return parents.length;
+	}
+
+	/**
+	 * @return The number of nodes posed for far away entities.
+	 */
+	public int getReducedNodeCount() {
+		return reducedNodeCount;
+	}
+
+	public int getJointCount() {
+		return jointNodes.length;
+	}
+
+}
@@ -2,7 +2,7 @@ package entities;
 
 import org.joml.Vector3f;
 
-import animation.Animation;
+import animation.Animator;
 import models.animatedModel.AnimatedModel;
 
 public class AnimatedEntity {
@@ -14,6 +14,12 @@ public class AnimatedEntity {
 	private float rotY;
 	private float rotZ;
 	private float scale;
+	// This entity's own playback of the model's animations.
+	private Animator animator;
+	// Where this entity's joints start in the AnimationSystem's palette this frame.
+	private int paletteOffset = -1;
+	// Whether it has been drawn since the AnimationSystem last checked.
+	private boolean visible = true;
 	
 	public AnimatedEntity(AnimatedModel model, Vector3f position, float rotX, float rotY, float rotZ, float scale) {
 		this.model = model;
@@ -22,16 +28,24 @@ public class AnimatedEntity {
 		this.rotY = rotY;
 		this.rotZ = rotZ;
 		this.scale = scale;
+		this.animator = new Animator(model.getSkeleton());
 	}
 	
-	public void updateAnimation() {
-		model.getCurrentAnimation().update();
+	/**
+	 * Plays one of the model's animations from the start. The entity is posed by the
+	 * AnimationSystem.
+	 */
+	public void setCurrentAnimation(String animationName) {
+		animator.play(model.getAnimation(animationName));
 	}
 	
-	public void setCurrentAnimation(String animationName) {
-		Animation animation = model.getAnimation(animationName);
-		model.setCurrentAnimation(animation);
-		model.getCurrentAnimation().reset();
+	/**
+	 * Fades from the current animation into one of the model's others.
+	 * @param duration
+	 * 	- In seconds.
+	 */
+	public void crossFadeTo(String animationName, float duration) {
+		animator.crossFade(model.getAnimation(animationName), duration);
 	}
 
 	public void increasePosition(float dx, float dy, float dz) {
@@ -51,6 +65,12 @@ public class AnimatedEntity {
 	}
 	public void setModel(AnimatedModel model) {
 		this.model = model;
+		this.animator = new Animator(model.getSkeleton());
+		// Has to be posed again before it's drawn.
+		this.paletteOffset = -1;
+	}
+	public Animator getAnimator() {
+		return animator;
 	}
 	public Vector3f getPosition() {
 		return position;
@@ -82,4 +102,23 @@ public class AnimatedEntity {
 	public void setScale(float scale) {
 		this.scale = scale;
 	}
+	public int getPaletteOffset() {
+		return paletteOffset;
+	}
+	/**
+	 * Set by the AnimationSystem when it makes room for the entity's joints.
+	 */
+	public void setPaletteOffset(int paletteOffset) {
+		this.paletteOffset = paletteOffset;
+	}
+	public boolean isVisible() {
+		return visible;
+	}
+	/**
+	 * Set by the AnimatedModelRenderer when it draws the entity, so that entities
+	 * which can't be seen aren't posed.
+	 */
+	public void setVisible(boolean visible) {
+		this.visible = visible;
+	}
 }
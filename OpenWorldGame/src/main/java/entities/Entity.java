@@ -3,6 +3,7 @@ package entities;
 import org.joml.Vector3f;
 
 import models.TexturedModel;
+import world.SpatialCell;
 
 public class Entity {
 
@@ -15,6 +16,10 @@ public class Entity {
 	
 	private int textureIndex = 0;
 	
+	// Set whilst the entity is in a SpatialIndex, which needs to know when it moves.
+	private SpatialCell spatialCell;
+	private int spatialSlot = -1;
+	
 	public Entity(TexturedModel model, Vector3f position, float rotX, float rotY, float rotZ, float scale) {
 		super();
 		this.model = model;
@@ -53,6 +58,10 @@ public class Entity {
 		this.scale = scale;
 	}
 	
+	public int getTextureIndex() {
+		return textureIndex;
+	}
+	
 	public float getTextureXOffset() {
 		int column = textureIndex % model.getTexture().getNumberOfRows();
 		return (float) column / (float) model.getTexture().getNumberOfRows();
@@ -67,6 +76,7 @@ public class Entity {
 		this.position.x+= dx;
 		this.position.y+= dy;
 		this.position.z+= dz;
+		updateSpatialIndex();
 	}
 	
 	public void increaseRotation(float dx, float dy, float dz) {
@@ -86,6 +96,7 @@ public class Entity {
 	}
 	public void setPosition(Vector3f position) {
 		this.position = position;
+		updateSpatialIndex();
 	}
 	public float getRotX() {
 		return rotX;
@@ -110,6 +121,29 @@ public class Entity {
 	}
 	public void setScale(float scale) {
 		this.scale = scale;
+		updateSpatialIndex();
+	}
+	
+	public SpatialCell getSpatialCell() {
+		return spatialCell;
+	}
+	
+	public int getSpatialSlot() {
+		return spatialSlot;
+	}
+	
+	/**
+	 * Only to be used by SpatialCell, to keep track of where the entity is stored.
+	 */
+	public void setSpatialCell(SpatialCell cell, int slot) {
+		this.spatialCell = cell;
+		this.spatialSlot = slot;
+	}
+	
+	private void updateSpatialIndex() {
+		if (spatialCell != null) {
+			spatialCell.getIndex().update(this);
+		}
 	}
 	
 }
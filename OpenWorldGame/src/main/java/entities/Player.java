@@ -5,8 +5,8 @@ import org.lwjgl.glfw.GLFW;
 
 import models.TexturedModel;
 import models.animatedModel.AnimatedModel;
-import terrain.Terrain;
 import window.Window;
+import world.World;
 
 public class Player extends AnimatedEntity {
 	
@@ -17,16 +17,29 @@ public class Player extends AnimatedEntity {
 	
 	public static float GRAVITY = -40;
 	
+	private static final String WALK_ANIMATION = "Armature|Walk 2";
+	private static final String JUMP_ANIMATION = "Armature|Star Jump";
+	// The speed the walk animation's steps match, so it can be sped up to keep the feet in place.
+	private static final float WALK_ANIMATION_SPEED = 40;
+	private static final float ANIMATION_FADE_TIME = 0.25f;
+	// Whilst not moving up, the player sticks to the ground when it is this close below.
+	private static final float GROUND_SNAP_DISTANCE = 0.5f;
+	// Steepest drop (height per distance walked) the player follows rather than leaving the ground.
+	private static final float GROUND_SNAP_SLOPE = 1.5f;
+	// Time off the ground before the jump animation starts, so bumps don't trigger it.
+	private static final float MIN_AIR_TIME = 0.2f;
+	
 	private float currentSpeed = 0;
 	private float currentTurnSpeed = 0;
 	private float currentVerticalSpeed = 0;
+	private float airTime = 0;
 	
 	public Player(AnimatedModel model, Vector3f position, float rotX, float rotY, float rotZ, float scale) {
 		super(model, position, rotX, rotY, rotZ, scale);
 		
 	}
 	
-	public void move(Terrain terrain) {
+	public void move(World world) {
 		checkInputs();
 		super.increaseRotation(0, currentTurnSpeed * Window.getLastFrameTime(), 0);
 		
@@ -39,12 +52,33 @@ public class Player extends AnimatedEntity {
 		
 		super.increasePosition(dx, dy, dz);
 		
-		float terrainHeight = terrain.getHeightOfTerrain(super.getPosition().x,
+		float terrainHeight = world.getHeightOfTerrain(super.getPosition().x,
 				super.getPosition().z);
-		if (super.getPosition().y < terrainHeight) {
+		float snapDistance = Math.max(GROUND_SNAP_DISTANCE, Math.abs(horizontalDistance) * GROUND_SNAP_SLOPE);
+		boolean grounded = super.getPosition().y < terrainHeight
+				|| (currentVerticalSpeed <= 0 && super.getPosition().y - terrainHeight < snapDistance);
+		if (grounded) {
 			currentVerticalSpeed = 0;
 			super.getPosition().y = terrainHeight;
-		}	
+			airTime = 0;
+		} else {
+			airTime += Window.getLastFrameTime();
+		}
+		updateAnimation(airTime > MIN_AIR_TIME);
+	}
+	
+	/**
+	 * Picks the animation to match what the player is doing.
+	 */
+	private void updateAnimation(boolean inAir) {
+		if (inAir) {
+			super.crossFadeTo(JUMP_ANIMATION, ANIMATION_FADE_TIME);
+			super.getAnimator().setSpeed(1);
+		} else {
+			super.crossFadeTo(WALK_ANIMATION, ANIMATION_FADE_TIME);
+			// Stands still on the spot, and walks backwards when moving backwards.
+			super.getAnimator().setSpeed(currentSpeed / WALK_ANIMATION_SPEED);
+		}
 	}
 	
 	public void checkInputs() {
@@ -0,0 +1,96 @@
+package foliage;
+
+import java.nio.ByteBuffer;
+
+import loader.Loader;
+import loader.NativeMemory;
+import textures.TextureData;
+
+/**
+ * A copy of a blend map kept in memory, so foliage can be scattered by how much of
+ * each ground texture there is. The channels mean the same as in the terrain
+ * shader: the background texture gets whatever r, g and b leave over.
+ *
+ * Never changes once loaded, so it can be read from any thread.
+ * @author Billy
+ *
+ */
+public class DensityMap {
+
+	public static final int BACKGROUND = 0;
+	public static final int RED = 1;
+	public static final int GREEN = 2;
+	public static final int BLUE = 3;
+
+	private final int width;
+	private final int height;
+	// Four bytes per pixel (r, g, b, a), row by row.
+	private final byte[] pixels;
+
+	/**
+	 * @param fileName
+	 * 	- Image in the resources folder, e.g. "blendMap.png".
+	 */
+	public DensityMap(String fileName) {
+		TextureData image = Loader.decodeTexture(fileName);
+		try {
+			width = image.getWidth();
+			height = image.getHeight();
+			pixels = new byte[width * height * 4];
+			// Read through a duplicate, as freeing the image needs its position left at 0.
+			ByteBuffer buffer = image.getBuffer().duplicate();
+			buffer.get(pixels, 0, pixels.length);
+		} finally {
+			NativeMemory.freeImage(image.getBuffer());
+		}
+	}
+
+	/**
+	 * Samples the map with bilinear filtering, the same way the terrain's texture is.
+	 * @param channel
+	 * 	- BACKGROUND, RED, GREEN or BLUE.
+	 * @param u
+	 * @param v
+	 * 	- Position on the map, from 0 to 1.
+	 * @return The channel's density here, from 0 to 1.
+	 */
+	public float getDensity(int channel, float u, float v) {
+		// Texel centres are half a texel in.
+		float x = u * width - 0.5f;
+		float z = v * height - 0.5f;
+		int x0 = (int) Math.floor(x);
+		int z0 = (int) Math.floor(z);
+		float fx = x - x0;
+		float fz = z - z0;
+		float top = lerp(getTexel(channel, x0, z0), getTexel(channel, x0 + 1, z0), fx);
+		float bottom = lerp(getTexel(channel, x0, z0 + 1), getTexel(channel, x0 + 1, z0 + 1), fx);
+		return lerp(top, bottom, fz);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return The channel's density at a texel, clamped to the edge of the map.
+	 */
+	private float getTexel(int channel, int x, int z) {
+		x = Math.max(0, Math.min(x, width - 1));
+		z = Math.max(0, Math.min(z, height - 1));
+		int pixel = (z * width + x) * 4;
+		if (channel == BACKGROUND) {
+			int total = (pixels[pixel] & 0xFF) + (pixels[pixel + 1] & 0xFF) + (pixels[pixel + 2] & 0xFF);
+			return Math.max(0, 1 - total / 255f);
+		}
+		return (pixels[pixel + channel - 1] & 0xFF) / 255f;
+	}
+
+	private static float lerp(float a, float b, float t) {
+		return a + (b - a) * t;
+	}
+
+}
@@ -0,0 +1,227 @@
+package foliage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.lwjgl.BufferUtils;
+
+import terrain.Heightfield;
+import terrain.Terrain;
+import toolbox.ParallelRows;
+
+/**
+ * The instances of one type of foliage within a chunk, packed ready to be uploaded
+ * as an instance VBO. Made on a worker thread by scatter(), and uploaded into a
+ * FoliagePatch on the GL thread.
+ *
+ * Each instance is INSTANCE_BYTES long:
+ * 	- x and z within the chunk, as unsigned shorts from 0 (one edge) to 65535 (the other).
+ * 	- The height of the ground, as a float.
+ * 	- Rotation, scale, rank and atlas index, as unsigned bytes.
+ * The chunk is split into TILES_PER_SIDE by TILES_PER_SIDE tiles, and instances are
+ * sorted by tile and then by rank. Each tile can be drawn on its own, and drawing
+ * fewer of a tile's instances thins them out evenly.
+ * @author Billy
+ *
+ */
+public class FoliageInstances {
+
+	public static final int INSTANCE_BYTES = 12;
+	public static final int RANK_COUNT = 256;
+	public static final int TILES_PER_SIDE = 8;
+	public static final int TILE_COUNT = TILES_PER_SIDE * TILES_PER_SIDE;
+
+	// Rows of the grid scattered by each fork/join task.
+	private static final int ROWS_PER_TASK = 32;
+
+	private final ByteBuffer data;
+	private final int instanceCount;
+	// offsets[tile * RANK_COUNT + r] is the number of instances before the first of
+	// that tile with a rank of r or above.
+	private final int[] offsets;
+	// Lowest and highest ground under each tile's instances.
+	private final float[] tileMinHeights;
+	private final float[] tileMaxHeights;
+
+	private FoliageInstances(ByteBuffer data, int instanceCount, int[] offsets,
+			float[] tileMinHeights, float[] tileMaxHeights) {
+		this.data = data;
+		this.instanceCount = instanceCount;
+		this.offsets = offsets;
+		this.tileMinHeights = tileMinHeights;
+		this.tileMaxHeights = tileMaxHeights;
+	}
+
+	/**
+	 * Scatters foliage over a chunk. The grid is laid over the whole world, and each
+	 * grid square's instance only depends on the seed and the square's position, so
+	 * the result is the same every time and there are no seams between chunks.
+	 * @param seed
+	 * 	- Should be different for each type of foliage.
+	 */
+	public static FoliageInstances scatter(FoliageType type, long seed, int gridX, int gridZ,
+			Heightfield heightfield, DensityMap densityMap) {
+		int cells = Math.max(1, Math.round(Terrain.SIZE / type.getSpacing()));
+		float cellSize = Terrain.SIZE / cells;
+		long firstCellX = (long) gridX * cells;
+		long firstCellZ = (long) gridZ * cells;
+		int channel = type.getDensityChannel();
+		int atlasSize = type.getAtlasSize();
+
+		// Rows are scattered in parallel, so each row is counted first to find where
+		// its instances go.
+		int[] rowStarts = new int[cells + 1];
+		ParallelRows.forEach(cells, ROWS_PER_TASK, (startRow, endRow) -> {
+			for (int row=startRow; row<endRow; row++) {
+				int count = 0;
+				for (int column=0; column<cells; column++) {
+					long hash = hash(seed, firstCellX + column, firstCellZ + row);
+					if (isKept(hash, column, row, cellSize, channel, densityMap)) {
+						count++;
+					}
+				}
+				rowStarts[row + 1] = count;
+			}
+		});
+		for (int row=0; row<cells; row++) {
+			rowStarts[row + 1] += rowStarts[row];
+		}
+		int instanceCount = rowStarts[cells];
+
+		ByteBuffer unsorted = ByteBuffer.allocate(instanceCount * INSTANCE_BYTES).order(ByteOrder.nativeOrder());
+		ParallelRows.forEach(cells, ROWS_PER_TASK, (startRow, endRow) -> {
+			for (int row=startRow; row<endRow; row++) {
+				int pointer = rowStarts[row] * INSTANCE_BYTES;
+				for (int column=0; column<cells; column++) {
+					long hash = hash(seed, firstCellX + column, firstCellZ + row);
+					if (!isKept(hash, column, row, cellSize, channel, densityMap)) {
+						continue;
+					}
+					int x = (int) (getLocalX(hash, column, cellSize) / Terrain.SIZE * 65535 + 0.5f);
+					int z = (int) (getLocalZ(hash, row, cellSize) / Terrain.SIZE * 65535 + 0.5f);
+					// Sampled where the instance will actually be drawn, after rounding.
+					float height = heightfield.getHeight(x / 65535f * Terrain.SIZE, z / 65535f * Terrain.SIZE);
+					unsorted.putShort(pointer, (short) x);
+					unsorted.putShort(pointer + 2, (short) z);
+					unsorted.putFloat(pointer + 4, height);
+					// The position has used up the first hash, so the rest come from a second.
+					long extra = mix(hash);
+					unsorted.put(pointer + 8, (byte) extra);
+					unsorted.put(pointer + 9, (byte) (extra >>> 8));
+					unsorted.put(pointer + 10, (byte) (extra >>> 16));
+					unsorted.put(pointer + 11, (byte) ((extra >>> 24 & 0xFFFF) % atlasSize));
+					pointer += INSTANCE_BYTES;
+				}
+			}
+		});
+
+		// A counting sort by tile, then rank.
+		int[] offsets = new int[TILE_COUNT * RANK_COUNT + 1];
+		float[] tileMinHeights = new float[TILE_COUNT];
+		float[] tileMaxHeights = new float[TILE_COUNT];
+		Arrays.fill(tileMinHeights, Float.POSITIVE_INFINITY);
+		Arrays.fill(tileMaxHeights, Float.NEGATIVE_INFINITY);
+		int[] keys = new int[instanceCount];
+		for (int i=0; i<instanceCount; i++) {
+			int pointer = i * INSTANCE_BYTES;
+			int tile = getTile(unsorted.getShort(pointer), unsorted.getShort(pointer + 2));
+			keys[i] = tile * RANK_COUNT + (unsorted.get(pointer + 10) & 0xFF);
+			offsets[keys[i] + 1]++;
+			float height = unsorted.getFloat(pointer + 4);
+			tileMinHeights[tile] = Math.min(tileMinHeights[tile], height);
+			tileMaxHeights[tile] = Math.max(tileMaxHeights[tile], height);
+		}
+		for (int key=0; key<TILE_COUNT * RANK_COUNT; key++) {
+			offsets[key + 1] += offsets[key];
+		}
+		int[] next = offsets.clone();
+		ByteBuffer data = BufferUtils.createByteBuffer(Math.max(1, instanceCount * INSTANCE_BYTES));
+		byte[] instance = new byte[INSTANCE_BYTES];
+		for (int i=0; i<instanceCount; i++) {
+			unsorted.position(i * INSTANCE_BYTES);
+			unsorted.get(instance);
+			data.position(next[keys[i]]++ * INSTANCE_BYTES);
+			data.put(instance);
+		}
+		data.position(0).limit(instanceCount * INSTANCE_BYTES);
+		return new FoliageInstances(data, instanceCount, offsets, tileMinHeights, tileMaxHeights);
+	}
+
+	/**
+	 * @return The packed instances, sorted by rank.
+	 */
+	public ByteBuffer getData() {
+		return data;
+	}
+
+	public int getInstanceCount() {
+		return instanceCount;
+	}
+
+	/**
+	 * @return For each tile and rank (tile * RANK_COUNT + rank), the index of the first
+	 * 	instance of that tile with that rank or above. Has one extra entry at the end
+	 * 	for the total.
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * @return The lowest ground under each tile's instances, or infinity for empty tiles.
+	 */
+	public float[] getTileMinHeights() {
+		return tileMinHeights;
+	}
+
+	public float[] getTileMaxHeights() {
+		return tileMaxHeights;
+	}
+
+	/**
+	 * @param x
+	 * @param z
+	 * 	- An instance's packed position.
+	 */
+	private static int getTile(short x, short z) {
+		int column = (x & 0xFFFF) * TILES_PER_SIDE >> 16;
+		int row = (z & 0xFFFF) * TILES_PER_SIDE >> 16;
+		return row * TILES_PER_SIDE + column;
+	}
+
+	/**
+	 * Whether a grid square has an instance. The lowest 16 bits of the hash are
+	 * compared with the density, and the next 32 jitter the position.
+	 */
+	private static boolean isKept(long hash, int column, int row, float cellSize, int channel,
+			DensityMap densityMap) {
+		float u = getLocalX(hash, column, cellSize) / Terrain.SIZE;
+		float v = getLocalZ(hash, row, cellSize) / Terrain.SIZE;
+		return (hash & 0xFFFF) < densityMap.getDensity(channel, u, v) * 65536;
+	}
+
+	private static float getLocalX(long hash, int column, float cellSize) {
+		return (column + (hash >>> 16 & 0xFFFF) / 65536f) * cellSize;
+	}
+
+	private static float getLocalZ(long hash, int row, float cellSize) {
+		return (row + (hash >>> 32 & 0xFFFF) / 65536f) * cellSize;
+	}
+
+	/**
+	 * Mixes the seed and a grid square's position into 64 random bits (the
+	 * SplitMix64 finaliser, applied once per input).
+	 */
+	private static long hash(long seed, long cellX, long cellZ) {
+		long hash = mix(seed + cellX * 0x9E3779B97F4A7C15L);
+		return mix(hash + cellZ * 0xC2B2AE3D27D4EB4FL);
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,135 @@
+package foliage;
+
+import loader.Loader;
+import terrain.Terrain;
+
+/**
+ * The instances of one type of foliage in one chunk, in a static VBO. Each tile of
+ * the chunk (see FoliageInstances) only draws as many of its instances as can be
+ * seen from the camera's distance, and tiles out of range or out of view aren't
+ * drawn at all. Where OpenGL 4.3 is available the tiles in view are all drawn with
+ * one glMultiDrawElementsIndirect for the whole patch, otherwise with an instanced
+ * draw call each (see FoliageRenderer).
+ * @author Billy
+ *
+ */
+public class FoliagePatch {
+
+	public static final float TILE_SIZE = Terrain.SIZE / FoliageInstances.TILES_PER_SIDE;
+
+	private final FoliageType type;
+	private final Terrain terrain;
+	private final int vbo;
+	private final int instanceCount;
+	private final int[] offsets;
+	private final float[] tileMinHeights;
+	private final float[] tileMaxHeights;
+
+	public FoliagePatch(Loader loader, FoliageType type, Terrain terrain, FoliageInstances instances) {
+		this.type = type;
+		this.terrain = terrain;
+		this.instanceCount = instances.getInstanceCount();
+		this.offsets = instances.getOffsets();
+		this.tileMinHeights = instances.getTileMinHeights();
+		this.tileMaxHeights = instances.getTileMaxHeights();
+		this.vbo = loader.createStaticVbo(Math.max(1, instanceCount) * (long) FoliageInstances.INSTANCE_BYTES);
+		if (instanceCount > 0) {
+			loader.storeInVbo(vbo, 0, instances.getData());
+		}
+	}
+
+	/**
+	 * @return The index of the tile's first instance in the VBO.
+	 */
+	public int getTileStart(int tile) {
+		return offsets[tile * FoliageInstances.RANK_COUNT];
+	}
+
+	/**
+	 * @param distance
+	 * 	- Distance from the camera to the nearest point of the tile, along the ground.
+	 * @return The number of the tile's instances which are (at least partly) faded in
+	 * 	at this distance. They are the first ones, so the rest can be left out of the
+	 * 	draw call.
+	 */
+	public int getVisibleCount(int tile, float distance) {
+		int start = getTileStart(tile);
+		float viewDistance = type.getViewDistance();
+		if (distance >= viewDistance) {
+			return 0;
+		}
+		float fadeRange = viewDistance - type.getLodDistance();
+		int rank = FoliageInstances.RANK_COUNT;
+		if (distance > type.getLodDistance() && fadeRange > 0) {
+			// An instance of rank r fades out at mix(viewDistance, lodDistance, r / 255),
+			// so only ranks below this are still visible.
+			float maxRank = (viewDistance - distance) / fadeRange * (FoliageInstances.RANK_COUNT - 1);
+			rank = Math.min((int) Math.ceil(maxRank), FoliageInstances.RANK_COUNT);
+		}
+		return offsets[tile * FoliageInstances.RANK_COUNT + rank] - start;
+	}
+
+	/**
+	 * @return Distance along the ground from a point to the nearest point of the tile.
+	 */
+	public float getTileDistance(int tile, float x, float z) {
+		return getDistance(getTileX(tile), getTileZ(tile), TILE_SIZE, x, z);
+	}
+
+	/**
+	 * @return Distance along the ground from a point to the nearest point of the chunk.
+	 */
+	public float getDistance(float x, float z) {
+		return getDistance(terrain, x, z);
+	}
+
+	static float getDistance(Terrain terrain, float x, float z) {
+		return getDistance(terrain.getX(), terrain.getZ(), Terrain.SIZE, x, z);
+	}
+
+	public void cleanUp(Loader loader) {
+		loader.deleteVbo(vbo);
+	}
+
+	public float getTileX(int tile) {
+		return terrain.getX() + tile % FoliageInstances.TILES_PER_SIDE * TILE_SIZE;
+	}
+
+	public float getTileZ(int tile) {
+		return terrain.getZ() + tile / FoliageInstances.TILES_PER_SIDE * TILE_SIZE;
+	}
+
+	public float getTileMinY(int tile) {
+		return tileMinHeights[tile];
+	}
+
+	/**
+	 * @return The highest any of the tile's instances can reach.
+	 */
+	public float getTileMaxY(int tile) {
+		return tileMaxHeights[tile] + type.getMaxReach();
+	}
+
+	public FoliageType getType() {
+		return type;
+	}
+
+	public Terrain getTerrain() {
+		return terrain;
+	}
+
+	public int getVbo() {
+		return vbo;
+	}
+
+	public int getInstanceCount() {
+		return instanceCount;
+	}
+
+	private static float getDistance(float squareX, float squareZ, float size, float x, float z) {
+		float dx = Math.max(0, Math.max(squareX - x, x - (squareX + size)));
+		float dz = Math.max(0, Math.max(squareZ - z, z - (squareZ + size)));
+		return (float) Math.sqrt(dx * dx + dz * dz);
+	}
+
+}
@@ -0,0 +1,233 @@
+package foliage;
+
+import java.nio.IntBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GL40;
+import org.lwjgl.opengl.GL42;
+import org.lwjgl.opengl.GL43;
+import org.lwjgl.opengl.GLCapabilities;
+
+import entities.Camera;
+import entities.Light;
+import models.RawModel;
+import renderer.FrustumCuller;
+import renderer.MasterRenderer;
+import terrain.Terrain;
+import textures.ModelTexture;
+
+/**
+ * Draws the foliage patches. The instance attributes of the model's VAO are pointed
+ * at each patch's VBO in turn, so the patches don't need VAOs of their own. How
+ * many draw calls a patch takes depends on what the driver supports:
+ * - With multi-draw indirect (OpenGL 4.3), the visible instances of every tile in
+ * view are drawn with one call for the whole patch.
+ * - With base instances (OpenGL 4.2), each tile in view is drawn with its own call,
+ * starting from its first instance.
+ * - Otherwise the attributes are pointed at each tile's part of the VBO before it
+ * is drawn.
+ *
+ * The instance attributes come after the ones the EntityRenderer uses (3 to 7),
+ * so a model can be drawn as both foliage and entities.
+ * @author Billy
+ *
+ */
+public class FoliageRenderer {
+
+	public static final int POSITION_ATTRIBUTE = 8;
+	public static final int HEIGHT_ATTRIBUTE = 9;
+	public static final int PARAMETERS_ATTRIBUTE = 10;
+
+	// Count, instance count, first index, base vertex and base instance.
+	private static final int COMMAND_INTS = 5;
+
+	private FoliageShader shader;
+	// Instancing needs glVertexAttribDivisor, which is core from OpenGL 3.3.
+	private boolean supported;
+	// Whether instanced draws can start part way through the instances.
+	private boolean baseInstance;
+	// Whether the tiles of a patch can be drawn with one glMultiDrawElementsIndirect.
+	private boolean multiDrawIndirect;
+	// VAOs which have had their instance attribute divisors set.
+	private Set<Integer> preparedVaos = new HashSet<Integer>();
+
+	// Draw commands for one patch's tiles, and the buffer they are drawn from.
+	private IntBuffer commands;
+	private int commandBuffer;
+
+	private int drawCalls = 0;
+	private int instancesDrawn = 0;
+
+	public FoliageRenderer(Matrix4f projectionMatrix) {
+		this.shader = new FoliageShader();
+		GLCapabilities capabilities = GL.getCapabilities();
+		this.supported = capabilities.OpenGL33;
+		this.baseInstance = capabilities.OpenGL42 || capabilities.GL_ARB_base_instance;
+		this.multiDrawIndirect = baseInstance
+				&& (capabilities.OpenGL43 || capabilities.GL_ARB_multi_draw_indirect);
+		if (supported && multiDrawIndirect) {
+			commands = BufferUtils.createIntBuffer(FoliageInstances.TILE_COUNT * COMMAND_INTS);
+			commandBuffer = GL15.glGenBuffers();
+		}
+		shader.start();
+		shader.loadProjectionMatrix(projectionMatrix);
+		shader.stop();
+	}
+
+	public void render(FoliageSystem foliage, FrustumCuller frustumCuller, Vector4f clipPlane,
+			List<Light> lights, Camera camera) {
+		if (!supported) {
+			return;
+		}
+		shader.start();
+		shader.loadSkyColour(MasterRenderer.FOG_R, MasterRenderer.FOG_G, MasterRenderer.FOG_B);
+		shader.loadClipPlane(clipPlane);
+		shader.loadLights(lights);
+		shader.loadViewMatrix(camera);
+		// Both sides of a leaf or blade of grass can be seen.
+		MasterRenderer.disableCulling();
+		float cameraX = camera.getPosition().x;
+		float cameraZ = camera.getPosition().z;
+		List<FoliageType> types = foliage.getTypes();
+		for (int i=0; i<types.size(); i++) {
+			List<FoliagePatch> patches = foliage.getPatches(i);
+			if (patches.isEmpty()) {
+				continue;
+			}
+			FoliageType type = types.get(i);
+			prepareType(type);
+			int indexCount = type.getModel().getRawModel().getVertexCount();
+			for (int j=0; j<patches.size(); j++) {
+				FoliagePatch patch = patches.get(j);
+				if (patch.getDistance(cameraX, cameraZ) >= type.getViewDistance()) {
+					continue;
+				}
+				shader.loadChunk(patch.getTerrain().getX(), patch.getTerrain().getZ(), Terrain.SIZE);
+				if (baseInstance) {
+					bindInstances(patch, 0);
+				}
+				int drawCount = 0;
+				for (int tile=0; tile<FoliageInstances.TILE_COUNT; tile++) {
+					int count = patch.getVisibleCount(tile, patch.getTileDistance(tile, cameraX, cameraZ));
+					if (count == 0 || !frustumCuller.isVisible(patch, tile)) {
+						continue;
+					}
+					instancesDrawn += count;
+					if (multiDrawIndirect) {
+						commands.put(indexCount).put(count).put(0).put(0).put(patch.getTileStart(tile));
+						drawCount++;
+					} else if (baseInstance) {
+						GL42.glDrawElementsInstancedBaseInstance(GL11.GL_TRIANGLES, indexCount, GL11.GL_UNSIGNED_INT,
+								0, count, patch.getTileStart(tile));
+						drawCalls++;
+					} else {
+						bindInstances(patch, patch.getTileStart(tile));
+						GL31.glDrawElementsInstanced(GL11.GL_TRIANGLES, indexCount, GL11.GL_UNSIGNED_INT, 0, count);
+						drawCalls++;
+					}
+				}
+				if (drawCount > 0) {
+					drawCommands(drawCount);
+				}
+			}
+			unbindType();
+		}
+		MasterRenderer.enableCulling();
+		shader.stop();
+	}
+
+	public void cleanUp() {
+		shader.cleanUp();
+		if (commandBuffer != 0) {
+			GL15.glDeleteBuffers(commandBuffer);
+		}
+	}
+
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+
+	/**
+	 * @return The number of instances drawn, across all of the passes since the last reset.
+	 */
+	public int getInstancesDrawn() {
+		return instancesDrawn;
+	}
+
+	public void resetCounters() {
+		drawCalls = 0;
+		instancesDrawn = 0;
+	}
+
+	private void prepareType(FoliageType type) {
+		RawModel rawModel = type.getModel().getRawModel();
+		GL30.glBindVertexArray(rawModel.getVaoID());
+		if (preparedVaos.add(rawModel.getVaoID())) {
+			GL33.glVertexAttribDivisor(POSITION_ATTRIBUTE, 1);
+			GL33.glVertexAttribDivisor(HEIGHT_ATTRIBUTE, 1);
+			GL33.glVertexAttribDivisor(PARAMETERS_ATTRIBUTE, 1);
+		}
+		GL20.glEnableVertexAttribArray(0);
+		GL20.glEnableVertexAttribArray(1);
+		GL20.glEnableVertexAttribArray(2);
+		GL20.glEnableVertexAttribArray(POSITION_ATTRIBUTE);
+		GL20.glEnableVertexAttribArray(HEIGHT_ATTRIBUTE);
+		GL20.glEnableVertexAttribArray(PARAMETERS_ATTRIBUTE);
+		shader.loadType(type);
+		ModelTexture texture = type.getModel().getTexture();
+		GL13.glActiveTexture(GL13.GL_TEXTURE0);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture.getTextureID());
+	}
+
+	/**
+	 * Points the instance attributes at the patch's instances, from the given one on
+	 * (see FoliageInstances for the layout).
+	 */
+	private void bindInstances(FoliagePatch patch, int firstInstance) {
+		int stride = FoliageInstances.INSTANCE_BYTES;
+		long start = (long) firstInstance * stride;
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, patch.getVbo());
+		GL20.glVertexAttribPointer(POSITION_ATTRIBUTE, 2, GL11.GL_UNSIGNED_SHORT, true, stride, start);
+		GL20.glVertexAttribPointer(HEIGHT_ATTRIBUTE, 1, GL11.GL_FLOAT, false, stride, start + 4);
+		GL20.glVertexAttribPointer(PARAMETERS_ATTRIBUTE, 4, GL11.GL_UNSIGNED_BYTE, true, stride, start + 8);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Draws the commands put in the buffer for a patch's tiles, in one call.
+	 */
+	private void drawCommands(int drawCount) {
+		commands.flip();
+		GL15.glBindBuffer(GL40.GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+		// Given new storage each time, so the driver doesn't wait for the last draw to finish with it.
+		GL15.glBufferData(GL40.GL_DRAW_INDIRECT_BUFFER, commands, GL15.GL_STREAM_DRAW);
+		GL43.glMultiDrawElementsIndirect(GL11.GL_TRIANGLES, GL11.GL_UNSIGNED_INT, 0, drawCount, 0);
+		GL15.glBindBuffer(GL40.GL_DRAW_INDIRECT_BUFFER, 0);
+		commands.clear();
+		drawCalls++;
+	}
+
+	private void unbindType() {
+		GL20.glDisableVertexAttribArray(0);
+		GL20.glDisableVertexAttribArray(1);
+		GL20.glDisableVertexAttribArray(2);
+		GL20.glDisableVertexAttribArray(POSITION_ATTRIBUTE);
+		GL20.glDisableVertexAttribArray(HEIGHT_ATTRIBUTE);
+		GL20.glDisableVertexAttribArray(PARAMETERS_ATTRIBUTE);
+		GL30.glBindVertexArray(0);
+	}
+
+}
@@ -0,0 +1,120 @@
+package foliage;
+
+import java.util.List;
+
+import org.joml.Matrix4f;
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import entities.Camera;
+import entities.Light;
+import shaders.ShaderProgram;
+import toolbox.Maths;
+
+public class FoliageShader extends ShaderProgram {
+
+	private static final int MAX_LIGHTS = 4;
+
+	private static final String VERTEX_FILE = "src/main/java/foliage/foliageVertexShader.txt";
+	private static final String FRAGMENT_FILE = "src/main/java/foliage/foliageFragmentShader.txt";
+
+	private int location_projectionMatrix;
+	private int location_viewMatrix;
+	private int location_lightPosition[];
+	private int location_lightColour[];
+	private int location_lightAttenuation[];
+	private int location_skyColour;
+	private int location_clipPlane;
+	private int location_cameraPosition;
+	private int location_chunkOrigin;
+	private int location_chunkSize;
+	private int location_scaleRange;
+	private int location_fadeDistances;
+	private int location_texAtlasNumberOfRows;
+	private int location_useFakeLighting;
+
+	private Vector2f vector = new Vector2f();
+
+	public FoliageShader() {
+		super(VERTEX_FILE, FRAGMENT_FILE);
+	}
+
+	@Override
+	protected void getAllUniformLocations() {
+		location_projectionMatrix = super.getUniformLocation("projectionMatrix");
+		location_viewMatrix = super.getUniformLocation("viewMatrix");
+		location_skyColour = super.getUniformLocation("skyColour");
+		location_clipPlane = super.getUniformLocation("clipPlane");
+		location_cameraPosition = super.getUniformLocation("cameraPosition");
+		location_chunkOrigin = super.getUniformLocation("chunkOrigin");
+		location_chunkSize = super.getUniformLocation("chunkSize");
+		location_scaleRange = super.getUniformLocation("scaleRange");
+		location_fadeDistances = super.getUniformLocation("fadeDistances");
+		location_texAtlasNumberOfRows = super.getUniformLocation("texAtlasNumberOfRows");
+		location_useFakeLighting = super.getUniformLocation("useFakeLighting");
+
+		location_lightPosition = new int[MAX_LIGHTS];
+		location_lightColour = new int[MAX_LIGHTS];
+		location_lightAttenuation = new int[MAX_LIGHTS];
+		for(int i=0; i<MAX_LIGHTS; i++) {
+			location_lightPosition[i] = super.getUniformLocation("lightPosition[" + i + "]");
+			location_lightColour[i] = super.getUniformLocation("lightColour[" + i + "]");
+			location_lightAttenuation[i] = super.getUniformLocation("lightAttenuation[" + i + "]");
+		}
+	}
+
+	@Override
+	protected void bindAttributes() {
+		super.bindAttribute(0, "position");
+		super.bindAttribute(1, "textureCoords");
+		super.bindAttribute(2, "normal");
+		super.bindAttribute(FoliageRenderer.POSITION_ATTRIBUTE, "instancePosition");
+		super.bindAttribute(FoliageRenderer.HEIGHT_ATTRIBUTE, "instanceHeight");
+		super.bindAttribute(FoliageRenderer.PARAMETERS_ATTRIBUTE, "instanceParameters");
+	}
+
+	public void loadProjectionMatrix(Matrix4f projection) {
+		super.loadMatrix(location_projectionMatrix, projection);
+	}
+
+	public void loadViewMatrix(Camera camera) {
+		super.loadMatrix(location_viewMatrix, Maths.createViewMatrix(camera));
+		super.load3DVector(location_cameraPosition, camera.getPosition());
+	}
+
+	public void loadClipPlane(Vector4f clipPlane) {
+		super.load4DVector(location_clipPlane, clipPlane);
+	}
+
+	public void loadSkyColour(float r, float g, float b) {
+		super.load3DVector(location_skyColour, new Vector3f(r, g, b));
+	}
+
+	public void loadLights(List<Light> lights) {
+		for (int i=0; i<MAX_LIGHTS; i++) {
+			if (i < lights.size()) {
+				super.load3DVector(location_lightPosition[i], lights.get(i).getPosition());
+				super.load3DVector(location_lightColour[i], lights.get(i).getColour());
+				super.load3DVector(location_lightAttenuation[i], lights.get(i).getAttenuation());
+			} else {
+				super.load3DVector(location_lightPosition[i], new Vector3f(0, 0, 0));
+				super.load3DVector(location_lightColour[i], new Vector3f(0, 0, 0));
+				super.load3DVector(location_lightAttenuation[i], new Vector3f(1, 0, 0));
+			}
+		}
+	}
+
+	public void loadType(FoliageType type) {
+		super.load2DVector(location_scaleRange, vector.set(type.getMinScale(), type.getMaxScale()));
+		super.load2DVector(location_fadeDistances, vector.set(type.getLodDistance(), type.getViewDistance()));
+		super.loadFloat(location_texAtlasNumberOfRows, type.getModel().getTexture().getNumberOfRows());
+		super.loadBoolean(location_useFakeLighting, type.getModel().getTexture().hasFakeLighting());
+	}
+
+	public void loadChunk(float x, float z, float size) {
+		super.load2DVector(location_chunkOrigin, vector.set(x, z));
+		super.loadFloat(location_chunkSize, size);
+	}
+
+}
@@ -0,0 +1,204 @@
+package foliage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import org.joml.Vector3f;
+
+import loader.Loader;
+import terrain.Terrain;
+
+/**
+ * Scatters foliage over the terrain around the camera. Each loaded chunk which comes
+ * within a foliage type's view distance is scattered in the background, and the
+ * result is uploaded as a FoliagePatch a few frames later. Patches are deleted again
+ * once their chunk is out of range or unloaded, so only the foliage near the camera
+ * takes up any memory.
+ *
+ * The scatter only depends on the seed, so foliage is always the same when coming
+ * back to an area.
+ * @author Billy
+ *
+ */
+public class FoliageSystem {
+
+	// Patches uploaded to video memory per frame.
+	private static final int UPLOADS_PER_FRAME = 1;
+	// Chunks are scattered a little before they come into view, and kept a little
+	// after they go out of it, so walking along a border doesn't keep remaking them.
+	private static final float LOAD_MARGIN = 50;
+	private static final float UNLOAD_MARGIN = 100;
+
+	private final Loader loader;
+	private final long seed;
+	private final DensityMap densityMap;
+
+	private List<FoliageType> types = new ArrayList<FoliageType>();
+	// The patches of each type, for the renderer.
+	private List<List<FoliagePatch>> patches = new ArrayList<List<FoliagePatch>>();
+	private Map<Terrain, ChunkFoliage> chunks = new HashMap<Terrain, ChunkFoliage>();
+	private long frame = 0;
+
+	/**
+	 * @param densityMap
+	 * 	- Used for every chunk, the same way the terrain uses its blend map.
+	 */
+	public FoliageSystem(Loader loader, long seed, DensityMap densityMap) {
+		this.loader = loader;
+		this.seed = seed;
+		this.densityMap = densityMap;
+	}
+
+	/**
+	 * Types have to be added before the first update.
+	 */
+	public void addType(FoliageType type) {
+		types.add(type);
+		patches.add(new ArrayList<FoliagePatch>());
+	}
+
+	/**
+	 * Starts scattering the chunks coming into range, uploads finished ones, and
+	 * deletes the patches of chunks which are out of range or no longer loaded.
+	 * Must be called on the GL thread, once per frame.
+	 * @param terrains
+	 * 	- Every loaded terrain.
+	 */
+	public void update(List<Terrain> terrains, Vector3f cameraPosition) {
+		frame++;
+		int uploads = 0;
+		for (int i=0; i<terrains.size(); i++) {
+			Terrain terrain = terrains.get(i);
+			ChunkFoliage chunk = chunks.get(terrain);
+			if (chunk == null) {
+				chunk = new ChunkFoliage(types.size());
+				chunks.put(terrain, chunk);
+			}
+			chunk.lastSeenFrame = frame;
+			float distance = FoliagePatch.getDistance(terrain, cameraPosition.x, cameraPosition.z);
+			for (int type=0; type<types.size(); type++) {
+				float viewDistance = types.get(type).getViewDistance();
+				if (distance < viewDistance + LOAD_MARGIN) {
+					if (chunk.patches[type] == null && chunk.pending.get(type) == null && !chunk.failed[type]) {
+						chunk.pending.set(type, scatterLater(type, terrain));
+					}
+				} else if (distance > viewDistance + UNLOAD_MARGIN) {
+					deletePatch(chunk, type);
+				}
+				if (uploads < UPLOADS_PER_FRAME && chunk.pending.get(type) != null && chunk.pending.get(type).isDone()) {
+					upload(chunk, type, terrain);
+					uploads++;
+				}
+			}
+		}
+		// Terrains which weren't in the list have been unloaded.
+		Iterator<ChunkFoliage> iterator = chunks.values().iterator();
+		while (iterator.hasNext()) {
+			ChunkFoliage chunk = iterator.next();
+			if (chunk.lastSeenFrame != frame) {
+				for (int type=0; type<types.size(); type++) {
+					deletePatch(chunk, type);
+				}
+				iterator.remove();
+			}
+		}
+	}
+
+	public List<FoliageType> getTypes() {
+		return types;
+	}
+
+	/**
+	 * @return The patches of the type at this index in getTypes().
+	 */
+	public List<FoliagePatch> getPatches(int type) {
+		return patches.get(type);
+	}
+
+	/**
+	 * @return The total number of instances in every patch.
+	 */
+	public int getInstanceCount() {
+		int count = 0;
+		for (List<FoliagePatch> typePatches : patches) {
+			for (FoliagePatch patch : typePatches) {
+				count += patch.getInstanceCount();
+			}
+		}
+		return count;
+	}
+
+	public void cleanUp() {
+		for (ChunkFoliage chunk : chunks.values()) {
+			for (int type=0; type<types.size(); type++) {
+				deletePatch(chunk, type);
+			}
+		}
+		chunks.clear();
+	}
+
+	private CompletableFuture<FoliageInstances> scatterLater(int type, Terrain terrain) {
+		FoliageType foliageType = types.get(type);
+		// Each type gets its own seed, so types don't all grow in the same places.
+		long typeSeed = seed * 31 + type;
+		return CompletableFuture.supplyAsync(() -> FoliageInstances.scatter(foliageType, typeSeed,
+				terrain.getGridX(), terrain.getGridZ(), terrain.getHeightfield(), densityMap),
+				ForkJoinPool.commonPool());
+	}
+
+	private void upload(ChunkFoliage chunk, int type, Terrain terrain) {
+		CompletableFuture<FoliageInstances> pending = chunk.pending.get(type);
+		chunk.pending.set(type, null);
+		try {
+			FoliagePatch patch = new FoliagePatch(loader, types.get(type), terrain, pending.join());
+			chunk.patches[type] = patch;
+			patches.get(type).add(patch);
+		} catch (RuntimeException e) {
+			// Not tried again, as it would only fail the same way.
+			System.err.println("Failed to scatter foliage on chunk " + terrain.getGridX() + ", " + terrain.getGridZ());
+			e.printStackTrace();
+			chunk.failed[type] = true;
+		}
+	}
+
+	private void deletePatch(ChunkFoliage chunk, int type) {
+		if (chunk.pending.get(type) != null) {
+			// Can't be stopped once started, but the result is thrown away.
+			chunk.pending.get(type).cancel(false);
+			chunk.pending.set(type, null);
+		}
+		FoliagePatch patch = chunk.patches[type];
+		if (patch != null) {
+			patches.get(type).remove(patch);
+			patch.cleanUp(loader);
+			chunk.patches[type] = null;
+		}
+	}
+
+	/**
+	 * The foliage of one loaded chunk, with a slot for each type.
+	 */
+	private static class ChunkFoliage {
+
+		private final FoliagePatch[] patches;
+		private final List<CompletableFuture<FoliageInstances>> pending;
+		private final boolean[] failed;
+		private long lastSeenFrame;
+
+		private ChunkFoliage(int typeCount) {
+			patches = new FoliagePatch[typeCount];
+			pending = new ArrayList<CompletableFuture<FoliageInstances>>();
+			for (int i=0; i<typeCount; i++) {
+				pending.add(null);
+			}
+			failed = new boolean[typeCount];
+		}
+
+	}
+
+}
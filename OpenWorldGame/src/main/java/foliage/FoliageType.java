@@ -0,0 +1,144 @@
+package foliage;
+
+import loader.Loader;
+import models.RawModel;
+import models.TexturedModel;
+
+/**
+ * A kind of foliage (grass, ferns, ...) and how it is scattered over the terrain.
+ * Foliage grows on a jittered grid, with one candidate per grid square, and each
+ * candidate is kept with a chance given by the density map.
+ *
+ * Instances closer than the LOD distance are all drawn. Past it they are thinned
+ * out, fading away one by one, until there are none left at the view distance.
+ * @author Billy
+ *
+ */
+public class FoliageType {
+
+	private final TexturedModel model;
+	private final int densityChannel;
+	private final float spacing;
+	private final float viewDistance;
+	private float lodDistance;
+	private float minScale = 1;
+	private float maxScale = 1;
+
+	/**
+	 * @param model
+	 * 	- Drawn for every instance. If the texture is an atlas, each instance picks
+	 * 	one of its images at random.
+	 * @param densityChannel
+	 * 	- Which channel of the density map it grows on (see DensityMap).
+	 * @param spacing
+	 * 	- Distance between instances where the density is 1.
+	 * @param viewDistance
+	 * 	- Distance from the camera at which the last instances have faded out.
+	 */
+	public FoliageType(TexturedModel model, int densityChannel, float spacing, float viewDistance) {
+		this.model = model;
+		this.densityChannel = densityChannel;
+		this.spacing = spacing;
+		this.viewDistance = viewDistance;
+		this.lodDistance = viewDistance / 2;
+	}
+
+	/**
+	 * Makes a tuft of quads crossed around the y axis, standing on the origin. Cheap
+	 * enough to be drawn hundreds of thousands of times, for grass.
+	 * @param quadCount
+	 * 	- Number of quads, spread evenly around half a turn.
+	 */
+	public static RawModel createTuftModel(Loader loader, float width, float height, int quadCount) {
+		float[] positions = new float[quadCount * 4 * 3];
+		float[] textureCoords = new float[quadCount * 4 * 2];
+		float[] normals = new float[quadCount * 4 * 3];
+		int[] indices = new int[quadCount * 6];
+		for (int i=0; i<quadCount; i++) {
+			double angle = Math.PI * i / quadCount;
+			float dx = (float) Math.cos(angle) * width / 2;
+			float dz = (float) Math.sin(angle) * width / 2;
+			int vertex = i * 4;
+			for (int corner=0; corner<4; corner++) {
+				float side = corner % 2 == 0 ? -1 : 1;
+				float top = corner < 2 ? 1 : 0;
+				positions[(vertex + corner) * 3] = side * dx;
+				positions[(vertex + corner) * 3 + 1] = top * height;
+				positions[(vertex + corner) * 3 + 2] = side * dz;
+				textureCoords[(vertex + corner) * 2] = side < 0 ? 0 : 1;
+				textureCoords[(vertex + corner) * 2 + 1] = 1 - top;
+				// Pointing up, so the tuft is lit like the ground it stands on.
+				normals[(vertex + corner) * 3 + 1] = 1;
+			}
+			indices[i * 6] = vertex;
+			indices[i * 6 + 1] = vertex + 2;
+			indices[i * 6 + 2] = vertex + 1;
+			indices[i * 6 + 3] = vertex + 1;
+			indices[i * 6 + 4] = vertex + 2;
+			indices[i * 6 + 5] = vertex + 3;
+		}
+		return loader.loadToVAO(positions, textureCoords, normals, indices);
+	}
+
+	/**
+	 * Each instance is given a random scale between these.
+	 */
+	public void setScaleRange(float minScale, float maxScale) {
+		this.minScale = minScale;
+		this.maxScale = maxScale;
+	}
+
+	/**
+	 * @param lodDistance
+	 * 	- Distance from the camera at which instances start being thinned out.
+	 * 	Half the view distance by default.
+	 */
+	public void setLodDistance(float lodDistance) {
+		this.lodDistance = Math.min(lodDistance, viewDistance);
+	}
+
+	public TexturedModel getModel() {
+		return model;
+	}
+
+	public int getDensityChannel() {
+		return densityChannel;
+	}
+
+	public float getSpacing() {
+		return spacing;
+	}
+
+	public float getViewDistance() {
+		return viewDistance;
+	}
+
+	public float getLodDistance() {
+		return lodDistance;
+	}
+
+	public float getMinScale() {
+		return minScale;
+	}
+
+	public float getMaxScale() {
+		return maxScale;
+	}
+
+	/**
+	 * @return The number of images in the texture atlas.
+	 */
+	public int getAtlasSize() {
+		int rows = model.getTexture().getNumberOfRows();
+		return rows * rows;
+	}
+
+	/**
+	 * @return How far above its origin an instance can reach.
+	 */
+	public float getMaxReach() {
+		RawModel rawModel = model.getRawModel();
+		return rawModel.hasBounds() ? rawModel.getRadiusFromOrigin() * maxScale : maxScale;
+	}
+
+}
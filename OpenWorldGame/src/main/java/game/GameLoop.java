@@ -3,10 +3,16 @@ package game;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 import org.lwjgl.glfw.GLFW;
+import org.lwjgl.opengl.GL;
 
 import entities.Camera;
 import fontRendering.TextMaster;
+import loader.AssetManager;
+import loader.AssetPipeline;
 import loader.Loader;
+import loader.NativeMemory;
+import loader.StaticMeshesLoader;
+import loader.TextureCache;
 import particles.ParticleMaster;
 import renderer.MasterRenderer;
 import window.Window;
@@ -18,11 +24,16 @@ public class GameLoop {
 	
 	public static void main(String[] args) {
 		Window.createDisplay();
+		// Textures are cached block compressed if the graphics card can use them.
+		TextureCache.setCompression(GL.getCapabilities().GL_EXT_texture_compression_s3tc);
 		
 		Loader loader = new Loader();
-		Scene scene = new Scene(loader);
+		StaticMeshesLoader.setLoader(loader);
+		AssetPipeline assets = new AssetPipeline(loader);
+		AssetManager assetManager = new AssetManager(loader, assets);
+		Scene scene = new Scene(loader, assetManager);
 		Camera camera = new Camera(scene.getPlayer());
-		MasterRenderer renderer = new MasterRenderer(loader);
+		MasterRenderer renderer = new MasterRenderer(loader, assets);
 		TextMaster.init(loader);
 		ParticleMaster.init(loader, renderer.getProjectionMatrix());
 		
@@ -30,12 +41,18 @@ public class GameLoop {
 		
 		while (!Window.windowShouldClose()) {
 			Window.updateMousePosition();
+			// Finishes off anything which was loaded in the background.
+			assets.processUploads();
+			// Deletes anything which has gone unused for long enough.
+			assetManager.update();
 			
 			ParticleMaster.update(camera);
 			camera.move();
 			scene.getWorld().update();
-			scene.getAnimatedEntities().get(0).getModel().getCurrentAnimation().update();
-			scene.getPlayer().move(scene.getWorld().getChunk(0, 0).getTerrain());
+			scene.getFoliage().update(scene.getTerrains(), camera.getPosition());
+			scene.getPlayer().move(scene.getWorld());
+			scene.getAnimationSystem().update(scene.getAnimatedEntities(), camera.getPosition(),
+					Window.getLastFrameTime());
 
 			// ******************** BENCHMARK ************************
 			if (Window.isKeyPressed(GLFW.GLFW_KEY_T)) {
@@ -52,6 +69,13 @@ public class GameLoop {
 			if (benchmarkActive) {
 				benchmarkFinished = Window.benchMark();
 				if (benchmarkFinished) {
+					System.out.println("Entity draw calls per frame: " + renderer.getEntityDrawCalls());
+					System.out.println("Foliage draw calls per frame: " + renderer.getFoliageDrawCalls()
+							+ ", instances drawn: " + renderer.getFoliageInstancesDrawn());
+					System.out.println("Animated entities posed: " + scene.getAnimationSystem().getPosedCount()
+							+ " of " + scene.getAnimatedEntities().size());
+					System.out.println("Objects submitted: " + renderer.getSubmittedCount()
+							+ ", culled: " + renderer.getCulledCount());
 					benchmarkActive = false;
 				}
 			}
@@ -69,6 +93,13 @@ public class GameLoop {
 			
 		}
 		
+		scene.getWorld().cleanUp();
+		scene.getFoliage().cleanUp();
+		assets.cleanUp();
+		assetManager.cleanUp();
+		NativeMemory.cleanUp();
+		// Lists anything which leaked, when run with -DnativeMemory.debug=true.
+		NativeMemory.report(System.out);
 		TextMaster.cleanUp();
 		ParticleMaster.cleanUp();
 		Window.destroyWindow();
@@ -0,0 +1,174 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import entities.Entity;
+import loader.Asset;
+import loader.AssetManager;
+import models.RawModel;
+import models.TexturedModel;
+import textures.ModelTexture;
+import world.Chunk;
+import world.ChunkData;
+import world.EntityPlacement;
+import world.EntitySpawner;
+
+/**
+ * Spawns the entities saved in chunks into the scene. Placements name their model
+ * by ID, and each ID is registered here with the files it is loaded from.
+ *
+ * Models are acquired from the asset manager for every entity spawned, and
+ * released when the chunk unloads, so a model is shared by all the chunks using
+ * it and deleted once none of them are loaded.
+ *
+ * Spawning never waits for a model to load, as it happens on the GL thread while
+ * chunks stream in. A chunk's entities are left pending until all of their models
+ * and textures have loaded, and are then added together.
+ * @author Billy
+ *
+ */
+public class ModelSpawner implements EntitySpawner {
+
+	private final Scene scene;
+	private final AssetManager assets;
+	private final Map<Integer, SpawnableModel> models = new HashMap<Integer, SpawnableModel>();
+	// What is spawned (or waiting to be) in each loaded chunk.
+	private final Map<Long, ChunkSpawn> spawns = new HashMap<Long, ChunkSpawn>();
+
+	public ModelSpawner(Scene scene, AssetManager assets) {
+		this.scene = scene;
+		this.assets = assets;
+	}
+
+	/**
+	 * Registers the model saved placements with this ID are spawned with.
+	 */
+	public void addModel(int modelID, String objFile, String textureFile) {
+		models.put(modelID, new SpawnableModel(objFile, textureFile));
+	}
+
+	@Override
+	public void spawnEntities(Chunk chunk, ChunkData data) {
+		ChunkSpawn spawn = new ChunkSpawn();
+		List<CompletableFuture<?>> loads = new ArrayList<CompletableFuture<?>>();
+		for (int i=0; i<data.getEntityCount(); i++) {
+			EntityPlacement placement = data.getPlacement(i);
+			SpawnableModel model = models.get(placement.getModelID());
+			if (model == null) {
+				System.err.println("No model with ID " + placement.getModelID() + " to spawn in chunk "
+						+ chunk.getGridX() + ", " + chunk.getGridZ());
+				continue;
+			}
+			// Only starts the loads. Nothing here waits for them.
+			Asset<RawModel> mesh = assets.acquireObjModel(model.objFile);
+			Asset<Integer> texture = assets.acquireTexture(model.textureFile);
+			spawn.handles.add(mesh);
+			spawn.handles.add(texture);
+			spawn.pending.add(new PendingEntity(model, mesh, texture, placement));
+			loads.add(mesh.getFuture());
+			loads.add(texture.getFuture());
+		}
+		spawns.put(chunk.getKey(), spawn);
+		// Runs on the GL thread, when the last load is uploaded (or now, if they all have been).
+		CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, error) -> {
+			if (error != null) {
+				System.err.println("Couldn't load the models to spawn in chunk "
+						+ chunk.getGridX() + ", " + chunk.getGridZ());
+			} else if (!spawn.despawned) {
+				spawn.addToScene();
+			}
+		});
+	}
+
+	@Override
+	public void despawnEntities(Chunk chunk) {
+		ChunkSpawn spawn = spawns.remove(chunk.getKey());
+		if (spawn == null) {
+			return;
+		}
+		// Stops pending entities being added once their models load.
+		spawn.despawned = true;
+		for (Entity entity : spawn.entities) {
+			scene.removeEntity(entity);
+		}
+		for (Asset<?> handle : spawn.handles) {
+			handle.release();
+		}
+	}
+
+	/**
+	 * The entities of one chunk, and the handles acquired for them.
+	 */
+	private class ChunkSpawn {
+
+		private final List<PendingEntity> pending = new ArrayList<PendingEntity>();
+		private final List<Entity> entities = new ArrayList<Entity>();
+		private final List<Asset<?>> handles = new ArrayList<Asset<?>>();
+		private boolean despawned = false;
+
+		private void addToScene() {
+			for (PendingEntity entity : pending) {
+				EntityPlacement placement = entity.placement;
+				Entity spawned = new Entity(entity.model.getTexturedModel(entity.mesh, entity.texture),
+						placement.getTextureIndex(), placement.getPosition(), placement.getRotX(),
+						placement.getRotY(), placement.getRotZ(), placement.getScale());
+				scene.addEntity(spawned);
+				entities.add(spawned);
+			}
+			pending.clear();
+		}
+
+	}
+
+	private static class PendingEntity {
+
+		private final SpawnableModel model;
+		private final Asset<RawModel> mesh;
+		private final Asset<Integer> texture;
+		private final EntityPlacement placement;
+
+		private PendingEntity(SpawnableModel model, Asset<RawModel> mesh, Asset<Integer> texture,
+				EntityPlacement placement) {
+			this.model = model;
+			this.mesh = mesh;
+			this.texture = texture;
+			this.placement = placement;
+		}
+
+	}
+
+	private static class SpawnableModel {
+
+		private final String objFile;
+		private final String textureFile;
+
+		// The model built from the handles last acquired. Rebuilt if the assets were
+		// deleted and loaded again, so entities from every chunk share one while they can.
+		private Asset<RawModel> mesh;
+		private Asset<Integer> texture;
+		private TexturedModel texturedModel;
+
+		private SpawnableModel(String objFile, String textureFile) {
+			this.objFile = objFile;
+			this.textureFile = textureFile;
+		}
+
+		/**
+		 * Only called once both assets have loaded, so get() doesn't wait.
+		 */
+		private TexturedModel getTexturedModel(Asset<RawModel> mesh, Asset<Integer> texture) {
+			if (mesh != this.mesh || texture != this.texture) {
+				this.mesh = mesh;
+				this.texture = texture;
+				texturedModel = new TexturedModel(mesh.get(), new ModelTexture(texture.get()));
+			}
+			return texturedModel;
+		}
+
+	}
+
+}
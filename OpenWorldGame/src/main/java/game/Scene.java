@@ -3,32 +3,52 @@ package game;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 
-import animation.Animation;
+import animation.AnimationSystem;
 import entities.AnimatedEntity;
 import entities.Entity;
 import entities.Light;
 import entities.Player;
+import foliage.DensityMap;
+import foliage.FoliageSystem;
+import foliage.FoliageType;
 import fontMeshCreator.FontType;
 import fontMeshCreator.GUIText;
 import guis.GuiTexture;
-import loader.AnimatedMeshesLoader;
+import loader.Asset;
+import loader.AssetManager;
 import loader.Loader;
-import loader.OBJLoader;
 import models.RawModel;
 import models.TexturedModel;
 import models.animatedModel.AnimatedModel;
-import normalMappingObjConverter.NormalMappedObjLoader;
+import terrain.HeightMapSource;
+import terrain.HeightSource;
+import terrain.NoiseHeightSource;
 import terrain.Terrain;
 import textures.ModelTexture;
 import water.WaterTile;
+import world.RegionStore;
+import world.SpatialIndex;
 import world.World;
 
 public class Scene {
 	
+	// Noise terrain and the foliage scattered over it are generated from this, so the
+	// same seed always gives the same world.
+	private static final long WORLD_SEED = 1337;
+	// The terrain's heights come from the heightmap, unless the game is run with
+	// -Dworld.noise=true to generate them from WORLD_SEED instead.
+	private static final String HEIGHT_MAP = "heightmap";
+	private static final boolean NOISE_TERRAIN = Boolean.getBoolean("world.noise");
+	// Chunks saved by world editing tools, which replace the generated ones.
+	private static final String WORLD_DIRECTORY = "saves/world";
+	// Foliage grows on the same blend map the terrain is textured with.
+	private static final String FOLIAGE_DENSITY_MAP = "blendMap.png";
+	
 	private List<Terrain> terrains;
 	private List<Entity> entites = new ArrayList<Entity>();
 	private List<Entity> normalMappedEntities = new ArrayList<Entity>();
@@ -37,37 +57,53 @@ public class Scene {
 	private List<Light> lights = new ArrayList<Light>();
 	private List<GuiTexture> guis = new ArrayList<GuiTexture>();
 	
+	// The same entities as above, for finding them by position.
+	private SpatialIndex entityIndex = new SpatialIndex();
+	private SpatialIndex normalMappedEntityIndex = new SpatialIndex();
+	
 	private World world;
+	private FoliageSystem foliage;
+	private AnimationSystem animationSystem = new AnimationSystem();
 	private Player player;
 	
 	private Loader loader;
+	private AssetManager assets;
 	
-	public Scene(Loader loader) {
+	public Scene(Loader loader, AssetManager assets) {
 		this.loader = loader;
+		this.assets = assets;
+		// The biggest load, so it is started first. It carries on whilst the entities load.
+		Asset<AnimatedModel> playerModel = assets.acquireAnimatedModel(
+				new File("src/main/resources/" + "cowboyNEW.fbx"), "src/main/resources");
 		initEntities();
-		initAnimatedEntities();
+		initAnimatedEntities(playerModel);
 		//initGUI();
 		initWaters();
-		this.world = new World(500, player);
+		HeightSource heightSource = NOISE_TERRAIN ? new NoiseHeightSource(WORLD_SEED) : new HeightMapSource(HEIGHT_MAP);
+		this.world = new World(500, player, assets, heightSource,
+				new RegionStore(new File(WORLD_DIRECTORY), true), initSpawner());
+		world.addEntityIndex(entityIndex);
+		world.addEntityIndex(normalMappedEntityIndex);
 		terrains = world.getTerrains();
+		initFoliage();
 	}
 	
 	public void initEntities() {
-		RawModel testModelRaw = OBJLoader.loadObjModel("dragon", loader);
-		ModelTexture texture = new ModelTexture(loader.loadTexture("dragonTexture.png"));
+		// Everything is requested before anything is waited on, so it all loads in parallel.
+		Asset<RawModel> dragonRequest = assets.acquireObjModel("dragon");
+		Asset<Integer> dragonTextureRequest = assets.acquireTexture("dragonTexture.png");
+		Asset<RawModel> bunnyRequest = assets.acquireObjModel("bunny");
+		Asset<RawModel> barrelRequest = assets.acquireNormalMappedObj("barrel");
+		Asset<Integer> barrelTextureRequest = assets.acquireTexture("barrel.png");
+		Asset<Integer> barrelNormalRequest = assets.acquireTexture("barrelNormal.png");
+		
+		RawModel testModelRaw = dragonRequest.get();
+		ModelTexture texture = new ModelTexture(dragonTextureRequest.get());
 		texture.setShineDamper(10);
 		texture.setReflectivity(1);
 		TexturedModel testModelTextured = new TexturedModel(testModelRaw, texture);
 		Entity testEntity = new Entity(testModelTextured, new Vector3f(0,-4,0),0,0,0,1);
 		
-		RawModel fernRaw = OBJLoader.loadObjModel("fern", loader);
-		ModelTexture fernTexture = new ModelTexture(loader.loadTexture("fern.png"));
-		fernTexture.setNumberOfRows(2);
-		fernTexture.setHasTransparency(true);
-		TexturedModel fernTexModel = new TexturedModel(fernRaw, fernTexture);
-		Entity fern1 = new Entity(fernTexModel, 1, new Vector3f(10, 0, 10),0,0,0,4);
-		Entity fern2 = new Entity(fernTexModel, 3, new Vector3f(45, 0, 10),0,0,0,4);
-		
 		Light light = new Light(new Vector3f(200,20,100), new Vector3f(4,0,0), new Vector3f(0.25f,0.01f,0.002f));
 		Light light2 = new Light(new Vector3f(0,20,40), new Vector3f(0,0,4), new Vector3f(0.25f,0.01f,0.002f));
 		Light sun = new Light(new Vector3f(200, 100, 200), new Vector3f(1,1,1));
@@ -75,41 +111,71 @@ public class Scene {
 		lights.add(light2);
 		lights.add(sun);
 		
-		RawModel bunnyRaw = OBJLoader.loadObjModel("bunny", loader);
+		RawModel bunnyRaw = bunnyRequest.get();
 		TexturedModel bunnyTextured = new TexturedModel(bunnyRaw, texture);
 		
-		TexturedModel barrelModel = new TexturedModel(NormalMappedObjLoader.loadOBJ("barrel", loader),
-				new ModelTexture(loader.loadTexture("barrel.png")));
+		TexturedModel barrelModel = new TexturedModel(barrelRequest.get(),
+				new ModelTexture(barrelTextureRequest.get()));
 		barrelModel.getTexture().setShineDamper(10);
 		barrelModel.getTexture().setReflectivity(0.5f);
-		barrelModel.getTexture().setNormalMapID(loader.loadTexture("barrelNormal.png"));
+		barrelModel.getTexture().setNormalMapID(barrelNormalRequest.get());
 		
 		
-		entites.add(fern1);
-		entites.add(fern2);
-		normalMappedEntities.add(new Entity(barrelModel, new Vector3f(160, 10, 160), 0, 0, 0, 1f));
+		addNormalMappedEntity(new Entity(barrelModel, new Vector3f(160, 10, 160), 0, 0, 0, 1f));
 		
 	}
 	
-	public void initAnimatedEntities() {
-		ClassLoader classloader = GameLoop.class.getClassLoader();
-		File file = new File("src/main/resources/" + "cowboyNEW.fbx");
+	/**
+	 * The models entities saved in chunks can be spawned with, by model ID.
+	 */
+	public ModelSpawner initSpawner() {
+		ModelSpawner spawner = new ModelSpawner(this, assets);
+		spawner.addModel(0, "dragon", "dragonTexture.png");
+		spawner.addModel(1, "bunny", "dragonTexture.png");
+		return spawner;
+	}
+	
+	/**
+	 * Grass and ferns are scattered over every chunk near the camera, rather than
+	 * being placed as entities.
+	 */
+	public void initFoliage() {
+		Asset<RawModel> fernRequest = assets.acquireObjModel("fern");
+		Asset<Integer> fernTextureRequest = assets.acquireTexture("fern.png");
+		Asset<Integer> grassTextureRequest = assets.acquireTexture("grassTexture.png");
 		
+		foliage = new FoliageSystem(loader, WORLD_SEED, new DensityMap(FOLIAGE_DENSITY_MAP));
+		
+		ModelTexture grassTexture = new ModelTexture(grassTextureRequest.get());
+		grassTexture.setHasTransparency(true);
+		grassTexture.setUseFakeLighting(true);
+		TexturedModel grassModel = new TexturedModel(FoliageType.createTuftModel(loader, 1.2f, 1.2f, 3), grassTexture);
+		FoliageType grass = new FoliageType(grassModel, DensityMap.BACKGROUND, 0.6f, 150);
+		grass.setScaleRange(0.6f, 1.4f);
+		grass.setLodDistance(40);
+		foliage.addType(grass);
+		
+		ModelTexture fernTexture = new ModelTexture(fernTextureRequest.get());
+		fernTexture.setNumberOfRows(2);
+		fernTexture.setHasTransparency(true);
+		TexturedModel fernModel = new TexturedModel(fernRequest.get(), fernTexture);
+		FoliageType ferns = new FoliageType(fernModel, DensityMap.GREEN, 8, 400);
+		ferns.setScaleRange(2.5f, 5);
+		foliage.addType(ferns);
+	}
+	
+	public void initAnimatedEntities(Asset<AnimatedModel> playerModel) {
 		AnimatedModel testAnimatedModel = null;
 		try {
-			testAnimatedModel = AnimatedMeshesLoader.loadAnimatedModel(
-					file.getAbsolutePath(),
-					"src/main/resources");
-		} catch (Exception e) {
-			System.out.println("Tried to load file: " + file.toString() + "," +
+			testAnimatedModel = playerModel.get();
+		} catch (CompletionException e) {
+			System.out.println("Tried to load file: cowboyNEW.fbx," +
 		" but failed.");
 			e.printStackTrace();
 		}
 		
-		Animation bakedAnimation = testAnimatedModel.getAnimation("Armature|Walk 2");
-		testAnimatedModel.setCurrentAnimation(bakedAnimation);
-		
 		player = new Player(testAnimatedModel, new Vector3f(0,0,0), 0, 0, 0, 0.04f);
+		player.setCurrentAnimation("Armature|Walk 2");
 		animatedEntities.add(player);
 
 	}
@@ -133,6 +199,26 @@ public class Scene {
 		waters.add(water);
 	}
 	
+	public void addEntity(Entity entity) {
+		entites.add(entity);
+		entityIndex.add(entity);
+	}
+	
+	public void removeEntity(Entity entity) {
+		entites.remove(entity);
+		entityIndex.remove(entity);
+	}
+	
+	public void addNormalMappedEntity(Entity entity) {
+		normalMappedEntities.add(entity);
+		normalMappedEntityIndex.add(entity);
+	}
+	
+	public void removeNormalMappedEntity(Entity entity) {
+		normalMappedEntities.remove(entity);
+		normalMappedEntityIndex.remove(entity);
+	}
+	
 	public List<Terrain> getTerrains() {
 		return terrains;
 	}
@@ -145,6 +231,14 @@ public class Scene {
 		return normalMappedEntities;
 	}
 
+	public SpatialIndex getEntityIndex() {
+		return entityIndex;
+	}
+	
+	public SpatialIndex getNormalMappedEntityIndex() {
+		return normalMappedEntityIndex;
+	}
+
 	public List<AnimatedEntity> getAnimatedEntities() {
 		return animatedEntities;
 	}
@@ -165,6 +259,14 @@ public class Scene {
 		return world;
 	}
 	
+	public FoliageSystem getFoliage() {
+		return foliage;
+	}
+	
+	public AnimationSystem getAnimationSystem() {
+		return animationSystem;
+	}
+	
 	public Player getPlayer() {
 		return player;
 	}
@@ -1,12 +1,13 @@
 package loader;
 
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.joml.Matrix4f;
-import org.joml.Quaternionf;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.assimp.AIAnimation;
 import org.lwjgl.assimp.AIBone;
@@ -24,31 +25,31 @@ import org.lwjgl.assimp.AIVertexWeight;
 import org.lwjgl.assimp.Assimp;
 
 import animation.Animation;
-import animation.KeyFrame;
+import animation.KeyTrack;
+import animation.Skeleton;
 import models.RawModel;
 import models.TexturedModel;
 import models.animatedModel.AnimatedModel;
 import textures.ModelTexture;
-import toolbox.Utils;
 
 public class AnimatedMeshesLoader extends StaticMeshesLoader {
 	
 	// Max weights which can affect a vertex.
 	private static final int MAX_WEIGHTS = 4;
 	
+	// Some commonly used flags.
+	public static final int DEFAULT_FLAGS = 
+			Assimp.aiProcess_FlipUVs |
+			Assimp.aiProcess_GenSmoothNormals |
+			Assimp.aiProcess_JoinIdenticalVertices |
+			Assimp.aiProcess_Triangulate |
+			Assimp.aiProcess_LimitBoneWeights;
+	
 	public static AnimatedModel loadAnimatedModel(
 			String resourcePath,
 			String texturesDir) throws Exception 
 	{
-		return loadAnimatedModel(
-				resourcePath,
-				texturesDir,
-				// Some commonly used flags.
-				Assimp.aiProcess_FlipUVs |
-				Assimp.aiProcess_GenSmoothNormals |
-				Assimp.aiProcess_JoinIdenticalVertices |
-				Assimp.aiProcess_Triangulate |
-				Assimp.aiProcess_LimitBoneWeights);
+		return loadAnimatedModel(resourcePath, texturesDir, DEFAULT_FLAGS);
 	}
 	
 	public static AnimatedModel loadAnimatedModel(
@@ -56,11 +57,44 @@ public class AnimatedMeshesLoader extends StaticMeshesLoader {
 			String texturesDir,
 			int flags) throws Exception
 	{
+		return loadAnimatedModel(importAnimatedScene(resourcePath, flags), texturesDir);
+	}
+	
+	/**
+	 * Reads and processes the model file with Assimp. This is most of the work of
+	 * loading a model, and doesn't use OpenGL, so can be done on any thread.
+	 */
+	public static AIScene importAnimatedScene(String resourcePath) throws Exception {
+		return importAnimatedScene(resourcePath, DEFAULT_FLAGS);
+	}
+	
+	public static AIScene importAnimatedScene(String resourcePath, int flags) throws Exception {
 		AIScene aiScene = Assimp.aiImportFile(resourcePath, flags);
 		if (aiScene == null) {
 			throw new Exception("Error loading model!");
 		}
-		
+		return aiScene;
+	}
+	
+	/**
+	 * Builds the model from a scene imported with importAnimatedScene, then releases
+	 * the scene. Has to be called on the GL thread.
+	 */
+	public static AnimatedModel loadAnimatedModel(
+			AIScene aiScene,
+			String texturesDir) throws Exception
+	{
+		try {
+			return processScene(aiScene, texturesDir);
+		} finally {
+			Assimp.aiReleaseImport(aiScene);
+		}
+	}
+	
+	private static AnimatedModel processScene(
+			AIScene aiScene,
+			String texturesDir) throws Exception
+	{
 		// Extracting texture information
 		int numMaterials = aiScene.mNumMaterials();
 		PointerBuffer aiMaterials = aiScene.mMaterials();
@@ -89,13 +123,10 @@ public class AnimatedMeshesLoader extends StaticMeshesLoader {
 	    AINode aiRootNode = aiScene.mRootNode();
 	    Matrix4f rootTransformation = toMatrix(aiRootNode.mTransformation());
 	    Node rootNode = processNodesHierarchy(aiRootNode, null);
-	    Map<String, Animation> animations = processAnimations(
-	    		aiScene,
-	    		boneList,
-	    		rootNode,
-	    		rootTransformation);
+	    Skeleton skeleton = buildSkeleton(rootNode, boneList, rootTransformation);
+	    Map<String, Animation> animations = processAnimations(aiScene, skeleton);
 	    
-	    return new AnimatedModel(texturedModels, animations);
+	    return new AnimatedModel(texturedModels, animations, skeleton);
 	}
 	
 
@@ -104,27 +135,28 @@ public class AnimatedMeshesLoader extends StaticMeshesLoader {
 			List<ModelTexture> textures,
 			List<Bone> boneList) throws Exception
 	{
-		List<Float> vertices = new ArrayList<>();
-		List<Float> textureCoords = new ArrayList<>();
-		List<Float> normals = new ArrayList<>();
-		List<Integer> indices = new ArrayList<>();
-		List<Integer> boneIDs = new ArrayList<>();
-		List<Float> boneWeights = new ArrayList<>();
+		int numVertices = aiMesh.mNumVertices();
+		// MAX_WEIGHTS per vertex, padded with zeros.
+		int[] boneIDs = new int[numVertices * MAX_WEIGHTS];
+		float[] boneWeights = new float[numVertices * MAX_WEIGHTS];
 		
 		// Similar to a static mesh but now we also load bone information.
-		StaticMeshesLoader.processVertices(aiMesh, vertices);
-		StaticMeshesLoader.processNormals(aiMesh, normals);
-		StaticMeshesLoader.processTextureCoords(aiMesh, textureCoords);
-		StaticMeshesLoader.processIndices(aiMesh, indices);
 		processBones(aiMesh, boneList, boneIDs, boneWeights);
-		
-		RawModel model = loader.loadToVAO(
-				Utils.floatListToArray(vertices),
-				Utils.floatListToArray(textureCoords),
-				Utils.floatListToArray(normals),
-				Utils.integerListToArray(indices),
-				Utils.integerListToArray(boneIDs),
-				Utils.floatListToArray(boneWeights));
+		FloatBuffer textureCoords = StaticMeshesLoader.processTextureCoords(aiMesh);
+		IntBuffer indices = StaticMeshesLoader.processIndices(aiMesh);
+		RawModel model;
+		try {
+			model = loader.loadToVAO(
+					StaticMeshesLoader.processVertices(aiMesh),
+					textureCoords,
+					StaticMeshesLoader.processNormals(aiMesh),
+					indices,
+					boneIDs,
+					boneWeights);
+		} finally {
+			NativeMemory.free(textureCoords);
+			NativeMemory.free(indices);
+		}
 		
 		ModelTexture texture;
 		int textureIndex = aiMesh.mMaterialIndex();
@@ -141,16 +173,18 @@ public class AnimatedMeshesLoader extends StaticMeshesLoader {
 	
 	/** 
 	 * Extracts and processes the bones from an ASSIMP aiMesh.
+	 * 
+	 * Each vertex has MAX_WEIGHTS slots in boneIDs and boneWeights, filled in the
+	 * order the bones are found. Any weights beyond that are dropped.
 	 */
 	private static void processBones(
 			AIMesh aiMesh, 
 			List<Bone> boneList, 
-			List<Integer> boneIDs, 
-			List<Float> boneWeights) 
+			int[] boneIDs, 
+			float[] boneWeights) 
 	{
-		// Vertex IDs along with the bones which affect the indexed vertices
-		// (and the weight with which they do so).
-		Map<Integer, List<VertexWeight>> weightSet = new HashMap<>();
+		// The number of slots used so far for each vertex.
+		int[] weightCounts = new int[aiMesh.mNumVertices()];
 		int numBones = aiMesh.mNumBones();
 		PointerBuffer aiBones = aiMesh.mBones();
 		
@@ -167,45 +201,19 @@ public class AnimatedMeshesLoader extends StaticMeshesLoader {
 			// Note an AIVertexWeight also contains the vertex ID it affects -
 			// it is not just the stand-alone weight information.
 			int numWeights = aiBone.mNumWeights();
-			AIVertexWeight.Buffer aiWeights = aiBone.mWeights();
+			long aiWeights = aiBone.mWeights().address();
 			
 			for (int j=0; j < numWeights; j++) {
-				AIVertexWeight aiWeight = aiWeights.get(j);
-				VertexWeight vw = new VertexWeight(
-						bone.getBoneID(),
-						aiWeight.mVertexId(),
-						aiWeight.mWeight());
-				
-				List<VertexWeight> vertexWeightList = weightSet.get(vw.getVertexID());
-				if (vertexWeightList == null) {
-					vertexWeightList = new ArrayList<>();
-					weightSet.put(vw.getVertexID(), vertexWeightList);
-				}
-				// Remember vertexWeightList is just a pointer to the list in
-				// the weight-set - this is not a local copy that we are adding to.
-				vertexWeightList.add(vw);
-			}
-		}
-		
-		int numVertices = aiMesh.mNumVertices();
-		for (int i=0; i < numVertices; i++) {
-			List<VertexWeight> vertexWeightList = weightSet.get(i);
-			int weightsForVertexI = 
-					(vertexWeightList != null ? vertexWeightList.size() : 0);
-			
-			for (int j=0; j < MAX_WEIGHTS; j++) {
-				if (j < weightsForVertexI) { 
-					VertexWeight vw = vertexWeightList.get(j);
-					boneWeights.add(vw.getWeight());
-					boneIDs.add(vw.getBoneID());
-				} else {
-					// The arrays must be padded so the stride is MAX_WEIGHTS.
-					boneWeights.add(0.0f);
-					boneIDs.add(0);
+				long aiWeight = aiWeights + j * AIVertexWeight.SIZEOF;
+				int vertexID = AIVertexWeight.nmVertexId(aiWeight);
+				int slot = weightCounts[vertexID];
+				if (slot < MAX_WEIGHTS) {
+					boneIDs[vertexID * MAX_WEIGHTS + slot] = boneID;
+					boneWeights[vertexID * MAX_WEIGHTS + slot] = AIVertexWeight.nmWeight(aiWeight);
+					weightCounts[vertexID]++;
 				}
 			}
 		}
-		
 	}
 	
 	private static Node processNodesHierarchy(AINode aiNode, Node parentNode) {
@@ -223,23 +231,65 @@ public class AnimatedMeshesLoader extends StaticMeshesLoader {
 		return node;
 	}
 	
+	/**
+	 * Flattens the node hierarchy, parents before children, and finds the node
+	 * for each bone. The nodes are taken a level at a time, so the first nodes are
+	 * always a smaller skeleton on their own, which distant entities can be posed
+	 * with (see Skeleton.getReducedNodeCount()).
+	 */
+	private static Skeleton buildSkeleton(
+			Node rootNode,
+			List<Bone> boneList,
+			Matrix4f rootTransformation)
+	{
+		List<Node> nodes = new ArrayList<>();
+		List<Integer> parents = new ArrayList<>();
+		nodes.add(rootNode);
+		parents.add(-1);
+		// The list is its own queue.
+		for (int i=0; i < nodes.size(); i++) {
+			for (Node child : nodes.get(i).getChildren()) {
+				nodes.add(child);
+				parents.add(i);
+			}
+		}
+		
+		Map<String, Integer> nodeIndices = new HashMap<>();
+		String[] nodeNames = new String[nodes.size()];
+		int[] parentIndices = new int[nodes.size()];
+		for (int i=0; i < nodes.size(); i++) {
+			nodeNames[i] = nodes.get(i).getName();
+			parentIndices[i] = parents.get(i);
+			nodeIndices.putIfAbsent(nodeNames[i], i);
+		}
+		
+		int numBones = boneList.size();
+		int[] jointNodes = new int[numBones];
+		Matrix4f[] offsetMatrices = new Matrix4f[numBones];
+		for (int i=0; i < numBones; i++) {
+			Bone bone = boneList.get(i);
+			jointNodes[i] = nodeIndices.getOrDefault(bone.getBoneName(), -1);
+			offsetMatrices[i] = bone.getOffsetMatrix();
+		}
+		
+		return new Skeleton(nodeNames, parentIndices, jointNodes, offsetMatrices, rootTransformation);
+	}
+	
 	/**
 	 * An AIScene can have more than one animation. This extracts them all.
 	 * 
-	 * Each 'channel' represents a bone in the animation with all of its
-	 * keyframes over time.
+	 * Each 'channel' represents a node in the animation with all of its
+	 * keyframes over time. They are kept as keyframes, rather than baked into
+	 * joint matrices for every frame, so they take little memory and can be
+	 * interpolated.
 	 * 
 	 * @param aiScene
-	 * @param boneList
-	 * @param rootNode
-	 * @param rootTransformation
+	 * @param skeleton
 	 * @return
 	 */
 	private static Map<String, Animation> processAnimations(
 			AIScene aiScene,
-			List<Bone> boneList,
-			Node rootNode,
-			Matrix4f rootTransformation)
+			Skeleton skeleton)
 	{
 		Map<String, Animation> animations = new HashMap<>();
 		
@@ -248,111 +298,80 @@ public class AnimatedMeshesLoader extends StaticMeshesLoader {
 		PointerBuffer aiAnimations = aiScene.mAnimations();
 		for (int i=0; i < numAnimations; i++) {
 			AIAnimation aiAnimation = AIAnimation.create(aiAnimations.get(i));
+			// Assimp leaves this as 0 when the file doesn't say.
+			double ticksPerSecond = aiAnimation.mTicksPerSecond() != 0 ? aiAnimation.mTicksPerSecond() : 25;
 			
-			// Calculate transformation matrices for each node.
+			// Counting the keys first so the tracks can be allocated in one go.
 			int numChannels = aiAnimation.mNumChannels();
 			PointerBuffer aiChannels = aiAnimation.mChannels();
+			int numNodes = skeleton.getNodeCount();
+			int[] channelNodes = new int[numChannels];
+			int[] positionCounts = new int[numNodes];
+			int[] rotationCounts = new int[numNodes];
+			int[] scalingCounts = new int[numNodes];
 			for (int j=0; j < numChannels; j++) {
 				AINodeAnim aiNodeAnim = AINodeAnim.create(aiChannels.get(j));
-				String nodeName = aiNodeAnim.mNodeName().dataString();
-				Node node = rootNode.findByName(nodeName);
-				buildTransformationMatrices(aiNodeAnim, node);
+				int node = skeleton.getNodeIndex(aiNodeAnim.mNodeName().dataString());
+				channelNodes[j] = node;
+				if (node >= 0) {
+					positionCounts[node] = aiNodeAnim.mNumPositionKeys();
+					rotationCounts[node] = aiNodeAnim.mNumRotationKeys();
+					scalingCounts[node] = aiNodeAnim.mNumScalingKeys();
+				}
+			}
+			
+			KeyTrack translations = new KeyTrack(3, positionCounts);
+			KeyTrack rotations = new KeyTrack(4, rotationCounts);
+			KeyTrack scales = new KeyTrack(3, scalingCounts);
+			for (int j=0; j < numChannels; j++) {
+				if (channelNodes[j] >= 0) {
+					AINodeAnim aiNodeAnim = AINodeAnim.create(aiChannels.get(j));
+					readKeys(aiNodeAnim, channelNodes[j], ticksPerSecond, translations, rotations, scales);
+				}
 			}
 			
-			List<KeyFrame> keyFrames = buildKeyFrames(
-					boneList,
-					rootNode,
-					rootTransformation);
 			Animation animation = new Animation(
 					aiAnimation.mName().dataString(),
-					keyFrames,
-					aiAnimation.mDuration(),
-					aiAnimation.mTicksPerSecond());
+					(float) (aiAnimation.mDuration() / ticksPerSecond),
+					translations,
+					rotations,
+					scales);
 			animations.put(animation.getName(), animation);
 		}
 		
 		return animations;
 	}
 	
-	private static void buildTransformationMatrices(
+	private static void readKeys(
 			AINodeAnim aiNodeAnim,
-			Node node)
+			int node,
+			double ticksPerSecond,
+			KeyTrack translations,
+			KeyTrack rotations,
+			KeyTrack scales)
 	{
-		// The node tree is reused and so it must be cleared.
-		// This method is called once per bone, per animation. Without clearing,
-		// animation 2 onwards would be tacked onto the end of the first 
-		// transformations, chaining all of the animations together.
-		node.resetTransformations();
-		
 		// All keyframes come in the correct chronological order.
-		int numFrames = aiNodeAnim.mNumPositionKeys();
 		// Time-Value pairs for keyframe components.
 		AIVectorKey.Buffer positionKeys = aiNodeAnim.mPositionKeys();
-		AIVectorKey.Buffer scalingKeys = aiNodeAnim.mScalingKeys();
-		AIQuatKey.Buffer rotationKeys = aiNodeAnim.mRotationKeys();
-		
-		for (int i=0; i < numFrames; i++) {
-			// Translation
-			AIVectorKey aiVecKey = positionKeys.get(i);
-			AIVector3D vec = aiVecKey.mValue();
-			
-			Matrix4f transformMatrix = new Matrix4f().translate(
-					vec.x(),
-					vec.y(),
-					vec.z());
-			
-			// Rotation
-			AIQuatKey quatKey = rotationKeys.get(i);
-			AIQuaternion aiQuat = quatKey.mValue();
-			org.joml.Quaternionf jomlQuat = new Quaternionf(
-					aiQuat.x(),
-					aiQuat.y(),
-					aiQuat.z(),
-					aiQuat.w());
-			transformMatrix.rotate(jomlQuat);
-			
-			// Scaling
-			if (i < aiNodeAnim.mNumScalingKeys()) {
-				aiVecKey = scalingKeys.get(i);
-				vec = aiVecKey.mValue();
-				transformMatrix.scale(
-						vec.x(),
-						vec.y(),
-						vec.z());
-			}
-			
-			node.addTransformation(transformMatrix);
+		for (int i=0; i < aiNodeAnim.mNumPositionKeys(); i++) {
+			AIVectorKey key = positionKeys.get(i);
+			AIVector3D vec = key.mValue();
+			translations.setKey(node, i, (float) (key.mTime() / ticksPerSecond), vec.x(), vec.y(), vec.z(), 0);
 		}
-	}
-	
-	private static List<KeyFrame> buildKeyFrames(
-			List<Bone> boneList,
-			Node rootNode,
-			Matrix4f rootTransformation) 
-	{
-		List<KeyFrame> frameList = new ArrayList<>();
 		
-		int numFrames = rootNode.getNumAnimationFrames();
-		for (int i=0; i < numFrames; i++) {
-			KeyFrame frame = new KeyFrame();
-			frameList.add(frame);
-			
-			int numBones = boneList.size();
-			for (int j=0; j < numBones; j++) {
-				Bone bone = boneList.get(j);
-				Node node = rootNode.findByName(bone.getBoneName());
-				
-				// Taking transformation from bone-space to model-space 
-				// (relative to model's origin).
-				Matrix4f boneMatrix = Node.getParentTransforms(node, i);
-				boneMatrix.mul(bone.getOffsetMatrix());
-				boneMatrix = new Matrix4f(rootTransformation).mul(boneMatrix);
-				
-				frame.setMatrix(j, boneMatrix);
-			}
+		AIQuatKey.Buffer rotationKeys = aiNodeAnim.mRotationKeys();
+		for (int i=0; i < aiNodeAnim.mNumRotationKeys(); i++) {
+			AIQuatKey key = rotationKeys.get(i);
+			AIQuaternion quat = key.mValue();
+			rotations.setKey(node, i, (float) (key.mTime() / ticksPerSecond), quat.x(), quat.y(), quat.z(), quat.w());
 		}
 		
-		return frameList;
+		AIVectorKey.Buffer scalingKeys = aiNodeAnim.mScalingKeys();
+		for (int i=0; i < aiNodeAnim.mNumScalingKeys(); i++) {
+			AIVectorKey key = scalingKeys.get(i);
+			AIVector3D vec = key.mValue();
+			scales.setKey(node, i, (float) (key.mTime() / ticksPerSecond), vec.x(), vec.y(), vec.z(), 0);
+		}
 	}
 	
 	/**
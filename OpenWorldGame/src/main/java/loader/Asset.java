@@ -0,0 +1,118 @@
+package loader;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * A shared, reference counted handle to something loaded by the AssetManager.
+ * Every acquire() of the same asset returns the same handle, and every acquire()
+ * must be matched by a release() once the asset is no longer used.
+ * @author Billy
+ *
+ */
+public class Asset<T> {
+
+	private final AssetManager manager;
+	private final String key;
+	private final CompletableFuture<T> future;
+	// Frees the GL objects behind the asset.
+	private final Consumer<T> deleter;
+	// Measures how much video memory the asset uses.
+	private final ToLongFunction<T> sizer;
+
+	private int referenceCount = 0;
+	// The frame the last reference was released on, or -1 whilst in use.
+	private long releasedFrame = -1;
+	// Whether the asset is in the manager's queue of assets waiting to be deleted.
+	private boolean queued = false;
+
+	Asset(AssetManager manager, String key, CompletableFuture<T> future,
+			Consumer<T> deleter, ToLongFunction<T> sizer) {
+		this.manager = manager;
+		this.key = key;
+		this.future = future;
+		this.deleter = deleter;
+		this.sizer = sizer;
+	}
+
+	/**
+	 * Waits for the asset to finish loading if it hasn't already. Must be called
+	 * on the GL thread.
+	 */
+	public T get() {
+		return manager.getPipeline().await(future);
+	}
+
+	public boolean isLoaded() {
+		return future.isDone() && !future.isCompletedExceptionally();
+	}
+
+	public void release() {
+		manager.release(this);
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public int getReferenceCount() {
+		return referenceCount;
+	}
+
+	/**
+	 * @return The size of the asset's VBOs and textures in bytes, or 0 if it
+	 * hasn't finished loading.
+	 */
+	public long getBytes() {
+		return isLoaded() ? sizer.applyAsLong(future.join()) : 0;
+	}
+
+	protected void acquire() {
+		referenceCount++;
+		releasedFrame = -1;
+	}
+
+	protected boolean decrement(long frame) {
+		if (referenceCount == 0) {
+			throw new IllegalStateException("Asset released more times than acquired: " + key);
+		}
+		referenceCount--;
+		if (referenceCount == 0) {
+			releasedFrame = frame;
+			return true;
+		}
+		return false;
+	}
+
+	protected long getReleasedFrame() {
+		return releasedFrame;
+	}
+
+	protected boolean isQueued() {
+		return queued;
+	}
+
+	protected void setQueued(boolean queued) {
+		this.queued = queued;
+	}
+
+	/**
+	 * @return Completes once the asset has loaded, on the GL thread (as its last stage
+	 * 	runs there), so anything chained on it can use the asset straight away. Never
+	 * 	wait on it from the GL thread, which has to finish the load - use get().
+	 */
+	public CompletableFuture<T> getFuture() {
+		return future;
+	}
+
+	protected void delete() {
+		if (isLoaded()) {
+			deleter.accept(future.join());
+		} else if (!future.isDone()) {
+			// Still loading, so it is deleted as soon as it finishes instead.
+			future.thenAccept(deleter);
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+package loader;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import models.RawModel;
+import models.TexturedModel;
+import models.animatedModel.AnimatedModel;
+
+/**
+ * Shares loaded assets between everything which uses them. Assets are keyed by
+ * their path (and import flags where there are any), so acquiring the same file
+ * twice returns the same handle and only loads it once - even if the first load
+ * is still in progress.
+ *
+ * Handles are reference counted. Once the last reference has been released the
+ * asset waits in a queue for DELETE_DELAY_FRAMES before its GL objects are deleted,
+ * and acquiring it again in that time brings it back without reloading. This stops
+ * assets being thrown away and reloaded when a chunk on the edge of the view
+ * distance unloads and then immediately loads again.
+ * @author Billy
+ *
+ */
+public class AssetManager {
+
+	private static final int DELETE_DELAY_FRAMES = 120;
+
+	private final Loader loader;
+	private final AssetPipeline pipeline;
+
+	private final Map<String, Asset<?>> assets = new HashMap<String, Asset<?>>();
+	// Assets with no references left, oldest first.
+	private final ArrayDeque<Asset<?>> pendingDeletes = new ArrayDeque<Asset<?>>();
+	private long frame = 0;
+
+	public AssetManager(Loader loader, AssetPipeline pipeline) {
+		this.loader = loader;
+		this.pipeline = pipeline;
+	}
+
+	public Asset<Integer> acquireTexture(String fileName) {
+		return acquire("texture:" + fileName, () -> pipeline.loadTexture(fileName),
+				loader::deleteTexture, loader::getTextureBytes);
+	}
+
+	public Asset<Integer> acquireCubeMap(String[] textureFiles) {
+		return acquire("cubeMap:" + String.join(",", textureFiles), () -> pipeline.loadCubeMap(textureFiles),
+				loader::deleteTexture, loader::getTextureBytes);
+	}
+
+	public Asset<RawModel> acquireObjModel(String fileName) {
+		return acquire("obj:" + fileName, () -> pipeline.loadObjModel(fileName),
+				loader::deleteModel, model -> loader.getModelBytes(model.getVaoID()));
+	}
+
+	public Asset<RawModel> acquireNormalMappedObj(String fileName) {
+		return acquire("normalMappedObj:" + fileName, () -> pipeline.loadNormalMappedObj(fileName),
+				loader::deleteModel, model -> loader.getModelBytes(model.getVaoID()));
+	}
+
+	public Asset<AnimatedModel> acquireAnimatedModel(File file, String texturesDir) {
+		return acquireAnimatedModel(file, texturesDir, AnimatedMeshesLoader.DEFAULT_FLAGS);
+	}
+
+	public Asset<AnimatedModel> acquireAnimatedModel(File file, String texturesDir, int flags) {
+		String key = "animated:" + file.getAbsolutePath() + "|" + flags + "|" + texturesDir;
+		return acquire(key, () -> pipeline.loadAnimatedModel(file, texturesDir, flags),
+				this::deleteAnimatedModel, this::getAnimatedModelBytes);
+	}
+
+	/**
+	 * Deletes the GL objects of assets which have gone unused for long enough.
+	 * Call once per frame on the GL thread.
+	 */
+	public void update() {
+		frame++;
+		while (!pendingDeletes.isEmpty()) {
+			Asset<?> asset = pendingDeletes.peekFirst();
+			if (asset.getReferenceCount() > 0) {
+				// Acquired again whilst waiting.
+				pendingDeletes.pollFirst();
+				asset.setQueued(false);
+				continue;
+			}
+			if (frame - asset.getReleasedFrame() < DELETE_DELAY_FRAMES) {
+				break;
+			}
+			pendingDeletes.pollFirst();
+			asset.setQueued(false);
+			assets.remove(asset.getKey());
+			asset.delete();
+		}
+	}
+
+	/**
+	 * @return The size of the VBOs of all models loaded through the manager, in bytes.
+	 */
+	public long getModelBytes() {
+		long bytes = 0;
+		for (Asset<?> asset : assets.values()) {
+			if (!asset.getKey().startsWith("texture:") && !asset.getKey().startsWith("cubeMap:")) {
+				bytes += asset.getBytes();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return The size of all textures loaded through the manager, in bytes.
+	 */
+	public long getTextureBytes() {
+		long bytes = 0;
+		for (Asset<?> asset : assets.values()) {
+			if (asset.getKey().startsWith("texture:") || asset.getKey().startsWith("cubeMap:")) {
+				bytes += asset.getBytes();
+			}
+		}
+		return bytes;
+	}
+
+	public Collection<Asset<?>> getAssets() {
+		return Collections.unmodifiableCollection(assets.values());
+	}
+
+	public Loader getLoader() {
+		return loader;
+	}
+	
+	public AssetPipeline getPipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * Deletes everything straight away, whether it is still referenced or not.
+	 */
+	public void cleanUp() {
+		for (Iterator<Asset<?>> iterator = assets.values().iterator(); iterator.hasNext();) {
+			iterator.next().delete();
+			iterator.remove();
+		}
+		pendingDeletes.clear();
+	}
+
+	protected void release(Asset<?> asset) {
+		// Released again whilst still queued from last time, it keeps its place and
+		// waits from the new release frame.
+		if (asset.decrement(frame) && !asset.isQueued()) {
+			asset.setQueued(true);
+			pendingDeletes.addLast(asset);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Asset<T> acquire(String key, Supplier<CompletableFuture<T>> load,
+			Consumer<T> deleter, ToLongFunction<T> sizer) {
+		Asset<T> asset = (Asset<T>) assets.get(key);
+		if (asset == null || asset.getFuture().isCompletedExceptionally()) {
+			// Failed loads aren't kept, so acquiring again retries them.
+			asset = new Asset<T>(this, key, load.get(), deleter, sizer);
+			assets.put(key, asset);
+		}
+		asset.acquire();
+		return asset;
+	}
+
+	private void deleteAnimatedModel(AnimatedModel model) {
+		for (TexturedModel mesh : model.getMeshes()) {
+			loader.deleteModel(mesh.getRawModel());
+			loader.deleteTexture(mesh.getTexture().getTextureID());
+		}
+	}
+
+	private long getAnimatedModelBytes(AnimatedModel model) {
+		long bytes = 0;
+		for (TexturedModel mesh : model.getMeshes()) {
+			bytes += loader.getModelBytes(mesh.getRawModel().getVaoID());
+			bytes += loader.getTextureBytes(mesh.getTexture().getTextureID());
+		}
+		return bytes;
+	}
+
+}
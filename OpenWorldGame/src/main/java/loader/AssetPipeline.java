@@ -0,0 +1,158 @@
+package loader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import models.RawModel;
+import models.animatedModel.AnimatedModel;
+import normalMappingObjConverter.NormalMappedObjLoader;
+import textures.MipChain;
+
+/**
+ * Loads assets on several threads at once. Each load has two stages:
+ * the CPU stage (reading files, decoding images, parsing models, generating
+ * tangents) runs on a pool of worker threads, and then only the OpenGL calls
+ * are queued up for the GL thread.
+ * 
+ * Loads return futures straight away. The GL stages only run when the GL thread
+ * calls processUploads() or await(), so a future should never be waited on with
+ * get() or join() from the GL thread - use await() instead.
+ * 
+ * Request everything that is needed before awaiting any of it, so that all of
+ * the CPU work can overlap.
+ * @author Billy
+ *
+ */
+public class AssetPipeline {
+	
+	private final Loader loader;
+	private final ExecutorService workers;
+	
+	// GL stages waiting for the GL thread.
+	private final BlockingQueue<Runnable> uploads = new LinkedBlockingQueue<Runnable>();
+	private final Executor glThread = uploads::add;
+	
+	public AssetPipeline(Loader loader) {
+		this.loader = loader;
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Asset loader " + count.getAndIncrement());
+				// Don't keep the game running after the window closes.
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * @return A future of the texture ID.
+	 */
+	public CompletableFuture<Integer> loadTexture(String fileName) {
+		return CompletableFuture.supplyAsync(() -> TextureCache.prepareTexture(fileName), workers)
+				.thenApplyAsync(loader::uploadTexture, glThread);
+	}
+	
+	/**
+	 * The faces are all decoded in parallel.
+	 * @return A future of the texture ID.
+	 */
+	public CompletableFuture<Integer> loadCubeMap(String[] textureFiles) {
+		List<CompletableFuture<MipChain>> faces = new ArrayList<CompletableFuture<MipChain>>();
+		for (int i=0; i<textureFiles.length; i++) {
+			String fileName = textureFiles[i];
+			faces.add(CompletableFuture.supplyAsync(() -> TextureCache.prepareTexture(fileName), workers));
+		}
+		return CompletableFuture.allOf(faces.toArray(new CompletableFuture<?>[0])).thenApplyAsync(ignored -> {
+			MipChain[] data = new MipChain[faces.size()];
+			for (int i=0; i<faces.size(); i++) {
+				data[i] = faces.get(i).join();
+			}
+			return loader.uploadCubeMap(data);
+		}, glThread);
+	}
+	
+	public CompletableFuture<RawModel> loadObjModel(String fileName) {
+		return CompletableFuture.supplyAsync(() -> OBJLoader.prepareObjModel(fileName), workers)
+				.thenApplyAsync(upload -> upload.upload(loader), glThread);
+	}
+	
+	public CompletableFuture<RawModel> loadNormalMappedObj(String fileName) {
+		return CompletableFuture.supplyAsync(() -> NormalMappedObjLoader.prepareOBJ(fileName), workers)
+				.thenApplyAsync(upload -> upload.upload(loader), glThread);
+	}
+	
+	/**
+	 * The Assimp import runs on a worker. Building the model (which also loads its
+	 * textures) happens on the GL thread.
+	 */
+	public CompletableFuture<AnimatedModel> loadAnimatedModel(File file, String texturesDir) {
+		return loadAnimatedModel(file, texturesDir, AnimatedMeshesLoader.DEFAULT_FLAGS);
+	}
+	
+	public CompletableFuture<AnimatedModel> loadAnimatedModel(File file, String texturesDir, int flags) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return AnimatedMeshesLoader.importAnimatedScene(file.getAbsolutePath(), flags);
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, workers).thenApplyAsync(aiScene -> {
+			try {
+				return AnimatedMeshesLoader.loadAnimatedModel(aiScene, texturesDir);
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, glThread);
+	}
+	
+	/**
+	 * Runs all GL stages which are ready. Must be called on the GL thread.
+	 */
+	public void processUploads() {
+		Runnable upload;
+		while ((upload = uploads.poll()) != null) {
+			upload.run();
+		}
+	}
+	
+	/**
+	 * Waits for a load to finish, running GL stages (of any load) in the meantime.
+	 * Must be called on the GL thread.
+	 * 
+	 * @throws CompletionException If the load failed.
+	 */
+	public <T> T await(CompletableFuture<T> future) {
+		while (!future.isDone()) {
+			try {
+				Runnable upload = uploads.poll(1, TimeUnit.MILLISECONDS);
+				if (upload != null) {
+					upload.run();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return future.join();
+	}
+	
+	public void cleanUp() {
+		workers.shutdownNow();
+	}
+
+}
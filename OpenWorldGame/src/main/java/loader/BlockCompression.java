@@ -0,0 +1,281 @@
+package loader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses RGBA8 images into the S3TC block formats (BC1 for opaque images,
+ * BC3 for images with alpha), which OpenGL can sample from directly. BC1 takes
+ * an eighth of the memory of RGBA8 and BC3 a quarter.
+ *
+ * Each 4x4 block of pixels is stored as two end point colours and an index per
+ * pixel into the four colours interpolated between them. The end points are the
+ * corners of the block's bounding box along the diagonal which best follows the
+ * colours. They are then refitted once by least squares, keeping the refit if it
+ * is closer.
+ * @author Billy
+ *
+ */
+public class BlockCompression {
+
+	// How much of colour0 is in the colour for each index.
+	private static final float[] INDEX_WEIGHTS = {1, 0, 2 / 3f, 1 / 3f};
+
+	/**
+	 * @return The size of the compressed image in bytes.
+	 */
+	public static int getCompressedSize(int width, int height, boolean alpha) {
+		return ((width + 3) / 4) * ((height + 3) / 4) * (alpha ? 16 : 8);
+	}
+
+	/**
+	 * @return True if every pixel of the image is fully opaque.
+	 */
+	public static boolean isOpaque(ByteBuffer rgba, int width, int height) {
+		int base = rgba.position();
+		for (int i=0; i<width*height; i++) {
+			if (rgba.get(base + i*4 + 3) != (byte) 255) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compresses an image, starting at the position of each buffer. The position
+	 * of out is moved past the compressed data.
+	 * @param alpha
+	 * 		- BC3 if true, otherwise BC1 (and the alpha channel is ignored).
+	 */
+	public static void compress(ByteBuffer rgba, int width, int height, boolean alpha, ByteBuffer out) {
+		int base = rgba.position();
+		int[] block = new int[16 * 4];
+		// Working space, reused for every block.
+		int[] palette = new int[4 * 3];
+		int[] fit = new int[3];
+		int[] refit = new int[3];
+		for (int blockY=0; blockY<height; blockY+=4) {
+			for (int blockX=0; blockX<width; blockX+=4) {
+				// Blocks hanging off the edge repeat the edge pixels.
+				for (int y=0; y<4; y++) {
+					int row = Math.min(blockY + y, height - 1);
+					for (int x=0; x<4; x++) {
+						int column = Math.min(blockX + x, width - 1);
+						int pixel = base + (row * width + column) * 4;
+						int i = (y * 4 + x) * 4;
+						block[i] = rgba.get(pixel) & 0xFF;
+						block[i+1] = rgba.get(pixel + 1) & 0xFF;
+						block[i+2] = rgba.get(pixel + 2) & 0xFF;
+						block[i+3] = rgba.get(pixel + 3) & 0xFF;
+					}
+				}
+				if (alpha) {
+					writeAlphaBlock(block, out);
+				}
+				writeColourBlock(block, out, palette, fit, refit);
+			}
+		}
+	}
+
+	private static void writeColourBlock(int[] block, ByteBuffer out, int[] palette, int[] fit, int[] refit) {
+		int[] min = {255, 255, 255};
+		int[] max = {0, 0, 0};
+		int[] mean = new int[3];
+		for (int i=0; i<16; i++) {
+			for (int c=0; c<3; c++) {
+				int value = block[i*4 + c];
+				min[c] = Math.min(min[c], value);
+				max[c] = Math.max(max[c], value);
+				mean[c] += value;
+			}
+		}
+		for (int c=0; c<3; c++) {
+			mean[c] = (mean[c] + 8) / 16;
+		}
+
+		// The bounding box diagonal going with the colours: a channel which falls
+		// as the widest channel rises has its end points swapped.
+		int widest = 0;
+		for (int c=1; c<3; c++) {
+			if (max[c] - min[c] > max[widest] - min[widest]) {
+				widest = c;
+			}
+		}
+		for (int c=0; c<3; c++) {
+			if (c == widest) {
+				continue;
+			}
+			int covariance = 0;
+			for (int i=0; i<16; i++) {
+				covariance += (block[i*4 + widest] - mean[widest]) * (block[i*4 + c] - mean[c]);
+			}
+			if (covariance < 0) {
+				int temp = min[c];
+				min[c] = max[c];
+				max[c] = temp;
+			}
+		}
+		// Pulled in slightly, as the ends of the box are rarely used colours.
+		for (int c=0; c<3; c++) {
+			int inset = (max[c] - min[c]) / 16;
+			max[c] -= inset;
+			min[c] += inset;
+		}
+
+		int error = fitColours(block, to565(max[0], max[1], max[2]), to565(min[0], min[1], min[2]), palette, fit);
+		if (error > 0 && refineColours(block, fit, palette, refit) < error) {
+			System.arraycopy(refit, 0, fit, 0, 3);
+		}
+
+		int colour0 = fit[0];
+		int colour1 = fit[1];
+		int indices = fit[2];
+		out.put((byte) colour0);
+		out.put((byte) (colour0 >> 8));
+		out.put((byte) colour1);
+		out.put((byte) (colour1 >> 8));
+		out.put((byte) indices);
+		out.put((byte) (indices >> 8));
+		out.put((byte) (indices >> 16));
+		out.put((byte) (indices >> 24));
+	}
+
+	/**
+	 * Picks the nearest of the four colours for each pixel.
+	 * @param result
+	 * 		- Filled with colour0, colour1 and the indices.
+	 * @return The squared error.
+	 */
+	private static int fitColours(int[] block, int colour0, int colour1, int[] palette, int[] result) {
+		if (colour0 < colour1) {
+			// The larger has to come first, otherwise the block is read in three colour mode.
+			int temp = colour0;
+			colour0 = colour1;
+			colour1 = temp;
+		}
+		from565(colour0, palette, 0);
+		from565(colour1, palette, 3);
+		for (int c=0; c<3; c++) {
+			palette[6 + c] = (2 * palette[c] + palette[3 + c]) / 3;
+			palette[9 + c] = (palette[c] + 2 * palette[3 + c]) / 3;
+		}
+		// With equal end points every index gives the same colour.
+		int choices = colour0 == colour1 ? 1 : 4;
+		int indices = 0;
+		int error = 0;
+		for (int i=0; i<16; i++) {
+			int best = 0;
+			int bestDistance = Integer.MAX_VALUE;
+			for (int p=0; p<choices; p++) {
+				int dr = block[i*4] - palette[p*3];
+				int dg = block[i*4 + 1] - palette[p*3 + 1];
+				int db = block[i*4 + 2] - palette[p*3 + 2];
+				int distance = dr * dr + dg * dg + db * db;
+				if (distance < bestDistance) {
+					bestDistance = distance;
+					best = p;
+				}
+			}
+			indices |= best << (i * 2);
+			error += bestDistance;
+		}
+		result[0] = colour0;
+		result[1] = colour1;
+		result[2] = indices;
+		return error;
+	}
+
+	/**
+	 * Keeps each pixel's index, and moves the end points to the least squares best
+	 * fit for those indices, then picks the indices again.
+	 * @return The squared error, or Integer.MAX_VALUE if the end points can't be solved for.
+	 */
+	private static int refineColours(int[] block, int[] fit, int[] palette, int[] result) {
+		float aa = 0, bb = 0, ab = 0;
+		float ar = 0, ag = 0, ablue = 0;
+		float br = 0, bg = 0, bblue = 0;
+		for (int i=0; i<16; i++) {
+			float a = INDEX_WEIGHTS[(fit[2] >> (i * 2)) & 3];
+			float b = 1 - a;
+			aa += a * a;
+			bb += b * b;
+			ab += a * b;
+			ar += a * block[i*4];
+			ag += a * block[i*4 + 1];
+			ablue += a * block[i*4 + 2];
+			br += b * block[i*4];
+			bg += b * block[i*4 + 1];
+			bblue += b * block[i*4 + 2];
+		}
+		float determinant = aa * bb - ab * ab;
+		if (Math.abs(determinant) < 1e-6f) {
+			// Every pixel uses the same index.
+			return Integer.MAX_VALUE;
+		}
+		int colour0 = to565(
+				clamp((ar * bb - br * ab) / determinant),
+				clamp((ag * bb - bg * ab) / determinant),
+				clamp((ablue * bb - bblue * ab) / determinant));
+		int colour1 = to565(
+				clamp((br * aa - ar * ab) / determinant),
+				clamp((bg * aa - ag * ab) / determinant),
+				clamp((bblue * aa - ablue * ab) / determinant));
+		return fitColours(block, colour0, colour1, palette, result);
+	}
+
+	private static void writeAlphaBlock(int[] block, ByteBuffer out) {
+		int min = 255;
+		int max = 0;
+		for (int i=0; i<16; i++) {
+			min = Math.min(min, block[i*4 + 3]);
+			max = Math.max(max, block[i*4 + 3]);
+		}
+
+		long indices = 0;
+		if (max != min) {
+			// Eight value mode: the two end points and six values evenly between them.
+			int[] palette = new int[8];
+			palette[0] = max;
+			palette[1] = min;
+			for (int p=2; p<8; p++) {
+				palette[p] = ((8 - p) * max + (p - 1) * min) / 7;
+			}
+			for (int i=0; i<16; i++) {
+				int value = block[i*4 + 3];
+				int best = 0;
+				int bestDistance = Integer.MAX_VALUE;
+				for (int p=0; p<8; p++) {
+					int distance = Math.abs(value - palette[p]);
+					if (distance < bestDistance) {
+						bestDistance = distance;
+						best = p;
+					}
+				}
+				indices |= (long) best << (i * 3);
+			}
+		}
+
+		out.put((byte) max);
+		out.put((byte) min);
+		for (int i=0; i<6; i++) {
+			out.put((byte) (indices >> (i * 8)));
+		}
+	}
+
+	private static int clamp(float value) {
+		return Math.max(0, Math.min(255, Math.round(value)));
+	}
+
+	private static int to565(int r, int g, int b) {
+		return ((r * 31 + 127) / 255) << 11 | ((g * 63 + 127) / 255) << 5 | ((b * 31 + 127) / 255);
+	}
+
+	private static void from565(int colour, int[] rgb, int offset) {
+		int r = (colour >> 11) & 31;
+		int g = (colour >> 5) & 63;
+		int b = colour & 31;
+		rgb[offset] = (r << 3) | (r >> 2);
+		rgb[offset + 1] = (g << 2) | (g >> 4);
+		rgb[offset + 2] = (b << 3) | (b >> 2);
+	}
+
+}
@@ -1,16 +1,22 @@
 package loader;
 
-import java.io.FileNotFoundException;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import org.lwjgl.BufferUtils;
+import org.joml.Vector3f;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL12;
 import org.lwjgl.opengl.GL13;
@@ -18,10 +24,13 @@ import org.lwjgl.opengl.GL14;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
 import org.lwjgl.stb.STBImage;
-import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.MemoryStack;
 
 import models.RawModel;
+import textures.MipChain;
 import textures.TextureData;
 
 /**
@@ -31,9 +40,20 @@ import textures.TextureData;
  */
 public class Loader {
 	
-	private List<Integer> vaos = new ArrayList<Integer>();
-	private List<Integer> vbos = new ArrayList<Integer>();
-	private List<Integer> textures = new ArrayList<Integer>();
+	private Set<Integer> vaos = new HashSet<Integer>();
+	private Set<Integer> vbos = new HashSet<Integer>();
+	private Set<Integer> textures = new HashSet<Integer>();
+	
+	// The VBOs made for each VAO, so they can be deleted along with it.
+	private Map<Integer, List<Integer>> vaoBuffers = new HashMap<Integer, List<Integer>>();
+	// The VAO currently being made. New VBOs belong to it.
+	private int currentVao = 0;
+	
+	// Sizes in bytes, for keeping track of video memory use.
+	private Map<Integer, Long> bufferSizes = new HashMap<Integer, Long>();
+	private Map<Integer, Long> textureSizes = new HashMap<Integer, Long>();
+	private long totalBufferBytes = 0;
+	private long totalTextureBytes = 0;
 	
 	/**
 	 * For loading 2D vertex information. Barebones with no lighting normals etc.
@@ -68,7 +88,7 @@ public class Loader {
 		storeDatainAttributeList(1, 2, textureCoords);
 		storeDatainAttributeList(2, 3, normals);
 		unbindVAO();
-		return new RawModel(vaoID, indices.length);
+		return createRawModel(vaoID, indices.length, positions);
 	}
 	
 	/**
@@ -85,7 +105,43 @@ public class Loader {
 		storeDataINTinAttributeList(3, 4, boneIDs);
 		storeDatainAttributeList(4, 4, boneWeights);
 		unbindVAO();
-		return new RawModel(vaoID, indices.length);
+		return createRawModel(vaoID, indices.length, positions);
+	}
+	
+	/**
+	 * Loads vertex data straight from buffers, e.g. views of memory owned by Assimp,
+	 * without copying them into arrays first.
+	 */
+	public RawModel loadToVAO(FloatBuffer positions, FloatBuffer textureCoords, FloatBuffer normals,
+			IntBuffer indices) {
+		int vaoID = createVAO();
+		bindIndicesBuffer(indices);
+		storeDatainAttributeList(0, 3, positions);
+		storeDatainAttributeList(1, 2, textureCoords);
+		storeDatainAttributeList(2, 3, normals);
+		unbindVAO();
+		return createRawModel(vaoID, indices.remaining(), positions);
+	}
+	
+	/**
+	 * Also loads bone information. Used for animated models.
+	 * 
+	 * @param boneIDs
+	 * 		- Four bone IDs per vertex.
+	 * @param boneWeights
+	 * 		- Four weights per vertex, matching the bone IDs.
+	 */
+	public RawModel loadToVAO(FloatBuffer positions, FloatBuffer textureCoords, FloatBuffer normals,
+			IntBuffer indices, int[] boneIDs, float[] boneWeights) {
+		int vaoID = createVAO();
+		bindIndicesBuffer(indices);
+		storeDatainAttributeList(0, 3, positions);
+		storeDatainAttributeList(1, 2, textureCoords);
+		storeDatainAttributeList(2, 3, normals);
+		storeDataINTinAttributeList(3, 4, boneIDs);
+		storeDatainAttributeList(4, 4, boneWeights);
+		unbindVAO();
+		return createRawModel(vaoID, indices.remaining(), positions);
 	}
 	
 	/**
@@ -100,30 +156,279 @@ public class Loader {
 		storeDatainAttributeList(2, 3, normals);
 		storeDatainAttributeList(3, 3, tangents);
 		unbindVAO();
-		return new RawModel(vaoID, indices.length);
+		return createRawModel(vaoID, indices.length, positions);
+	}
+	
+	/**
+	 * @return A VAO with no attributes, for the caller to set up.
+	 */
+	public int createEmptyVao() {
+		int vaoID = createVAO();
+		unbindVAO();
+		return vaoID;
+	}
+	
+	/**
+	 * Creates a VBO which isn't attached to any VAO, to be filled in piece by piece
+	 * with storeInVbo. Can hold vertices or indices.
+	 * @param bytes
+	 * 	- The size of the VBO.
+	 */
+	public int createStaticVbo(long bytes) {
+		int vboID = createVbo();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, bytes, GL15.GL_STATIC_DRAW);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		recordBufferSize(vboID, bytes);
+		return vboID;
+	}
+	
+	/**
+	 * Overwrites part of a VBO.
+	 * @param offset
+	 * 	- Where to start writing, in bytes.
+	 */
+	public void storeInVbo(int vboID, long offset, float[] data) {
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, offset, data);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+	
+	public void storeInVbo(int vboID, long offset, int[] data) {
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, offset, data);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+	
+	/**
+	 * For packed data with more than one type in it, e.g. foliage instances.
+	 */
+	public void storeInVbo(int vboID, long offset, ByteBuffer data) {
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, offset, data);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+	
+	/**
+	 * Moves a VBO made by createStaticVbo into a bigger (or smaller) one. The copy
+	 * happens in video memory, and the old VBO is deleted.
+	 * @param keepBytes
+	 * 	- How much of the start of the old VBO to copy across.
+	 * @return The ID of the new VBO.
+	 */
+	public int resizeVbo(int vboID, long keepBytes, long newBytes) {
+		int newVboID = createStaticVbo(newBytes);
+		GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, vboID);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, newVboID);
+		GL31.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER, 0, 0,
+				Math.min(keepBytes, newBytes));
+		GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, 0);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+		deleteVbo(vboID);
+		return newVboID;
+	}
+	
+	/**
+	 * Creates an empty VBO which can be filled with new data every frame. Used
+	 * for per-instance data when rendering with instancing.
+	 * @param floatCount
+	 * 	- The maximum number of floats the VBO will ever hold.
+	 * @return The ID of the VBO.
+	 */
+	public int createEmptyVbo(int floatCount) {
+		int vboID = createVbo();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, floatCount * 4, GL15.GL_STREAM_DRAW);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		recordBufferSize(vboID, floatCount * 4L);
+		return vboID;
+	}
+	
+	/**
+	 * Links an attribute of a VAO to a section of an instance VBO. The attribute
+	 * then advances once per instance rather than once per vertex.
+	 * @param vao
+	 * @param vbo
+	 * @param attribute
+	 * 	- The attribute number in the VAO.
+	 * @param dataSize
+	 * 	- Number of floats making up the attribute (max 4).
+	 * @param instancedDataLength
+	 * 	- Number of floats stored for each instance (the stride).
+	 * @param offset
+	 * 	- Number of floats into each instance's data that this attribute starts.
+	 */
+	public void addInstancedAttribute(int vao, int vbo, int attribute, int dataSize,
+			int instancedDataLength, int offset) {
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+		GL30.glBindVertexArray(vao);
+		GL20.glVertexAttribPointer(attribute, dataSize, GL11.GL_FLOAT, false,
+				instancedDataLength * 4, offset * 4);
+		GL33.glVertexAttribDivisor(attribute, 1);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		GL30.glBindVertexArray(0);
+	}
+	
+	/**
+	 * Replaces the contents of a VBO made by createEmptyVbo. The old storage is
+	 * orphaned first so we don't stall waiting for the last frame's draw to finish.
+	 * @param vbo
+	 * @param data
+	 * @param length
+	 * 	- How many floats of data to upload.
+	 * @param buffer
+	 * 	- Scratch buffer, at least as large as the VBO.
+	 */
+	public void updateVbo(int vbo, float[] data, int length, FloatBuffer buffer) {
+		buffer.clear();
+		buffer.put(data, 0, length);
+		buffer.flip();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer.capacity() * 4, GL15.GL_STREAM_DRAW);
+		GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, buffer);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+	
+	/**
+	 * Loads vertex data which is already interleaved in a single buffer (e.g. from the
+	 * MeshCache), so it can be uploaded without being copied.
+	 * 
+	 * @param vertexData
+	 * 		- Floats for each attribute of a vertex, one vertex after another.
+	 * @param attributeSizes
+	 * 		- The number of floats of each attribute, in attribute number order.
+	 * @param indices
+	 * 		- Int indices, in the native byte order.
+	 */
+	public RawModel loadInterleavedToVAO(ByteBuffer vertexData, int[] attributeSizes, ByteBuffer indices,
+			int indexCount, Vector3f boundsCentre, float boundsRadius) {
+		int vaoID = createVAO();
+		int indexVboID = createVbo();
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indexVboID);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+		recordBufferSize(indexVboID, indices.remaining());
+		
+		int vboID = createVbo();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertexData, GL15.GL_STATIC_DRAW);
+		recordBufferSize(vboID, vertexData.remaining());
+		int stride = 0;
+		for (int size : attributeSizes) {
+			stride += size * 4;
+		}
+		int offset = 0;
+		for (int i=0; i<attributeSizes.length; i++) {
+			GL20.glVertexAttribPointer(i, attributeSizes[i], GL11.GL_FLOAT, false, stride, offset);
+			offset += attributeSizes[i] * 4;
+		}
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		unbindVAO();
+		return new RawModel(vaoID, indexCount, boundsCentre, boundsRadius);
 	}
 	
+	/**
+	 * Creates a raw model along with its bounding sphere.
+	 */
+	private RawModel createRawModel(int vaoID, int indexCount, float[] positions) {
+		return createRawModel(vaoID, indexCount, FloatBuffer.wrap(positions));
+	}
+	
+	private RawModel createRawModel(int vaoID, int indexCount, FloatBuffer positions) {
+		if (positions.remaining() == 0) {
+			return new RawModel(vaoID, indexCount);
+		}
+		Vector3f centre = new Vector3f();
+		float radius = calculateBounds(positions, centre);
+		return new RawModel(vaoID, indexCount, centre, radius);
+	}
+	
+	/**
+	 * Works out a bounding sphere for the positions, centred on the middle of their
+	 * bounding box.
+	 * 
+	 * @param centre
+	 * 		- Set to the centre of the sphere.
+	 * @return The radius of the sphere.
+	 */
+	static float calculateBounds(float[] positions, Vector3f centre) {
+		return calculateBounds(FloatBuffer.wrap(positions), centre);
+	}
+	
+	/**
+	 * Reads the buffer's remaining floats, without changing its position.
+	 */
+	static float calculateBounds(FloatBuffer positions, Vector3f centre) {
+		int start = positions.position();
+		int end = positions.limit();
+		if (start == end) {
+			centre.zero();
+			return 0;
+		}
+		Vector3f min = new Vector3f(Float.POSITIVE_INFINITY);
+		Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY);
+		for (int i=start; i<end; i+=3) {
+			min.x = Math.min(min.x, positions.get(i));
+			min.y = Math.min(min.y, positions.get(i+1));
+			min.z = Math.min(min.z, positions.get(i+2));
+			max.x = Math.max(max.x, positions.get(i));
+			max.y = Math.max(max.y, positions.get(i+1));
+			max.z = Math.max(max.z, positions.get(i+2));
+		}
+		min.add(max, centre).mul(0.5f);
+		float radiusSquared = 0;
+		for (int i=start; i<end; i+=3) {
+			float dx = positions.get(i) - centre.x;
+			float dy = positions.get(i+1) - centre.y;
+			float dz = positions.get(i+2) - centre.z;
+			radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+		}
+		return (float) Math.sqrt(radiusSquared);
+	}
+	
+	/**
+	 * Goes through the TextureCache, so the image is only decoded and mipmapped
+	 * the first time it is loaded.
+	 */
 	public int loadTexture(String fileName) {
-		TextureData texture = unpackTextureFile(fileName);
+		return uploadTexture(TextureCache.prepareTexture(fileName));
+	}
+	
+	/**
+	 * The GL side of loadTexture, for a texture prepared by the TextureCache.
+	 */
+	public int uploadTexture(MipChain texture) {
+		// Each new texture will come with a place in memory in which we can later load it.
+		int textureID = GL11.glGenTextures();
 		GL13.glActiveTexture(GL13.GL_TEXTURE0);
-		GL11.glBindTexture(GL13.GL_TEXTURE_2D, texture.getTextureID());
-
-		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, texture.getWidth(),
-				texture.getHeight(), 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, texture.getBuffer());
-		// mipmap generation.
-		GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
+		GL11.glBindTexture(GL13.GL_TEXTURE_2D, textureID);
+		
+		// The mipmaps were made when the texture was cached, so they are uploaded rather than generated.
+		storeTextureLevels(GL11.GL_TEXTURE_2D, texture, texture.getLevelCount());
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_MAX_LEVEL, texture.getLevelCount() - 1);
 		// turning mipmaps on for this texture.
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
 		// setting level-of-detail bias. a negative value makes the textures render at a higher resolution.
 		GL11.glTexParameterf(GL11.GL_TEXTURE_2D, GL14.GL_TEXTURE_LOD_BIAS, -1);
 		
-		int textureID = texture.getTextureID();
 		textures.add(textureID);
+		recordTextureSize(textureID, texture.getByteCount());
 		return textureID;
 	}
 	
-	//TODO combine this with the other method.
 	public int loadCubeMap(String[] textureFiles) {
+		MipChain[] faces = new MipChain[textureFiles.length];
+		for (int i=0; i<textureFiles.length; i++) {
+			faces[i] = TextureCache.prepareTexture(textureFiles[i]);
+		}
+		return uploadCubeMap(faces);
+	}
+	
+	/**
+	 * The GL side of loadCubeMap.
+	 * @param faces
+	 * 	- Prepared by the TextureCache, in the order: R, L, T, Bo, Ba, F.
+	 */
+	public int uploadCubeMap(MipChain[] faces) {
 		// Creating an empty texture and storing its ID.
 		int textureID = GL11.glGenTextures();
 		// Activating texture unit 0.
@@ -131,12 +436,11 @@ public class Loader {
 		// Binding the created texture to texture unit 0.
 		GL11.glBindTexture(GL13.GL_TEXTURE_CUBE_MAP, textureID);
 		
-		for (int i=0; i<textureFiles.length; i++) {
-			TextureData data = unpackCubeMapTextureFile(textureFiles[i]);
-			
-			// Loading texture data into the cubemap.
-			GL11.glTexImage2D(GL13.GL_TEXTURE_CUBE_MAP_POSITIVE_X + i, 0, GL11.GL_RGBA, data.getWidth(), data.getHeight(),
-					0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, data.getBuffer());
+		long bytes = 0;
+		for (int i=0; i<faces.length; i++) {
+			// Loading texture data into the cubemap. The skybox isn't mipmapped, so only the top level.
+			storeTextureLevels(GL13.GL_TEXTURE_CUBE_MAP_POSITIVE_X + i, faces[i], 1);
+			bytes += faces[i].getLevel(0).remaining();
 		}
 		
 		// Makes the textures a bit smoother.
@@ -148,9 +452,161 @@ public class Loader {
 		GL11.glTexParameteri(GL13.GL_TEXTURE_CUBE_MAP, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
 		
 		textures.add(textureID);
+		recordTextureSize(textureID, bytes);
+		return textureID;
+	}
+	
+	/**
+	 * Creates a 2D texture array, with each texture in its own layer. The layers have to
+	 * be the same size, except that a layer twice (or four times...) as big as the others
+	 * is fine - its extra mipmap levels are skipped. They also have to be stored the
+	 * same way (all uncompressed, or all in the same compressed format).
+	 * @param layers
+	 * 	- Prepared by the TextureCache.
+	 */
+	public int createTextureArray(MipChain[] layers) {
+		int width = Integer.MAX_VALUE;
+		int height = Integer.MAX_VALUE;
+		for (MipChain layer : layers) {
+			width = Math.min(width, layer.getWidth());
+			height = Math.min(height, layer.getHeight());
+		}
+		// The level of each layer which matches the array's size, and how many levels they all have.
+		int[] firstLevels = new int[layers.length];
+		int levelCount = Integer.MAX_VALUE;
+		for (int i=0; i<layers.length; i++) {
+			MipChain layer = layers[i];
+			int level = Integer.numberOfTrailingZeros(layer.getWidth() / width);
+			if (layer.getLevelWidth(level) != width || layer.getLevelHeight(level) != height
+					|| layer.getCompressedFormat() != layers[0].getCompressedFormat()) {
+				throw new IllegalArgumentException("Texture array layer " + i + " doesn't match the others.");
+			}
+			firstLevels[i] = level;
+			levelCount = Math.min(levelCount, layer.getLevelCount() - level);
+		}
+		
+		int textureID = GL11.glGenTextures();
+		GL13.glActiveTexture(GL13.GL_TEXTURE0);
+		GL11.glBindTexture(GL30.GL_TEXTURE_2D_ARRAY, textureID);
+		long bytes = 0;
+		boolean compressed = layers[0].isCompressed();
+		int format = layers[0].getCompressedFormat();
+		for (int level=0; level<levelCount; level++) {
+			int levelWidth = Math.max(1, width >> level);
+			int levelHeight = Math.max(1, height >> level);
+			int layerSize = layers[0].getLevel(firstLevels[0] + level).remaining();
+			// Allocating the whole level, then filling in each layer.
+			if (compressed) {
+				GL13.nglCompressedTexImage3D(GL30.GL_TEXTURE_2D_ARRAY, level, format, levelWidth, levelHeight,
+						layers.length, 0, layerSize * layers.length, 0L);
+			} else {
+				GL12.glTexImage3D(GL30.GL_TEXTURE_2D_ARRAY, level, GL11.GL_RGBA8, levelWidth, levelHeight,
+						layers.length, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, (ByteBuffer) null);
+			}
+			for (int i=0; i<layers.length; i++) {
+				ByteBuffer data = layers[i].getLevel(firstLevels[i] + level);
+				if (compressed) {
+					GL13.glCompressedTexSubImage3D(GL30.GL_TEXTURE_2D_ARRAY, level, 0, 0, i,
+							levelWidth, levelHeight, 1, format, data);
+				} else {
+					GL12.glTexSubImage3D(GL30.GL_TEXTURE_2D_ARRAY, level, 0, 0, i,
+							levelWidth, levelHeight, 1, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, data);
+				}
+			}
+			bytes += (long) layerSize * layers.length;
+		}
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL12.GL_TEXTURE_MAX_LEVEL, levelCount - 1);
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
+		GL11.glTexParameterf(GL30.GL_TEXTURE_2D_ARRAY, GL14.GL_TEXTURE_LOD_BIAS, -1);
+		
+		textures.add(textureID);
+		recordTextureSize(textureID, bytes);
 		return textureID;
 	}
 	
+	/**
+	 * Creates a buffer texture, which lets a shader read a VBO as an array of vec4s
+	 * with texelFetch(). The VBO's size is already counted, so the texture isn't.
+	 * @param vbo
+	 * 	- Holds the texture's data, four floats per texel.
+	 */
+	public int createTextureBuffer(int vbo) {
+		int textureID = GL11.glGenTextures();
+		GL11.glBindTexture(GL31.GL_TEXTURE_BUFFER, textureID);
+		GL31.glTexBuffer(GL31.GL_TEXTURE_BUFFER, GL30.GL_RGBA32F, vbo);
+		GL11.glBindTexture(GL31.GL_TEXTURE_BUFFER, 0);
+		textures.add(textureID);
+		return textureID;
+	}
+	
+	/**
+	 * Deletes a model's VAO along with all of the VBOs made for it.
+	 */
+	public void deleteModel(RawModel model) {
+		deleteVao(model.getVaoID());
+	}
+	
+	public void deleteVao(int vaoID) {
+		if (!vaos.remove(vaoID)) {
+			return;
+		}
+		GL30.glDeleteVertexArrays(vaoID);
+		List<Integer> buffers = vaoBuffers.remove(vaoID);
+		if (buffers != null) {
+			for (int vbo : buffers) {
+				deleteVbo(vbo);
+			}
+		}
+	}
+	
+	public void deleteVbo(int vboID) {
+		if (!vbos.remove(vboID)) {
+			return;
+		}
+		GL15.glDeleteBuffers(vboID);
+		Long bytes = bufferSizes.remove(vboID);
+		if (bytes != null) {
+			totalBufferBytes -= bytes;
+		}
+	}
+	
+	public void deleteTexture(int textureID) {
+		if (!textures.remove(textureID)) {
+			return;
+		}
+		GL11.glDeleteTextures(textureID);
+		Long bytes = textureSizes.remove(textureID);
+		if (bytes != null) {
+			totalTextureBytes -= bytes;
+		}
+	}
+	
+	/**
+	 * @return The size of all of the VBOs made for the VAO, in bytes.
+	 */
+	public long getModelBytes(int vaoID) {
+		long bytes = 0;
+		List<Integer> buffers = vaoBuffers.get(vaoID);
+		if (buffers != null) {
+			for (int vbo : buffers) {
+				bytes += bufferSizes.getOrDefault(vbo, 0L);
+			}
+		}
+		return bytes;
+	}
+	
+	public long getTextureBytes(int textureID) {
+		return textureSizes.getOrDefault(textureID, 0L);
+	}
+	
+	public long getTotalBufferBytes() {
+		return totalBufferBytes;
+	}
+	
+	public long getTotalTextureBytes() {
+		return totalTextureBytes;
+	}
+	
 	public void cleanUp() {
 		for(int vao:vaos) {
 			GL30.glDeleteVertexArrays(vao);
@@ -166,26 +622,74 @@ public class Loader {
 	private int createVAO() {
 		int vaoID = GL30.glGenVertexArrays();
 		vaos.add(vaoID);
+		vaoBuffers.put(vaoID, new ArrayList<Integer>());
+		currentVao = vaoID;
 		GL30.glBindVertexArray(vaoID);
 		return vaoID;
 	};
 	
-	private void storeDatainAttributeList(int attributeNumber, int coordSize, float[] data) {
+	/**
+	 * Creates a VBO, which belongs to the VAO currently being made (if any).
+	 */
+	private int createVbo() {
 		int vboID = GL15.glGenBuffers();
 		vbos.add(vboID);
+		if (currentVao != 0) {
+			vaoBuffers.get(currentVao).add(vboID);
+		}
+		return vboID;
+	}
+	
+	/**
+	 * Uploads the first levelCount levels of a texture into the bound texture.
+	 */
+	private void storeTextureLevels(int target, MipChain texture, int levelCount) {
+		for (int level=0; level<levelCount; level++) {
+			int width = texture.getLevelWidth(level);
+			int height = texture.getLevelHeight(level);
+			if (texture.isCompressed()) {
+				GL13.glCompressedTexImage2D(target, level, texture.getCompressedFormat(), width, height, 0,
+						texture.getLevel(level));
+			} else {
+				GL11.glTexImage2D(target, level, GL11.GL_RGBA, width, height, 0, GL11.GL_RGBA,
+						GL11.GL_UNSIGNED_BYTE, texture.getLevel(level));
+			}
+		}
+	}
+	
+	private void recordBufferSize(int vboID, long bytes) {
+		Long previous = bufferSizes.put(vboID, bytes);
+		totalBufferBytes += bytes - (previous != null ? previous : 0);
+	}
+	
+	private void recordTextureSize(int textureID, long bytes) {
+		Long previous = textureSizes.put(textureID, bytes);
+		totalTextureBytes += bytes - (previous != null ? previous : 0);
+	}
+	
+	private void storeDatainAttributeList(int attributeNumber, int coordSize, float[] data) {
+		int vboID = createVbo();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, GL15.GL_STATIC_DRAW);
+		recordBufferSize(vboID, data.length * 4L);
+		GL20.glVertexAttribPointer(attributeNumber, coordSize, GL11.GL_FLOAT, false, 0, 0);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+	
+	private void storeDatainAttributeList(int attributeNumber, int coordSize, FloatBuffer buffer) {
+		int vboID = createVbo();
 		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
-		FloatBuffer buffer = storeDataInFloatBuffer(data);
 		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+		recordBufferSize(vboID, buffer.remaining() * 4L);
 		GL20.glVertexAttribPointer(attributeNumber, coordSize, GL11.GL_FLOAT, false, 0, 0);
 		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
 	}
 	
 	private void storeDataINTinAttributeList(int attributeNumber, int coordSize, int[] data) {
-		int vboID = GL15.glGenBuffers();
-		vbos.add(vboID);
+		int vboID = createVbo();
 		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
-		IntBuffer buffer = storeDataInIntBuffer(data);
-		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, GL15.GL_STATIC_DRAW);
+		recordBufferSize(vboID, data.length * 4L);
 		GL30.glVertexAttribIPointer(attributeNumber, coordSize, GL11.GL_INT, 0, 0);
 		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
 	}
@@ -196,116 +700,77 @@ public class Loader {
 	 * @param indices
 	 */
 	private void bindIndicesBuffer(int[] indices) {
-		int vboID = GL15.glGenBuffers();
-		vbos.add(vboID);
+		int vboID = createVbo();
 		// This array type tells OpenGL that its elements are to be used as indices.
 		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, vboID);
-		IntBuffer buffer = storeDataInIntBuffer(indices);
-		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+		recordBufferSize(vboID, indices.length * 4L);
 		// We don't need to point this to a vertex attribute. Each VAO has a special slot for
 		// a single index buffer to use.
 	}
 	
-	private IntBuffer storeDataInIntBuffer(int[] data) {
-		IntBuffer buffer = BufferUtils.createIntBuffer(data.length);
-		buffer.put(data);
-		buffer.flip();
-		return buffer;
-	}
-	
-	private FloatBuffer storeDataInFloatBuffer(float[] data) {
-		FloatBuffer buffer = BufferUtils.createFloatBuffer(data.length);
-		buffer.put(data);
-		buffer.flip();
-		return buffer;
+	private void bindIndicesBuffer(IntBuffer indices) {
+		int vboID = createVbo();
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, vboID);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+		recordBufferSize(vboID, indices.remaining() * 4L);
 	}
 	
 	private void unbindVAO() {
+		currentVao = 0;
 		GL30.glBindVertexArray(0);
 	}
 	
-	private TextureData unpackCubeMapTextureFile(String fileName) {
-		ByteBuffer imageData = fileToBuffer(fileName);
-		
-		// Buffers for holding the named values after being extracted in the decoding process.
-		IntBuffer x = BufferUtils.createIntBuffer(1); 
-		IntBuffer y = BufferUtils.createIntBuffer(1); 
-		IntBuffer channels_in_file = BufferUtils.createIntBuffer(1); 
-		
-		// Decoding the image data and loading the pixel data into a byte buffer.
-		// Desired channels in 4. We are expecting RGBA.
-		ByteBuffer decodedImageData = STBImage.stbi_load_from_memory(imageData, x, y, channels_in_file, 4);
-		
-		int width = x.get();
-		int height = y.get();
-		
-		return new TextureData(decodedImageData, width, height);
-	}
-	
-	private TextureData unpackTextureFile(String fileName) {
+	/**
+	 * Reads and decodes an image file. Doesn't use OpenGL, so can be called from any
+	 * thread (see AssetPipeline).
+	 * @return The decoded image, whose buffer has to be freed with NativeMemory.freeImage().
+	 */
+	public static TextureData decodeTexture(String fileName) {
 		ByteBuffer imageData = fileToBuffer(fileName);
-		
-		// Buffers for holding the named values after being extracted in the decoding process.
-		IntBuffer x = BufferUtils.createIntBuffer(1); 
-		IntBuffer y = BufferUtils.createIntBuffer(1); 
-		IntBuffer channels_in_file = BufferUtils.createIntBuffer(1); 
-		
-		// Decoding the image data and loading the pixel data into a byte buffer.
-		// Desired channels in 4. We are expecting RGBA.
-		ByteBuffer decodedImageData = STBImage.stbi_load_from_memory(imageData, x, y, channels_in_file, 4);
-		
-		int width = x.get();
-		int height = y.get();
-		
-		// Each new texture will come with a place in memory in which we can later load it.
-		int textureID = GL11.glGenTextures();
-		
-		return new TextureData(decodedImageData, width, height, textureID);
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			// Buffers for holding the named values after being extracted in the decoding process.
+			IntBuffer x = stack.mallocInt(1);
+			IntBuffer y = stack.mallocInt(1);
+			IntBuffer channels_in_file = stack.mallocInt(1);
+			
+			// Decoding the image data and loading the pixel data into a byte buffer.
+			// Desired channels in 4. We are expecting RGBA.
+			ByteBuffer decodedImageData = STBImage.stbi_load_from_memory(imageData, x, y, channels_in_file, 4);
+			if (decodedImageData == null) {
+				throw new RuntimeException("Couldn't decode " + fileName + ": " + STBImage.stbi_failure_reason());
+			}
+			return new TextureData(NativeMemory.trackImage(decodedImageData), x.get(0), y.get(0));
+		} finally {
+			// STB has finished with the file by now, so it can go back to the pool.
+			NativeMemory.releaseScratch(imageData);
+		}
 	}
 	
 	/**
-	 * Reads data from a file into a byte buffer.
-	 * @param fileName
-	 * @return
+	 * Reads a whole file into a scratch buffer.
+	 * @return The file's contents, in a buffer which has to be given back with
+	 * 	NativeMemory.releaseScratch().
 	 */
-	private ByteBuffer fileToBuffer(String fileName) {
-		RandomAccessFile textureFile = null;
-		try {
-			textureFile = new RandomAccessFile("src/main/resources/"+fileName, "r");
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			System.out.println("Tried open file but failed.");
-		}
-		
-		FileChannel fileChannel = textureFile.getChannel();
-		
-		ByteBuffer byteBuffer = null;
-		try {
-			byteBuffer = MemoryUtil.memAlloc((int) textureFile.length());
-		} catch (IOException e1) {
-			e1.printStackTrace();
-			System.out.println("Failed to allocate byte buffer.");
-		}
-		
-		int bytesRead = 0;
-		try {
-			bytesRead = fileChannel.read(byteBuffer);
-			while (bytesRead != 0) {
-				bytesRead = fileChannel.read(byteBuffer);
+	private static ByteBuffer fileToBuffer(String fileName) {
+		try (FileChannel fileChannel = FileChannel.open(Paths.get("src/main/resources/" + fileName),
+				StandardOpenOption.READ)) {
+			ByteBuffer byteBuffer = NativeMemory.acquireScratch((int) fileChannel.size());
+			try {
+				while (byteBuffer.hasRemaining()) {
+					if (fileChannel.read(byteBuffer) == -1) {
+						throw new EOFException("File shrank whilst being read: " + fileName);
+					}
+				}
+			} catch (IOException e) {
+				NativeMemory.releaseScratch(byteBuffer);
+				throw e;
 			}
+			byteBuffer.flip();
+			return byteBuffer;
 		} catch (IOException e) {
-			e.printStackTrace();
-			System.out.println("Failed to read from fileChannel");
-		}
-		byteBuffer.flip();
-		
-		try {
-			fileChannel.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.out.println("fileChannel failed to close");
+			throw new UncheckedIOException("Couldn't read " + fileName, e);
 		}
-		return byteBuffer;
 	}
 	
 }
@@ -0,0 +1,316 @@
+package loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import org.joml.Vector3f;
+
+import models.RawModel;
+import normalMappingObjConverter.NormalMappedObjLoader;
+
+/**
+ * Caches parsed meshes in a compact binary format, so text model files only
+ * have to be parsed the first time they are loaded (or never, if the cache
+ * is built in advance with main()).
+ * 
+ * A cache file is a 64 byte header followed by the interleaved vertex
+ * attributes (position, texture coords, normal and, if present, tangent) and
+ * then the indices. It is memory mapped when loaded, and the mapped buffer is
+ * handed straight to OpenGL.
+ * 
+ * A cache file is out of date when its source file has changed. The size and
+ * modified time are checked first, and the source is only hashed if they differ
+ * (e.g. the file has just been checked out again).
+ * 
+ * Data is written in the native byte order. A cache file from a machine with the
+ * other byte order fails the magic number check and is rebuilt.
+ * @author Billy
+ *
+ */
+public class MeshCache {
+	
+	private static final String CACHE_LOC = "cache/meshes/";
+	private static final String RES_LOC = "src/main/resources/";
+	
+	private static final int MAGIC = 0x4853454D; // "MESH"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int FLAG_TANGENTS = 1;
+	
+	// Header field offsets, in bytes.
+	private static final int FLAGS = 8;
+	private static final int VERTEX_COUNT = 12;
+	private static final int INDEX_COUNT = 16;
+	private static final int SOURCE_LENGTH = 24;
+	private static final int SOURCE_MODIFIED = 32;
+	private static final int SOURCE_HASH = 40;
+	private static final int BOUNDS = 48;
+	
+	private static final int[] ATTRIBUTE_SIZES = {3, 2, 3};
+	private static final int[] TANGENT_ATTRIBUTE_SIZES = {3, 2, 3, 3};
+	
+	/**
+	 * Loads a mesh from its cache file if that is up to date. Otherwise the mesh is
+	 * parsed from the source file and the cache file is rebuilt.
+	 * 
+	 * @param cacheName
+	 * 		- Name of the cache file. Should be different for each way a source file is parsed.
+	 * @param source
+	 * 		- The file the mesh is parsed from.
+	 * @param parser
+	 * 		- Parses the source file. Only called if the cache is out of date.
+	 */
+	public static RawModel loadModel(String cacheName, File source, Supplier<MeshData> parser, Loader loader) {
+		return prepareModel(cacheName, source, parser).upload(loader);
+	}
+	
+	/**
+	 * Everything loadModel does apart from the upload to OpenGL, so it can be called
+	 * from any thread (see AssetPipeline).
+	 */
+	public static MeshUpload prepareModel(String cacheName, File source, Supplier<MeshData> parser) {
+		File cacheFile = getCacheFile(cacheName);
+		try {
+			MeshUpload cached = prepareCached(cacheFile, source);
+			if (cached != null) {
+				return cached;
+			}
+		} catch (IOException e) {
+			System.err.println("Couldn't read mesh cache file " + cacheFile + ", rebuilding it.");
+		}
+		
+		MeshData data = parser.get();
+		try {
+			write(cacheFile, source, data);
+		} catch (IOException e) {
+			System.err.println("Couldn't write mesh cache file " + cacheFile);
+			e.printStackTrace();
+		}
+		if (data.hasTangents()) {
+			return loader -> loader.loadToVAO(data.getPositions(), data.getTextureCoords(), data.getNormals(),
+					data.getTangents(), data.getIndices());
+		}
+		return loader -> loader.loadToVAO(data.getPositions(), data.getTextureCoords(), data.getNormals(),
+				data.getIndices());
+	}
+	
+	/**
+	 * Writes a mesh to its cache file, replacing any old version.
+	 */
+	public static void write(File cacheFile, File source, MeshData data) throws IOException {
+		int stride = getStride(data.hasTangents());
+		int vertexCount = data.getVertexCount();
+		int indexCount = data.getIndices().length;
+		ByteBuffer buffer = NativeMemory.acquireScratch(HEADER_SIZE + (vertexCount * stride + indexCount) * 4)
+				.order(ByteOrder.nativeOrder());
+		try {
+			writeRecord(buffer, source, data);
+			writeAtomically(cacheFile, buffer);
+		} finally {
+			NativeMemory.releaseScratch(buffer);
+		}
+	}
+	
+	/**
+	 * Lays out the header and vertex data of a mesh's cache file in the buffer, and flips it.
+	 */
+	private static void writeRecord(ByteBuffer buffer, File source, MeshData data) throws IOException {
+		int vertexCount = data.getVertexCount();
+		int indexCount = data.getIndices().length;
+		Vector3f centre = new Vector3f();
+		float radius = Loader.calculateBounds(data.getPositions(), centre);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(FLAGS, data.hasTangents() ? FLAG_TANGENTS : 0);
+		buffer.putInt(VERTEX_COUNT, vertexCount);
+		buffer.putInt(INDEX_COUNT, indexCount);
+		buffer.putLong(SOURCE_LENGTH, source.length());
+		buffer.putLong(SOURCE_MODIFIED, source.lastModified());
+		buffer.putLong(SOURCE_HASH, hash(source));
+		buffer.putFloat(BOUNDS, centre.x);
+		buffer.putFloat(BOUNDS + 4, centre.y);
+		buffer.putFloat(BOUNDS + 8, centre.z);
+		buffer.putFloat(BOUNDS + 12, radius);
+		
+		buffer.position(HEADER_SIZE);
+		for (int i=0; i<vertexCount; i++) {
+			buffer.putFloat(data.getPositions()[i*3]);
+			buffer.putFloat(data.getPositions()[i*3+1]);
+			buffer.putFloat(data.getPositions()[i*3+2]);
+			buffer.putFloat(data.getTextureCoords()[i*2]);
+			buffer.putFloat(data.getTextureCoords()[i*2+1]);
+			buffer.putFloat(data.getNormals()[i*3]);
+			buffer.putFloat(data.getNormals()[i*3+1]);
+			buffer.putFloat(data.getNormals()[i*3+2]);
+			if (data.hasTangents()) {
+				buffer.putFloat(data.getTangents()[i*3]);
+				buffer.putFloat(data.getTangents()[i*3+1]);
+				buffer.putFloat(data.getTangents()[i*3+2]);
+			}
+		}
+		for (int index : data.getIndices()) {
+			buffer.putInt(index);
+		}
+		buffer.flip();
+	}
+	
+	/**
+	 * Writes a cache file through a temporary file, so a half written cache file is
+	 * never left behind. The temporary name is unique in case the same file is being
+	 * cached by two threads.
+	 */
+	static void writeAtomically(File cacheFile, ByteBuffer buffer) throws IOException {
+		cacheFile.getParentFile().mkdirs();
+		Path tempFile = Files.createTempFile(cacheFile.getParentFile().toPath(), cacheFile.getName(), ".tmp");
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		Files.move(tempFile, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	public static File getCacheFile(String cacheName) {
+		return new File(CACHE_LOC + cacheName + ".mesh");
+	}
+	
+	/**
+	 * Offline converter, for building the cache before the game is run. Takes the names
+	 * of OBJ files in the resources folder (without the extension). Names after
+	 * "-normalMapped" are converted with the normal mapped OBJ loader.
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean normalMapped = false;
+		for (String name : args) {
+			if (name.equals("-normalMapped")) {
+				normalMapped = true;
+				continue;
+			}
+			File source = new File(RES_LOC + name + ".obj");
+			if (normalMapped) {
+				write(getCacheFile(NormalMappedObjLoader.getCacheName(name)), source,
+						NormalMappedObjLoader.loadData(name));
+			} else {
+				write(getCacheFile(OBJLoader.getCacheName(name)), source, OBJLoader.loadData(name));
+			}
+			System.out.println("Converted " + source);
+		}
+	}
+	
+	/**
+	 * @return The upload of the mapped cache file, or null if there is no up to date cache file.
+	 */
+	private static MeshUpload prepareCached(File cacheFile, File source) throws IOException {
+		if (!cacheFile.exists()) {
+			return null;
+		}
+		ByteBuffer header;
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+			header = readHeader(channel, HEADER_SIZE);
+			if (header == null || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				return null;
+			}
+			if (!isUpToDate(header, cacheFile, source)) {
+				return null;
+			}
+			boolean hasTangents = (header.getInt(FLAGS) & FLAG_TANGENTS) != 0;
+			long vertexBytes = (long) header.getInt(VERTEX_COUNT) * getStride(hasTangents) * 4;
+			if (channel.size() != HEADER_SIZE + vertexBytes + header.getInt(INDEX_COUNT) * 4L) {
+				return null;
+			}
+			// Only mapped now it is known to be current. The mapping stays valid after the channel is closed.
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buffer.order(ByteOrder.nativeOrder());
+		boolean hasTangents = (header.getInt(FLAGS) & FLAG_TANGENTS) != 0;
+		int vertexCount = header.getInt(VERTEX_COUNT);
+		int indexCount = header.getInt(INDEX_COUNT);
+		int vertexBytes = vertexCount * getStride(hasTangents) * 4;
+		
+		buffer.position(HEADER_SIZE).limit(HEADER_SIZE + vertexBytes);
+		ByteBuffer vertices = buffer.slice().order(ByteOrder.nativeOrder());
+		buffer.position(HEADER_SIZE + vertexBytes).limit(buffer.capacity());
+		ByteBuffer indices = buffer.slice().order(ByteOrder.nativeOrder());
+		
+		Vector3f centre = new Vector3f(header.getFloat(BOUNDS), header.getFloat(BOUNDS + 4), header.getFloat(BOUNDS + 8));
+		float radius = header.getFloat(BOUNDS + 12);
+		int[] attributeSizes = hasTangents ? TANGENT_ATTRIBUTE_SIZES : ATTRIBUTE_SIZES;
+		return loader -> loader.loadInterleavedToVAO(vertices, attributeSizes, indices, indexCount, centre, radius);
+	}
+	
+	/**
+	 * Reads a cache file's header without mapping the file. A mapping is never
+	 * unmapped, and a mapped file can't be replaced on Windows, so a stale cache
+	 * file mustn't be mapped before it is rebuilt. Also used by TextureCache.
+	 * @return The header, in the native byte order, or null if the file is too short
+	 * 	to have one.
+	 */
+	static ByteBuffer readHeader(FileChannel channel, int headerSize) throws IOException {
+		if (channel.size() < headerSize) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.nativeOrder());
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) == -1) {
+				return null;
+			}
+		}
+		return header;
+	}
+	
+	/**
+	 * Also used by TextureCache, whose header keeps the source's length, modified
+	 * time and hash at the same offsets.
+	 */
+	static boolean isUpToDate(ByteBuffer header, File cacheFile, File source) throws IOException {
+		if (!source.exists()) {
+			// Only the cache was shipped.
+			return true;
+		}
+		long length = source.length();
+		long modified = source.lastModified();
+		if (header.getLong(SOURCE_LENGTH) == length && header.getLong(SOURCE_MODIFIED) == modified) {
+			return true;
+		}
+		if (header.getLong(SOURCE_LENGTH) != length || header.getLong(SOURCE_HASH) != hash(source)) {
+			return false;
+		}
+		// Same contents, only touched. Updating the time so it isn't hashed again next time.
+		ByteBuffer time = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+		time.putLong(0, modified);
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.WRITE)) {
+			channel.write(time, SOURCE_MODIFIED);
+		} catch (IOException e) {
+			// Not a problem, it will just be hashed again.
+		}
+		return true;
+	}
+	
+	static long hash(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		return crc.getValue();
+	}
+	
+	/**
+	 * @return The number of floats per vertex.
+	 */
+	private static int getStride(boolean hasTangents) {
+		return hasTangents ? 11 : 8;
+	}
+
+}
@@ -0,0 +1,60 @@
+package loader;
+
+/**
+ * The vertex data of a mesh, as separate arrays ready to be loaded into a VAO.
+ * Tangents are only present for normal mapped meshes.
+ * @author Billy
+ *
+ */
+public class MeshData {
+	
+	private float[] positions;
+	private float[] textureCoords;
+	private float[] normals;
+	private float[] tangents;
+	private int[] indices;
+	
+	public MeshData(float[] positions, float[] textureCoords, float[] normals, int[] indices) {
+		this(positions, textureCoords, normals, null, indices);
+	}
+	
+	public MeshData(float[] positions, float[] textureCoords, float[] normals, float[] tangents, int[] indices) {
+		this.positions = positions;
+		this.textureCoords = textureCoords;
+		this.normals = normals;
+		this.tangents = tangents;
+		this.indices = indices;
+	}
+	
+	public float[] getPositions() {
+		return positions;
+	}
+	
+	public float[] getTextureCoords() {
+		return textureCoords;
+	}
+	
+	public float[] getNormals() {
+		return normals;
+	}
+	
+	/**
+	 * @return The tangents, or null if the mesh doesn't have any.
+	 */
+	public float[] getTangents() {
+		return tangents;
+	}
+	
+	public boolean hasTangents() {
+		return tangents != null;
+	}
+	
+	public int[] getIndices() {
+		return indices;
+	}
+	
+	public int getVertexCount() {
+		return positions.length / 3;
+	}
+
+}
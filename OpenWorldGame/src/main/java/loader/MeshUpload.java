@@ -0,0 +1,14 @@
+package loader;
+
+import models.RawModel;
+
+/**
+ * The GL side of loading a mesh, once its data has been prepared.
+ * @author Billy
+ *
+ */
+public interface MeshUpload {
+	
+	RawModel upload(Loader loader);
+
+}
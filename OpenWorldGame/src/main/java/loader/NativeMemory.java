@@ -0,0 +1,191 @@
+package loader;
+
+import java.io.PrintStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lwjgl.stb.STBImage;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * All off-heap memory used while loading goes through here, so that none of it is
+ * left to the garbage collector (which never frees it) and leaks can be found.
+ *
+ * Buffers which are only needed for the length of one load (such as the raw bytes
+ * of a file being decoded) are scratch buffers. These are taken from a small pool
+ * and handed back afterwards, so the same few buffers are reused for every load.
+ *
+ * Run with -DnativeMemory.debug=true to keep track of where every allocation was
+ * made. report() then lists everything which hasn't been freed, by call site.
+ * @author Billy
+ *
+ */
+public class NativeMemory {
+
+	private static final boolean DEBUG = Boolean.getBoolean("nativeMemory.debug");
+
+	// Scratch buffers kept for reuse. Any more than this are freed when handed back.
+	private static final int MAX_POOLED_BUFFERS = 4;
+	// Scratch buffers are allocated in multiples of this, so they fit more loads.
+	private static final int SCRATCH_GRANULARITY = 64 * 1024;
+
+	private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+	private static final AtomicInteger pooledCount = new AtomicInteger();
+
+	// Only filled in debug mode. Addresses of live allocations, to where they were made.
+	private static final Map<Long, Allocation> allocations = new ConcurrentHashMap<Long, Allocation>();
+
+	/**
+	 * @return A scratch buffer with its limit set to size, big endian like a new
+	 * 	ByteBuffer. Must be given back with releaseScratch(), and not used after that.
+	 */
+	public static ByteBuffer acquireScratch(int size) {
+		ByteBuffer buffer = pool.poll();
+		if (buffer != null) {
+			pooledCount.decrementAndGet();
+			if (buffer.capacity() < size) {
+				free(buffer);
+				buffer = null;
+			}
+		}
+		if (buffer == null) {
+			int capacity = (size + SCRATCH_GRANULARITY - 1) / SCRATCH_GRANULARITY * SCRATCH_GRANULARITY;
+			buffer = alloc(Math.max(capacity, SCRATCH_GRANULARITY));
+		}
+		// The last user may have changed the byte order.
+		buffer.clear().limit(size);
+		return buffer.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	public static void releaseScratch(ByteBuffer buffer) {
+		if (pooledCount.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+			pool.offer(buffer);
+		} else {
+			pooledCount.decrementAndGet();
+			free(buffer);
+		}
+	}
+
+	public static ByteBuffer alloc(int size) {
+		return track(MemoryUtil.memAlloc(size));
+	}
+
+	public static IntBuffer allocInt(int count) {
+		return track(MemoryUtil.memAllocInt(count));
+	}
+
+	public static FloatBuffer callocFloat(int count) {
+		return track(MemoryUtil.memCallocFloat(count));
+	}
+
+	public static void free(Buffer buffer) {
+		untrack(buffer);
+		MemoryUtil.memFree(buffer);
+	}
+
+	/**
+	 * Keeps track of an image decoded by STB, which has to be freed with freeImage().
+	 */
+	public static ByteBuffer trackImage(ByteBuffer image) {
+		return track(image);
+	}
+
+	public static void freeImage(ByteBuffer image) {
+		untrack(image);
+		STBImage.stbi_image_free(image);
+	}
+
+	/**
+	 * Frees the pooled scratch buffers. Call when nothing else is loading.
+	 */
+	public static void cleanUp() {
+		ByteBuffer buffer;
+		while ((buffer = pool.poll()) != null) {
+			pooledCount.decrementAndGet();
+			free(buffer);
+		}
+	}
+
+	public static boolean isDebugging() {
+		return DEBUG;
+	}
+
+	/**
+	 * Prints every allocation which hasn't been freed yet, grouped by where it was
+	 * made. Only does anything in debug mode.
+	 */
+	public static void report(PrintStream out) {
+		if (!DEBUG) {
+			return;
+		}
+		Map<String, long[]> sites = new TreeMap<String, long[]>();
+		for (Allocation allocation : allocations.values()) {
+			long[] totals = sites.computeIfAbsent(allocation.site, site -> new long[2]);
+			totals[0]++;
+			totals[1] += allocation.bytes;
+		}
+		if (sites.isEmpty()) {
+			out.println("No native allocations outstanding.");
+			return;
+		}
+		out.println("Outstanding native allocations:");
+		for (Map.Entry<String, long[]> site : sites.entrySet()) {
+			out.println("  " + site.getValue()[0] + " (" + site.getValue()[1] + " bytes) at " + site.getKey());
+		}
+	}
+
+	private static <T extends Buffer> T track(T buffer) {
+		if (DEBUG && buffer != null) {
+			allocations.put(MemoryUtil.memAddress0(buffer),
+					new Allocation(getCallSite(), (long) buffer.capacity() * getElementSize(buffer)));
+		}
+		return buffer;
+	}
+
+	private static void untrack(Buffer buffer) {
+		if (DEBUG && buffer != null && allocations.remove(MemoryUtil.memAddress0(buffer)) == null) {
+			System.err.println("Freed native memory which wasn't allocated through NativeMemory, at " + getCallSite());
+		}
+	}
+
+	/**
+	 * @return The first method on the stack outside of this class.
+	 */
+	private static String getCallSite() {
+		for (StackTraceElement element : new Throwable().getStackTrace()) {
+			if (!element.getClassName().equals(NativeMemory.class.getName())) {
+				return element.toString();
+			}
+		}
+		return "unknown";
+	}
+
+	private static int getElementSize(Buffer buffer) {
+		if (buffer instanceof ByteBuffer) {
+			return 1;
+		}
+		// Only int and float buffers are allocated here.
+		return 4;
+	}
+
+	private static class Allocation {
+
+		private final String site;
+		private final long bytes;
+
+		private Allocation(String site, long bytes) {
+			this.site = site;
+			this.bytes = bytes;
+		}
+
+	}
+
+}
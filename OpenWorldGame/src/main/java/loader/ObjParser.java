@@ -0,0 +1,265 @@
+package loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the raw data out of an OBJ file: positions, texture coords, normals and
+ * the indices of the triangles' corners. Turning this into vertices ready for a
+ * VAO is left to the loaders, as they do it differently.
+ * 
+ * The file is memory mapped and numbers are parsed straight from its bytes into
+ * growing primitive arrays, so nothing is allocated per line. Only the first
+ * three corners of each face are read, so faces should be triangulated.
+ * 
+ * Indices are converted to start from 0. A missing texture or normal index
+ * (e.g. "1//1") is read as the first one.
+ * @author Billy
+ *
+ */
+public class ObjParser {
+	
+	private static final int INITIAL_CAPACITY = 1024;
+	
+	// Powers of ten which can be represented exactly as floats.
+	private static final float[] POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f,
+			1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+	// Largest mantissa which can be represented exactly as a float.
+	private static final long MAX_EXACT_MANTISSA = 1 << 24;
+	
+	private float[] positions = new float[INITIAL_CAPACITY * 3];
+	private float[] textureCoords = new float[INITIAL_CAPACITY * 2];
+	private float[] normals = new float[INITIAL_CAPACITY * 3];
+	// Position, texture and normal index of each corner of each triangle.
+	private int[] corners = new int[INITIAL_CAPACITY * 9];
+	private int positionCount = 0;
+	private int textureCoordCount = 0;
+	private int normalCount = 0;
+	private int cornerCount = 0;
+	
+	// Read position in the file.
+	private ByteBuffer data;
+	private int pointer;
+	
+	public static ObjParser parse(File file) throws IOException {
+		ObjParser parser = new ObjParser();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			parser.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		parser.parseLines();
+		parser.data = null;
+		return parser;
+	}
+	
+	public float[] getPositions() {
+		return positions;
+	}
+	
+	public float[] getTextureCoords() {
+		return textureCoords;
+	}
+	
+	public float[] getNormals() {
+		return normals;
+	}
+	
+	/**
+	 * @return The position, texture and normal index of each corner, one after the
+	 * other. Three corners make a triangle.
+	 */
+	public int[] getCorners() {
+		return corners;
+	}
+	
+	public int getPositionCount() {
+		return positionCount;
+	}
+	
+	public int getTextureCoordCount() {
+		return textureCoordCount;
+	}
+	
+	public int getNormalCount() {
+		return normalCount;
+	}
+	
+	public int getCornerCount() {
+		return cornerCount;
+	}
+	
+	private void parseLines() {
+		int limit = data.limit();
+		pointer = 0;
+		while (pointer < limit) {
+			byte first = data.get(pointer);
+			byte second = pointer + 1 < limit ? data.get(pointer + 1) : 0;
+			if (first == 'v' && isSpace(second)) {
+				pointer += 2;
+				positions = ensureCapacity(positions, positionCount * 3 + 3);
+				readFloats(positions, positionCount * 3, 3);
+				positionCount++;
+			} else if (first == 'v' && second == 't') {
+				pointer += 2;
+				textureCoords = ensureCapacity(textureCoords, textureCoordCount * 2 + 2);
+				readFloats(textureCoords, textureCoordCount * 2, 2);
+				textureCoordCount++;
+			} else if (first == 'v' && second == 'n') {
+				pointer += 2;
+				normals = ensureCapacity(normals, normalCount * 3 + 3);
+				readFloats(normals, normalCount * 3, 3);
+				normalCount++;
+			} else if (first == 'f' && isSpace(second)) {
+				pointer += 1;
+				corners = ensureCapacity(corners, cornerCount * 3 + 9);
+				for (int i=0; i<3; i++) {
+					readCorner(cornerCount * 3);
+					cornerCount++;
+				}
+			}
+			skipLine();
+		}
+	}
+	
+	private void readFloats(float[] dest, int offset, int count) {
+		for (int i=0; i<count; i++) {
+			skipSpaces();
+			dest[offset + i] = readFloat();
+		}
+	}
+	
+	/**
+	 * Reads a "v/t/n" corner.
+	 */
+	private void readCorner(int offset) {
+		skipSpaces();
+		corners[offset] = readInt() - 1;
+		corners[offset + 1] = 0;
+		corners[offset + 2] = 0;
+		for (int i=1; i<3 && pointer < data.limit() && data.get(pointer) == '/'; i++) {
+			pointer++;
+			corners[offset + i] = Math.max(readInt() - 1, 0);
+		}
+	}
+	
+	private int readInt() {
+		boolean negative = false;
+		if (pointer < data.limit() && data.get(pointer) == '-') {
+			negative = true;
+			pointer++;
+		}
+		int value = 0;
+		while (pointer < data.limit()) {
+			int digit = data.get(pointer) - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			value = value * 10 + digit;
+			pointer++;
+		}
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Parses a float in place. When the digits fit in a float exactly, the result is a
+	 * single correctly rounded division, so is the same as Float.parseFloat. Anything
+	 * else (long numbers, exponents) falls back to Float.parseFloat.
+	 */
+	private float readFloat() {
+		int start = pointer;
+		boolean negative = false;
+		byte next = peek();
+		if (next == '-' || next == '+') {
+			negative = next == '-';
+			pointer++;
+		}
+		long mantissa = 0;
+		int decimalPlaces = 0;
+		boolean afterPoint = false;
+		while (pointer < data.limit()) {
+			byte b = data.get(pointer);
+			if (b == '.' && !afterPoint) {
+				afterPoint = true;
+			} else if (b >= '0' && b <= '9') {
+				if (mantissa <= MAX_EXACT_MANTISSA) {
+					mantissa = mantissa * 10 + (b - '0');
+					if (afterPoint) {
+						decimalPlaces++;
+					}
+				} else {
+					// Too many digits, but still has to be read past.
+					mantissa = Long.MAX_VALUE;
+				}
+			} else {
+				break;
+			}
+			pointer++;
+		}
+		byte end = peek();
+		if (mantissa > MAX_EXACT_MANTISSA || decimalPlaces >= POWERS_OF_TEN.length
+				|| end == 'e' || end == 'E' || end == 'n' || end == 'N' || end == 'i' || end == 'I') {
+			return parseFallback(start);
+		}
+		float value = mantissa / POWERS_OF_TEN[decimalPlaces];
+		return negative ? -value : value;
+	}
+	
+	private float parseFallback(int start) {
+		pointer = start;
+		while (pointer < data.limit() && !isSpace(data.get(pointer)) && !isLineEnd(data.get(pointer))) {
+			pointer++;
+		}
+		byte[] bytes = new byte[pointer - start];
+		for (int i=0; i<bytes.length; i++) {
+			bytes[i] = data.get(start + i);
+		}
+		return Float.parseFloat(new String(bytes, StandardCharsets.US_ASCII));
+	}
+	
+	private byte peek() {
+		return pointer < data.limit() ? data.get(pointer) : 0;
+	}
+	
+	private void skipSpaces() {
+		while (pointer < data.limit() && isSpace(data.get(pointer))) {
+			pointer++;
+		}
+	}
+	
+	private void skipLine() {
+		while (pointer < data.limit() && data.get(pointer) != '\n') {
+			pointer++;
+		}
+		pointer++;
+	}
+	
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+	
+	private static boolean isLineEnd(byte b) {
+		return b == '\n' || b == '\r';
+	}
+	
+	private static float[] ensureCapacity(float[] array, int length) {
+		if (array.length >= length) {
+			return array;
+		}
+		float[] grown = new float[Math.max(length, array.length * 2)];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+	
+	private static int[] ensureCapacity(int[] array, int length) {
+		if (array.length >= length) {
+			return array;
+		}
+		int[] grown = new int[Math.max(length, array.length * 2)];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+}
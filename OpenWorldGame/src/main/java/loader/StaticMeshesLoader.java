@@ -1,9 +1,11 @@
 package loader;
 
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.lwjgl.BufferUtils;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.assimp.AIFace;
 import org.lwjgl.assimp.AIMaterial;
@@ -12,11 +14,11 @@ import org.lwjgl.assimp.AIScene;
 import org.lwjgl.assimp.AIString;
 import org.lwjgl.assimp.AIVector3D;
 import org.lwjgl.assimp.Assimp;
+import org.lwjgl.system.MemoryUtil;
 
 import models.RawModel;
 import models.TexturedModel;
 import textures.ModelTexture;
-import toolbox.Utils;
 
 /**
  * Note that the load methods currently return textured models.
@@ -29,8 +31,16 @@ import toolbox.Utils;
  */
 public class StaticMeshesLoader {
 	
-	// For loading to VAOs.
-	protected static Loader loader = new Loader();
+	// For loading to VAOs. Shared with the rest of the game, so that everything
+	// it loads is tracked (and can be deleted) in one place.
+	protected static Loader loader;
+	
+	/**
+	 * Must be called before anything is loaded.
+	 */
+	public static void setLoader(Loader loader) {
+		StaticMeshesLoader.loader = loader;
+	}
 	
 	/**
 	 * A default call to load a model file with some commonly used flags.
@@ -64,7 +74,15 @@ public class StaticMeshesLoader {
 	    if (aiScene == null) {
 	    	throw new Exception("Error loading model!");
 	    }
-	    
+	    try {
+	    	return processScene(aiScene, texturesDir);
+	    } finally {
+	    	// Everything needed has been copied out of Assimp's memory by now.
+	    	Assimp.aiReleaseImport(aiScene);
+	    }
+	}
+	
+	private static TexturedModel[] processScene(AIScene aiScene, String texturesDir) throws Exception {
 	    // Texture loading.
 	    // Assimp uses the notion of 'materials' rather than just textures.
 	    int numMaterials = aiScene.mNumMaterials();
@@ -135,21 +153,19 @@ public class StaticMeshesLoader {
 			AIMesh aiMesh,
 			List<ModelTexture> textures) throws Exception
 	{
-		List<Float> vertices = new ArrayList<>();
-		List<Float> textureCoords = new ArrayList<>();
-		List<Float> normals = new ArrayList<>();
-		List<Integer> indices = new ArrayList<>();
-		
-		processVertices(aiMesh, vertices);
-		processNormals(aiMesh, normals);
-		processTextureCoords(aiMesh, textureCoords);
-		processIndices(aiMesh, indices);
-		
-		RawModel model = loader.loadToVAO(
-				Utils.floatListToArray(vertices),
-				Utils.floatListToArray(textureCoords),
-				Utils.floatListToArray(normals),
-				Utils.integerListToArray(indices));
+		FloatBuffer textureCoords = processTextureCoords(aiMesh);
+		IntBuffer indices = processIndices(aiMesh);
+		RawModel model;
+		try {
+			model = loader.loadToVAO(
+					processVertices(aiMesh),
+					textureCoords,
+					processNormals(aiMesh),
+					indices);
+		} finally {
+			NativeMemory.free(textureCoords);
+			NativeMemory.free(indices);
+		}
 		
 		ModelTexture texture;
 		int textureIndex = aiMesh.mMaterialIndex();
@@ -168,59 +184,71 @@ public class StaticMeshesLoader {
 	 * Simply extracts the vertex information from the mesh.
 	 * @param aiMesh
 	 * 	- The mesh containing the vertex information.
-	 * @param vertices
-	 * 	- A list of vertices, used to store the output vertex information.
+	 * @return A view of the positions in Assimp's memory. Nothing is copied, so
+	 * 	this is only valid until the scene is released.
 	 */
-	protected static void processVertices(AIMesh aiMesh, List<Float> vertices) {
+	protected static FloatBuffer processVertices(AIMesh aiMesh) {
 		AIVector3D.Buffer aiVertices = aiMesh.mVertices();
-		
-		while (aiVertices.remaining() > 0) {
-			AIVector3D aiVertex = aiVertices.get();
-			vertices.add(aiVertex.x());
-			vertices.add(aiVertex.y());
-			vertices.add(aiVertex.z());
-		}
+		// An AIVector3D is just three floats, so the vertices can be read as floats.
+		return MemoryUtil.memFloatBuffer(aiVertices.address(), aiMesh.mNumVertices() * 3);
 	}
 	
-	protected static void processNormals(AIMesh aiMesh, List<Float> normals) {
+	/**
+	 * @return A view of the normals in Assimp's memory, as with processVertices.
+	 * 	If the mesh has no normals they are all zero.
+	 */
+	protected static FloatBuffer processNormals(AIMesh aiMesh) {
 		AIVector3D.Buffer aiNormals = aiMesh.mNormals();
-		
-		while (aiNormals != null && aiNormals.remaining() > 0) {
-			AIVector3D aiNormal = aiNormals.get();
-			normals.add(aiNormal.x());
-			normals.add(aiNormal.y());
-			normals.add(aiNormal.z());
+		if (aiNormals == null) {
+			return BufferUtils.createFloatBuffer(aiMesh.mNumVertices() * 3);
 		}
+		return MemoryUtil.memFloatBuffer(aiNormals.address(), aiMesh.mNumVertices() * 3);
 	}
 	
-	protected static void processTextureCoords(AIMesh aiMesh, List<Float> textureCoords) {
+	/**
+	 * @return The texture coords, which have to be freed with NativeMemory.free.
+	 * 	If the mesh has no texture coords they are all zero.
+	 */
+	protected static FloatBuffer processTextureCoords(AIMesh aiMesh) {
+		int numVertices = aiMesh.mNumVertices();
+		FloatBuffer textureCoords = NativeMemory.callocFloat(numVertices * 2);
 		// A model can have multiple sets of texture coordinates, and so here
 		// we get the texture coords in a slightly different way to the normals etc.
 		AIVector3D.Buffer aiTextureCoords = aiMesh.mTextureCoords(0);
-		
-		// There doesn't seem to be equivalent to the while loop. Unsure why this was used.
-		int numTexCoords = (aiTextureCoords != null ? aiTextureCoords.remaining() : 0);
-		
-		for (int i=0; i < numTexCoords; i++) {
-			AIVector3D aiTextureCoord = aiTextureCoords.get();
-			textureCoords.add(aiTextureCoord.x());
-			// Flipping the y coordinate is dealt with a flag when importing.
-			textureCoords.add(aiTextureCoord.y());
+		if (aiTextureCoords == null) {
+			return textureCoords;
 		}
+		// Texture coords are stored as 3D vectors, so the z coordinate is skipped.
+		// Flipping the y coordinate is dealt with a flag when importing.
+		FloatBuffer source = MemoryUtil.memFloatBuffer(aiTextureCoords.address(), numVertices * 3);
+		for (int i=0; i < numVertices; i++) {
+			textureCoords.put(i * 2, source.get(i * 3));
+			textureCoords.put(i * 2 + 1, source.get(i * 3 + 1));
+		}
+		return textureCoords;
 	}
 	
-	protected static void processIndices(AIMesh aiMesh, List<Integer> indices) {
+	/**
+	 * @return The indices of every face, which have to be freed with NativeMemory.free.
+	 */
+	protected static IntBuffer processIndices(AIMesh aiMesh) {
 		int numFaces = aiMesh.mNumFaces();
-		AIFace.Buffer aiFaces = aiMesh.mFaces();
+		long faces = aiMesh.mFaces().address();
+		
+		// Each face has its own array of indices, so they are counted first.
+		int numIndices = 0;
+		for (int i=0; i < numFaces; i++) {
+			numIndices += AIFace.nmNumIndices(faces + i * AIFace.SIZEOF);
+		}
 		
+		IntBuffer indices = NativeMemory.allocInt(numIndices);
+		long destination = MemoryUtil.memAddress(indices);
 		for (int i=0; i < numFaces; i++) {
-			AIFace aiFace = aiFaces.get(i);
-			IntBuffer buffer = aiFace.mIndices();
-			
-			// The buffer _could_ be passed directly to OpenGL for more efficiency.
-			while (buffer.remaining() > 0) {
-				indices.add(buffer.get());
-			}
+			long face = faces + i * AIFace.SIZEOF;
+			int faceIndices = AIFace.nmNumIndices(face);
+			MemoryUtil.memCopy(MemoryUtil.memGetAddress(face + AIFace.MINDICES), destination, faceIndices * 4L);
+			destination += faceIndices * 4L;
 		}
+		return indices;
 	}
 }
@@ -0,0 +1,305 @@
+package loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.EXTTextureCompressionS3TC;
+
+import textures.MipChain;
+import textures.TextureData;
+
+/**
+ * Caches decoded textures with their whole mipmap chain already made, so image
+ * files only have to be decoded (and mipmapped) the first time they are loaded,
+ * or never if the cache is built in advance with main().
+ *
+ * With compression on, textures are also stored block compressed (BC1 if the
+ * image is opaque, BC3 if it isn't). Turn it on with setCompression() once it
+ * is known that the graphics card supports S3TC.
+ *
+ * A cache file is a 64 byte header followed by each level in turn, largest first.
+ * It is memory mapped when loaded, and each level is handed straight to OpenGL.
+ * Cache files go out of date the same way MeshCache files do.
+ * @author Billy
+ *
+ */
+public class TextureCache {
+
+	private static final String CACHE_LOC = "cache/textures/";
+	private static final String RES_LOC = "src/main/resources/";
+
+	private static final int MAGIC = 0x52584554; // "TEXR"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+
+	// Header field offsets, in bytes. The source fields are where MeshCache expects them.
+	private static final int FORMAT = 8;
+	private static final int WIDTH = 12;
+	private static final int HEIGHT = 16;
+	private static final int LEVEL_COUNT = 20;
+	private static final int SOURCE_LENGTH = 24;
+	private static final int SOURCE_MODIFIED = 32;
+	private static final int SOURCE_HASH = 40;
+
+	private static final int FORMAT_RGBA = 0;
+	private static final int FORMAT_BC1 = 1;
+	private static final int FORMAT_BC3 = 2;
+
+	private static volatile boolean compression = false;
+
+	public static void setCompression(boolean compression) {
+		TextureCache.compression = compression;
+	}
+
+	public static boolean isCompressionOn() {
+		return compression;
+	}
+
+	/**
+	 * Loads a texture from its cache file if that is up to date. Otherwise the image
+	 * is decoded and mipmapped, and the cache file is rebuilt. Can be called from
+	 * any thread.
+	 * @param fileName
+	 * 		- The image file, relative to the resources folder.
+	 */
+	public static MipChain prepareTexture(String fileName) {
+		return prepareTexture(fileName, compression);
+	}
+
+	public static MipChain prepareTexture(String fileName, boolean compress) {
+		File cacheFile = getCacheFile(fileName);
+		File source = new File(RES_LOC + fileName);
+		try {
+			MipChain cached = readCached(cacheFile, source, compress);
+			if (cached != null) {
+				return cached;
+			}
+		} catch (IOException e) {
+			System.err.println("Couldn't read texture cache file " + cacheFile + ", rebuilding it.");
+		}
+
+		ByteBuffer buffer = build(fileName, source, compress);
+		MipChain texture = null;
+		try {
+			MeshCache.writeAtomically(cacheFile, buffer.duplicate());
+			// Mapped back in like any other cache file, so the scratch buffer can be reused.
+			texture = readCached(cacheFile, source, compress);
+		} catch (IOException e) {
+			System.err.println("Couldn't write texture cache file " + cacheFile);
+			e.printStackTrace();
+		}
+		if (texture == null) {
+			// Without a cache file the levels are copied out, into memory the garbage collector frees.
+			ByteBuffer copy = BufferUtils.createByteBuffer(buffer.remaining()).order(ByteOrder.nativeOrder());
+			copy.put(buffer.duplicate()).flip();
+			texture = toMipChain(copy);
+		}
+		NativeMemory.releaseScratch(buffer);
+		return texture;
+	}
+
+	public static File getCacheFile(String fileName) {
+		// Textures found by Assimp can be in other folders, so the path is flattened.
+		return new File(CACHE_LOC + fileName.replace('/', '_').replace('\\', '_').replace(':', '_') + ".tex");
+	}
+
+	/**
+	 * Offline converter, for building the cache before the game is run. Takes the names
+	 * of image files in the resources folder. Files after "-compress" are block compressed.
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean compress = false;
+		for (String fileName : args) {
+			if (fileName.equals("-compress")) {
+				compress = true;
+				continue;
+			}
+			File source = new File(RES_LOC + fileName);
+			ByteBuffer buffer = build(fileName, source, compress);
+			try {
+				MeshCache.writeAtomically(getCacheFile(fileName), buffer);
+			} finally {
+				NativeMemory.releaseScratch(buffer);
+			}
+			System.out.println("Converted " + source);
+		}
+	}
+
+	/**
+	 * Decodes the image and lays out the whole cache file in memory.
+	 * @return A scratch buffer, to be given back with NativeMemory.releaseScratch().
+	 */
+	private static ByteBuffer build(String fileName, File source, boolean compress) {
+		TextureData image = Loader.decodeTexture(fileName);
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int format = FORMAT_RGBA;
+		if (compress) {
+			format = BlockCompression.isOpaque(image.getBuffer(), width, height) ? FORMAT_BC1 : FORMAT_BC3;
+		}
+		int levelCount = getLevelCount(width, height);
+		int size = HEADER_SIZE;
+		for (int level=0; level<levelCount; level++) {
+			size += getLevelSize(format, Math.max(1, width >> level), Math.max(1, height >> level));
+		}
+
+		ByteBuffer buffer = NativeMemory.acquireScratch(size).order(ByteOrder.nativeOrder());
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(FORMAT, format);
+		buffer.putInt(WIDTH, width);
+		buffer.putInt(HEIGHT, height);
+		buffer.putInt(LEVEL_COUNT, levelCount);
+		buffer.putLong(SOURCE_LENGTH, source.length());
+		buffer.putLong(SOURCE_MODIFIED, source.lastModified());
+		try {
+			buffer.putLong(SOURCE_HASH, source.exists() ? MeshCache.hash(source) : 0);
+		} catch (IOException e) {
+			// Only means the file will be decoded again next time.
+		}
+
+		buffer.position(HEADER_SIZE);
+		ByteBuffer pixels = image.getBuffer();
+		int levelWidth = width;
+		int levelHeight = height;
+		for (int level=0; level<levelCount; level++) {
+			if (level > 0) {
+				int nextWidth = Math.max(1, levelWidth / 2);
+				int nextHeight = Math.max(1, levelHeight / 2);
+				ByteBuffer next = NativeMemory.alloc(nextWidth * nextHeight * 4);
+				downsample(pixels, levelWidth, levelHeight, next, nextWidth, nextHeight);
+				freePixels(pixels, level - 1);
+				pixels = next;
+				levelWidth = nextWidth;
+				levelHeight = nextHeight;
+			}
+			if (format == FORMAT_RGBA) {
+				buffer.put(pixels.duplicate());
+			} else {
+				BlockCompression.compress(pixels, levelWidth, levelHeight, format == FORMAT_BC3, buffer);
+			}
+		}
+		freePixels(pixels, levelCount - 1);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Level 0 came from STB, and the rest from NativeMemory.alloc().
+	 */
+	private static void freePixels(ByteBuffer pixels, int level) {
+		if (level == 0) {
+			NativeMemory.freeImage(pixels);
+		} else {
+			NativeMemory.free(pixels);
+		}
+	}
+
+	/**
+	 * Box filters an RGBA image down to the next mipmap level. An odd row or column
+	 * at the edge is averaged with its neighbour.
+	 */
+	private static void downsample(ByteBuffer source, int width, int height,
+			ByteBuffer destination, int destinationWidth, int destinationHeight) {
+		for (int y=0; y<destinationHeight; y++) {
+			int row0 = Math.min(y * 2, height - 1) * width;
+			int row1 = Math.min(y * 2 + 1, height - 1) * width;
+			for (int x=0; x<destinationWidth; x++) {
+				int column0 = Math.min(x * 2, width - 1);
+				int column1 = Math.min(x * 2 + 1, width - 1);
+				int out = (y * destinationWidth + x) * 4;
+				for (int c=0; c<4; c++) {
+					int sum = (source.get((row0 + column0) * 4 + c) & 0xFF)
+							+ (source.get((row0 + column1) * 4 + c) & 0xFF)
+							+ (source.get((row1 + column0) * 4 + c) & 0xFF)
+							+ (source.get((row1 + column1) * 4 + c) & 0xFF);
+					destination.put(out + c, (byte) ((sum + 2) >> 2));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The mipmap chain of the mapped cache file, or null if there is no up to
+	 * date cache file in the wanted format.
+	 */
+	private static MipChain readCached(File cacheFile, File source, boolean compress) throws IOException {
+		if (!cacheFile.exists()) {
+			return null;
+		}
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+			// Checked before mapping, as a mapped file can't be replaced on Windows.
+			ByteBuffer header = MeshCache.readHeader(channel, HEADER_SIZE);
+			if (header == null || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				return null;
+			}
+			if ((header.getInt(FORMAT) != FORMAT_RGBA) != compress) {
+				return null;
+			}
+			if (!MeshCache.isUpToDate(header, cacheFile, source)) {
+				return null;
+			}
+			// The mapping stays valid after the channel is closed.
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buffer.order(ByteOrder.nativeOrder());
+		return toMipChain(buffer);
+	}
+
+	/**
+	 * Splits a cache file's levels out into their own buffers.
+	 */
+	private static MipChain toMipChain(ByteBuffer buffer) {
+		int format = buffer.getInt(FORMAT);
+		int width = buffer.getInt(WIDTH);
+		int height = buffer.getInt(HEIGHT);
+		int levelCount = buffer.getInt(LEVEL_COUNT);
+		if (levelCount != getLevelCount(width, height)) {
+			return null;
+		}
+
+		ByteBuffer[] levels = new ByteBuffer[levelCount];
+		int offset = HEADER_SIZE;
+		for (int level=0; level<levelCount; level++) {
+			int size = getLevelSize(format, Math.max(1, width >> level), Math.max(1, height >> level));
+			if (offset + size > buffer.capacity()) {
+				return null;
+			}
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset).limit(offset + size);
+			levels[level] = view.slice();
+			offset += size;
+		}
+		return new MipChain(width, height, getGLFormat(format), levels);
+	}
+
+	private static int getLevelCount(int width, int height) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+	}
+
+	private static int getLevelSize(int format, int width, int height) {
+		if (format == FORMAT_RGBA) {
+			return width * height * 4;
+		}
+		return BlockCompression.getCompressedSize(width, height, format == FORMAT_BC3);
+	}
+
+	private static int getGLFormat(int format) {
+		switch (format) {
+		case FORMAT_BC1:
+			return EXTTextureCompressionS3TC.GL_COMPRESSED_RGB_S3TC_DXT1_EXT;
+		case FORMAT_BC3:
+			return EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+		default:
+			return 0;
+		}
+	}
+
+}
@@ -1,5 +1,7 @@
 package models;
 
+import org.joml.Vector3f;
+
 /**
  * Holds information about a raw, untextured model in memory.
  * This information is needed for rendering.
@@ -11,10 +13,22 @@ public class RawModel {
 	private int vaoID;
 	private int vertexCount;
 	
+	// Bounding sphere in model space, used for frustum culling. Models without
+	// bounds (i.e. 2D quads) are never culled.
+	private Vector3f boundsCentre;
+	private float boundsRadius;
+	
 	public RawModel(int vaoID, int vertexCount) {
 		this.vaoID = vaoID;
 		this.vertexCount = vertexCount;
 	}
+	
+	public RawModel(int vaoID, int vertexCount, Vector3f boundsCentre, float boundsRadius) {
+		this.vaoID = vaoID;
+		this.vertexCount = vertexCount;
+		this.boundsCentre = boundsCentre;
+		this.boundsRadius = boundsRadius;
+	}
 
 	public int getVaoID() {
 		return vaoID;
@@ -23,5 +37,24 @@ public class RawModel {
 	public int getVertexCount() {
 		return vertexCount;
 	}
+	
+	public boolean hasBounds() {
+		return boundsCentre != null;
+	}
+
+	public Vector3f getBoundsCentre() {
+		return boundsCentre;
+	}
+
+	public float getBoundsRadius() {
+		return boundsRadius;
+	}
+	
+	/**
+	 * @return Radius of a sphere around the model's origin which contains the whole model.
+	 */
+	public float getRadiusFromOrigin() {
+		return boundsCentre.length() + boundsRadius;
+	}
 
 }
@@ -3,13 +3,16 @@ package models.animatedModel;
 import java.util.Map;
 
 import animation.Animation;
+import animation.Skeleton;
 import models.TexturedModel;
 
 public class AnimatedModel {
 	
 	private TexturedModel[] meshes;
 	private Map<String, Animation> animations;
-	private Animation currentAnimation;
+	private Skeleton skeleton;
+	// Radius around the model's origin containing all meshes in their bind pose.
+	private float boundingRadius = 0;
 	
 	/**
 	 * An animated model can be made up of multiple seperate meshes, which
@@ -18,10 +21,17 @@ public class AnimatedModel {
 	 * 
 	 * @param meshes
 	 * @param animations
+	 * @param skeleton
 	 */
-	public AnimatedModel(TexturedModel[] meshes, Map<String, Animation> animations) {
+	public AnimatedModel(TexturedModel[] meshes, Map<String, Animation> animations, Skeleton skeleton) {
 		this.meshes = meshes;
 		this.animations = animations;
+		this.skeleton = skeleton;
+		for (TexturedModel mesh : meshes) {
+			if (mesh.getRawModel().hasBounds()) {
+				boundingRadius = Math.max(boundingRadius, mesh.getRawModel().getRadiusFromOrigin());
+			}
+		}
 	}
 	
 	public Object[] getAvailableAnimations() {
@@ -33,12 +43,22 @@ public class AnimatedModel {
 		return animations.get(name);
 	}
 	
-	public Animation getCurrentAnimation() {
-		return currentAnimation;
+	/**
+	 * Note this is for the bind pose. Animations may move vertices outside of it.
+	 */
+	public float getBoundingRadius() {
+		return boundingRadius;
+	}
+	
+	/**
+	 * @return The number of joints in the skeleton, which is all the shader needs.
+	 */
+	public int getJointCount() {
+		return skeleton.getJointCount();
 	}
 	
-	public void setCurrentAnimation(Animation animation) {
-		this.currentAnimation = animation;
+	public Skeleton getSkeleton() {
+		return skeleton;
 	}
 	
 	public TexturedModel[] getMeshes() {
@@ -1,204 +1,196 @@
 package normalMappingObjConverter;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
-import org.joml.Vector2f;
 import org.joml.Vector3f;
 
 import loader.Loader;
+import loader.MeshCache;
+import loader.MeshData;
+import loader.MeshUpload;
+import loader.ObjParser;
 import models.RawModel;
 
 public class NormalMappedObjLoader {
 
 	private static final String RES_LOC = "src/main/resources/";
+	
+	private static final int NO_INDEX = -1;
 
+	/**
+	 * Loads the model from the mesh cache if possible, only parsing the OBJ file if
+	 * it has changed since the cache was built.
+	 */
 	public static RawModel loadOBJ(String objFileName, Loader loader) {
-		FileReader isr = null;
-		File objFile = new File(RES_LOC + objFileName + ".obj");
-		try {
-			isr = new FileReader(objFile);
-		} catch (FileNotFoundException e) {
-			System.err.println("File not found in res; don't use any extention");
-		}
-		BufferedReader reader = new BufferedReader(isr);
-		String line;
-		List<VertexNM> vertices = new ArrayList<VertexNM>();
-		List<Vector2f> textures = new ArrayList<Vector2f>();
-		List<Vector3f> normals = new ArrayList<Vector3f>();
-		List<Integer> indices = new ArrayList<Integer>();
+		return prepareOBJ(objFileName).upload(loader);
+	}
+	
+	/**
+	 * Everything loadOBJ does apart from the upload to OpenGL, so it can be called
+	 * from any thread.
+	 */
+	public static MeshUpload prepareOBJ(String objFileName) {
+		return MeshCache.prepareModel(getCacheName(objFileName), new File(RES_LOC + objFileName + ".obj"),
+				() -> loadData(objFileName));
+	}
+	
+	/**
+	 * Kept apart from the OBJLoader's cache, as the vertices are laid out differently.
+	 */
+	public static String getCacheName(String objFileName) {
+		return objFileName + ".normalMapped";
+	}
+	
+	/**
+	 * Parses the OBJ file, without loading it into a VAO.
+	 * 
+	 * Each position starts off as one vertex. When a position is used with a different
+	 * texture coord or normal, a duplicate vertex is added to the end. Tangents are
+	 * averaged over every triangle which uses the position.
+	 */
+	public static MeshData loadData(String objFileName) {
+		ObjParser obj;
 		try {
-			while (true) {
-				line = reader.readLine();
-				if (line.startsWith("v ")) {
-					String[] currentLine = line.split(" ");
-					Vector3f vertex = new Vector3f((float) Float.valueOf(currentLine[1]),
-							(float) Float.valueOf(currentLine[2]),
-							(float) Float.valueOf(currentLine[3]));
-					VertexNM newVertex = new VertexNM(vertices.size(), vertex);
-					vertices.add(newVertex);
-
-				} else if (line.startsWith("vt ")) {
-					String[] currentLine = line.split(" ");
-					Vector2f texture = new Vector2f((float) Float.valueOf(currentLine[1]),
-							(float) Float.valueOf(currentLine[2]));
-					textures.add(texture);
-				} else if (line.startsWith("vn ")) {
-					String[] currentLine = line.split(" ");
-					Vector3f normal = new Vector3f((float) Float.valueOf(currentLine[1]),
-							(float) Float.valueOf(currentLine[2]),
-							(float) Float.valueOf(currentLine[3]));
-					normals.add(normal);
-				} else if (line.startsWith("f ")) {
-					break;
-				}
-			}
-			while (line != null && line.startsWith("f ")) {
-				String[] currentLine = line.split(" ");
-				String[] vertex1 = currentLine[1].split("/");
-				String[] vertex2 = currentLine[2].split("/");
-				String[] vertex3 = currentLine[3].split("/");
-				VertexNM v0 = processVertex(vertex1, vertices, indices);
-				VertexNM v1 = processVertex(vertex2, vertices, indices);
-				VertexNM v2 = processVertex(vertex3, vertices, indices);
-				calculateTangents(v0, v1, v2, textures);//NEW
-				line = reader.readLine();
-			}
-			reader.close();
+			obj = ObjParser.parse(new File(RES_LOC + objFileName + ".obj"));
 		} catch (IOException e) {
 			System.err.println("Error reading the file");
+			return new MeshData(new float[0], new float[0], new float[0], new float[0], new int[0]);
 		}
-		removeUnusedVertices(vertices);
-		float[] verticesArray = new float[vertices.size() * 3];
-		float[] texturesArray = new float[vertices.size() * 2];
-		float[] normalsArray = new float[vertices.size() * 3];
-		float[] tangentsArray = new float[vertices.size() * 3];
-		float furthest = convertDataToArrays(vertices, textures, normals, verticesArray,
-				texturesArray, normalsArray, tangentsArray);
-		int[] indicesArray = convertIndicesListToArray(indices);
-
-		return loader.loadToVAO(verticesArray, texturesArray, normalsArray, tangentsArray, indicesArray);
-	}
-
-	//NEW 
-	private static void calculateTangents(VertexNM v0, VertexNM v1, VertexNM v2,
-			List<Vector2f> textures) {
-		Vector3f deltaPos1 = new Vector3f(0.0f);
-		Vector3f deltaPos2 = new Vector3f(0.0f);
-		Vector2f deltaUv1 = new Vector2f(0.0f);
-		Vector2f deltaUv2 = new Vector2f(0.0f);
+		int positionCount = obj.getPositionCount();
+		int[] corners = obj.getCorners();
+		float[] positions = obj.getPositions();
+		float[] textures = obj.getTextureCoords();
 		
-		v1.getPosition().sub(v0.getPosition(), deltaPos1);
-		v2.getPosition().sub(v0.getPosition(), deltaPos2);
-		
-		Vector2f uv0 = textures.get(v0.getTextureIndex());
-		Vector2f uv1 = textures.get(v1.getTextureIndex());
-		Vector2f uv2 = textures.get(v2.getTextureIndex());
+		// The position, texture and normal index of each vertex.
+		int vertexCount = positionCount;
+		int[] vertexPositions = new int[positionCount];
+		int[] vertexTextures = new int[positionCount];
+		int[] vertexNormals = new int[positionCount];
+		for (int i=0; i<positionCount; i++) {
+			vertexPositions[i] = i;
+		}
+		Arrays.fill(vertexTextures, NO_INDEX);
+		Arrays.fill(vertexNormals, NO_INDEX);
 		
-		uv1.sub(uv0, deltaUv1);
-		uv2.sub(uv0, deltaUv2);
-
-		float r = 1.0f / (deltaUv1.x * deltaUv2.y - deltaUv1.y * deltaUv2.x);
-		deltaPos1.mul(deltaUv2.y);
-		deltaPos2.mul(deltaUv1.y);
+		// Shared by all the vertices with the same position.
+		float[] tangentSums = new float[positionCount * 3];
+		int[] tangentCounts = new int[positionCount];
 		
-		Vector3f tangent = new Vector3f(0.0f);
-		deltaPos1.sub(deltaPos2, tangent);
-		tangent.mul(r);
-		v0.addTangent(tangent);
-		v1.addTangent(tangent);
-		v2.addTangent(tangent);
-	}
-
-	private static VertexNM processVertex(String[] vertex, List<VertexNM> vertices,
-			List<Integer> indices) {
-		int index = Integer.parseInt(vertex[0]) - 1;
-		VertexNM currentVertex = vertices.get(index);
-		int textureIndex = Integer.parseInt(vertex[1]) - 1;
-		int normalIndex = Integer.parseInt(vertex[2]) - 1;
-		if (!currentVertex.isSet()) {
-			currentVertex.setTextureIndex(textureIndex);
-			currentVertex.setNormalIndex(normalIndex);
-			indices.add(index);
-			return currentVertex;
-		} else {
-			return dealWithAlreadyProcessedVertex(currentVertex, textureIndex, normalIndex, indices,
-					vertices);
-		}
-	}
-
-	private static int[] convertIndicesListToArray(List<Integer> indices) {
-		int[] indicesArray = new int[indices.size()];
-		for (int i = 0; i < indicesArray.length; i++) {
-			indicesArray[i] = indices.get(i);
-		}
-		return indicesArray;
-	}
-
-	private static float convertDataToArrays(List<VertexNM> vertices, List<Vector2f> textures,
-			List<Vector3f> normals, float[] verticesArray, float[] texturesArray,
-			float[] normalsArray, float[] tangentsArray) {
-		float furthestPoint = 0;
-		for (int i = 0; i < vertices.size(); i++) {
-			VertexNM currentVertex = vertices.get(i);
-			if (currentVertex.getLength() > furthestPoint) {
-				furthestPoint = currentVertex.getLength();
+		int[] indices = new int[obj.getCornerCount()];
+		VertexIndexMap vertexIndices = new VertexIndexMap(positionCount);
+		for (int i=0; i<indices.length; i++) {
+			int position = corners[i * 3];
+			int texture = corners[i * 3 + 1];
+			int normal = corners[i * 3 + 2];
+			int index;
+			if (vertexTextures[position] == NO_INDEX) {
+				// First use of the position, so it can use its own vertex.
+				index = position;
+				vertexTextures[index] = texture;
+				vertexNormals[index] = normal;
+				vertexIndices.put(position, texture, normal, index);
+			} else {
+				index = vertexIndices.get(position, texture, normal);
+				if (index == VertexIndexMap.NOT_FOUND) {
+					index = vertexCount++;
+					if (index == vertexPositions.length) {
+						int capacity = vertexPositions.length * 2;
+						vertexPositions = Arrays.copyOf(vertexPositions, capacity);
+						vertexTextures = Arrays.copyOf(vertexTextures, capacity);
+						vertexNormals = Arrays.copyOf(vertexNormals, capacity);
+					}
+					vertexPositions[index] = position;
+					vertexTextures[index] = texture;
+					vertexNormals[index] = normal;
+					vertexIndices.put(position, texture, normal, index);
+				}
+			}
+			indices[i] = index;
+			if (i % 3 == 2) {
+				calculateTangents(corners, i - 2, positions, textures, tangentSums, tangentCounts);
 			}
-			Vector3f position = currentVertex.getPosition();
-			Vector2f textureCoord = textures.get(currentVertex.getTextureIndex());
-			Vector3f normalVector = normals.get(currentVertex.getNormalIndex());
-			Vector3f tangent = currentVertex.getAverageTangent();
-			verticesArray[i * 3] = position.x;
-			verticesArray[i * 3 + 1] = position.y;
-			verticesArray[i * 3 + 2] = position.z;
-			texturesArray[i * 2] = textureCoord.x;
-			texturesArray[i * 2 + 1] = 1 - textureCoord.y;
-			normalsArray[i * 3] = normalVector.x;
-			normalsArray[i * 3 + 1] = normalVector.y;
-			normalsArray[i * 3 + 2] = normalVector.z;
-			tangentsArray[i * 3] = tangent.x;
-			tangentsArray[i * 3 + 1] = tangent.y;
-			tangentsArray[i * 3 + 2] = tangent.z;
-
 		}
-		return furthestPoint;
+		
+		float[] verticesArray = new float[vertexCount * 3];
+		float[] texturesArray = new float[vertexCount * 2];
+		float[] normalsArray = new float[vertexCount * 3];
+		float[] tangentsArray = new float[vertexCount * 3];
+		convertDataToArrays(obj, vertexCount, vertexPositions, vertexTextures, vertexNormals, tangentSums,
+				tangentCounts, verticesArray, texturesArray, normalsArray, tangentsArray);
+
+		return new MeshData(verticesArray, texturesArray, normalsArray, tangentsArray, indices);
 	}
 
-	private static VertexNM dealWithAlreadyProcessedVertex(VertexNM previousVertex, int newTextureIndex,
-			int newNormalIndex, List<Integer> indices, List<VertexNM> vertices) {
-		if (previousVertex.hasSameTextureAndNormal(newTextureIndex, newNormalIndex)) {
-			indices.add(previousVertex.getIndex());
-			return previousVertex;
-		} else {
-			VertexNM anotherVertex = previousVertex.getDuplicateVertex();
-			if (anotherVertex != null) {
-				return dealWithAlreadyProcessedVertex(anotherVertex, newTextureIndex,
-						newNormalIndex, indices, vertices);
-			} else {
-				VertexNM duplicateVertex = previousVertex.duplicate(vertices.size());//NEW
-				duplicateVertex.setTextureIndex(newTextureIndex);
-				duplicateVertex.setNormalIndex(newNormalIndex);
-				previousVertex.setDuplicateVertex(duplicateVertex);
-				vertices.add(duplicateVertex);
-				indices.add(duplicateVertex.getIndex());
-				return duplicateVertex;
-			}
+	/**
+	 * Works out the tangent of a triangle, and adds it to the tangents of its corners' positions.
+	 * 
+	 * @param firstCorner
+	 * 		- Index of the triangle's first corner.
+	 */
+	private static void calculateTangents(int[] corners, int firstCorner, float[] positions, float[] textures,
+			float[] tangentSums, int[] tangentCounts) {
+		int p0 = corners[firstCorner * 3] * 3;
+		int p1 = corners[firstCorner * 3 + 3] * 3;
+		int p2 = corners[firstCorner * 3 + 6] * 3;
+		int uv0 = corners[firstCorner * 3 + 1] * 2;
+		int uv1 = corners[firstCorner * 3 + 4] * 2;
+		int uv2 = corners[firstCorner * 3 + 7] * 2;
+		
+		float deltaPos1X = positions[p1] - positions[p0];
+		float deltaPos1Y = positions[p1 + 1] - positions[p0 + 1];
+		float deltaPos1Z = positions[p1 + 2] - positions[p0 + 2];
+		float deltaPos2X = positions[p2] - positions[p0];
+		float deltaPos2Y = positions[p2 + 1] - positions[p0 + 1];
+		float deltaPos2Z = positions[p2 + 2] - positions[p0 + 2];
+		float deltaUv1X = textures[uv1] - textures[uv0];
+		float deltaUv1Y = textures[uv1 + 1] - textures[uv0 + 1];
+		float deltaUv2X = textures[uv2] - textures[uv0];
+		float deltaUv2Y = textures[uv2 + 1] - textures[uv0 + 1];
+
+		float r = 1.0f / (deltaUv1X * deltaUv2Y - deltaUv1Y * deltaUv2X);
+		float tangentX = (deltaPos1X * deltaUv2Y - deltaPos2X * deltaUv1Y) * r;
+		float tangentY = (deltaPos1Y * deltaUv2Y - deltaPos2Y * deltaUv1Y) * r;
+		float tangentZ = (deltaPos1Z * deltaUv2Y - deltaPos2Z * deltaUv1Y) * r;
+		
+		for (int i=0; i<3; i++) {
+			int position = corners[(firstCorner + i) * 3];
+			tangentSums[position * 3] += tangentX;
+			tangentSums[position * 3 + 1] += tangentY;
+			tangentSums[position * 3 + 2] += tangentZ;
+			tangentCounts[position]++;
 		}
 	}
 
-	private static void removeUnusedVertices(List<VertexNM> vertices) {
-		for (VertexNM vertex : vertices) {
-			vertex.averageTangents();
-			if (!vertex.isSet()) {
-				vertex.setTextureIndex(0);
-				vertex.setNormalIndex(0);
+	private static void convertDataToArrays(ObjParser obj, int vertexCount, int[] vertexPositions,
+			int[] vertexTextures, int[] vertexNormals, float[] tangentSums, int[] tangentCounts,
+			float[] verticesArray, float[] texturesArray, float[] normalsArray, float[] tangentsArray) {
+		float[] positions = obj.getPositions();
+		float[] textures = obj.getTextureCoords();
+		float[] normals = obj.getNormals();
+		Vector3f tangent = new Vector3f();
+		for (int i = 0; i < vertexCount; i++) {
+			int position = vertexPositions[i];
+			// Positions which are never used are given the first texture coord and normal.
+			int texture = Math.max(vertexTextures[i], 0);
+			int normal = Math.max(vertexNormals[i], 0);
+			verticesArray[i * 3] = positions[position * 3];
+			verticesArray[i * 3 + 1] = positions[position * 3 + 1];
+			verticesArray[i * 3 + 2] = positions[position * 3 + 2];
+			texturesArray[i * 2] = textures[texture * 2];
+			texturesArray[i * 2 + 1] = 1 - textures[texture * 2 + 1];
+			normalsArray[i * 3] = normals[normal * 3];
+			normalsArray[i * 3 + 1] = normals[normal * 3 + 1];
+			normalsArray[i * 3 + 2] = normals[normal * 3 + 2];
+			if (tangentCounts[position] > 0) {
+				tangent.set(tangentSums[position * 3], tangentSums[position * 3 + 1],
+						tangentSums[position * 3 + 2]).normalize();
+				tangentsArray[i * 3] = tangent.x;
+				tangentsArray[i * 3 + 1] = tangent.y;
+				tangentsArray[i * 3 + 2] = tangent.z;
 			}
 		}
 	}
 
-}
\ No newline at end of file
+}
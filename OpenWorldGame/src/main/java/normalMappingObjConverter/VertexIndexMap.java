@@ -0,0 +1,86 @@
+package normalMappingObjConverter;
+
+import java.util.Arrays;
+
+/**
+ * Maps a position, texture and normal index triple to the index of the vertex
+ * made from them, so corners which share all three can share a vertex. Uses
+ * open addressing over primitive arrays, so nothing is allocated per entry.
+ * @author Billy
+ *
+ */
+class VertexIndexMap {
+	
+	public static final int NOT_FOUND = -1;
+	
+	private int[] keys;
+	private int[] values;
+	private int size = 0;
+	private int mask;
+	
+	VertexIndexMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+	
+	int get(int position, int texture, int normal) {
+		int slot = hash(position, texture, normal) & mask;
+		while (values[slot] != NOT_FOUND) {
+			if (matches(slot, position, texture, normal)) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NOT_FOUND;
+	}
+	
+	/**
+	 * Should only be called for triples which aren't already in the map.
+	 */
+	void put(int position, int texture, int normal, int vertexIndex) {
+		if ((size + 1) * 2 > values.length) {
+			resize();
+		}
+		int slot = hash(position, texture, normal) & mask;
+		while (values[slot] != NOT_FOUND) {
+			slot = (slot + 1) & mask;
+		}
+		keys[slot * 3] = position;
+		keys[slot * 3 + 1] = texture;
+		keys[slot * 3 + 2] = normal;
+		values[slot] = vertexIndex;
+		size++;
+	}
+	
+	private boolean matches(int slot, int position, int texture, int normal) {
+		return keys[slot * 3] == position && keys[slot * 3 + 1] == texture && keys[slot * 3 + 2] == normal;
+	}
+	
+	private void resize() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldValues.length * 2);
+		size = 0;
+		for (int i=0; i<oldValues.length; i++) {
+			if (oldValues[i] != NOT_FOUND) {
+				put(oldKeys[i * 3], oldKeys[i * 3 + 1], oldKeys[i * 3 + 2], oldValues[i]);
+			}
+		}
+	}
+	
+	private void allocate(int capacity) {
+		keys = new int[capacity * 3];
+		values = new int[capacity];
+		Arrays.fill(values, NOT_FOUND);
+		mask = capacity - 1;
+	}
+	
+	private static int hash(int position, int texture, int normal) {
+		int hash = position * 0x9E3779B1 + texture * 0x85EBCA77 + normal * 0xC2B2AE3D;
+		return hash ^ (hash >>> 16);
+	}
+
+}
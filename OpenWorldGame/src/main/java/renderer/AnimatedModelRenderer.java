@@ -8,9 +8,11 @@ import org.lwjgl.opengl.GL13;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
 
+import animation.AnimationSystem;
 import entities.AnimatedEntity;
 import entities.Camera;
 import entities.Light;
+import loader.Loader;
 import models.RawModel;
 import models.TexturedModel;
 import shaders.AnimatedModelShader;
@@ -19,32 +21,42 @@ import toolbox.Maths;
 public class AnimatedModelRenderer {
 		
 	private AnimatedModelShader shader;
+	private JointPalette palette;
+	private Matrix4f transformationMatrix = new Matrix4f();
 	
-	public AnimatedModelRenderer(Matrix4f projectionMatrix) {
+	public AnimatedModelRenderer(Matrix4f projectionMatrix, Loader loader) {
 		shader = new AnimatedModelShader();
+		palette = new JointPalette(loader);
 		shader.start();
 		shader.loadProjectionMatrix(projectionMatrix);
+		shader.connectTextureUnits();
 		shader.stop();
 	}
 	
+	/**
+	 * Uploads the joints of every animated entity in their current pose. Called once
+	 * per frame, before any of the render passes, which then all share the upload.
+	 */
+	public void updatePalette(AnimationSystem animation) {
+		palette.upload(animation.getPalette(), animation.getJointCount());
+	}
+	
 	public void render(List<AnimatedEntity> entities, List<Light> lights, Camera camera) {
 		prepare(camera);
-
-		shader.loadModelMatrix(Maths.createTransformationMatrix(
-				entities.get(0).getPosition(), 
-				entities.get(0).getRotX(), 
-				entities.get(0).getRotY(), 
-				entities.get(0).getRotZ(), 
-				entities.get(0).getScale()));
 		
 		shader.loadLights(lights);
 		
 		
 		for (AnimatedEntity entity : entities) {
-			if (entity.getModel().getCurrentAnimation() != null) {
-				int currentFrame = entity.getModel().getCurrentAnimation().getCurrentFrame();
-				shader.loadJointTransforms(entity.getModel().getCurrentAnimation().getKeyFrames().get(currentFrame).getJointMatrices());
-			}
+			entity.setVisible(true);
+			shader.loadModelMatrix(Maths.createTransformationMatrix(
+					transformationMatrix,
+					entity.getPosition(), 
+					entity.getRotX(), 
+					entity.getRotY(), 
+					entity.getRotZ(), 
+					entity.getScale()));
+			shader.loadPaletteOffset(entity.getPaletteOffset());
 			
 			// All meshes have the same texture. Use that of the 1st for all.
 			//TODO Will need to do some work because different meshes may have
@@ -83,11 +95,13 @@ public class AnimatedModelRenderer {
 	
 	public void cleanUp() {
 		shader.cleanUp();
+		palette.cleanUp();
 	}
 	
 	private void prepare(Camera camera) {
 		shader.start();
 		shader.loadViewMatrix(camera);
+		palette.bind(shader.getJointPaletteUnit());
 		GL11.glEnable(GL11.GL_DEPTH_TEST);
 	}
 	
@@ -1,15 +1,22 @@
 package renderer;
 
+import java.nio.FloatBuffer;
 import java.util.List;
 import java.util.Map;
 
 import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
 
 import entities.Entity;
+import loader.Loader;
 import models.RawModel;
 import models.TexturedModel;
 import shaders.BasicShader;
@@ -18,33 +25,119 @@ import toolbox.Maths;
 
 public class EntityRenderer {
 	
+	// Max instances drawn by one instanced draw call. Bigger batches are split.
+	private static final int MAX_INSTANCES = 10000;
+	// 16 floats for the transformation matrix, 2 for the texture atlas offset.
+	private static final int INSTANCE_DATA_LENGTH = 18;
+	
 	private BasicShader shader;
+	private Loader loader;
+	
+	// Instancing needs glVertexAttribDivisor, which is core from OpenGL 3.3.
+	private boolean instanced;
+	// Per-instance data for every batch, shared by all models. Each model's VAO is
+	// pointed at it before drawing, so it doesn't have to be freed with the model.
+	private int instanceVbo;
+	private FloatBuffer instanceBuffer = BufferUtils.createFloatBuffer(MAX_INSTANCES * INSTANCE_DATA_LENGTH);
+	private float[] instanceData = new float[MAX_INSTANCES * INSTANCE_DATA_LENGTH];
+	private Matrix4f transformationMatrix = new Matrix4f();
 	
-	public EntityRenderer(BasicShader shader, Matrix4f projectionMatrix) {
+	private int drawCalls = 0;
+	
+	public EntityRenderer(BasicShader shader, Matrix4f projectionMatrix, Loader loader) {
 		this.shader = shader;
+		this.loader = loader;
+		this.instanced = GL.getCapabilities().OpenGL33;
 		shader.start();
 		shader.loadProjectionMatrix(projectionMatrix);
 		shader.stop();
 	}
 	
 	public void render(Map<TexturedModel, List<Entity>> entities) {
+		shader.loadUseInstancing(instanced);
 		for(TexturedModel model : entities.keySet()) {
-			prepareTexturedModel(model);
 			List<Entity> batch = entities.get(model);
-			for(Entity entity : batch) {
-				prepareInstance(entity);
-				GL11.glDrawElements(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(), GL11.GL_UNSIGNED_INT, 0);
+			if (instanced) {
+				prepareTexturedModel(model);
+				bindInstanceAttributes();
+				renderInstanced(model, batch);
+			} else {
+				prepareTexturedModel(model);
+				for(Entity entity : batch) {
+					prepareInstance(entity);
+					GL11.glDrawElements(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(), GL11.GL_UNSIGNED_INT, 0);
+					drawCalls++;
+				}
 			}
 			unbindTexturedModel();
 		}
 	}
 	
+	/**
+	 * Draws a whole batch with a single draw call (or one per MAX_INSTANCES entities).
+	 * Transforms and atlas offsets are streamed into the shared instance VBO.
+	 */
+	private void renderInstanced(TexturedModel model, List<Entity> batch) {
+		int instanceCount = 0;
+		int pointer = 0;
+		for (Entity entity : batch) {
+			Maths.createTransformationMatrix(transformationMatrix, entity.getPosition(),
+					entity.getRotX(), entity.getRotY(), entity.getRotZ(), entity.getScale());
+			transformationMatrix.get(instanceData, pointer);
+			instanceData[pointer + 16] = entity.getTextureXOffset();
+			instanceData[pointer + 17] = entity.getTextureYOffset();
+			pointer += INSTANCE_DATA_LENGTH;
+			instanceCount++;
+			
+			if (instanceCount == MAX_INSTANCES) {
+				drawInstances(model, instanceCount);
+				instanceCount = 0;
+				pointer = 0;
+			}
+		}
+		if (instanceCount > 0) {
+			drawInstances(model, instanceCount);
+		}
+	}
+	
+	private void drawInstances(TexturedModel model, int instanceCount) {
+		loader.updateVbo(instanceVbo, instanceData, instanceCount * INSTANCE_DATA_LENGTH, instanceBuffer);
+		GL31.glDrawElementsInstanced(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(),
+				GL11.GL_UNSIGNED_INT, 0, instanceCount);
+		drawCalls++;
+	}
+	
+	/**
+	 * Points the bound VAO's instance attributes at the shared instance VBO. Done for
+	 * every batch, as the VAO may be new (or a deleted model's ID given out again).
+	 */
+	private void bindInstanceAttributes() {
+		if (instanceVbo == 0) {
+			instanceVbo = loader.createEmptyVbo(MAX_INSTANCES * INSTANCE_DATA_LENGTH);
+		}
+		int stride = INSTANCE_DATA_LENGTH * 4;
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, instanceVbo);
+		// A mat4 attribute is four vec4 attributes, one after another.
+		for (int i=0; i<4; i++) {
+			GL20.glVertexAttribPointer(3 + i, 4, GL11.GL_FLOAT, false, stride, i * 16);
+			GL33.glVertexAttribDivisor(3 + i, 1);
+		}
+		GL20.glVertexAttribPointer(7, 2, GL11.GL_FLOAT, false, stride, 16 * 4);
+		GL33.glVertexAttribDivisor(7, 1);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+	
 	public void prepareTexturedModel(TexturedModel model) {
 		RawModel rawModel = model.getRawModel();
 		GL30.glBindVertexArray(rawModel.getVaoID());
 		GL20.glEnableVertexAttribArray(0);
 		GL20.glEnableVertexAttribArray(1);
 		GL20.glEnableVertexAttribArray(2);
+		if (instanced) {
+			for (int i=3; i<=7; i++) {
+				GL20.glEnableVertexAttribArray(i);
+			}
+		}
 		
 		ModelTexture texture = model.getTexture();
 		shader.loadTexAtlasNumberOfRows(texture.getNumberOfRows());
@@ -64,6 +157,11 @@ public class EntityRenderer {
 		GL20.glDisableVertexAttribArray(0);
 		GL20.glDisableVertexAttribArray(1);
 		GL20.glDisableVertexAttribArray(2);
+		if (instanced) {
+			for (int i=3; i<=7; i++) {
+				GL20.glDisableVertexAttribArray(i);
+			}
+		}
 		GL30.glBindVertexArray(0);
 	}
 	
@@ -73,4 +171,24 @@ public class EntityRenderer {
 		shader.loadTransformationMatrix(transformationMatrix);
 		shader.loadTexAtlasOffset(entity.getTextureXOffset(), entity.getTextureYOffset());
 	}
+	
+	/**
+	 * Switches between instanced rendering and the old one-draw-per-entity path.
+	 * Instancing can't be turned on if the context doesn't support it.
+	 */
+	public void setInstanced(boolean instanced) {
+		this.instanced = instanced && GL.getCapabilities().OpenGL33;
+	}
+	
+	public boolean isInstanced() {
+		return instanced;
+	}
+	
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+	
+	public void resetDrawCalls() {
+		drawCalls = 0;
+	}
 }
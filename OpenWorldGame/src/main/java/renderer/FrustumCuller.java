@@ -0,0 +1,112 @@
+package renderer;
+
+import java.util.List;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import entities.AnimatedEntity;
+import entities.Camera;
+import entities.Entity;
+import foliage.FoliagePatch;
+import models.RawModel;
+import terrain.Terrain;
+import toolbox.Maths;
+import world.SpatialIndex;
+
+/**
+ * Rejects objects which are outside of the camera's view frustum, so they aren't
+ * sent to the renderers. The frustum has to be updated for each render pass, as
+ * the water reflection pass uses a mirrored camera.
+ * 
+ * Entities are tested with bounding spheres, terrains with bounding boxes.
+ * @author Billy
+ *
+ */
+public class FrustumCuller {
+	
+	// Animations can move vertices outside of the bind pose bounds, so they are
+	// given some extra room.
+	private static final float ANIMATION_BOUNDS_MARGIN = 1.5f;
+	
+	private FrustumIntersection frustum = new FrustumIntersection();
+	private Matrix4f projectionViewMatrix = new Matrix4f();
+	
+	private int culledCount = 0;
+	private int submittedCount = 0;
+	
+	/**
+	 * Extracts the frustum planes for the camera's current position.
+	 */
+	public void update(Matrix4f projectionMatrix, Camera camera) {
+		projectionMatrix.mul(Maths.createViewMatrix(camera), projectionViewMatrix);
+		frustum.set(projectionViewMatrix);
+	}
+	
+	public boolean isVisible(Entity entity) {
+		RawModel model = entity.getModel().getRawModel();
+		if (!model.hasBounds()) {
+			return count(true);
+		}
+		// A sphere around the entity's origin, which doesn't depend on its rotation.
+		float radius = model.getRadiusFromOrigin() * entity.getScale();
+		Vector3f position = entity.getPosition();
+		return count(frustum.testSphere(position.x, position.y, position.z, radius));
+	}
+	
+	/**
+	 * Adds the entities in the index which are inside the frustum to the results.
+	 * Whole cells of the index are rejected at once.
+	 */
+	public void getVisible(SpatialIndex index, List<Entity> results) {
+		int previousSize = results.size();
+		index.queryFrustum(frustum, results);
+		int visibleCount = results.size() - previousSize;
+		submittedCount += visibleCount;
+		culledCount += index.size() - visibleCount;
+	}
+	
+	public boolean isVisible(AnimatedEntity entity) {
+		float radius = entity.getModel().getBoundingRadius() * entity.getScale() * ANIMATION_BOUNDS_MARGIN;
+		Vector3f position = entity.getPosition();
+		return count(frustum.testSphere(position.x, position.y, position.z, radius));
+	}
+	
+	public boolean isVisible(Terrain terrain) {
+		return count(frustum.testAab(
+				terrain.getX(), terrain.getMinHeight(), terrain.getZ(),
+				terrain.getX() + Terrain.SIZE, terrain.getMaxHeight(), terrain.getZ() + Terrain.SIZE));
+	}
+	
+	public boolean isVisible(FoliagePatch patch, int tile) {
+		float x = patch.getTileX(tile);
+		float z = patch.getTileZ(tile);
+		return count(frustum.testAab(
+				x, patch.getTileMinY(tile), z,
+				x + FoliagePatch.TILE_SIZE, patch.getTileMaxY(tile), z + FoliagePatch.TILE_SIZE));
+	}
+	
+	public int getCulledCount() {
+		return culledCount;
+	}
+	
+	public int getSubmittedCount() {
+		return submittedCount;
+	}
+	
+	public void resetCounters() {
+		culledCount = 0;
+		submittedCount = 0;
+	}
+	
+	private boolean count(boolean visible) {
+		if (visible) {
+			submittedCount++;
+		} else {
+			culledCount++;
+		}
+		return visible;
+	}
+
+}
@@ -0,0 +1,77 @@
+package renderer;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL31;
+
+import animation.AnimationSystem;
+import loader.Loader;
+
+/**
+ * The joint transforms of every animated entity for the current frame, one after
+ * another in a single buffer texture. Uploaded once per frame from the
+ * AnimationSystem's palette, then read by every render pass, with each draw given
+ * the offset of its entity's joints. Only the joints a skeleton actually has are
+ * stored.
+ * @author Billy
+ *
+ */
+public class JointPalette {
+
+	// A mat4 is four vec4 texels.
+	private static final int FLOATS_PER_JOINT = AnimationSystem.FLOATS_PER_JOINT;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final Loader loader;
+	private int vbo;
+	private int textureID;
+	// In joints.
+	private int capacity;
+	private int jointCount = 0;
+	private FloatBuffer buffer;
+
+	public JointPalette(Loader loader) {
+		this.loader = loader;
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Sends the joints to the GPU. The old contents are orphaned, so this doesn't
+	 * wait for the last frame's draws to finish with them.
+	 * @param data
+	 * 	- FLOATS_PER_JOINT floats for each joint.
+	 */
+	public void upload(float[] data, int jointCount) {
+		if (jointCount > capacity) {
+			cleanUp();
+			allocate(Math.max(capacity * 2, jointCount));
+		}
+		this.jointCount = jointCount;
+		loader.updateVbo(vbo, data, jointCount * FLOATS_PER_JOINT, buffer);
+	}
+
+	public void bind(int textureUnit) {
+		GL13.glActiveTexture(GL13.GL_TEXTURE0 + textureUnit);
+		GL11.glBindTexture(GL31.GL_TEXTURE_BUFFER, textureID);
+	}
+
+	public int getJointCount() {
+		return jointCount;
+	}
+
+	public void cleanUp() {
+		loader.deleteTexture(textureID);
+		loader.deleteVbo(vbo);
+	}
+
+	private void allocate(int capacity) {
+		this.capacity = capacity;
+		buffer = BufferUtils.createFloatBuffer(capacity * FLOATS_PER_JOINT);
+		vbo = loader.createEmptyVbo(capacity * FLOATS_PER_JOINT);
+		textureID = loader.createTextureBuffer(vbo);
+	}
+
+}
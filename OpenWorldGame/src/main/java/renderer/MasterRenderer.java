@@ -12,9 +12,11 @@ import org.lwjgl.opengl.GL11;
 import entities.AnimatedEntity;
 import entities.Camera;
 import entities.Entity;
+import foliage.FoliageRenderer;
 import fontRendering.TextMaster;
 import game.Scene;
 import guis.GuiRenderer;
+import loader.AssetPipeline;
 import loader.Loader;
 import models.TexturedModel;
 import normalMappingRenderer.NormalMappingRenderer;
@@ -47,24 +49,30 @@ public class MasterRenderer {
 	private NormalMappingRenderer normalMapRenderer;
 	private WaterRenderer waterRenderer;
 	private AnimatedModelRenderer animatedModelRenderer;
+	private FoliageRenderer foliageRenderer;
 	private GuiRenderer guiRenderer;
 	
+	private FrustumCuller frustumCuller = new FrustumCuller();
+	// Reused for the results of each spatial query.
+	private List<Entity> visibleEntities = new ArrayList<Entity>();
+	
 	private Map<TexturedModel, List<Entity>> entities = new HashMap<TexturedModel, List<Entity>>();
 	private Map<TexturedModel, List<Entity>> normalMappedEntities = new HashMap<TexturedModel, List<Entity>>();
 	private List<Terrain> terrains = new ArrayList<Terrain>();
 	
 	private List<AnimatedEntity> animatedEntities = new ArrayList<AnimatedEntity>();
 	
-	public MasterRenderer(Loader loader) {
+	public MasterRenderer(Loader loader, AssetPipeline assets) {
 		enableCulling();
 		
 		createProjectionMatrix();
-		entityRenderer = new EntityRenderer(basicShader, projectionMatrix); 
-		terrainRenderer = new TerrainRenderer(terrainShader, projectionMatrix);
-		skyboxRenderer = new SkyboxRenderer(loader, projectionMatrix);
+		entityRenderer = new EntityRenderer(basicShader, projectionMatrix, loader);
+		terrainRenderer = new TerrainRenderer(terrainShader, projectionMatrix, loader);
+		skyboxRenderer = new SkyboxRenderer(loader, assets, projectionMatrix);
 		normalMapRenderer = new NormalMappingRenderer(projectionMatrix);
-		animatedModelRenderer = new AnimatedModelRenderer(projectionMatrix);
-		waterRenderer = new WaterRenderer(loader, projectionMatrix);
+		animatedModelRenderer = new AnimatedModelRenderer(projectionMatrix, loader);
+		foliageRenderer = new FoliageRenderer(projectionMatrix);
+		waterRenderer = new WaterRenderer(loader, assets, projectionMatrix);
 		guiRenderer = new GuiRenderer(loader);
 	}
 	
@@ -81,27 +89,45 @@ public class MasterRenderer {
 	}
 	
 	public void renderGame(Scene scene, Camera camera, Vector4f clipPlane) {
+		// The scene is drawn more than once a frame (water reflection/refraction),
+		// so draw calls are counted across all of the passes.
+		entityRenderer.resetDrawCalls();
+		foliageRenderer.resetCounters();
+		frustumCuller.resetCounters();
+		// Every pass draws the animated entities in the same pose, so they're uploaded once.
+		animatedModelRenderer.updatePalette(scene.getAnimationSystem());
 		renderScene(scene, camera, clipPlane);
 		renderWater(scene, camera);
 		renderGUI(scene);
 	}
 	
 	public void renderScene(Scene scene, Camera camera, Vector4f clipPlane) {
+		// Has to be done for every pass, as the camera is mirrored for the water reflection.
+		frustumCuller.update(projectionMatrix, camera);
 		
-		for (Entity entity : scene.getEntites()) {
-			processEntity(entity);
+		visibleEntities.clear();
+		frustumCuller.getVisible(scene.getEntityIndex(), visibleEntities);
+		for (int i=0; i<visibleEntities.size(); i++) {
+			processEntity(visibleEntities.get(i));
 		}
 		
-		for (Entity entity : scene.getNormalMappedEntities()) {
-			processNormalMappedEntity(entity);
+		visibleEntities.clear();
+		frustumCuller.getVisible(scene.getNormalMappedEntityIndex(), visibleEntities);
+		for (int i=0; i<visibleEntities.size(); i++) {
+			processNormalMappedEntity(visibleEntities.get(i));
 		}
+		visibleEntities.clear();
 		
 		for (Terrain terrain : scene.getTerrains()) {
-			processTerrain(terrain);
+			if (frustumCuller.isVisible(terrain)) {
+				processTerrain(terrain);
+			}
 		}
 		
 		for (AnimatedEntity entity : scene.getAnimatedEntities()) {
-			processAnimatedModel(entity);
+			if (frustumCuller.isVisible(entity)) {
+				processAnimatedModel(entity);
+			}
 		}
 		
 		render(scene, camera, clipPlane);
@@ -127,9 +153,11 @@ public class MasterRenderer {
 		terrainShader.loadClipPlane(clipPlane);
 		terrainShader.loadLights(scene.getLights());
 		terrainShader.loadViewMatrix(camera);
-		terrainRenderer.render(terrains);
+		terrainRenderer.render(terrains, camera);
 		terrainShader.stop();
 		
+		foliageRenderer.render(scene.getFoliage(), frustumCuller, clipPlane, scene.getLights(), camera);
+		
 		skyboxRenderer.render(camera, FOG_R, FOG_G, FOG_B);
 		
 		ParticleMaster.renderParticles(camera);
@@ -199,10 +227,58 @@ public class MasterRenderer {
 		basicShader.cleanUp();
 		terrainShader.cleanUp();
 		normalMapRenderer.cleanUp();
+		foliageRenderer.cleanUp();
+		animatedModelRenderer.cleanUp();
 		waterRenderer.cleanUp();
 		guiRenderer.cleanUp();
 	}
 	
+	/**
+	 * @return The number of entity draw calls issued during the last frame.
+	 */
+	public int getEntityDrawCalls() {
+		return entityRenderer.getDrawCalls();
+	}
+	
+	/**
+	 * @return The number of foliage instances drawn during the last frame, across
+	 * all render passes.
+	 */
+	public int getFoliageInstancesDrawn() {
+		return foliageRenderer.getInstancesDrawn();
+	}
+	
+	/**
+	 * @return The number of foliage draw calls issued during the last frame. One per patch
+	 * in view where multi-draw indirect is available, otherwise one per tile in view.
+	 */
+	public int getFoliageDrawCalls() {
+		return foliageRenderer.getDrawCalls();
+	}
+	
+	/**
+	 * @return The number of objects rejected by frustum culling during the last
+	 * frame, across all render passes.
+	 */
+	public int getCulledCount() {
+		return frustumCuller.getCulledCount();
+	}
+	
+	/**
+	 * @return The number of objects which passed frustum culling during the last
+	 * frame, across all render passes.
+	 */
+	public int getSubmittedCount() {
+		return frustumCuller.getSubmittedCount();
+	}
+	
+	/**
+	 * Instancing is on by default. Turning it off falls back to one draw call per entity.
+	 */
+	public void setInstancedRendering(boolean instanced) {
+		entityRenderer.setInstanced(instanced);
+	}
+	
 	public Matrix4f getProjectionMatrix() {
 		return projectionMatrix;
 	}
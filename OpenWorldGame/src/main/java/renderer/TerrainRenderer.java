@@ -1,79 +1,149 @@
 package renderer;
 
+import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.PointerBuffer;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
 
-import models.RawModel;
+import entities.Camera;
+import loader.Loader;
 import shaders.TerrainShader;
 import terrain.Terrain;
-import textures.ModelTexture;
-import textures.TerrainTexturePack;
-import toolbox.Maths;
+import terrain.TerrainIndexBuffer;
+import terrain.TerrainLods;
+import terrain.TerrainMaterials;
+import terrain.TerrainVertexPool;
 
+/**
+ * Draws every terrain with one glMultiDrawElementsBaseVertex call per vertex pool
+ * (and all terrains of the same size share a pool). The ground textures and blend
+ * maps are texture arrays, so they are bound once for the whole pass.
+ */
 public class TerrainRenderer {
-	
+
 	private TerrainShader shader;
-	
-	public TerrainRenderer(TerrainShader shader, Matrix4f projectionMatrix) {
+	// For creating LOD index buffers the first time they are needed.
+	private Loader loader;
+
+	// The arguments of the multi-draw, grown when there are more terrains than fit.
+	private IntBuffer counts = BufferUtils.createIntBuffer(64);
+	private PointerBuffer offsets = BufferUtils.createPointerBuffer(64);
+	private IntBuffer baseVertices = BufferUtils.createIntBuffer(64);
+
+	public TerrainRenderer(TerrainShader shader, Matrix4f projectionMatrix, Loader loader) {
 		this.shader = shader;
+		this.loader = loader;
 		shader.start();
 		shader.loadProjectionMatrix(projectionMatrix);
 		shader.connectTextureUnits();
 		shader.start();
 	}
-	
-	public void render(List<Terrain> terrains) {
+
+	public void render(List<Terrain> terrains, Camera camera) {
+		if (terrains.isEmpty()) {
+			return;
+		}
+		// Chosen before anything is bound, as creating an index buffer can move the
+		// index buffer arena to a new VBO.
+		Vector3f cameraPos = camera.getPosition();
+		TerrainIndexBuffer[] indices = new TerrainIndexBuffer[terrains.size()];
+		for (int i=0; i<terrains.size(); i++) {
+			indices[i] = selectIndexBuffer(terrains.get(i), cameraPos);
+		}
+
+		bindTextures(terrains.get(0).getMaterials());
+		shader.loadShineVariables(1, 0);
+
+		List<TerrainVertexPool> pools = new ArrayList<TerrainVertexPool>();
 		for (Terrain terrain : terrains) {
-			prepareTerrain(terrain);
-			loadModelMatrix(terrain);
-			GL11.glDrawElements(GL11.GL_TRIANGLES,
-					terrain.getModel().getVertexCount(), GL11.GL_UNSIGNED_INT, 0);
-			unbindTexturedModel();
+			if (!pools.contains(terrain.getPool())) {
+				pools.add(terrain.getPool());
+			}
+		}
+		for (TerrainVertexPool pool : pools) {
+			drawPool(pool, terrains, indices);
 		}
 	}
-	
-	public void prepareTerrain(Terrain terrain) {
-		RawModel rawModel = terrain.getModel();
-		GL30.glBindVertexArray(rawModel.getVaoID());
-		GL20.glEnableVertexAttribArray(0);
-		GL20.glEnableVertexAttribArray(1);
-		GL20.glEnableVertexAttribArray(2);
-		
-		bindTextures(terrain);
-		shader.loadShineVariables(1, 0);
+
+	/**
+	 * Draws every terrain in the pool, each with the index buffer picked for it.
+	 */
+	private void drawPool(TerrainVertexPool pool, List<Terrain> terrains, TerrainIndexBuffer[] indices) {
+		ensureCapacity(terrains.size());
+		counts.clear();
+		offsets.clear();
+		baseVertices.clear();
+		for (int i=0; i<terrains.size(); i++) {
+			Terrain terrain = terrains.get(i);
+			if (terrain.getPool() == pool) {
+				counts.put(indices[i].getIndexCount());
+				offsets.put(indices[i].getOffset());
+				baseVertices.put(terrain.getBaseVertex());
+			}
+		}
+		counts.flip();
+		offsets.flip();
+		baseVertices.flip();
+
+		GL30.glBindVertexArray(pool.getVaoID());
+		// Every LOD's indices are in this one buffer, so it only has to be bound once.
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, pool.getLods().getIndexVboID());
+		GL32.glMultiDrawElementsBaseVertex(GL11.GL_TRIANGLES, counts, GL11.GL_UNSIGNED_INT, offsets, baseVertices);
+		GL30.glBindVertexArray(0);
 	}
-	
-	private void bindTextures(Terrain terrain) {
-		TerrainTexturePack texturePack = terrain.getTexturePack();
-		GL13.glActiveTexture(GL13.GL_TEXTURE0);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texturePack.getBackgroundTexture().getTextureID());
-		GL13.glActiveTexture(GL13.GL_TEXTURE1);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texturePack.getrTexture().getTextureID());
-		GL13.glActiveTexture(GL13.GL_TEXTURE2);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texturePack.getgTexture().getTextureID());
-		GL13.glActiveTexture(GL13.GL_TEXTURE3);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texturePack.getbTexture().getTextureID());
-		GL13.glActiveTexture(GL13.GL_TEXTURE4);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, terrain.getBlendMap().getTextureID())  ;
+
+	private void ensureCapacity(int drawCount) {
+		if (counts.capacity() < drawCount) {
+			int capacity = Math.max(drawCount, counts.capacity() * 2);
+			counts = BufferUtils.createIntBuffer(capacity);
+			offsets = BufferUtils.createPointerBuffer(capacity);
+			baseVertices = BufferUtils.createIntBuffer(capacity);
+		}
 	}
-	
-	public void unbindTexturedModel() {
-		GL20.glDisableVertexAttribArray(0);
-		GL20.glDisableVertexAttribArray(1);
-		GL20.glDisableVertexAttribArray(2);
-		GL30.glBindVertexArray(0);
+
+	/**
+	 * Picks the level of detail for a terrain from its distance to the camera. The LODs
+	 * of its neighbours are needed too so that the edges can be stitched together.
+	 */
+	private TerrainIndexBuffer selectIndexBuffer(Terrain terrain, Vector3f cameraPos) {
+		int gridX = terrain.getGridX();
+		int gridZ = terrain.getGridZ();
+		return terrain.getLods().getIndexBuffer(
+				getLod(gridX, gridZ, cameraPos),
+				getLod(gridX, gridZ - 1, cameraPos),
+				getLod(gridX, gridZ + 1, cameraPos),
+				getLod(gridX - 1, gridZ, cameraPos),
+				getLod(gridX + 1, gridZ, cameraPos),
+				loader);
+	}
+
+	/**
+	 * Works for grid squares without a loaded terrain too, so neighbours don't need
+	 * to be looked up. Only the horizontal distance is used, so that the reflection
+	 * pass (with the camera below the water) picks the same LODs.
+	 */
+	private int getLod(int gridX, int gridZ, Vector3f cameraPos) {
+		float minX = gridX * Terrain.SIZE;
+		float minZ = gridZ * Terrain.SIZE;
+		float dx = Math.max(0, Math.max(minX - cameraPos.x, cameraPos.x - (minX + Terrain.SIZE)));
+		float dz = Math.max(0, Math.max(minZ - cameraPos.z, cameraPos.z - (minZ + Terrain.SIZE)));
+		return TerrainLods.selectLod((float) Math.sqrt(dx * dx + dz * dz));
 	}
-	
-	public void loadModelMatrix(Terrain terrain) {
-		Matrix4f transformationMatrix = Maths.createTransformationMatrix(new Vector3f(terrain.getX(),
-				0, terrain.getZ()), 0, 0, 0, 1);
-		shader.loadTransformationMatrix(transformationMatrix);
+
+	private void bindTextures(TerrainMaterials materials) {
+		GL13.glActiveTexture(GL13.GL_TEXTURE0);
+		GL11.glBindTexture(GL30.GL_TEXTURE_2D_ARRAY, materials.getGroundTextureArrayID());
+		GL13.glActiveTexture(GL13.GL_TEXTURE1);
+		GL11.glBindTexture(GL30.GL_TEXTURE_2D_ARRAY, materials.getBlendMapArrayID());
 	}
 
 }
@@ -11,15 +11,18 @@ import toolbox.Maths;
 
 public class AnimatedModelShader extends ShaderProgram {
 	
-	// max number of joints in a skeleton. used for setting the size of the array.
-	//TODO currently set also in keyFrame class.
-	private static final int MAX_JOINTS = 150;
 	private static final int MAX_LIGHTS = 4;
 	
+	// Texture units.
+	private static final int DIFFUSE_MAP = 0;
+	private static final int JOINT_PALETTE = 1;
+	
 	private static final String VERTEX_FILE = "src/main/java/shaders/animatedEntityVertex.txt";
 	private static final String FRAGMENT_FILE = "src/main/java/shaders/animatedEntityFragment.txt";
 	
-	private int[] location_jointTransforms;
+	private int location_jointPalette;
+	private int location_paletteOffset;
+	private int location_diffuseMap;
 	private int[] location_lightPosition;
 	private int[] location_lightColour;
 	private int[] location_lightAttenuation;
@@ -36,11 +39,9 @@ public class AnimatedModelShader extends ShaderProgram {
 	@Override
 	protected void getAllUniformLocations() {
 		location_projectionViewMatrix = super.getUniformLocation("projectionView");
-		location_jointTransforms = new int[MAX_JOINTS];
-		
-		for (int i=0; i<MAX_JOINTS; i++) {
-			location_jointTransforms[i] = super.getUniformLocation("jointTransforms[" + i + "]");
-		}
+		location_jointPalette = super.getUniformLocation("jointPalette");
+		location_paletteOffset = super.getUniformLocation("paletteOffset");
+		location_diffuseMap = super.getUniformLocation("diffuseMap");
 		
 		location_lightPosition = new int[MAX_LIGHTS];
 		for (int i=0; i<MAX_LIGHTS; i++) {
@@ -72,10 +73,24 @@ public class AnimatedModelShader extends ShaderProgram {
 		
 	}
 	
-	public void loadJointTransforms(Matrix4f[] jointTransforms) {
-		for (int i=0; i<MAX_JOINTS; i++) {
-			super.loadMatrix(location_jointTransforms[i], jointTransforms[i]);
-		}
+	public void connectTextureUnits() {
+		super.loadInt(location_diffuseMap, DIFFUSE_MAP);
+		super.loadInt(location_jointPalette, JOINT_PALETTE);
+	}
+	
+	/**
+	 * @return The texture unit the JointPalette should be bound to.
+	 */
+	public int getJointPaletteUnit() {
+		return JOINT_PALETTE;
+	}
+	
+	/**
+	 * @param offset
+	 * 	- Where the entity's joints start in the JointPalette.
+	 */
+	public void loadPaletteOffset(int offset) {
+		super.loadInt(location_paletteOffset, offset);
 	}
 	
 	public void loadLights(List<Light> lights) {
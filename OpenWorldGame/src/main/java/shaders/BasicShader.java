@@ -31,6 +31,7 @@ public class BasicShader extends ShaderProgram {
 	private int location_texAtlasNumberOfRows;
 	private int location_texAtlasOffsets;
 	private int location_clipPlane;
+	private int location_useInstancing;
 	
 	
 	public BasicShader() {
@@ -49,6 +50,7 @@ public class BasicShader extends ShaderProgram {
 		location_texAtlasNumberOfRows = super.getUniformLocation("texAtlasNumberOfRows");
 		location_texAtlasOffsets = super.getUniformLocation("texAtlasOffsets");
 		location_clipPlane = super.getUniformLocation("clipPlane");
+		location_useInstancing = super.getUniformLocation("useInstancing");
 		
 		location_lightPosition = new int[MAX_LIGHTS];
 		location_lightColour = new int[MAX_LIGHTS];
@@ -65,13 +67,19 @@ public class BasicShader extends ShaderProgram {
 		super.bindAttribute(0, "position");
 		super.bindAttribute(1, "textureCoords");
 		super.bindAttribute(2, "normal");
-		
+		// A mat4 attribute takes up four attribute slots (3 to 6).
+		super.bindAttribute(3, "instanceTransformationMatrix");
+		super.bindAttribute(7, "instanceTexOffset");
 	}
 	
 	public void loadClipPlane(Vector4f clipPlane) {
 		super.load4DVector(location_clipPlane, clipPlane);
 	}
 	
+	public void loadUseInstancing(boolean useInstancing) {
+		super.loadBoolean(location_useInstancing, useInstancing);
+	}
+	
 	public void loadTexAtlasNumberOfRows(int numberOfRows) {
 		super.loadFloat(location_texAtlasNumberOfRows, numberOfRows);
 	}
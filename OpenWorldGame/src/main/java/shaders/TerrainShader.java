@@ -17,7 +17,6 @@ public class TerrainShader extends ShaderProgram {
 	private static final String VERTEX_FILE = "src/main/java/shaders/terrainVertexShader.txt";
 	private static final String FRAGMENT_FILE = "src/main/java/shaders/terrainFragmentShader.txt";
 	
-	private int location_transformationMatrix;
 	private int location_projectionMatrix;
 	private int location_viewMatrix;
 	private int location_lightPosition[];
@@ -26,11 +25,8 @@ public class TerrainShader extends ShaderProgram {
 	private int location_shineDamper;
 	private int location_reflectivity;
 	private int location_skyColour;
-	private int location_backgroundTexture;
-	private int location_rTexture;
-	private int location_gTexture;
-	private int location_bTexture;
-	private int location_blendMap;
+	private int location_groundTextures;
+	private int location_blendMaps;
 	private int location_clipPlane;
 	
 	public TerrainShader() {
@@ -39,17 +35,13 @@ public class TerrainShader extends ShaderProgram {
 
 	@Override
 	protected void getAllUniformLocations() {
-		location_transformationMatrix = super.getUniformLocation("transformationMatrix");
 		location_projectionMatrix = super.getUniformLocation("projectionMatrix");
 		location_viewMatrix = super.getUniformLocation("viewMatrix");
 		location_shineDamper = super.getUniformLocation("shineDamper");
 		location_reflectivity = super.getUniformLocation("reflectivity");
 		location_skyColour = super.getUniformLocation("skyColour");
-		location_backgroundTexture = super.getUniformLocation("backgroundTexture");
-		location_rTexture = super.getUniformLocation("rTexture");
-		location_gTexture = super.getUniformLocation("gTexture");
-		location_bTexture = super.getUniformLocation("bTexture");
-		location_blendMap = super.getUniformLocation("blendMap");
+		location_groundTextures = super.getUniformLocation("groundTextures");
+		location_blendMaps = super.getUniformLocation("blendMaps");
 		location_clipPlane = super.getUniformLocation("clipPlane");
 		
 		location_lightPosition = new int[MAX_LIGHTS];
@@ -67,15 +59,13 @@ public class TerrainShader extends ShaderProgram {
 		super.bindAttribute(0, "position");
 		super.bindAttribute(1, "textureCoords");
 		super.bindAttribute(2, "normal");
+		super.bindAttribute(3, "blendLayer");
 		
 	}
 	
 	public void connectTextureUnits() {
-		super.loadInt(location_backgroundTexture, 0);
-		super.loadInt(location_rTexture, 1);
-		super.loadInt(location_gTexture, 2);
-		super.loadInt(location_bTexture, 3);
-		super.loadInt(location_blendMap, 4);
+		super.loadInt(location_groundTextures, 0);
+		super.loadInt(location_blendMaps, 1);
 	}
 	
 	public void loadClipPlane(Vector4f clipPlane) {
@@ -106,10 +96,6 @@ public class TerrainShader extends ShaderProgram {
 		super.loadFloat(location_reflectivity, reflectivity);
 	}
 	
-	public void loadTransformationMatrix(Matrix4f transform) {
-		super.loadMatrix(location_transformationMatrix, transform);
-	}
-	
 	public void loadProjectionMatrix(Matrix4f projection) {
 		super.loadMatrix(location_projectionMatrix, projection);
 	}
@@ -1,5 +1,7 @@
 package skybox;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
 import org.lwjgl.opengl.GL20;
@@ -8,6 +10,7 @@ import org.lwjgl.opengl.GL30;
 import org.joml.Matrix4f;
 
 import entities.Camera;
+import loader.AssetPipeline;
 import models.RawModel;
 import window.Window;
 
@@ -74,10 +77,13 @@ public class SkyboxRenderer {
 	// For day/night cycles.
 	private float time = 0;
 	
-	public SkyboxRenderer(loader.Loader loader, Matrix4f projectionMatrix) {
+	public SkyboxRenderer(loader.Loader loader, AssetPipeline assets, Matrix4f projectionMatrix) {
+		// All twelve faces are decoded at once.
+		CompletableFuture<Integer> dayRequest = assets.loadCubeMap(TEXTURE_FILES);
+		CompletableFuture<Integer> nightRequest = assets.loadCubeMap(NIGHT_TEXTURES);
 		cube = loader.loadToVAO(VERTICES, 3);
-		textureID = loader.loadCubeMap(TEXTURE_FILES);
-		nightTextureID = loader.loadCubeMap(NIGHT_TEXTURES);
+		textureID = assets.await(dayRequest);
+		nightTextureID = assets.await(nightRequest);
 		shader = new SkyboxShader();
 		shader.start();
 		shader.connectTextureUnits();
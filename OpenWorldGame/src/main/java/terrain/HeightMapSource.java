@@ -0,0 +1,84 @@
+package terrain;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import javax.imageio.ImageIO;
+
+import toolbox.ParallelRows;
+
+/**
+ * Heights read from a heightmap image in the resources folder. Every chunk gets the
+ * same heights, so the image is only read the first time it is needed.
+ * @author Billy
+ *
+ */
+public class HeightMapSource implements HeightSource {
+
+	private static final float MAX_HEIGHT = 40;
+	private static final float MAX_PIXEL_COLOUR = 256 * 256 * 256;
+	// Rows of the heightmap converted by each fork/join task.
+	private static final int ROWS_PER_TASK = 16;
+
+	private final String heightMap;
+	private float[] heights;
+	private int vertexCount;
+
+	/**
+	 * @param heightMap
+	 * 	- Name of the image, without the .png.
+	 */
+	public HeightMapSource(String heightMap) {
+		this.heightMap = heightMap;
+	}
+
+	@Override
+	public synchronized int getVertexCount() {
+		load();
+		return vertexCount;
+	}
+
+	@Override
+	public synchronized float[] getHeights(int gridX, int gridZ) {
+		load();
+		return heights.clone();
+	}
+
+	private void load() {
+		if (heights != null) {
+			return;
+		}
+		BufferedImage image;
+		try {
+			image = ImageIO.read(new File("src/main/resources/" + heightMap + ".png"));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Couldn't read heightmap " + heightMap, e);
+		}
+		vertexCount = image.getHeight();
+		heights = readHeights(image);
+	}
+
+	/**
+	 * @return The height of every pixel of the heightmap, row by row. Rows are read
+	 * 	out of the image in blocks, as getRGB() for each pixel is slow.
+	 */
+	private static float[] readHeights(BufferedImage image) {
+		int size = image.getHeight();
+		float[] heights = new float[size * size];
+		ParallelRows.forEach(size, ROWS_PER_TASK, (startRow, endRow) -> {
+			int[] pixels = image.getRGB(0, startRow, size, endRow - startRow, null, 0, size);
+			int offset = startRow * size;
+			for (int i=0; i<pixels.length; i++) {
+				float height = pixels[i];
+				height += MAX_PIXEL_COLOUR / 2;
+				height /= MAX_PIXEL_COLOUR / 2;
+				height *= MAX_HEIGHT;
+				heights[offset + i] = height;
+			}
+		});
+		return heights;
+	}
+
+}
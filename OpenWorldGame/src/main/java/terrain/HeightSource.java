@@ -0,0 +1,35 @@
+package terrain;
+
+/**
+ * Where the heights of a chunk's terrain come from, e.g. a heightmap image or noise.
+ * The world is given one, and every chunk asks it for its heights when it loads.
+ * @author Billy
+ *
+ */
+public interface HeightSource {
+
+	/**
+	 * @return Number of vertices along one side of every terrain from this source.
+	 */
+	int getVertexCount();
+
+	/**
+	 * Called on the chunk streamer's worker threads, so must be thread safe.
+	 * @return The heights of the chunk's vertices, getVertexCount() squared, row by
+	 * 	row along z. The array is the caller's to keep.
+	 */
+	float[] getHeights(int gridX, int gridZ);
+
+	/**
+	 * The heights of the neighbouring chunks' vertices just past each edge, so the
+	 * normals along the edges can be worked out the same way from both sides. Called
+	 * on the worker threads too.
+	 * @return 4 * getVertexCount() heights (see Heightfield.APRON_ROW_BEFORE and so
+	 * 	on for the order), or null if the source can't tell, in which case the edges
+	 * 	are only sampled from the chunk's own side.
+	 */
+	default float[] getApronHeights(int gridX, int gridZ) {
+		return null;
+	}
+
+}
@@ -0,0 +1,431 @@
+package terrain;
+
+import org.joml.Vector3f;
+
+import toolbox.ParallelRows;
+
+/**
+ * The heights of a terrain's vertices, in one flat array (row by row along z), with
+ * a normal precomputed for every vertex. Sampling between vertices allocates nothing,
+ * so it can be done as often as needed each frame.
+ *
+ * Coordinates are relative to the terrain's corner, running from 0 to getSize() along
+ * x and z. Points outside of that are clamped to the nearest edge, so finding which
+ * heightfield a world position is on is up to the caller (see World.getHeightOfTerrain).
+ * @author Billy
+ *
+ */
+public class Heightfield {
+
+	// Tolerance for a hit being inside a triangle, in grid squares, so rays can't
+	// slip through the edges between triangles.
+	private static final float EPSILON = 1e-5f;
+	// Rows of normals calculated by each fork/join task.
+	private static final int ROWS_PER_TASK = 16;
+
+	// The edges of an apron of neighbouring heights, in the order they are stored.
+	// The rows run along x, and the columns along z.
+	public static final int APRON_ROW_BEFORE = 0;
+	public static final int APRON_ROW_AFTER = 1;
+	public static final int APRON_COLUMN_BEFORE = 2;
+	public static final int APRON_COLUMN_AFTER = 3;
+
+	private final int vertexCount;
+	private final float size;
+	private final float gridSquareSize;
+
+	// heights[z * vertexCount + x]
+	private final float[] heights;
+	// Three floats per vertex, in the same order as the heights.
+	private final float[] normals;
+
+	private float minHeight = Float.POSITIVE_INFINITY;
+	private float maxHeight = Float.NEGATIVE_INFINITY;
+
+	/**
+	 * @param vertexCount
+	 * 	- Number of vertices along one side.
+	 * @param size
+	 * 	- Length of one side.
+	 * @param heights
+	 * 	- vertexCount * vertexCount heights, row by row along z. Kept, not copied.
+	 */
+	public Heightfield(int vertexCount, float size, float[] heights) {
+		this(vertexCount, size, heights, null);
+	}
+
+	/**
+	 * @param apron
+	 * 	- The neighbouring chunks' heights just past each edge (see
+	 * 	HeightSource.getApronHeights), so the normals along the edges match theirs.
+	 * 	Null to sample the edges from this side only.
+	 */
+	public Heightfield(int vertexCount, float size, float[] heights, float[] apron) {
+		if (heights.length != vertexCount * vertexCount) {
+			throw new IllegalArgumentException("Expected " + vertexCount * vertexCount
+					+ " heights, got " + heights.length);
+		}
+		this.vertexCount = vertexCount;
+		this.size = size;
+		this.gridSquareSize = size / (vertexCount - 1);
+		this.heights = heights;
+		this.normals = new float[heights.length * 3];
+		for (float height : heights) {
+			minHeight = Math.min(minHeight, height);
+			maxHeight = Math.max(maxHeight, height);
+		}
+		ParallelRows.forEach(vertexCount, ROWS_PER_TASK,
+				(startRow, endRow) -> calculateNormals(startRow, endRow, apron));
+	}
+
+	/**
+	 * @return The height of the terrain's surface at this point, interpolated across
+	 * 	the same triangle the mesh is drawn with, so it matches what is on screen.
+	 */
+	public float getHeight(float x, float z) {
+		float gridX = clampGrid(x / gridSquareSize);
+		float gridZ = clampGrid(z / gridSquareSize);
+		int cellX = getCell(gridX);
+		int cellZ = getCell(gridZ);
+		float xCoord = gridX - cellX;
+		float zCoord = gridZ - cellZ;
+		int pointer = cellZ * vertexCount + cellX;
+
+		// Each grid square is split into two triangles along the diagonal from
+		// (1, 0) to (0, 1). The weights are the barycentric coordinates of the point.
+		if (xCoord <= 1 - zCoord) {
+			return heights[pointer] * (1 - xCoord - zCoord)
+					+ heights[pointer + 1] * xCoord
+					+ heights[pointer + vertexCount] * zCoord;
+		}
+		return heights[pointer + 1] * (1 - zCoord)
+				+ heights[pointer + vertexCount + 1] * (xCoord + zCoord - 1)
+				+ heights[pointer + vertexCount] * (1 - xCoord);
+	}
+
+	/**
+	 * @return The height at this point, blended from the four corners of its grid
+	 * 	square. Smoother than getHeight(), but can sit slightly off the drawn mesh.
+	 */
+	public float getHeightBilinear(float x, float z) {
+		float gridX = clampGrid(x / gridSquareSize);
+		float gridZ = clampGrid(z / gridSquareSize);
+		int cellX = getCell(gridX);
+		int cellZ = getCell(gridZ);
+		float xCoord = gridX - cellX;
+		float zCoord = gridZ - cellZ;
+		int pointer = cellZ * vertexCount + cellX;
+
+		float top = heights[pointer] + (heights[pointer + 1] - heights[pointer]) * xCoord;
+		float bottom = heights[pointer + vertexCount]
+				+ (heights[pointer + vertexCount + 1] - heights[pointer + vertexCount]) * xCoord;
+		return top + (bottom - top) * zCoord;
+	}
+
+	/**
+	 * Samples many points at once with getHeight().
+	 * @param points
+	 * 	- x and z of each point, one after the other.
+	 * @param dest
+	 * 	- Filled with the height of each point. Its length is the number of points sampled.
+	 */
+	public void getHeights(float[] points, float[] dest) {
+		for (int i=0; i<dest.length; i++) {
+			dest[i] = getHeight(points[i * 2], points[i * 2 + 1]);
+		}
+	}
+
+	/**
+	 * Samples many points at once with getHeightBilinear(), laid out as in getHeights().
+	 */
+	public void getHeightsBilinear(float[] points, float[] dest) {
+		for (int i=0; i<dest.length; i++) {
+			dest[i] = getHeightBilinear(points[i * 2], points[i * 2 + 1]);
+		}
+	}
+
+	/**
+	 * @return dest, set to the surface normal at this point, blended from the
+	 * 	precomputed normals of its grid square's corners.
+	 */
+	public Vector3f getNormal(float x, float z, Vector3f dest) {
+		float gridX = clampGrid(x / gridSquareSize);
+		float gridZ = clampGrid(z / gridSquareSize);
+		int cellX = getCell(gridX);
+		int cellZ = getCell(gridZ);
+		float xCoord = gridX - cellX;
+		float zCoord = gridZ - cellZ;
+		int pointer = (cellZ * vertexCount + cellX) * 3;
+		int below = pointer + vertexCount * 3;
+
+		float topLeft = (1 - xCoord) * (1 - zCoord);
+		float topRight = xCoord * (1 - zCoord);
+		float bottomLeft = (1 - xCoord) * zCoord;
+		float bottomRight = xCoord * zCoord;
+		dest.set(
+				normals[pointer] * topLeft + normals[pointer + 3] * topRight
+						+ normals[below] * bottomLeft + normals[below + 3] * bottomRight,
+				normals[pointer + 1] * topLeft + normals[pointer + 4] * topRight
+						+ normals[below + 1] * bottomLeft + normals[below + 4] * bottomRight,
+				normals[pointer + 2] * topLeft + normals[pointer + 5] * topRight
+						+ normals[below + 2] * bottomLeft + normals[below + 5] * bottomRight);
+		return dest.normalize();
+	}
+
+	/**
+	 * Finds where a ray first hits the surface, walking through the grid squares the
+	 * ray passes over one at a time (a 2D DDA). Squares the ray passes above are
+	 * skipped, and the rest are tested exactly against their two triangles.
+	 * @param originX
+	 * @param originY
+	 * @param originZ
+	 * 	- Start of the ray, relative to the terrain's corner.
+	 * @param dirX
+	 * @param dirY
+	 * @param dirZ
+	 * 	- Direction of the ray. Distances are in multiples of its length.
+	 * @return Distance along the ray to the hit, or -1 if it doesn't hit within maxDistance.
+	 */
+	public float intersectRay(float originX, float originY, float originZ,
+			float dirX, float dirY, float dirZ, float maxDistance) {
+		// Clipping the ray to the heightfield's bounding box.
+		float tEnter = 0;
+		float tExit = maxDistance;
+		if (dirX != 0) {
+			float t0 = -originX / dirX;
+			float t1 = (size - originX) / dirX;
+			tEnter = Math.max(tEnter, Math.min(t0, t1));
+			tExit = Math.min(tExit, Math.max(t0, t1));
+		} else if (originX < 0 || originX > size) {
+			return -1;
+		}
+		if (dirZ != 0) {
+			float t0 = -originZ / dirZ;
+			float t1 = (size - originZ) / dirZ;
+			tEnter = Math.max(tEnter, Math.min(t0, t1));
+			tExit = Math.min(tExit, Math.max(t0, t1));
+		} else if (originZ < 0 || originZ > size) {
+			return -1;
+		}
+		if (dirY != 0) {
+			float t0 = (minHeight - originY) / dirY;
+			float t1 = (maxHeight - originY) / dirY;
+			tEnter = Math.max(tEnter, Math.min(t0, t1));
+			tExit = Math.min(tExit, Math.max(t0, t1));
+		} else if (originY < minHeight || originY > maxHeight) {
+			return -1;
+		}
+		if (tEnter > tExit) {
+			return -1;
+		}
+
+		int cellX = getCell(clampGrid((originX + dirX * tEnter) / gridSquareSize));
+		int cellZ = getCell(clampGrid((originZ + dirZ * tEnter) / gridSquareSize));
+		int stepX = dirX > 0 ? 1 : -1;
+		int stepZ = dirZ > 0 ? 1 : -1;
+		// Distance along the ray to cross one grid square, and to reach the next square.
+		float tDeltaX = dirX != 0 ? gridSquareSize / Math.abs(dirX) : Float.POSITIVE_INFINITY;
+		float tDeltaZ = dirZ != 0 ? gridSquareSize / Math.abs(dirZ) : Float.POSITIVE_INFINITY;
+		float tNextX = dirX != 0 ? ((cellX + (dirX > 0 ? 1 : 0)) * gridSquareSize - originX) / dirX
+				: Float.POSITIVE_INFINITY;
+		float tNextZ = dirZ != 0 ? ((cellZ + (dirZ > 0 ? 1 : 0)) * gridSquareSize - originZ) / dirZ
+				: Float.POSITIVE_INFINITY;
+
+		float t = tEnter;
+		while (true) {
+			float tLeave = Math.min(Math.min(tNextX, tNextZ), tExit);
+			if (isBelowRay(cellX, cellZ, originY + dirY * t, originY + dirY * tLeave)) {
+				float hit = intersectCell(cellX, cellZ, originX, originY, originZ, dirX, dirY, dirZ);
+				if (hit >= 0 && hit <= maxDistance) {
+					return hit;
+				}
+			}
+			if (tLeave >= tExit) {
+				return -1;
+			}
+			if (tNextX < tNextZ) {
+				cellX += stepX;
+				t = tNextX;
+				tNextX += tDeltaX;
+			} else {
+				cellZ += stepZ;
+				t = tNextZ;
+				tNextZ += tDeltaZ;
+			}
+			if (cellX < 0 || cellZ < 0 || cellX > vertexCount - 2 || cellZ > vertexCount - 2) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * @return The height of a vertex, with the grid clamped at the edges.
+	 */
+	public float getVertexHeight(int gridX, int gridZ) {
+		gridX = Math.max(0, Math.min(gridX, vertexCount - 1));
+		gridZ = Math.max(0, Math.min(gridZ, vertexCount - 1));
+		return heights[gridZ * vertexCount + gridX];
+	}
+
+	public boolean contains(float x, float z) {
+		return x >= 0 && z >= 0 && x <= size && z <= size;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public float getSize() {
+		return size;
+	}
+
+	public float getGridSquareSize() {
+		return gridSquareSize;
+	}
+
+	/**
+	 * @return Every vertex's height. Shouldn't be changed.
+	 */
+	public float[] getHeights() {
+		return heights;
+	}
+
+	/**
+	 * @return Every vertex's normal, x, y and z. Shouldn't be changed.
+	 */
+	public float[] getNormals() {
+		return normals;
+	}
+
+	public float getMinHeight() {
+		return minHeight;
+	}
+
+	public float getMaxHeight() {
+		return maxHeight;
+	}
+
+	private float clampGrid(float gridCoord) {
+		return Math.max(0, Math.min(gridCoord, vertexCount - 1));
+	}
+
+	/**
+	 * @return The grid square a clamped grid coordinate is in. Points on the far edge
+	 * 	count as being in the last square, so the vertex after it can always be read.
+	 */
+	private int getCell(float gridCoord) {
+		return Math.min((int) gridCoord, vertexCount - 2);
+	}
+
+	/**
+	 * @return False if the ray stays above (or below) all four corners of the grid
+	 * 	square whilst over it, so can't cross the surface there.
+	 */
+	private boolean isBelowRay(int cellX, int cellZ, float rayHeight0, float rayHeight1) {
+		int pointer = cellZ * vertexCount + cellX;
+		float h00 = heights[pointer];
+		float h10 = heights[pointer + 1];
+		float h01 = heights[pointer + vertexCount];
+		float h11 = heights[pointer + vertexCount + 1];
+		float cellMin = Math.min(Math.min(h00, h10), Math.min(h01, h11));
+		float cellMax = Math.max(Math.max(h00, h10), Math.max(h01, h11));
+		return Math.min(rayHeight0, rayHeight1) <= cellMax && Math.max(rayHeight0, rayHeight1) >= cellMin;
+	}
+
+	/**
+	 * Intersects the ray with the planes of a grid square's two triangles. Each plane
+	 * is written as height = a + b * u + c * v, where u and v go from 0 to 1 across
+	 * the square, so the distance can be solved for directly.
+	 * @return Distance along the ray to the nearest hit in the square, or -1.
+	 */
+	private float intersectCell(int cellX, int cellZ, float originX, float originY, float originZ,
+			float dirX, float dirY, float dirZ) {
+		int pointer = cellZ * vertexCount + cellX;
+		float h00 = heights[pointer];
+		float h10 = heights[pointer + 1];
+		float h01 = heights[pointer + vertexCount];
+		float h11 = heights[pointer + vertexCount + 1];
+		// The ray in the square's (u, v) coordinates.
+		float u0 = originX / gridSquareSize - cellX;
+		float v0 = originZ / gridSquareSize - cellZ;
+		float du = dirX / gridSquareSize;
+		float dv = dirZ / gridSquareSize;
+
+		float nearest = -1;
+		// Triangle with corners (0, 0), (1, 0) and (0, 1).
+		float t = intersectPlane(h00, h10 - h00, h01 - h00, u0, v0, du, dv, originY, dirY);
+		if (t >= 0) {
+			float u = u0 + du * t;
+			float v = v0 + dv * t;
+			if (u >= -EPSILON && v >= -EPSILON && u + v <= 1 + EPSILON) {
+				nearest = t;
+			}
+		}
+		// Triangle with corners (1, 0), (1, 1) and (0, 1).
+		t = intersectPlane(h10 - h11 + h01, h11 - h01, h11 - h10, u0, v0, du, dv, originY, dirY);
+		if (t >= 0 && (nearest < 0 || t < nearest)) {
+			float u = u0 + du * t;
+			float v = v0 + dv * t;
+			if (u <= 1 + EPSILON && v <= 1 + EPSILON && u + v >= 1 - EPSILON) {
+				nearest = t;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * @return Distance along the ray to the plane height = a + b * u + c * v, or -1 if
+	 * 	it is parallel to or behind the ray.
+	 */
+	private static float intersectPlane(float a, float b, float c, float u0, float v0,
+			float du, float dv, float originY, float dirY) {
+		float denominator = dirY - b * du - c * dv;
+		if (denominator == 0) {
+			return -1;
+		}
+		float t = (a + b * u0 + c * v0 - originY) / denominator;
+		return t >= 0 ? t : -1;
+	}
+
+	/**
+	 * Uses the 'finite difference method'. Vertices on the edges take the missing
+	 * neighbour from the apron, or without one use their own height in its place.
+	 */
+	private void calculateNormals(int startRow, int endRow, float[] apron) {
+		for (int z=startRow; z<endRow; z++) {
+			for (int x=0; x<vertexCount; x++) {
+				float heightL = getNeighbourHeight(x - 1, z, apron);
+				float heightR = getNeighbourHeight(x + 1, z, apron);
+				float heightD = getNeighbourHeight(x, z - 1, apron);
+				float heightU = getNeighbourHeight(x, z + 1, apron);
+				float normalX = heightL - heightR;
+				float normalY = 2f;
+				float normalZ = heightD - heightU;
+				float length = (float) Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+				int pointer = (z * vertexCount + x) * 3;
+				normals[pointer] = normalX / length;
+				normals[pointer + 1] = normalY / length;
+				normals[pointer + 2] = normalZ / length;
+			}
+		}
+	}
+
+	/**
+	 * Like getVertexHeight, but one vertex past an edge comes from the apron if there is one.
+	 */
+	private float getNeighbourHeight(int gridX, int gridZ, float[] apron) {
+		if (apron != null) {
+			if (gridZ < 0) {
+				return apron[APRON_ROW_BEFORE * vertexCount + gridX];
+			} else if (gridZ >= vertexCount) {
+				return apron[APRON_ROW_AFTER * vertexCount + gridX];
+			} else if (gridX < 0) {
+				return apron[APRON_COLUMN_BEFORE * vertexCount + gridZ];
+			} else if (gridX >= vertexCount) {
+				return apron[APRON_COLUMN_AFTER * vertexCount + gridZ];
+			}
+		}
+		return getVertexHeight(gridX, gridZ);
+	}
+
+}
@@ -0,0 +1,124 @@
+package terrain;
+
+import toolbox.ParallelRows;
+
+/**
+ * Heights made from several octaves of simplex noise, for worlds of any size without
+ * a heightmap for every chunk. The noise is sampled at each vertex's position in the
+ * whole world's grid of vertices, so a chunk's heights only depend on the seed and
+ * where the chunk is, and neighbouring chunks agree exactly along their edges.
+ * @author Billy
+ *
+ */
+public class NoiseHeightSource implements HeightSource {
+
+	private static final int DEFAULT_VERTEX_COUNT = 256;
+	private static final float DEFAULT_AMPLITUDE = 40;
+	private static final float DEFAULT_FEATURE_SIZE = 600;
+	private static final int DEFAULT_OCTAVES = 5;
+
+	// Each octave is twice the frequency and half the amplitude of the last.
+	private static final double LACUNARITY = 2;
+	private static final float PERSISTENCE = 0.5f;
+	// Rows of vertices generated by each fork/join task.
+	private static final int ROWS_PER_TASK = 16;
+
+	private final int vertexCount;
+	private final float amplitude;
+	private final double baseFrequency;
+	// One noise per octave, each seeded differently, so they don't line up at the origin.
+	private final SimplexNoise[] octaves;
+
+	public NoiseHeightSource(long seed) {
+		this(seed, DEFAULT_VERTEX_COUNT, DEFAULT_AMPLITUDE, DEFAULT_FEATURE_SIZE, DEFAULT_OCTAVES);
+	}
+
+	/**
+	 * @param vertexCount
+	 * 	- Number of vertices along one side of a chunk.
+	 * @param amplitude
+	 * 	- Roughly the highest the terrain goes above (or below) 0.
+	 * @param featureSize
+	 * 	- Width in world units of the largest hills.
+	 * @param octaveCount
+	 * 	- Number of layers of finer and finer detail.
+	 */
+	public NoiseHeightSource(long seed, int vertexCount, float amplitude, float featureSize, int octaveCount) {
+		this.vertexCount = vertexCount;
+		this.amplitude = amplitude;
+		this.baseFrequency = 1.0 / featureSize;
+		this.octaves = new SimplexNoise[octaveCount];
+		for (int i=0; i<octaveCount; i++) {
+			octaves[i] = new SimplexNoise(seed * 31 + i);
+		}
+	}
+
+	@Override
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	@Override
+	public float[] getHeights(int gridX, int gridZ) {
+		float[] heights = new float[vertexCount * vertexCount];
+		double spacing = Terrain.SIZE / (vertexCount - 1);
+		// Vertex positions in the world's grid of vertices. Being whole numbers, these
+		// are exactly the same for the shared edge of two chunks.
+		long firstX = (long) gridX * (vertexCount - 1);
+		long firstZ = (long) gridZ * (vertexCount - 1);
+		// Scales the total back down to the amplitude, whatever the number of octaves.
+		float normalise = amplitude * (1 - PERSISTENCE) / (1 - (float) Math.pow(PERSISTENCE, octaves.length));
+		ParallelRows.forEach(vertexCount, ROWS_PER_TASK, (startRow, endRow) -> {
+			for (int row=startRow; row<endRow; row++) {
+				double frequency = baseFrequency;
+				float octaveAmplitude = normalise;
+				for (SimplexNoise octave : octaves) {
+					double step = spacing * frequency;
+					octave.addRow(firstX, (firstZ + row) * step, step,
+							vertexCount, octaveAmplitude, heights, row * vertexCount);
+					frequency *= LACUNARITY;
+					octaveAmplitude *= PERSISTENCE;
+				}
+			}
+		});
+		return heights;
+	}
+
+	/**
+	 * Samples the vertices at exactly the positions the neighbouring chunks sample
+	 * them at, so the heights match theirs bit for bit.
+	 */
+	@Override
+	public float[] getApronHeights(int gridX, int gridZ) {
+		float[] apron = new float[4 * vertexCount];
+		long firstX = (long) gridX * (vertexCount - 1);
+		long firstZ = (long) gridZ * (vertexCount - 1);
+		float normalise = amplitude * (1 - PERSISTENCE) / (1 - (float) Math.pow(PERSISTENCE, octaves.length));
+		for (int i=0; i<vertexCount; i++) {
+			apron[Heightfield.APRON_ROW_BEFORE * vertexCount + i] = getHeight(firstX + i, firstZ - 1, normalise);
+			apron[Heightfield.APRON_ROW_AFTER * vertexCount + i] = getHeight(firstX + i, firstZ + vertexCount, normalise);
+			apron[Heightfield.APRON_COLUMN_BEFORE * vertexCount + i] = getHeight(firstX - 1, firstZ + i, normalise);
+			apron[Heightfield.APRON_COLUMN_AFTER * vertexCount + i] = getHeight(firstX + vertexCount, firstZ + i, normalise);
+		}
+		return apron;
+	}
+
+	/**
+	 * The height of one vertex in the world's grid of vertices, added up octave by
+	 * octave in the same order as getHeights().
+	 */
+	private float getHeight(long column, long row, float normalise) {
+		double spacing = Terrain.SIZE / (vertexCount - 1);
+		double frequency = baseFrequency;
+		float octaveAmplitude = normalise;
+		float height = 0;
+		for (SimplexNoise octave : octaves) {
+			double step = spacing * frequency;
+			height += octaveAmplitude * octave.noise(column * step, row * step);
+			frequency *= LACUNARITY;
+			octaveAmplitude *= PERSISTENCE;
+		}
+		return height;
+	}
+
+}
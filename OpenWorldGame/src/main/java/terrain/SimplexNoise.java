@@ -0,0 +1,110 @@
+package terrain;
+
+import java.util.Random;
+
+/**
+ * 2D simplex noise (after Stefan Gustavson's version of Ken Perlin's algorithm).
+ * The gradients are shuffled by the seed, so the same seed always gives the same
+ * noise, on any machine. Values are roughly between -1 and 1.
+ *
+ * Rows of points can be added into an array at once with addRow(), which keeps the
+ * inner loop to primitive maths over flat arrays.
+ * @author Billy
+ *
+ */
+public class SimplexNoise {
+
+	// For skewing the input space onto the simplex grid, and back again.
+	private static final double F2 = 0.5 * (Math.sqrt(3) - 1);
+	private static final double G2 = (3 - Math.sqrt(3)) / 6;
+	private static final float G2F = (float) G2;
+
+	// Eight gradient directions, picked between by the permutation table.
+	private static final float[] GRADIENT_X = {1, -1, 1, -1, 1, -1, 0, 0};
+	private static final float[] GRADIENT_Y = {1, 1, -1, -1, 0, 0, 1, -1};
+
+	// Scales the sum of the three corners to roughly -1 to 1.
+	private static final float SCALE = 70;
+
+	// Doubled up, so that perm[i + perm[j]] never needs wrapping.
+	private final int[] perm = new int[512];
+
+	public SimplexNoise(long seed) {
+		int[] p = new int[256];
+		for (int i=0; i<256; i++) {
+			p[i] = i;
+		}
+		Random random = new Random(seed);
+		for (int i=255; i>0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = p[i];
+			p[i] = p[j];
+			p[j] = swap;
+		}
+		for (int i=0; i<512; i++) {
+			perm[i] = p[i & 255];
+		}
+	}
+
+	public float noise(double x, double y) {
+		// Finding which simplex (triangle) the point is in.
+		double skew = (x + y) * F2;
+		int i = fastFloor(x + skew);
+		int j = fastFloor(y + skew);
+		double unskew = (i + j) * G2;
+		// Offsets from the three corners. Small, so floats are precise enough.
+		float x0 = (float) (x - (i - unskew));
+		float y0 = (float) (y - (j - unskew));
+		int i1 = x0 > y0 ? 1 : 0;
+		int j1 = 1 - i1;
+		float x1 = x0 - i1 + G2F;
+		float y1 = y0 - j1 + G2F;
+		float x2 = x0 - 1 + 2 * G2F;
+		float y2 = y0 - 1 + 2 * G2F;
+
+		int ii = i & 255;
+		int jj = j & 255;
+		float total = corner(perm[ii + perm[jj]] & 7, x0, y0)
+				+ corner(perm[ii + i1 + perm[jj + j1]] & 7, x1, y1)
+				+ corner(perm[ii + 1 + perm[jj + 1]] & 7, x2, y2);
+		return SCALE * total;
+	}
+
+	/**
+	 * Adds the noise along a row of evenly spaced points into dest, multiplied by the
+	 * amplitude. Used for building up octaves one at a time.
+	 * @param firstColumn
+	 * 	- Index of the first point along the row. Point k is at x = (firstColumn + k) * step,
+	 * 	so the same point always gets the same x, whichever row it is sampled as part of.
+	 * @param y
+	 * @param step
+	 * 	- Distance between each point and the next along x.
+	 * @param count
+	 * 	- Number of points.
+	 */
+	public void addRow(long firstColumn, double y, double step, int count,
+			float amplitude, float[] dest, int destOffset) {
+		for (int k=0; k<count; k++) {
+			dest[destOffset + k] += amplitude * noise((firstColumn + k) * step, y);
+		}
+	}
+
+	/**
+	 * The contribution of one corner of the simplex, fading to 0 at a distance of
+	 * sqrt(0.5) from it.
+	 */
+	private static float corner(int gradient, float x, float y) {
+		float falloff = 0.5f - x * x - y * y;
+		if (falloff <= 0) {
+			return 0;
+		}
+		falloff *= falloff;
+		return falloff * falloff * (GRADIENT_X[gradient] * x + GRADIENT_Y[gradient] * y);
+	}
+
+	private static int fastFloor(double value) {
+		int truncated = (int) value;
+		return value < truncated ? truncated - 1 : truncated;
+	}
+
+}
@@ -1,42 +1,69 @@
 package terrain;
 
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
-
-import javax.imageio.ImageIO;
-
-import org.joml.Vector2f;
-import org.joml.Vector3f;
+import java.util.HashMap;
+import java.util.Map;
 
 import loader.Loader;
-import models.RawModel;
-import textures.TerrainTexture;
-import textures.TerrainTexturePack;
-import toolbox.Maths;
+import toolbox.ParallelRows;
 
 public class Terrain {
 	
 	public static final float SIZE = 750;
 	
-	private static final float MAX_HEIGHT = 40;
-	private static final float MAX_PIXEL_COLOUR = 256 * 256 * 256;
+	// Rows of vertices handled by each fork/join task when generating.
+	private static final int ROWS_PER_TASK = 16;
+	
+	private static Map<Integer, float[]> sharedTextureCoords = new HashMap<Integer, float[]>();
 	
+	private int gridX;
+	private int gridZ;
 	private float x;
 	private float z;
-	private RawModel model;
-	private TerrainTexturePack texturePack;
-	private TerrainTexture blendMap;
+	private TerrainVertexPool pool;
+	// Where the terrain's vertices are in the pool, or -1 once they have been freed.
+	private int poolSlot;
+	private TerrainMaterials materials;
 	
-	private float[][] heights;
+	private Heightfield heightfield;
+	
+	public Terrain(int gridX, int gridZ, Loader loader,
+			TerrainMaterials materials, String blendMap, String heightMap) {
+		this(gridX, gridZ, loader, materials, blendMap, generateMeshData(heightMap));
+	}
 	
+	/**
+	 * Creates a terrain from mesh data which has already been generated, i.e. on a
+	 * worker thread by generateMeshData. Only the upload to video memory happens
+	 * here, so this must be called on the GL thread.
+	 */
 	public Terrain(int gridX, int gridZ, Loader loader,
-			TerrainTexturePack texturePack, TerrainTexture blendMap, String heightMap) {
-		this.texturePack = texturePack;
-		this.blendMap = blendMap;
+			TerrainMaterials materials, String blendMap, TerrainMeshData meshData) {
+		this.materials = materials;
+		this.gridX = gridX;
+		this.gridZ = gridZ;
 		this.x = gridX * SIZE;
 		this.z = gridZ * SIZE;
-		this.model = generateTerrain(loader, heightMap);
+		this.heightfield = meshData.getHeightfield();
+		this.pool = TerrainVertexPool.forVertexCount(heightfield.getVertexCount(), loader);
+		this.poolSlot = pool.allocate(meshData, x, z, materials.getBlendMapLayer(blendMap));
+	}
+	
+	/**
+	 * Frees the terrain's space in video memory. It can't be drawn after this.
+	 */
+	public void cleanUp() {
+		if (poolSlot >= 0) {
+			pool.free(poolSlot);
+			poolSlot = -1;
+		}
+	}
+
+	public int getGridX() {
+		return gridX;
+	}
+
+	public int getGridZ() {
+		return gridZ;
 	}
 
 	public float getX() {
@@ -47,125 +74,130 @@ public class Terrain {
 		return z;
 	}
 
-	public RawModel getModel() {
-		return model;
+	/**
+	 * @return The pool holding the terrain's vertices, which it is drawn from.
+	 */
+	public TerrainVertexPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * @return The number added to every index when drawing the terrain from its pool.
+	 */
+	public int getBaseVertex() {
+		return pool.getBaseVertex(poolSlot);
 	}
 
-	public TerrainTexturePack getTexturePack() {
-		return texturePack;
+	/**
+	 * @return The index buffers for drawing this terrain at lower levels of detail.
+	 */
+	public TerrainLods getLods() {
+		return pool.getLods();
 	}
 
-	public TerrainTexture getBlendMap() {
-		return blendMap;
+	public TerrainMaterials getMaterials() {
+		return materials;
+	}
+	
+	public Heightfield getHeightfield() {
+		return heightfield;
+	}
+	
+	/**
+	 * @return The lowest height on the terrain, for its bounding box.
+	 */
+	public float getMinHeight() {
+		return heightfield.getMinHeight();
+	}
+	
+	public float getMaxHeight() {
+		return heightfield.getMaxHeight();
 	}
 	
+	/**
+	 * @return The height of the terrain at this world position, or 0 if the position
+	 * 	isn't on this terrain.
+	 */
 	public float getHeightOfTerrain(float worldX, float worldZ) {
 		float terrainX = worldX - this.x;
 		float terrainZ = worldZ - this.z;
-		float gridSquareSize = SIZE / (float) (heights.length - 1);
-		int gridX = (int) Math.floor(terrainX / gridSquareSize);
-		int gridZ = (int) Math.floor(terrainZ / gridSquareSize);
-		
-		// Checking if the position is outside of the terrain.
-		if (gridX >= heights.length - 1 || gridZ >= heights.length - 1 || gridX < 0 || gridZ < 0) {
+		if (!heightfield.contains(terrainX, terrainZ)) {
 			return 0;
 		}
-		
-		// Converting coordinate to square coordinate (0, 1).
-		float xCoord = (terrainX % gridSquareSize)/gridSquareSize;;
-		float zCoord = (terrainZ % gridSquareSize)/gridSquareSize;;
-		
-		// Determining which triangle (of 2 in the square) the position is in.
-		// We can use the heights of the triangle vertices to get the height of the
-		// point within the triangle using 'Barycentric interpolation'.
-		float height;
-		if (xCoord <= (1-zCoord)) {
-			height = Maths
-					.baryCentric(new Vector3f(0, heights[gridX][gridZ], 0), new Vector3f(1,
-							heights[gridX + 1][gridZ], 0), new Vector3f(0,
-							heights[gridX][gridZ + 1], 1), new Vector2f(xCoord, zCoord));
-		} else {
-			height = Maths
-					.baryCentric(new Vector3f(1, heights[gridX + 1][gridZ], 0), new Vector3f(1,
-							heights[gridX + 1][gridZ + 1], 1), new Vector3f(0,
-							heights[gridX][gridZ + 1], 1), new Vector2f(xCoord, zCoord));
-		}
-		return height;
+		return heightfield.getHeight(terrainX, terrainZ);
 	}
 	
-	private RawModel generateTerrain(Loader loader, String heightMap){
-		BufferedImage image = null;
-		try {
-			image = ImageIO.read(new File("src/main/resources/" + heightMap + ".png"));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		int VERTEX_COUNT = image.getHeight();
-		heights = new float[VERTEX_COUNT][VERTEX_COUNT];
-		
-		int count = VERTEX_COUNT * VERTEX_COUNT;
-		float[] vertices = new float[count * 3];
-		float[] normals = new float[count * 3];
-		float[] textureCoords = new float[count*2];
-		int[] indices = new int[6*(VERTEX_COUNT-1)*(VERTEX_COUNT-1)];
-		int vertexPointer = 0;
-		for(int i=0;i<VERTEX_COUNT;i++){
-			for(int j=0;j<VERTEX_COUNT;j++){
-				vertices[vertexPointer*3] = (float)j/((float)VERTEX_COUNT - 1) * SIZE;
-				float height = getHeight(j, i, image);
-				heights[j][i] = height;
-				vertices[vertexPointer*3+1] = height;
-				vertices[vertexPointer*3+2] = (float)i/((float)VERTEX_COUNT - 1) * SIZE;
-				Vector3f normal = calculateNormal(j, i, image);
-				normals[vertexPointer*3] = normal.x;
-				normals[vertexPointer*3+1] = normal.y;
-				normals[vertexPointer*3+2] = normal.z;
-				textureCoords[vertexPointer*2] = (float)j/((float)VERTEX_COUNT - 1);
-				textureCoords[vertexPointer*2+1] = (float)i/((float)VERTEX_COUNT - 1);
-				vertexPointer++;
-			}
-		}
-		int pointer = 0;
-		for(int gz=0;gz<VERTEX_COUNT-1;gz++){
-			for(int gx=0;gx<VERTEX_COUNT-1;gx++){
-				int topLeft = (gz*VERTEX_COUNT)+gx;
-				int topRight = topLeft + 1;
-				int bottomLeft = ((gz+1)*VERTEX_COUNT)+gx;
-				int bottomRight = bottomLeft + 1;
-				indices[pointer++] = topLeft;
-				indices[pointer++] = bottomLeft;
-				indices[pointer++] = topRight;
-				indices[pointer++] = topRight;
-				indices[pointer++] = bottomLeft;
-				indices[pointer++] = bottomRight;
-			}
-		}
-		return loader.loadToVAO(vertices, textureCoords, normals, indices);
+	/**
+	 * Builds the vertex arrays for a terrain from a heightmap image.
+	 */
+	public static TerrainMeshData generateMeshData(String heightMap){
+		return generateMeshData(new HeightMapSource(heightMap), 0, 0);
 	}
 	
-	private Vector3f calculateNormal(int x, int z, BufferedImage image) {
-		// Uses the 'finite difference method'.
-		float heightL = getHeight(x-1, z, image);
-		float heightR = getHeight(x+1, z, image);
-		float heightD = getHeight(x, z-1, image);
-		float heightU = getHeight(x, z+1, image);
-		Vector3f normal = new Vector3f(heightL-heightR, 2f, heightD - heightU);
-		normal.normalize();
-		return normal;
+	/**
+	 * Gets a chunk's heights from the source and builds the vertex arrays for its
+	 * terrain. Makes no OpenGL calls, so is safe to run off the GL thread. The rows
+	 * are split between the threads of the common fork/join pool.
+	 */
+	public static TerrainMeshData generateMeshData(HeightSource source, int gridX, int gridZ){
+		return generateMeshData(source.getVertexCount(), source.getHeights(gridX, gridZ),
+				source.getApronHeights(gridX, gridZ));
 	}
 	
-	private float getHeight(int x, int z, BufferedImage image) {
-		if(x<0 || x>=image.getHeight() || z<0 || z>=image.getHeight()) {
-			return 0;
-		}
-		
-		float height = image.getRGB(x, z);
-		height += MAX_PIXEL_COLOUR / 2;
-		height /= MAX_PIXEL_COLOUR / 2;
-		height *= MAX_HEIGHT;
-		return height;
+	/**
+	 * @param heights
+	 * 	- VERTEX_COUNT squared heights, row by row along z. Kept by the terrain's heightfield.
+	 */
+	public static TerrainMeshData generateMeshData(int VERTEX_COUNT, float[] heights){
+		return generateMeshData(VERTEX_COUNT, heights, null);
 	}
 	
+	/**
+	 * @param apron
+	 * 	- The neighbouring chunks' heights around the edges, for the edge normals. Can be null.
+	 */
+	public static TerrainMeshData generateMeshData(int VERTEX_COUNT, float[] heights, float[] apron){
+		Heightfield heightfield = new Heightfield(VERTEX_COUNT, SIZE, heights, apron);
+		
+		float[] vertices = new float[VERTEX_COUNT * VERTEX_COUNT * 3];
+		ParallelRows.forEach(VERTEX_COUNT, ROWS_PER_TASK, (startRow, endRow) -> {
+			for(int i=startRow;i<endRow;i++){
+				int vertexPointer = i * VERTEX_COUNT;
+				float z = (float)i/((float)VERTEX_COUNT - 1) * SIZE;
+				for(int j=0;j<VERTEX_COUNT;j++){
+					vertices[vertexPointer*3] = (float)j/((float)VERTEX_COUNT - 1) * SIZE;
+					vertices[vertexPointer*3+1] = heights[vertexPointer];
+					vertices[vertexPointer*3+2] = z;
+					vertexPointer++;
+				}
+			}
+		});
+		// The heightfield's normals are in the same order as the vertices.
+		return new TerrainMeshData(vertices, getTextureCoords(VERTEX_COUNT), heightfield.getNormals(), heightfield);
+	}
 	
+	/**
+	 * @return The texture coords for a terrain of this size. Only made once for each
+	 * 	size, as they don't depend on the heightmap.
+	 */
+	private static float[] getTextureCoords(int vertexCount) {
+		synchronized (sharedTextureCoords) {
+			float[] textureCoords = sharedTextureCoords.get(vertexCount);
+			if (textureCoords != null) {
+				return textureCoords;
+			}
+			textureCoords = new float[vertexCount * vertexCount * 2];
+			int vertexPointer = 0;
+			for(int i=0;i<vertexCount;i++){
+				for(int j=0;j<vertexCount;j++){
+					textureCoords[vertexPointer*2] = (float)j/((float)vertexCount - 1);
+					textureCoords[vertexPointer*2+1] = (float)i/((float)vertexCount - 1);
+					vertexPointer++;
+				}
+			}
+			sharedTextureCoords.put(vertexCount, textureCoords);
+			return textureCoords;
+		}
+	}
 
 }
@@ -0,0 +1,30 @@
+package terrain;
+
+/**
+ * One terrain index buffer, for drawing a terrain at one level of detail. It is
+ * a range of the VBO shared by all of the index buffers in the same TerrainLods,
+ * and isn't tied to a VAO, so can be used by any terrain with the same number of
+ * vertices.
+ * @author Billy
+ *
+ */
+public class TerrainIndexBuffer {
+	
+	// Where the indices start in the shared VBO, in bytes.
+	private long offset;
+	private int indexCount;
+	
+	public TerrainIndexBuffer(long offset, int indexCount) {
+		this.offset = offset;
+		this.indexCount = indexCount;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+}
@@ -0,0 +1,193 @@
+package terrain;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import loader.Loader;
+
+/**
+ * Levels of detail for terrains (geomipmapping). Every terrain keeps its full
+ * resolution vertex VBO, and is drawn with one of several index buffers which
+ * skip vertices. LOD n uses every 2^n'th vertex along each side.
+ * 
+ * Where a terrain meets a neighbour drawn at a coarser LOD, the vertices along
+ * the shared edge are snapped onto the neighbour's coarser grid. The edge then
+ * has exactly the same vertices on both sides, so there are no cracks. The
+ * triangles made degenerate by the snapping are dropped.
+ * 
+ * Index buffers only depend on the terrain's vertex count, its LOD and the LODs
+ * of its four neighbours, so they are shared by every terrain of the same size
+ * and created the first time they are needed. They are all kept in one VBO, so
+ * that every terrain can be drawn with a single multi-draw call.
+ * @author Billy
+ *
+ */
+public class TerrainLods {
+	
+	public static final int LOD_COUNT = 5;
+	
+	// Within this distance of the camera, terrains are drawn at full detail.
+	// The LOD then goes down by one every time the distance doubles.
+	private static final float FULL_DETAIL_DISTANCE = 400;
+	// Starting size of the VBO holding every index buffer. Doubles when full.
+	private static final long INITIAL_INDEX_BYTES = 4 * 1024 * 1024;
+	
+	private static Map<Integer, TerrainLods> lodSets = new HashMap<Integer, TerrainLods>();
+	
+	private final int vertexCount;
+	// Indexed by the LOD of the terrain and its top, bottom, left and right neighbours.
+	private final TerrainIndexBuffer[] indexBuffers = new TerrainIndexBuffer[LOD_COUNT * LOD_COUNT
+			* LOD_COUNT * LOD_COUNT * LOD_COUNT];
+	
+	private int indexVboID = 0;
+	private long indexBytesUsed = 0;
+	private long indexCapacity = 0;
+	
+	private TerrainLods(int vertexCount) {
+		this.vertexCount = vertexCount;
+	}
+	
+	/**
+	 * @param vertexCount
+	 * 	- Number of vertices along one side of the terrain.
+	 * @return The LODs shared by all terrains of this size.
+	 */
+	public static synchronized TerrainLods forVertexCount(int vertexCount) {
+		TerrainLods lods = lodSets.get(vertexCount);
+		if (lods == null) {
+			lods = new TerrainLods(vertexCount);
+			lodSets.put(vertexCount, lods);
+		}
+		return lods;
+	}
+	
+	/**
+	 * @param distance
+	 * 	- Distance from the camera to the nearest point of the terrain.
+	 */
+	public static int selectLod(float distance) {
+		if (distance < FULL_DETAIL_DISTANCE) {
+			return 0;
+		}
+		int lod = 1 + (int) (Math.log(distance / FULL_DETAIL_DISTANCE) / Math.log(2));
+		return Math.min(lod, LOD_COUNT - 1);
+	}
+	
+	/**
+	 * Gets the index buffer for drawing a terrain at a given LOD, stitched to its
+	 * neighbours. Creates it if this combination hasn't been used before, so must be
+	 * called on the GL thread. Creating one can move the VBO they are all in, so get
+	 * every index buffer needed before calling getIndexVboID().
+	 */
+	public TerrainIndexBuffer getIndexBuffer(int lod, int topLod, int bottomLod, int leftLod, int rightLod,
+			Loader loader) {
+		int index = (((lod * LOD_COUNT + topLod) * LOD_COUNT + bottomLod) * LOD_COUNT + leftLod) * LOD_COUNT + rightLod;
+		TerrainIndexBuffer buffer = indexBuffers[index];
+		if (buffer == null) {
+			int[] indices = generateIndices(lod, topLod, bottomLod, leftLod, rightLod);
+			buffer = new TerrainIndexBuffer(storeIndices(indices, loader), indices.length);
+			indexBuffers[index] = buffer;
+		}
+		return buffer;
+	}
+	
+	/**
+	 * @return The VBO which all of the index buffers are in.
+	 */
+	public int getIndexVboID() {
+		return indexVboID;
+	}
+	
+	/**
+	 * Adds indices to the end of the VBO, making it bigger first if needed.
+	 * @return Where in the VBO they were put, in bytes.
+	 */
+	private long storeIndices(int[] indices, Loader loader) {
+		long bytes = indices.length * 4L;
+		if (indexBytesUsed + bytes > indexCapacity) {
+			long capacity = Math.max(indexCapacity, INITIAL_INDEX_BYTES);
+			while (indexBytesUsed + bytes > capacity) {
+				capacity *= 2;
+			}
+			if (indexVboID == 0) {
+				indexVboID = loader.createStaticVbo(capacity);
+			} else {
+				indexVboID = loader.resizeVbo(indexVboID, indexBytesUsed, capacity);
+			}
+			indexCapacity = capacity;
+		}
+		long offset = indexBytesUsed;
+		loader.storeInVbo(indexVboID, offset, indices);
+		indexBytesUsed += bytes;
+		return offset;
+	}
+	
+	private int[] generateIndices(int lod, int topLod, int bottomLod, int leftLod, int rightLod) {
+		int step = 1 << lod;
+		// Edges only need snapping where the neighbour is coarser. A finer neighbour
+		// snaps itself onto this terrain's grid instead.
+		int topStep = 1 << Math.max(lod, topLod);
+		int bottomStep = 1 << Math.max(lod, bottomLod);
+		int leftStep = 1 << Math.max(lod, leftLod);
+		int rightStep = 1 << Math.max(lod, rightLod);
+		int last = vertexCount - 1;
+		
+		int cells = (last + step - 1) / step;
+		int[] indices = new int[6 * cells * cells];
+		int pointer = 0;
+		for (int gz=0; gz<last; gz+=step) {
+			int nextZ = Math.min(gz + step, last);
+			for (int gx=0; gx<last; gx+=step) {
+				int nextX = Math.min(gx + step, last);
+				int topLeft = vertexIndex(gx, gz, topStep, bottomStep, leftStep, rightStep);
+				int topRight = vertexIndex(nextX, gz, topStep, bottomStep, leftStep, rightStep);
+				int bottomLeft = vertexIndex(gx, nextZ, topStep, bottomStep, leftStep, rightStep);
+				int bottomRight = vertexIndex(nextX, nextZ, topStep, bottomStep, leftStep, rightStep);
+				pointer = addTriangle(indices, pointer, topLeft, bottomLeft, topRight);
+				pointer = addTriangle(indices, pointer, topRight, bottomLeft, bottomRight);
+			}
+		}
+		
+		int[] trimmed = new int[pointer];
+		System.arraycopy(indices, 0, trimmed, 0, pointer);
+		return trimmed;
+	}
+	
+	/**
+	 * Gets the index of a vertex, moving it onto the coarser grid if it lies on an
+	 * edge bordering a coarser neighbour. Corners never move.
+	 */
+	private int vertexIndex(int x, int z, int topStep, int bottomStep, int leftStep, int rightStep) {
+		int last = vertexCount - 1;
+		if (z == 0) {
+			x = snap(x, topStep);
+		} else if (z == last) {
+			x = snap(x, bottomStep);
+		} else if (x == 0) {
+			z = snap(z, leftStep);
+		} else if (x == last) {
+			z = snap(z, rightStep);
+		}
+		return z * vertexCount + x;
+	}
+	
+	private int snap(int coord, int step) {
+		// The last vertex is always part of every LOD, even when it isn't a multiple of the step.
+		if (coord == vertexCount - 1) {
+			return coord;
+		}
+		return (coord / step) * step;
+	}
+	
+	private static int addTriangle(int[] indices, int pointer, int v0, int v1, int v2) {
+		if (v0 == v1 || v1 == v2 || v0 == v2) {
+			// Collapsed by edge snapping.
+			return pointer;
+		}
+		indices[pointer++] = v0;
+		indices[pointer++] = v1;
+		indices[pointer++] = v2;
+		return pointer;
+	}
+
+}
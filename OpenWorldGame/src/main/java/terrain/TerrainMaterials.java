@@ -0,0 +1,88 @@
+package terrain;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import loader.Loader;
+import loader.TextureCache;
+import textures.MipChain;
+
+/**
+ * The textures terrains are drawn with, packed into two texture arrays so that
+ * every terrain can be drawn without binding anything in between. One array holds
+ * the four ground textures (background, r, g and b), and the other holds every
+ * blend map in use, with each terrain knowing which layer is its own.
+ * @author Billy
+ *
+ */
+public class TerrainMaterials {
+
+	private final Loader loader;
+	private final int groundTextureArrayID;
+	private int blendMapArrayID = 0;
+
+	// Kept so that the blend map array can be made again with a new layer added.
+	private List<MipChain> blendMaps = new ArrayList<MipChain>();
+	private Map<String, Integer> blendMapLayers = new HashMap<String, Integer>();
+
+	/**
+	 * @param groundTextures
+	 * 	- The background, r, g and b texture files, in that order.
+	 */
+	public TerrainMaterials(Loader loader, String[] groundTextures) {
+		this.loader = loader;
+		this.groundTextureArrayID = loader.createTextureArray(prepareLayers(groundTextures));
+	}
+
+	/**
+	 * @return The layer of the blend map array holding this blend map. Loads it into a
+	 * 	new layer if it isn't already in use, so must be called on the GL thread.
+	 */
+	public int getBlendMapLayer(String blendMapFile) {
+		Integer layer = blendMapLayers.get(blendMapFile);
+		if (layer != null) {
+			return layer;
+		}
+		// Blend maps aren't compressed, as the errors show up as blotches where the ground textures meet.
+		blendMaps.add(TextureCache.prepareTexture(blendMapFile, false));
+		// Texture arrays can't grow, so a new one is made. Only happens once per blend map.
+		if (blendMapArrayID != 0) {
+			loader.deleteTexture(blendMapArrayID);
+		}
+		blendMapArrayID = loader.createTextureArray(blendMaps.toArray(new MipChain[blendMaps.size()]));
+		layer = blendMaps.size() - 1;
+		blendMapLayers.put(blendMapFile, layer);
+		return layer;
+	}
+
+	public int getGroundTextureArrayID() {
+		return groundTextureArrayID;
+	}
+
+	public int getBlendMapArrayID() {
+		return blendMapArrayID;
+	}
+
+	/**
+	 * The layers of an array all have to be stored the same way, so if compression
+	 * picked different formats for some of them (BC1 and BC3) they are loaded
+	 * uncompressed instead.
+	 */
+	private static MipChain[] prepareLayers(String[] files) {
+		MipChain[] layers = new MipChain[files.length];
+		boolean sameFormat = true;
+		for (int i=0; i<files.length; i++) {
+			layers[i] = TextureCache.prepareTexture(files[i]);
+			sameFormat &= layers[i].getCompressedFormat() == layers[0].getCompressedFormat();
+		}
+		if (!sameFormat) {
+			for (int i=0; i<files.length; i++) {
+				layers[i] = TextureCache.prepareTexture(files[i], false);
+			}
+		}
+		return layers;
+	}
+
+}
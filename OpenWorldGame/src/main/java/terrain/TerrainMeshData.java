@@ -0,0 +1,48 @@
+package terrain;
+
+/**
+ * The vertex data for a terrain, generated from its heightmap but not yet
+ * loaded into video memory. This lets the (slow) generation happen on a
+ * worker thread, leaving only the upload for the GL thread.
+ * 
+ * There are no indices, as every terrain of the same size is drawn with the
+ * same index buffers, see TerrainLods.
+ * @author Billy
+ *
+ */
+public class TerrainMeshData {
+	
+	private float[] vertices;
+	private float[] textureCoords;
+	private float[] normals;
+	private Heightfield heightfield;
+	
+	public TerrainMeshData(float[] vertices, float[] textureCoords, float[] normals,
+			Heightfield heightfield) {
+		this.vertices = vertices;
+		this.textureCoords = textureCoords;
+		this.normals = normals;
+		this.heightfield = heightfield;
+	}
+
+	public float[] getVertices() {
+		return vertices;
+	}
+
+	/**
+	 * @return The texture coords, which are the same for every terrain of this size
+	 * 	and so are shared between them. Shouldn't be changed.
+	 */
+	public float[] getTextureCoords() {
+		return textureCoords;
+	}
+
+	public float[] getNormals() {
+		return normals;
+	}
+
+	public Heightfield getHeightfield() {
+		return heightfield;
+	}
+
+}
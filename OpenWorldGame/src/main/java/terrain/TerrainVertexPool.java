@@ -0,0 +1,148 @@
+package terrain;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+import loader.Loader;
+
+/**
+ * Holds the vertices of every loaded terrain of the same size in one VBO, under one
+ * VAO, so that they can all be drawn together with glMultiDrawElementsBaseVertex.
+ *
+ * The VBO is split into equal slots, one per terrain. Vertices are stored already
+ * moved into world space, along with the layer of the terrain's blend map in the
+ * blend map texture array, so nothing has to change between terrains when drawing.
+ * When every slot is taken the VBO is doubled in size.
+ * @author Billy
+ *
+ */
+public class TerrainVertexPool {
+
+	// Position, texture coords, normal and blend map layer.
+	private static final int FLOATS_PER_VERTEX = 3 + 2 + 3 + 1;
+	private static final int INITIAL_SLOTS = 16;
+
+	private static Map<Integer, TerrainVertexPool> pools = new HashMap<Integer, TerrainVertexPool>();
+
+	private final Loader loader;
+	private final int verticesPerSlot;
+	private final TerrainLods lods;
+
+	private int vaoID;
+	private int vboID;
+	private int slotCount = 0;
+	private ArrayDeque<Integer> freeSlots = new ArrayDeque<Integer>();
+
+	private TerrainVertexPool(int vertexCount, Loader loader) {
+		this.loader = loader;
+		this.verticesPerSlot = vertexCount * vertexCount;
+		this.lods = TerrainLods.forVertexCount(vertexCount);
+		this.vaoID = loader.createEmptyVao();
+		resize(INITIAL_SLOTS);
+	}
+
+	/**
+	 * @param vertexCount
+	 * 	- Number of vertices along one side of the terrain.
+	 * @return The pool shared by all terrains of this size. Must be called on the GL thread.
+	 */
+	public static TerrainVertexPool forVertexCount(int vertexCount, Loader loader) {
+		TerrainVertexPool pool = pools.get(vertexCount);
+		if (pool == null) {
+			pool = new TerrainVertexPool(vertexCount, loader);
+			pools.put(vertexCount, pool);
+		}
+		return pool;
+	}
+
+	/**
+	 * Copies a terrain's vertices into a free slot.
+	 * @param x
+	 * @param z
+	 * 	- World position of the terrain's corner.
+	 * @param blendLayer
+	 * 	- The terrain's layer in the blend map texture array.
+	 * @return The slot, to be given back with free() when the terrain is unloaded.
+	 */
+	public int allocate(TerrainMeshData meshData, float x, float z, int blendLayer) {
+		if (freeSlots.isEmpty()) {
+			resize(slotCount * 2);
+		}
+		int slot = freeSlots.poll();
+
+		float[] positions = meshData.getVertices();
+		float[] textureCoords = meshData.getTextureCoords();
+		float[] normals = meshData.getNormals();
+		float[] vertices = new float[verticesPerSlot * FLOATS_PER_VERTEX];
+		for (int i=0; i<verticesPerSlot; i++) {
+			int pointer = i * FLOATS_PER_VERTEX;
+			vertices[pointer] = positions[i*3] + x;
+			vertices[pointer + 1] = positions[i*3 + 1];
+			vertices[pointer + 2] = positions[i*3 + 2] + z;
+			vertices[pointer + 3] = textureCoords[i*2];
+			vertices[pointer + 4] = textureCoords[i*2 + 1];
+			vertices[pointer + 5] = normals[i*3];
+			vertices[pointer + 6] = normals[i*3 + 1];
+			vertices[pointer + 7] = normals[i*3 + 2];
+			vertices[pointer + 8] = blendLayer;
+		}
+		loader.storeInVbo(vboID, getSlotBytes() * slot, vertices);
+		return slot;
+	}
+
+	public void free(int slot) {
+		freeSlots.push(slot);
+	}
+
+	/**
+	 * @return The number added to every index when drawing the terrain in this slot.
+	 */
+	public int getBaseVertex(int slot) {
+		return slot * verticesPerSlot;
+	}
+
+	public int getVaoID() {
+		return vaoID;
+	}
+
+	public TerrainLods getLods() {
+		return lods;
+	}
+
+	private long getSlotBytes() {
+		return (long) verticesPerSlot * FLOATS_PER_VERTEX * 4;
+	}
+
+	private void resize(int newSlotCount) {
+		if (vboID == 0) {
+			vboID = loader.createStaticVbo(getSlotBytes() * newSlotCount);
+		} else {
+			vboID = loader.resizeVbo(vboID, getSlotBytes() * slotCount, getSlotBytes() * newSlotCount);
+		}
+		for (int slot=slotCount; slot<newSlotCount; slot++) {
+			freeSlots.add(slot);
+		}
+		slotCount = newSlotCount;
+
+		// Pointing the attributes at the new VBO. Being part of the VAO, they stay enabled.
+		int stride = FLOATS_PER_VERTEX * 4;
+		GL30.glBindVertexArray(vaoID);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, stride, 0);
+		GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, stride, 3 * 4);
+		GL20.glVertexAttribPointer(2, 3, GL11.GL_FLOAT, false, stride, 5 * 4);
+		GL20.glVertexAttribPointer(3, 1, GL11.GL_FLOAT, false, stride, 8 * 4);
+		for (int attribute=0; attribute<4; attribute++) {
+			GL20.glEnableVertexAttribArray(attribute);
+		}
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		GL30.glBindVertexArray(0);
+	}
+
+}
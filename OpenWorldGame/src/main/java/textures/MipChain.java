@@ -0,0 +1,69 @@
+package textures;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A texture with all of its mipmap levels already made, ready to be uploaded
+ * level by level. Level 0 is the full size image.
+ * @author Billy
+ *
+ */
+public class MipChain {
+
+	private int width;
+	private int height;
+	// The GL internal format, for compressed textures. Uncompressed textures are RGBA8.
+	private int compressedFormat;
+	private ByteBuffer[] levels;
+
+	public MipChain(int width, int height, int compressedFormat, ByteBuffer[] levels) {
+		this.width = width;
+		this.height = height;
+		this.compressedFormat = compressedFormat;
+		this.levels = levels;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getLevelWidth(int level) {
+		return Math.max(1, width >> level);
+	}
+
+	public int getLevelHeight(int level) {
+		return Math.max(1, height >> level);
+	}
+
+	public boolean isCompressed() {
+		return compressedFormat != 0;
+	}
+
+	public int getCompressedFormat() {
+		return compressedFormat;
+	}
+
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	public ByteBuffer getLevel(int level) {
+		return levels[level];
+	}
+
+	/**
+	 * @return The size of every level together, in bytes.
+	 */
+	public long getByteCount() {
+		long bytes = 0;
+		for (ByteBuffer level : levels) {
+			bytes += level.remaining();
+		}
+		return bytes;
+	}
+
+}
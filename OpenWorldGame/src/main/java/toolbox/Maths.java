@@ -23,6 +23,19 @@ public class Maths {
 		return matrix;
 	}
 	
+	/*
+	 * As above, but writes into an existing matrix rather than allocating one.
+	 */
+	public static Matrix4f createTransformationMatrix(Matrix4f dest, Vector3f translation, float rx,
+			float ry, float rz, float scale) {
+		return dest.identity()
+				.translate(translation)
+				.rotateX((float) Math.toRadians(rx))
+				.rotateY((float) Math.toRadians(ry))
+				.rotateZ((float) Math.toRadians(rz))
+				.scale(scale);
+	}
+	
 	/*
 	 * Creating a transformation matrix for use on 2D vectors.
 	 */
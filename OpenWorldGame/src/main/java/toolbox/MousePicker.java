@@ -1,20 +1,19 @@
 package toolbox;
 
 import org.joml.Matrix4f;
-import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 
 import entities.Camera;
-import terrain.Terrain;
 import window.Window;
+import world.RayHit;
+import world.World;
 
 //To do mouse picking, we have to convert between screen-space coordinates and
 //world coordinates.
 
 public class MousePicker {
 	
-	private static final int RECURSION_COUNT = 200;
 	private static final float RAY_RANGE = 600;
 
 	private Vector3f currentRay = new Vector3f();
@@ -23,18 +22,38 @@ public class MousePicker {
 	private Matrix4f viewMatrix;
 	private Camera camera;
 	
-	private Terrain terrain;
-	private Vector3f currentTerrainPoint;
+	private World world;
+	// Reused every update, along with the matrices and vectors below.
+	private RayHit currentHit = new RayHit();
+	
+	private Matrix4f invertedProjection = new Matrix4f();
+	private Matrix4f invertedView = new Matrix4f();
+	private Vector4f clipCoords = new Vector4f();
+	private Vector4f eyeCoords = new Vector4f();
 
-	public MousePicker(Camera cam, Matrix4f projection, Terrain terrain) {
+	public MousePicker(Camera cam, Matrix4f projection, World world) {
 		camera = cam;
 		projectionMatrix = projection;
 		viewMatrix = Maths.createViewMatrix(camera);
-		this.terrain = terrain;
+		this.world = world;
 	}
 	
+	/**
+	 * @return The point on the terrain under the mouse, or null if the mouse is over
+	 * 	an entity or nothing.
+	 */
 	public Vector3f getCurrentTerrainPoint() {
-		return currentTerrainPoint;
+		if (currentHit.getTerrain() == null) {
+			return null;
+		}
+		return currentHit.getPoint();
+	}
+	
+	/**
+	 * @return Whatever is under the mouse. Changes on the next update.
+	 */
+	public RayHit getCurrentHit() {
+		return currentHit;
 	}
 
 	public Vector3f getCurrentRay() {
@@ -43,109 +62,30 @@ public class MousePicker {
 
 	public void update() {
 		viewMatrix = Maths.createViewMatrix(camera);
-		currentRay = calculateMouseRay();
-		if (intersectionInRange(0, RAY_RANGE, currentRay)) {
-			currentTerrainPoint = binarySearch(0, 0, RAY_RANGE, currentRay);
-		} else {
-			currentTerrainPoint = null;
-		}
+		calculateMouseRay();
+		world.raycast(camera.getPosition(), currentRay, RAY_RANGE, currentHit);
 	}
 
-	private Vector3f calculateMouseRay() {
+	private void calculateMouseRay() {
 		double[] mousePos = Window.getMousePosition();
-		Vector2f normalizedCoords = 
-				getNormalisedDeviceCoordinates((float)mousePos[0], (float) mousePos[1]);
-		Vector4f clipCoords = new Vector4f(normalizedCoords.x, normalizedCoords.y, -1.0f, 1.0f);
-		Vector4f eyeCoords = toEyeCoords(clipCoords);
-		Vector3f worldRay = toWorldCoords(eyeCoords);
-		return worldRay;
+		float x = (2.0f * (float) mousePos[0]) / Window.getWidth() - 1f;
+		float y = (2.0f * (float) mousePos[1]) / Window.getHeight() - 1f;
+		clipCoords.set(x, -y, -1.0f, 1.0f);
+		toEyeCoords();
+		toWorldCoords();
 	}
 
-	private Vector3f toWorldCoords(Vector4f eyeCoords) {
-		Matrix4f invertedView = new Matrix4f();
-		Vector4f rayWorld = new Vector4f();;
-		Vector3f mouseRay;
-		
+	private void toWorldCoords() {
 		viewMatrix.invert(invertedView);
-		invertedView.transform(eyeCoords, rayWorld);
-		mouseRay = new Vector3f(rayWorld.x, rayWorld.y, rayWorld.z);
-		mouseRay.normalize();
-		
-		return mouseRay;
+		invertedView.transform(eyeCoords);
+		currentRay.set(eyeCoords.x, eyeCoords.y, eyeCoords.z);
+		currentRay.normalize();
 	}
 
-	private Vector4f toEyeCoords(Vector4f clipCoords) {
-		Matrix4f invertedProjection = new Matrix4f();
-		Vector4f eyeCoords = new Vector4f();
-		
+	private void toEyeCoords() {
 		projectionMatrix.invert(invertedProjection);
 		invertedProjection.transform(clipCoords, eyeCoords);
-		
-		return new Vector4f(eyeCoords.x, eyeCoords.y, -1f, 0f);
-	}
-
-	private Vector2f getNormalisedDeviceCoordinates(float mouseX, float mouseY) {
-		float x = (2.0f * mouseX) / Window.getWidth() - 1f;
-		float y = (2.0f * mouseY) / Window.getHeight() - 1f;
-		return new Vector2f(x, -y);
-	}
-	
-	//**********************************************************
-	
-	private Vector3f getPointOnRay(Vector3f ray, float distance) {
-		Vector3f camPos = camera.getPosition();
-		Vector3f start = new Vector3f(camPos.x, camPos.y, camPos.z);
-		Vector3f scaledRay = new Vector3f(ray.x * distance, ray.y * distance, ray.z * distance);
-		
-		Vector3f pointOnRay = new Vector3f();
-		start.add(scaledRay, pointOnRay);
-		
-		return pointOnRay;
-	}
-	
-	private Vector3f binarySearch(int count, float start, float finish, Vector3f ray) {
-		float half = start + ((finish - start) / 2f);
-		if (count >= RECURSION_COUNT) {
-			Vector3f endPoint = getPointOnRay(ray, half);
-			Terrain terrain = getTerrain(endPoint.x, endPoint.z);
-			if (terrain != null) {
-				return endPoint;
-			} else {
-				return null;
-			}
-		}
-		if (intersectionInRange(start, half, ray)) {
-			return binarySearch(count + 1, start, half, ray);
-		} else {
-			return binarySearch(count + 1, half, finish, ray);
-		}
-	}
-
-	private boolean intersectionInRange(float start, float finish, Vector3f ray) {
-		Vector3f startPoint = getPointOnRay(ray, start);
-		Vector3f endPoint = getPointOnRay(ray, finish);
-		if (!isUnderGround(startPoint) && isUnderGround(endPoint)) {
-			return true;
-		} else {
-			return false;
-		}
-	}
-
-	private boolean isUnderGround(Vector3f testPoint) {
-		Terrain terrain = getTerrain(testPoint.x, testPoint.z);
-		float height = 0;
-		if (terrain != null) {
-			height = terrain.getHeightOfTerrain(testPoint.x, testPoint.z);
-		}
-		if (testPoint.y < height) {
-			return true;
-		} else {
-			return false;
-		}
-	}
-
-	private Terrain getTerrain(float worldX, float worldZ) {
-		return terrain;
+		eyeCoords.set(eyeCoords.x, eyeCoords.y, -1f, 0f);
 	}
 
 }
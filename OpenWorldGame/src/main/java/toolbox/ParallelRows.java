@@ -0,0 +1,66 @@
+package toolbox;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits work over a range of rows (of a heightmap, a grid of vertices, ...) into
+ * halves until the pieces are small, and runs the pieces on the common fork/join
+ * pool. Each row must only write to its own part of the output.
+ * @author Billy
+ *
+ */
+public class ParallelRows {
+
+	public interface RowRange {
+
+		/**
+		 * Does the work for rows start (inclusive) to end (exclusive).
+		 */
+		void compute(int start, int end);
+
+	}
+
+	/**
+	 * Runs the work for rows 0 to rowCount, returning once it is all done.
+	 * @param rowsPerTask
+	 * 	- Ranges with no more rows than this aren't split any further.
+	 */
+	public static void forEach(int rowCount, int rowsPerTask, RowRange work) {
+		if (rowCount <= rowsPerTask) {
+			work.compute(0, rowCount);
+			return;
+		}
+		ForkJoinPool.commonPool().invoke(new RowTask(work, 0, rowCount, rowsPerTask));
+	}
+
+	private static class RowTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RowRange work;
+		private final int start;
+		private final int end;
+		private final int rowsPerTask;
+
+		private RowTask(RowRange work, int start, int end, int rowsPerTask) {
+			this.work = work;
+			this.start = start;
+			this.end = end;
+			this.rowsPerTask = rowsPerTask;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= rowsPerTask) {
+				work.compute(start, end);
+				return;
+			}
+			int middle = (start + end) >>> 1;
+			invokeAll(new RowTask(work, start, middle, rowsPerTask),
+					new RowTask(work, middle, end, rowsPerTask));
+		}
+
+	}
+
+}
@@ -1,5 +1,7 @@
 package water;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
@@ -11,6 +13,7 @@ import org.lwjgl.opengl.GL30;
 import entities.Camera;
 import entities.Light;
 import game.Scene;
+import loader.AssetPipeline;
 import loader.Loader;
 import models.RawModel;
 import renderer.MasterRenderer;
@@ -32,10 +35,12 @@ public class WaterRenderer {
 	private int dudvTextureID;
 	private int normalMapID;
 
-	public WaterRenderer(Loader loader, Matrix4f projectionMatrix) {
+	public WaterRenderer(Loader loader, AssetPipeline assets, Matrix4f projectionMatrix) {
+		CompletableFuture<Integer> dudvRequest = assets.loadTexture(DUDV_MAP);
+		CompletableFuture<Integer> normalMapRequest = assets.loadTexture(NORMAL_MAP);
 		shader = new WaterShader();
-		dudvTextureID = loader.loadTexture(DUDV_MAP);
-		normalMapID = loader.loadTexture(NORMAL_MAP);
+		dudvTextureID = assets.await(dudvRequest);
+		normalMapID = assets.await(normalMapRequest);
 		fbos = new WaterFrameBuffers();
 		shader.start();
 		shader.connectTextureUnits();
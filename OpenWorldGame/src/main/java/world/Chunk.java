@@ -0,0 +1,147 @@
+package world;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import terrain.Terrain;
+import terrain.TerrainMeshData;
+
+/**
+ * A square section of the world, Terrain.SIZE along each side. A chunk owns
+ * the terrain which sits within it, and is loaded and unloaded by the world
+ * as the player moves around.
+ * 
+ * Loading is asynchronous. load() only queues the chunk with the world's
+ * ChunkStreamer, and the terrain appears a few frames later.
+ * @author Billy
+ *
+ */
+public class Chunk {
+	
+	private static final String BLEND_MAP = "blendMap.png";
+	
+	private final int gridX;
+	private final int gridZ;
+	private Terrain terrain;
+	private boolean loaded = false;
+	// Non-null whilst the chunk is waiting to be loaded.
+	private ChunkRequest pendingRequest;
+	// Cells of the world's entity indices, taken out whilst the chunk is unloaded.
+	private List<SpatialCell> detachedCells = new ArrayList<SpatialCell>();
+	
+	// Links for the ChunkMap's least-recently-used list.
+	Chunk lruPrevious;
+	Chunk lruNext;
+	
+	public Chunk(int gridX, int gridZ) {
+		this.gridX = gridX;
+		this.gridZ = gridZ;
+	}
+	
+	public void load(World world) {
+		if (loaded || pendingRequest != null) {
+			return;
+		}
+		pendingRequest = world.getStreamer().requestLoad(this, world.getHeightSource(), world.getChunkPriority(gridX, gridZ));
+	}
+	
+	/**
+	 * Called by the ChunkStreamer, on the GL thread, once the chunk's data has been prepared.
+	 */
+	protected void finishLoad(World world, ChunkRequest request) {
+		pendingRequest = null;
+		TerrainMeshData meshData = request.getMeshData();
+		if (meshData == null) {
+			// Preparing failed. Left unloaded so a later load() can try again.
+			return;
+		}
+		terrain = new Terrain(gridX, gridZ, world.getAssets().getLoader(),
+				world.getTerrainMaterials(), BLEND_MAP, meshData);
+		world.addTerrain(terrain);
+		ChunkData storedData = request.getStoredData();
+		// Saved entities are spawned on every load, and despawned on unload, rather than
+		// being kept in the detached cells.
+		if (storedData != null && world.getEntitySpawner() != null) {
+			world.getEntitySpawner().spawnEntities(this, storedData);
+		}
+		for (SpatialCell cell : detachedCells) {
+			cell.getIndex().attachCell(cell);
+		}
+		detachedCells.clear();
+		loaded = true;
+	}
+	
+	public void unload(World world) {
+		if (loaded && world.getEntitySpawner() != null) {
+			world.getEntitySpawner().despawnEntities(this);
+		}
+		if (loaded || pendingRequest != null) {
+			detachEntities(world);
+		}
+		if (pendingRequest != null) {
+			// Went out of range before it finished loading.
+			world.getStreamer().cancel(pendingRequest);
+			pendingRequest = null;
+			return;
+		}
+		if (!loaded) {
+			return;
+		}
+		world.removeTerrain(terrain);
+		terrain.cleanUp();
+		terrain = null;
+		loaded = false;
+	}
+	
+	public boolean isLoaded() {
+		return loaded;
+	}
+	
+	public boolean isLoading() {
+		return pendingRequest != null;
+	}
+	
+	/**
+	 * @return True whilst the chunk holds cells taken out of the entity indices,
+	 * 	which would be lost along with the chunk.
+	 */
+	public boolean hasDetachedCells() {
+		return !detachedCells.isEmpty();
+	}
+	
+	public int getGridX() {
+		return gridX;
+	}
+	
+	public int getGridZ() {
+		return gridZ;
+	}
+	
+	/**
+	 * @return The chunk's grid position packed into a single ChunkMap key.
+	 */
+	public long getKey() {
+		return ChunkMap.key(gridX, gridZ);
+	}
+	
+	/**
+	 * @return The next chunk in the ChunkMap's least-recently-used order, or null.
+	 */
+	public Chunk getMoreRecentlyUsed() {
+		return lruPrevious;
+	}
+	
+	public Terrain getTerrain() {
+		return terrain;
+	}
+	
+	private void detachEntities(World world) {
+		for (SpatialIndex index : world.getEntityIndices()) {
+			SpatialCell cell = index.detachCell(gridX, gridZ);
+			if (cell != null) {
+				detachedCells.add(cell);
+			}
+		}
+	}
+
+}
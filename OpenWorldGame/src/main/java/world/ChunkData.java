@@ -0,0 +1,95 @@
+package world;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import terrain.Heightfield;
+
+/**
+ * One chunk's record from a region file: its terrain heights and the entities
+ * placed in it. Records are read straight out of the mapped region file, so the
+ * heights and placements are only copied out when they are asked for.
+ * 
+ * A record is the vertex count and entity count (ints), followed by the heights
+ * (vertex count squared floats, row by row along z) and then the placements.
+ * Everything is little endian.
+ * @author Billy
+ *
+ */
+public class ChunkData {
+
+	private static final int HEADER_SIZE = 8;
+
+	private final ByteBuffer buffer;
+	private final int vertexCount;
+	private final int entityCount;
+
+	protected ChunkData(ByteBuffer buffer) {
+		this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.vertexCount = buffer.getInt(0);
+		this.entityCount = buffer.getInt(4);
+		if (vertexCount < 2 || entityCount < 0 || buffer.capacity() != getSize(vertexCount, entityCount)) {
+			throw new IllegalArgumentException("Corrupt chunk record, " + vertexCount + " vertices and "
+					+ entityCount + " entities in " + buffer.capacity() + " bytes.");
+		}
+	}
+
+	/**
+	 * Lays out a record for saving to a region file.
+	 */
+	public static ByteBuffer encode(Heightfield heightfield, List<EntityPlacement> placements) {
+		int vertexCount = heightfield.getVertexCount();
+		ByteBuffer buffer = ByteBuffer.allocate(getSize(vertexCount, placements.size()))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(vertexCount);
+		buffer.putInt(placements.size());
+		buffer.asFloatBuffer().put(heightfield.getHeights());
+		buffer.position(HEADER_SIZE + vertexCount * vertexCount * 4);
+		for (EntityPlacement placement : placements) {
+			placement.write(buffer);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getEntityCount() {
+		return entityCount;
+	}
+
+	/**
+	 * @return A view of the heights in the record, without copying them.
+	 */
+	public FloatBuffer getHeights() {
+		ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		view.position(HEADER_SIZE).limit(HEADER_SIZE + vertexCount * vertexCount * 4);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+	}
+
+	/**
+	 * @return The heights copied into an array, as a Heightfield needs.
+	 */
+	public float[] copyHeights() {
+		float[] heights = new float[vertexCount * vertexCount];
+		getHeights().get(heights);
+		return heights;
+	}
+
+	public EntityPlacement getPlacement(int index) {
+		if (index < 0 || index >= entityCount) {
+			throw new IndexOutOfBoundsException("Placement " + index + " of " + entityCount);
+		}
+		return EntityPlacement.read(buffer, HEADER_SIZE + vertexCount * vertexCount * 4
+				+ index * EntityPlacement.BYTES);
+	}
+
+	private static int getSize(int vertexCount, int entityCount) {
+		return HEADER_SIZE + vertexCount * vertexCount * 4 + entityCount * EntityPlacement.BYTES;
+	}
+
+}
@@ -0,0 +1,213 @@
+package world;
+
+/**
+ * A sparse map of grid positions to chunks. Only chunks which have been near the
+ * player are ever created, so the world doesn't need a dense array with a chunk
+ * for every grid square.
+ * 
+ * Grid positions are packed into a single long (x in the high 32 bits, z in the
+ * low 32 bits) and stored in an open-addressing table, so lookups don't allocate.
+ * 
+ * The map also keeps its chunks in least-recently-used order, which the world
+ * uses to throw away the metadata of chunks which haven't been visited in a while.
+ * @author Billy
+ *
+ */
+public class ChunkMap {
+	
+	// Table is grown once it is more than half full. Keeps probe sequences short.
+	private static final float MAX_LOAD_FACTOR = 0.5f;
+	
+	private long[] keys;
+	// A null value marks an empty slot.
+	private Chunk[] values;
+	private int mask;
+	private int size = 0;
+	
+	// Most recently used at the head, least recently used at the tail.
+	private Chunk lruHead;
+	private Chunk lruTail;
+	
+	public ChunkMap(int expectedChunks) {
+		int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedChunks / MAX_LOAD_FACTOR)) - 1) << 1;
+		keys = new long[capacity];
+		values = new Chunk[capacity];
+		mask = capacity - 1;
+	}
+	
+	public static long key(int gridX, int gridZ) {
+		return ((long) gridX << 32) | (gridZ & 0xFFFFFFFFL);
+	}
+	
+	public static int gridX(long key) {
+		return (int) (key >> 32);
+	}
+	
+	public static int gridZ(long key) {
+		return (int) key;
+	}
+	
+	/**
+	 * Finds a chunk and marks it as the most recently used.
+	 * @return The chunk, or null if there isn't one at this position.
+	 */
+	public Chunk get(long key) {
+		int slot = findSlot(key);
+		if (values[slot] == null) {
+			return null;
+		}
+		Chunk chunk = values[slot];
+		moveToHead(chunk);
+		return chunk;
+	}
+	
+	/**
+	 * Finds a chunk without changing the least-recently-used order, for lookups
+	 * which only read from it (height queries, raycasts) rather than stream it.
+	 * @return The chunk, or null if there isn't one at this position.
+	 */
+	public Chunk peek(long key) {
+		return values[findSlot(key)];
+	}
+	
+	public boolean contains(long key) {
+		return values[findSlot(key)] != null;
+	}
+	
+	/**
+	 * Adds a chunk (keyed by its own grid position) as the most recently used.
+	 * Replaces any chunk already at that position.
+	 */
+	public void put(Chunk chunk) {
+		long key = chunk.getKey();
+		int slot = findSlot(key);
+		if (values[slot] != null) {
+			unlink(values[slot]);
+			size--;
+		}
+		keys[slot] = key;
+		values[slot] = chunk;
+		size++;
+		linkAtHead(chunk);
+		
+		if (size > values.length * MAX_LOAD_FACTOR) {
+			resize(values.length * 2);
+		}
+	}
+	
+	public Chunk remove(long key) {
+		int slot = findSlot(key);
+		Chunk chunk = values[slot];
+		if (chunk == null) {
+			return null;
+		}
+		values[slot] = null;
+		size--;
+		unlink(chunk);
+		closeGap(slot);
+		return chunk;
+	}
+	
+	/**
+	 * @return The least recently used chunk. Walk towards more recent chunks
+	 * with Chunk.getMoreRecentlyUsed().
+	 */
+	public Chunk getLeastRecentlyUsed() {
+		return lruTail;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Linear probing. Returns the slot holding the key, or the empty slot where
+	 * it would go.
+	 */
+	private int findSlot(long key) {
+		int slot = hash(key) & mask;
+		while (values[slot] != null && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+	
+	private static int hash(long key) {
+		// Spreads neighbouring grid positions across the table.
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+	
+	/**
+	 * Removing from a linear probing table leaves a hole which could cut a probe
+	 * sequence short. Entries after the hole are shifted back to fill it.
+	 */
+	private void closeGap(int gap) {
+		int slot = gap;
+		while (true) {
+			slot = (slot + 1) & mask;
+			if (values[slot] == null) {
+				return;
+			}
+			int home = hash(keys[slot]) & mask;
+			// Can only move back if the entry's home slot isn't between the gap and itself.
+			boolean canMove = (gap <= slot) ? (home <= gap || home > slot) : (home <= gap && home > slot);
+			if (canMove) {
+				keys[gap] = keys[slot];
+				values[gap] = values[slot];
+				values[slot] = null;
+				gap = slot;
+			}
+		}
+	}
+	
+	private void resize(int newCapacity) {
+		long[] oldKeys = keys;
+		Chunk[] oldValues = values;
+		keys = new long[newCapacity];
+		values = new Chunk[newCapacity];
+		mask = newCapacity - 1;
+		for (int i=0; i<oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = findSlot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+	
+	private void moveToHead(Chunk chunk) {
+		if (chunk != lruHead) {
+			unlink(chunk);
+			linkAtHead(chunk);
+		}
+	}
+	
+	private void linkAtHead(Chunk chunk) {
+		chunk.lruPrevious = null;
+		chunk.lruNext = lruHead;
+		if (lruHead != null) {
+			lruHead.lruPrevious = chunk;
+		}
+		lruHead = chunk;
+		if (lruTail == null) {
+			lruTail = chunk;
+		}
+	}
+	
+	private void unlink(Chunk chunk) {
+		if (chunk.lruPrevious != null) {
+			chunk.lruPrevious.lruNext = chunk.lruNext;
+		} else {
+			lruHead = chunk.lruNext;
+		}
+		if (chunk.lruNext != null) {
+			chunk.lruNext.lruPrevious = chunk.lruPrevious;
+		} else {
+			lruTail = chunk.lruPrevious;
+		}
+		chunk.lruPrevious = null;
+		chunk.lruNext = null;
+	}
+
+}
@@ -0,0 +1,107 @@
+package world;
+
+import terrain.HeightSource;
+import terrain.Terrain;
+import terrain.TerrainMeshData;
+
+/**
+ * A request to load a chunk. The CPU side of the load (getting the heights and
+ * building the vertex arrays) is run on a worker thread, after which the request
+ * waits in the ChunkStreamer until the GL thread has budget to upload it.
+ * 
+ * Requests are ordered by priority so that the chunks closest to the player are
+ * prepared first.
+ * @author Billy
+ *
+ */
+public class ChunkRequest implements Runnable, Comparable<ChunkRequest> {
+	
+	private final Chunk chunk;
+	private final HeightSource heightSource;
+	// May be null, if the world isn't saved anywhere.
+	private final RegionStore regionStore;
+	// Lower values are loaded first.
+	private final int priority;
+	private final ChunkStreamer streamer;
+	
+	// Set on the GL thread, read by the workers.
+	private volatile boolean cancelled = false;
+	// Written by a worker, only read once the request has been handed back.
+	private volatile TerrainMeshData meshData;
+	private volatile ChunkData storedData;
+	
+	protected ChunkRequest(Chunk chunk, HeightSource heightSource, RegionStore regionStore, int priority,
+			ChunkStreamer streamer) {
+		this.chunk = chunk;
+		this.heightSource = heightSource;
+		this.regionStore = regionStore;
+		this.priority = priority;
+		this.streamer = streamer;
+	}
+
+	@Override
+	public void run() {
+		// The chunk may have gone out of range whilst waiting in the queue.
+		if (cancelled) {
+			return;
+		}
+		try {
+			// Saved chunks replace whatever the height source would have made.
+			if (regionStore != null) {
+				storedData = regionStore.readChunk(chunk.getGridX(), chunk.getGridZ());
+			}
+			if (storedData != null) {
+				meshData = Terrain.generateMeshData(storedData.getVertexCount(), storedData.copyHeights());
+			} else {
+				meshData = Terrain.generateMeshData(heightSource, chunk.getGridX(), chunk.getGridZ());
+			}
+		} catch (Exception e) {
+			System.err.println("Failed to prepare chunk " + chunk.getGridX() + ", " + chunk.getGridZ());
+			e.printStackTrace();
+		}
+		// Handed back even on failure, so the chunk isn't left waiting forever.
+		if (!cancelled) {
+			streamer.requestReady(this);
+		}
+	}
+
+	@Override
+	public int compareTo(ChunkRequest other) {
+		return Integer.compare(priority, other.priority);
+	}
+	
+	/**
+	 * Stops the request from being prepared or uploaded. If a worker is already
+	 * preparing it, the result is thrown away.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public Chunk getChunk() {
+		return chunk;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @return The prepared mesh data, or null if preparing it failed.
+	 */
+	public TerrainMeshData getMeshData() {
+		return meshData;
+	}
+	
+	/**
+	 * @return The chunk's saved data, or null if it has never been saved.
+	 */
+	public ChunkData getStoredData() {
+		return storedData;
+	}
+
+}
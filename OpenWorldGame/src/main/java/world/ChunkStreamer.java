@@ -0,0 +1,135 @@
+package world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import terrain.HeightSource;
+
+/**
+ * Loads chunks in the background so that crossing a chunk boundary doesn't
+ * cause a hitch.
+ * 
+ * Loading happens in two stages. Worker threads do everything which doesn't
+ * need OpenGL (decoding heightmaps, building vertex arrays). The prepared chunks
+ * are then queued up for the GL thread, which uploads a limited number of them
+ * each frame.
+ * @author Billy
+ *
+ */
+public class ChunkStreamer {
+	
+	// Chunks uploaded to video memory per frame. Spreads the cost of a row of
+	// chunks over several frames.
+	private static final int UPLOADS_PER_FRAME = 1;
+	
+	private final World world;
+	private final ThreadPoolExecutor workers;
+	
+	// Prepared by a worker, waiting for the GL thread.
+	private final BlockingQueue<ChunkRequest> readyRequests = new LinkedBlockingQueue<ChunkRequest>();
+	// Requests which have been made but not yet uploaded or cancelled. Only used on the GL thread.
+	private final List<ChunkRequest> pendingRequests = new ArrayList<ChunkRequest>();
+	
+	public ChunkStreamer(World world) {
+		this.world = world;
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		// The priority queue means the closest chunks are picked up first. Requests
+		// have to be given to execute(), not submit(), or they lose their ordering.
+		workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "Chunk loader " + count.getAndIncrement());
+						// Don't keep the game running after the window closes.
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+	
+	/**
+	 * Queues a chunk to be loaded in the background.
+	 * @param priority
+	 * 	- Lower values are loaded first. Usually the distance from the player.
+	 */
+	public ChunkRequest requestLoad(Chunk chunk, HeightSource heightSource, int priority) {
+		ChunkRequest request = new ChunkRequest(chunk, heightSource, world.getRegionStore(), priority, this);
+		pendingRequests.add(request);
+		workers.execute(request);
+		return request;
+	}
+	
+	public void cancel(ChunkRequest request) {
+		request.cancel();
+		pendingRequests.remove(request);
+		// Frees up the worker queue if it hasn't been started yet.
+		workers.remove(request);
+	}
+	
+	/**
+	 * Uploads prepared chunks, at most UPLOADS_PER_FRAME of them. Must be called
+	 * on the GL thread, once per frame.
+	 */
+	public void update() {
+		int uploads = 0;
+		while (uploads < UPLOADS_PER_FRAME) {
+			ChunkRequest request = readyRequests.poll();
+			if (request == null) {
+				break;
+			}
+			if (upload(request)) {
+				uploads++;
+			}
+		}
+	}
+	
+	/**
+	 * Blocks until every pending chunk has been loaded. Used for the initial load,
+	 * where there is nothing for the player to stand on until it has finished.
+	 */
+	public void finishAll() {
+		while (!pendingRequests.isEmpty()) {
+			try {
+				upload(readyRequests.take());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	public int getPendingCount() {
+		return pendingRequests.size();
+	}
+	
+	public void cleanUp() {
+		workers.shutdownNow();
+	}
+	
+	/**
+	 * Called by a worker once it has finished preparing a request.
+	 */
+	protected void requestReady(ChunkRequest request) {
+		readyRequests.add(request);
+	}
+	
+	private boolean upload(ChunkRequest request) {
+		// Cancelled after the worker had already finished with it.
+		if (request.isCancelled()) {
+			return false;
+		}
+		pendingRequests.remove(request);
+		request.getChunk().finishLoad(world, request);
+		return true;
+	}
+
+}
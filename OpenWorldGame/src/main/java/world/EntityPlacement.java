@@ -0,0 +1,97 @@
+package world;
+
+import java.nio.ByteBuffer;
+
+import org.joml.Vector3f;
+
+import entities.Entity;
+
+/**
+ * Where an entity is placed in a chunk, as stored in a region file. The model is
+ * identified by a number, which the game maps to one of its models when spawning.
+ * @author Billy
+ *
+ */
+public class EntityPlacement {
+
+	// Model ID, texture index, position, rotation and scale, four bytes each.
+	public static final int BYTES = 9 * 4;
+
+	private int modelID;
+	private int textureIndex;
+	private Vector3f position;
+	private float rotX;
+	private float rotY;
+	private float rotZ;
+	private float scale;
+
+	public EntityPlacement(int modelID, int textureIndex, Vector3f position,
+			float rotX, float rotY, float rotZ, float scale) {
+		this.modelID = modelID;
+		this.textureIndex = textureIndex;
+		this.position = position;
+		this.rotX = rotX;
+		this.rotY = rotY;
+		this.rotZ = rotZ;
+		this.scale = scale;
+	}
+
+	/**
+	 * @return The placement of an existing entity, for saving it.
+	 */
+	public static EntityPlacement of(Entity entity, int modelID) {
+		return new EntityPlacement(modelID, entity.getTextureIndex(), new Vector3f(entity.getPosition()),
+				entity.getRotX(), entity.getRotY(), entity.getRotZ(), entity.getScale());
+	}
+
+	/**
+	 * Reads a placement written by write(), at an absolute position in the buffer.
+	 */
+	protected static EntityPlacement read(ByteBuffer buffer, int offset) {
+		return new EntityPlacement(buffer.getInt(offset), buffer.getInt(offset + 4),
+				new Vector3f(buffer.getFloat(offset + 8), buffer.getFloat(offset + 12), buffer.getFloat(offset + 16)),
+				buffer.getFloat(offset + 20), buffer.getFloat(offset + 24), buffer.getFloat(offset + 28),
+				buffer.getFloat(offset + 32));
+	}
+
+	protected void write(ByteBuffer buffer) {
+		buffer.putInt(modelID);
+		buffer.putInt(textureIndex);
+		buffer.putFloat(position.x);
+		buffer.putFloat(position.y);
+		buffer.putFloat(position.z);
+		buffer.putFloat(rotX);
+		buffer.putFloat(rotY);
+		buffer.putFloat(rotZ);
+		buffer.putFloat(scale);
+	}
+
+	public int getModelID() {
+		return modelID;
+	}
+
+	public int getTextureIndex() {
+		return textureIndex;
+	}
+
+	public Vector3f getPosition() {
+		return position;
+	}
+
+	public float getRotX() {
+		return rotX;
+	}
+
+	public float getRotY() {
+		return rotY;
+	}
+
+	public float getRotZ() {
+		return rotZ;
+	}
+
+	public float getScale() {
+		return scale;
+	}
+
+}
@@ -0,0 +1,23 @@
+package world;
+
+/**
+ * Creates the entities saved in a chunk each time the chunk loads, and removes
+ * them again when it unloads, so the models they use can be released. Given to
+ * the world by the game, which knows which model each model ID means.
+ * @author Billy
+ *
+ */
+public interface EntitySpawner {
+
+	/**
+	 * Called on the GL thread once the chunk's terrain has loaded.
+	 */
+	void spawnEntities(Chunk chunk, ChunkData data);
+
+	/**
+	 * Called on the GL thread when a chunk which was loaded unloads, before the rest
+	 * of its entities are detached from the entity indices.
+	 */
+	void despawnEntities(Chunk chunk);
+
+}
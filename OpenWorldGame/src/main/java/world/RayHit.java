@@ -0,0 +1,81 @@
+package world;
+
+import org.joml.Vector3f;
+
+import entities.Entity;
+import terrain.Terrain;
+
+/**
+ * What a ray cast into the world hit first: either an entity or a terrain, and
+ * where. Meant to be kept and reused for every cast, so casting allocates nothing.
+ * @author Billy
+ *
+ */
+public class RayHit {
+
+	private Entity entity;
+	private Terrain terrain;
+	private float distance;
+	private Vector3f point = new Vector3f();
+
+	/**
+	 * @return True if the ray hit anything.
+	 */
+	public boolean isHit() {
+		return entity != null || terrain != null;
+	}
+
+	/**
+	 * @return The entity hit, or null if the ray hit terrain or nothing.
+	 */
+	public Entity getEntity() {
+		return entity;
+	}
+
+	/**
+	 * @return The terrain hit, or null if the ray hit an entity or nothing.
+	 */
+	public Terrain getTerrain() {
+		return terrain;
+	}
+
+	/**
+	 * @return Distance along the ray to the hit. Only valid if isHit().
+	 */
+	public float getDistance() {
+		return distance;
+	}
+
+	/**
+	 * @return Where the ray hit. Only valid if isHit().
+	 */
+	public Vector3f getPoint() {
+		return point;
+	}
+
+	/**
+	 * Clears the hit before a new cast. Nothing further than maxDistance will be hit.
+	 */
+	protected void reset(float maxDistance) {
+		entity = null;
+		terrain = null;
+		distance = maxDistance;
+	}
+
+	protected void setEntity(Entity entity, float distance) {
+		this.entity = entity;
+		this.terrain = null;
+		this.distance = distance;
+	}
+
+	protected void setTerrain(Terrain terrain, float distance) {
+		this.terrain = terrain;
+		this.entity = null;
+		this.distance = distance;
+	}
+
+	protected void setPoint(Vector3f origin, Vector3f direction) {
+		origin.fma(distance, direction, point);
+	}
+
+}
@@ -0,0 +1,211 @@
+package world;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A file holding the records (see ChunkData) of a REGION_SIZE by REGION_SIZE square
+ * of chunks, so that a world isn't thousands of tiny files.
+ *
+ * The file starts with a 16 byte header, then a table with an entry for every chunk
+ * in the region, row by row along z. Each entry is the record's offset in the file
+ * (0 if the chunk isn't stored), its length, and its length before compression (0 if
+ * it isn't compressed). The records follow in any order. Everything is little endian.
+ *
+ * The file is memory mapped for reading, so an uncompressed record is handed out as
+ * a view of the mapping without being copied.
+ * @author Billy
+ *
+ */
+public class RegionFile {
+
+	public static final int REGION_SIZE = 16;
+
+	private static final int MAGIC = 0x4E4F4752; // "RGON"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int ENTRY_SIZE = 16;
+	private static final int DATA_START = HEADER_SIZE + REGION_SIZE * REGION_SIZE * ENTRY_SIZE;
+
+	private final File file;
+	// Made when first read from, and again after every write.
+	private MappedByteBuffer mapping;
+
+	public RegionFile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @param localX
+	 * @param localZ
+	 * 	- The chunk's position within the region.
+	 * @return The chunk's record, or null if it isn't stored.
+	 */
+	public synchronized ChunkData readChunk(int localX, int localZ) throws IOException {
+		if (mapping == null) {
+			if (!file.exists()) {
+				return null;
+			}
+			map();
+		}
+		int entry = getEntryPosition(localX, localZ);
+		long offset = mapping.getLong(entry);
+		int length = mapping.getInt(entry + 8);
+		int rawLength = mapping.getInt(entry + 12);
+		if (offset == 0) {
+			return null;
+		}
+		if (offset < DATA_START || offset + length > mapping.capacity()) {
+			throw new IOException("Chunk " + localX + ", " + localZ + " of " + file + " is outside of the file.");
+		}
+		ByteBuffer record = mapping.duplicate();
+		record.position((int) offset).limit((int) offset + length);
+		record = record.slice();
+		if (rawLength != 0) {
+			record = inflate(record, rawLength);
+		}
+		return new ChunkData(record);
+	}
+
+	/**
+	 * Saves a chunk's record, replacing any record it already had. The new record goes
+	 * where the old one was if it fits, and at the end of the file if it doesn't.
+	 * Records handed out by readChunk() before this may see the change.
+	 * @param record
+	 * 	- A record made by ChunkData.encode().
+	 */
+	public synchronized void writeChunk(int localX, int localZ, ByteBuffer record, boolean compress)
+			throws IOException {
+		int rawLength = 0;
+		if (compress) {
+			rawLength = record.remaining();
+			record = deflate(record);
+		}
+		int length = record.remaining();
+		file.getParentFile().mkdirs();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+			if (channel.size() == 0) {
+				writeHeader(channel);
+			}
+			int entryPosition = getEntryPosition(localX, localZ);
+			ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, entry, entryPosition);
+			long offset = entry.getLong(0);
+			if (offset == 0 || length > entry.getInt(8)) {
+				offset = Math.max(channel.size(), DATA_START);
+			}
+			writeFully(channel, record, offset);
+
+			entry.clear();
+			entry.putLong(offset).putInt(length).putInt(rawLength).flip();
+			writeFully(channel, entry, entryPosition);
+		}
+		// The old mapping doesn't cover anything added to the end.
+		mapping = null;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	private void map() throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() < DATA_START) {
+				throw new IOException(file + " is too short to be a region file.");
+			}
+			// The mapping stays valid after the channel is closed.
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		mapping.order(ByteOrder.LITTLE_ENDIAN);
+		if (mapping.getInt(0) != MAGIC || mapping.getInt(4) != VERSION || mapping.getInt(8) != REGION_SIZE) {
+			mapping = null;
+			throw new IOException(file + " isn't a version " + VERSION + " region file.");
+		}
+	}
+
+	private static void writeHeader(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(DATA_START).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(REGION_SIZE);
+		// The rest of the header is reserved, and the table starts empty.
+		header.clear();
+		writeFully(channel, header, 0);
+	}
+
+	private static int getEntryPosition(int localX, int localZ) {
+		if (localX < 0 || localZ < 0 || localX >= REGION_SIZE || localZ >= REGION_SIZE) {
+			throw new IllegalArgumentException("Chunk " + localX + ", " + localZ + " isn't within a region.");
+		}
+		return HEADER_SIZE + (localZ * REGION_SIZE + localX) * ENTRY_SIZE;
+	}
+
+	private static ByteBuffer deflate(ByteBuffer record) {
+		byte[] raw = new byte[record.remaining()];
+		record.duplicate().get(raw);
+		Deflater deflater = new Deflater();
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			// Heights don't compress much, so the output rarely needs to grow.
+			byte[] compressed = new byte[raw.length + 64];
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == compressed.length) {
+					byte[] larger = new byte[compressed.length * 2];
+					System.arraycopy(compressed, 0, larger, 0, length);
+					compressed = larger;
+				}
+				length += deflater.deflate(compressed, length, compressed.length - length);
+			}
+			return ByteBuffer.wrap(compressed, 0, length);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private ByteBuffer inflate(ByteBuffer record, int rawLength) throws IOException {
+		byte[] compressed = new byte[record.remaining()];
+		record.get(compressed);
+		byte[] raw = new byte[rawLength];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			int length = inflater.inflate(raw);
+			if (length != rawLength || !inflater.finished()) {
+				throw new IOException("Compressed chunk in " + file + " is the wrong size.");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Compressed chunk in " + file + " is corrupt.", e);
+		} finally {
+			inflater.end();
+		}
+		return ByteBuffer.wrap(raw);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int first = buffer.position();
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position() - first);
+			if (read < 0) {
+				throw new IOException("Unexpected end of region file.");
+			}
+		}
+		buffer.flip();
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int first = buffer.position();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position() - first);
+		}
+	}
+
+}
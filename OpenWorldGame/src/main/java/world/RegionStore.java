@@ -0,0 +1,81 @@
+package world;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import terrain.Heightfield;
+
+/**
+ * A world's saved chunks, kept in region files in one folder. Each region file
+ * holds a square of RegionFile.REGION_SIZE chunks along each side.
+ *
+ * Chunks are read by the chunk streamer's worker threads as they load. Saving is
+ * for world editing tools, so isn't meant to happen whilst chunks are streaming.
+ * @author Billy
+ *
+ */
+public class RegionStore {
+
+	private final File directory;
+	private final boolean compress;
+	private Map<Long, RegionFile> regions = new HashMap<Long, RegionFile>();
+
+	/**
+	 * @param directory
+	 * 	- Where the region files are. Created when the first chunk is saved.
+	 * @param compress
+	 * 	- Whether saved chunks are compressed. Chunks saved either way can be read.
+	 */
+	public RegionStore(File directory, boolean compress) {
+		this.directory = directory;
+		this.compress = compress;
+	}
+
+	/**
+	 * @return The chunk's saved record, or null if it hasn't been saved or can't be read.
+	 */
+	public ChunkData readChunk(int gridX, int gridZ) {
+		RegionFile region = getRegion(gridX, gridZ);
+		try {
+			return region.readChunk(getLocalCoord(gridX), getLocalCoord(gridZ));
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.println("Couldn't read chunk " + gridX + ", " + gridZ + " from " + region.getFile());
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Saves a chunk's terrain heights and the entities placed in it, replacing
+	 * whatever was saved for it before.
+	 */
+	public void saveChunk(int gridX, int gridZ, Heightfield heightfield, List<EntityPlacement> placements)
+			throws IOException {
+		getRegion(gridX, gridZ).writeChunk(getLocalCoord(gridX), getLocalCoord(gridZ),
+				ChunkData.encode(heightfield, placements), compress);
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	private synchronized RegionFile getRegion(int gridX, int gridZ) {
+		int regionX = Math.floorDiv(gridX, RegionFile.REGION_SIZE);
+		int regionZ = Math.floorDiv(gridZ, RegionFile.REGION_SIZE);
+		long key = ChunkMap.key(regionX, regionZ);
+		RegionFile region = regions.get(key);
+		if (region == null) {
+			region = new RegionFile(new File(directory, "r." + regionX + "." + regionZ + ".region"));
+			regions.put(key, region);
+		}
+		return region;
+	}
+
+	private static int getLocalCoord(int gridCoord) {
+		return Math.floorMod(gridCoord, RegionFile.REGION_SIZE);
+	}
+
+}
@@ -0,0 +1,137 @@
+package world;
+
+import entities.Entity;
+
+/**
+ * The entities of a SpatialIndex within one grid square. Cells line up with
+ * chunks, so a chunk can take its cell out of the index when it unloads, and
+ * put it back when it loads again.
+ * 
+ * The bounds are only ever grown whilst the cell has entities in it, so they
+ * are conservative rather than exact.
+ * @author Billy
+ *
+ */
+public class SpatialCell {
+	
+	private static final int INITIAL_CAPACITY = 8;
+	
+	private final SpatialIndex index;
+	private final int gridX;
+	private final int gridZ;
+	
+	private Entity[] entities = new Entity[INITIAL_CAPACITY];
+	private int count = 0;
+	private boolean attached = true;
+	
+	// Vertical extent, and the largest bounding radius, of the entities in the cell.
+	private float minY;
+	private float maxY;
+	private float maxRadius;
+	
+	protected SpatialCell(SpatialIndex index, int gridX, int gridZ) {
+		this.index = index;
+		this.gridX = gridX;
+		this.gridZ = gridZ;
+		resetBounds();
+	}
+	
+	public Entity get(int i) {
+		return entities[i];
+	}
+	
+	public int size() {
+		return count;
+	}
+	
+	public SpatialIndex getIndex() {
+		return index;
+	}
+	
+	public int getGridX() {
+		return gridX;
+	}
+	
+	public int getGridZ() {
+		return gridZ;
+	}
+	
+	/**
+	 * @return False whilst the cell has been detached from its index, e.g. because
+	 * its chunk is unloaded.
+	 */
+	public boolean isAttached() {
+		return attached;
+	}
+	
+	protected void setAttached(boolean attached) {
+		this.attached = attached;
+	}
+	
+	protected float getMinY() {
+		return minY;
+	}
+	
+	protected float getMaxY() {
+		return maxY;
+	}
+	
+	protected float getMaxRadius() {
+		return maxRadius;
+	}
+	
+	protected void add(Entity entity) {
+		if (count == entities.length) {
+			Entity[] grown = new Entity[count * 2];
+			System.arraycopy(entities, 0, grown, 0, count);
+			entities = grown;
+		}
+		entity.setSpatialCell(this, count);
+		entities[count++] = entity;
+		include(entity);
+	}
+	
+	/**
+	 * Swaps the last entity into the removed entity's slot, so removal is O(1).
+	 */
+	protected void remove(Entity entity) {
+		int slot = entity.getSpatialSlot();
+		Entity last = entities[--count];
+		entities[slot] = last;
+		last.setSpatialCell(this, slot);
+		entities[count] = null;
+		entity.setSpatialCell(null, -1);
+		if (count == 0) {
+			resetBounds();
+		}
+	}
+	
+	/**
+	 * Grows the cell's bounds to fit the entity at its current position.
+	 */
+	protected void include(Entity entity) {
+		float radius = SpatialIndex.getBoundingRadius(entity);
+		float y = entity.getPosition().y;
+		minY = Math.min(minY, y - radius);
+		maxY = Math.max(maxY, y + radius);
+		maxRadius = Math.max(maxRadius, radius);
+	}
+	
+	/**
+	 * Moves all of another cell's entities into this one.
+	 */
+	protected void merge(SpatialCell other) {
+		while (other.count > 0) {
+			Entity entity = other.entities[other.count - 1];
+			other.remove(entity);
+			add(entity);
+		}
+	}
+	
+	private void resetBounds() {
+		minY = Float.POSITIVE_INFINITY;
+		maxY = Float.NEGATIVE_INFINITY;
+		maxRadius = 0;
+	}
+
+}
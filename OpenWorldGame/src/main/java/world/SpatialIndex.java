@@ -0,0 +1,363 @@
+package world;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joml.FrustumIntersection;
+import org.joml.Intersectionf;
+import org.joml.Vector3f;
+
+import entities.Entity;
+import models.RawModel;
+import terrain.Terrain;
+
+/**
+ * A uniform grid over the XZ plane for finding entities by position, without
+ * looking through every entity in the scene. The grid squares are Terrain.SIZE
+ * wide and line up with the world's chunks.
+ * 
+ * Entities tell the index when they move through increasePosition/setPosition,
+ * so changing an entity's position vector directly will leave it in the wrong cell.
+ * 
+ * Only cells with entities in them are kept. Queries only see attached cells, see
+ * detachCell. Entities added to, or moving into, a detached cell's grid square
+ * join the detached cell, so they stay hidden with the rest of its chunk.
+ * @author Billy
+ *
+ */
+public class SpatialIndex {
+	
+	private Map<Long, SpatialCell> cells = new HashMap<Long, SpatialCell>();
+	// Cells taken out by detachCell, until they are attached again.
+	private Map<Long, SpatialCell> detachedCells = new HashMap<Long, SpatialCell>();
+	// Number of entities in attached cells.
+	private int size = 0;
+	
+	// Distances of the entities found so far by findNearest.
+	private float[] nearestDistances = new float[8];
+	
+	public void add(Entity entity) {
+		if (entity.getSpatialCell() != null) {
+			throw new IllegalStateException("Entity is already in a spatial index.");
+		}
+		Vector3f position = entity.getPosition();
+		addToCell(entity, World.getGridCoord(position.x), World.getGridCoord(position.z));
+	}
+	
+	public void remove(Entity entity) {
+		SpatialCell cell = entity.getSpatialCell();
+		if (cell == null || cell.getIndex() != this) {
+			return;
+		}
+		cell.remove(entity);
+		if (cell.isAttached()) {
+			size--;
+			removeIfEmpty(cell);
+		}
+	}
+	
+	/**
+	 * Called by an entity after it has moved or changed size. Only does any real work
+	 * when the entity has crossed into another cell.
+	 */
+	public void update(Entity entity) {
+		SpatialCell cell = entity.getSpatialCell();
+		Vector3f position = entity.getPosition();
+		int gridX = World.getGridCoord(position.x);
+		int gridZ = World.getGridCoord(position.z);
+		if (gridX == cell.getGridX() && gridZ == cell.getGridZ()) {
+			cell.include(entity);
+			return;
+		}
+		remove(entity);
+		addToCell(entity, gridX, gridZ);
+	}
+	
+	/**
+	 * Takes a whole cell out of the index, e.g. when its chunk unloads. Its entities
+	 * won't be returned by queries until the cell is attached again.
+	 * 
+	 * @return The detached cell, or null if there are no entities at this grid position.
+	 */
+	public SpatialCell detachCell(int gridX, int gridZ) {
+		long key = ChunkMap.key(gridX, gridZ);
+		SpatialCell cell = cells.remove(key);
+		if (cell != null) {
+			cell.setAttached(false);
+			size -= cell.size();
+			detachedCells.put(key, cell);
+		}
+		return cell;
+	}
+	
+	/**
+	 * Puts a cell previously returned by detachCell back into the index.
+	 */
+	public void attachCell(SpatialCell cell) {
+		if (cell.getIndex() != this || cell.isAttached()) {
+			return;
+		}
+		long key = ChunkMap.key(cell.getGridX(), cell.getGridZ());
+		detachedCells.remove(key);
+		size += cell.size();
+		SpatialCell existing = cells.get(key);
+		if (existing != null) {
+			// Entities were added here whilst the cell was detached.
+			existing.merge(cell);
+			return;
+		}
+		cell.setAttached(true);
+		cells.put(key, cell);
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Adds all entities positioned within the rectangle to the results.
+	 */
+	public void queryRange(float minX, float minZ, float maxX, float maxZ, List<Entity> results) {
+		int minGridX = World.getGridCoord(minX);
+		int maxGridX = World.getGridCoord(maxX);
+		int minGridZ = World.getGridCoord(minZ);
+		int maxGridZ = World.getGridCoord(maxZ);
+		for (int j=minGridZ; j <= maxGridZ; j++) {
+			for (int i=minGridX; i <= maxGridX; i++) {
+				SpatialCell cell = cells.get(ChunkMap.key(i, j));
+				if (cell == null) {
+					continue;
+				}
+				for (int e=0; e < cell.size(); e++) {
+					Entity entity = cell.get(e);
+					Vector3f position = entity.getPosition();
+					if (position.x >= minX && position.x <= maxX && position.z >= minZ && position.z <= maxZ) {
+						results.add(entity);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds all entities positioned within the radius (on the XZ plane) to the results.
+	 */
+	public void queryRadius(float x, float z, float radius, List<Entity> results) {
+		int minGridX = World.getGridCoord(x - radius);
+		int maxGridX = World.getGridCoord(x + radius);
+		int minGridZ = World.getGridCoord(z - radius);
+		int maxGridZ = World.getGridCoord(z + radius);
+		float radiusSquared = radius * radius;
+		for (int j=minGridZ; j <= maxGridZ; j++) {
+			for (int i=minGridX; i <= maxGridX; i++) {
+				SpatialCell cell = cells.get(ChunkMap.key(i, j));
+				if (cell == null) {
+					continue;
+				}
+				for (int e=0; e < cell.size(); e++) {
+					Entity entity = cell.get(e);
+					if (getDistanceSquared(entity, x, z) <= radiusSquared) {
+						results.add(entity);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds all entities whose bounding spheres are inside the frustum to the results.
+	 * Cells completely inside the frustum don't need their entities testing.
+	 */
+	public void queryFrustum(FrustumIntersection frustum, List<Entity> results) {
+		for (SpatialCell cell : cells.values()) {
+			// Entities can hang over the edge of their cell by up to their radius.
+			float margin = cell.getMaxRadius();
+			float minX = cell.getGridX() * Terrain.SIZE - margin;
+			float minZ = cell.getGridZ() * Terrain.SIZE - margin;
+			int result = frustum.intersectAab(minX, cell.getMinY(), minZ,
+					minX + Terrain.SIZE + 2 * margin, cell.getMaxY(), minZ + Terrain.SIZE + 2 * margin);
+			if (result == FrustumIntersection.INSIDE) {
+				for (int e=0; e < cell.size(); e++) {
+					results.add(cell.get(e));
+				}
+			} else if (result == FrustumIntersection.INTERSECT) {
+				for (int e=0; e < cell.size(); e++) {
+					Entity entity = cell.get(e);
+					Vector3f position = entity.getPosition();
+					if (frustum.testSphere(position.x, position.y, position.z, getBoundingRadius(entity))) {
+						results.add(entity);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Finds the k entities nearest to a point on the XZ plane, searching outwards
+	 * a ring of cells at a time.
+	 * 
+	 * @param results
+	 * 		- Filled with up to k entities, nearest first. Should be empty.
+	 * @param maxDistance
+	 * 		- Entities further than this are ignored.
+	 */
+	public void findNearest(float x, float z, int k, float maxDistance, List<Entity> results) {
+		if (k <= 0 || size == 0) {
+			return;
+		}
+		if (nearestDistances.length < k) {
+			nearestDistances = new float[k];
+		}
+		int centreX = World.getGridCoord(x);
+		int centreZ = World.getGridCoord(z);
+		int maxRing = (int) Math.ceil(maxDistance / Terrain.SIZE) + 1;
+		float maxDistanceSquared = maxDistance * maxDistance;
+		int seen = 0;
+		for (int ring=0; ring <= maxRing && seen < size; ring++) {
+			for (int j=centreZ - ring; j <= centreZ + ring; j++) {
+				// Only the edge of the square is new in each ring.
+				int step = (j == centreZ - ring || j == centreZ + ring) ? 1 : Math.max(2 * ring, 1);
+				for (int i=centreX - ring; i <= centreX + ring; i+=step) {
+					SpatialCell cell = cells.get(ChunkMap.key(i, j));
+					if (cell == null) {
+						continue;
+					}
+					seen += cell.size();
+					for (int e=0; e < cell.size(); e++) {
+						Entity entity = cell.get(e);
+						float distance = getDistanceSquared(entity, x, z);
+						if (distance <= maxDistanceSquared) {
+							insertNearest(entity, distance, k, results);
+						}
+					}
+				}
+			}
+			// Every cell outside this ring is at least ring * SIZE away.
+			float ringDistance = ring * Terrain.SIZE;
+			if (results.size() == k && nearestDistances[k - 1] <= ringDistance * ringDistance) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Tests a ray against the bounding spheres of the entities in every cell it passes
+	 * through. Entities without bounds can't be hit.
+	 * @param direction
+	 * 		- Should be normalised.
+	 * @param hit
+	 * 		- Replaced with the nearest entity hit, if it is nearer than the current hit.
+	 */
+	public void raycast(Vector3f origin, Vector3f direction, RayHit hit) {
+		for (SpatialCell cell : cells.values()) {
+			float margin = cell.getMaxRadius();
+			float minX = cell.getGridX() * Terrain.SIZE - margin;
+			float minZ = cell.getGridZ() * Terrain.SIZE - margin;
+			if (!Intersectionf.testRayAab(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z,
+					minX, cell.getMinY(), minZ,
+					minX + Terrain.SIZE + 2 * margin, cell.getMaxY(), minZ + Terrain.SIZE + 2 * margin)) {
+				continue;
+			}
+			for (int e=0; e < cell.size(); e++) {
+				Entity entity = cell.get(e);
+				float radius = getBoundingRadius(entity);
+				if (radius == Float.POSITIVE_INFINITY) {
+					continue;
+				}
+				float distance = intersectSphere(origin, direction, entity.getPosition(), radius);
+				if (distance >= 0 && distance < hit.getDistance()) {
+					hit.setEntity(entity, distance);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return Distance along the ray to where it enters the sphere (0 if it starts
+	 * 	inside), or -1 if it misses.
+	 */
+	private static float intersectSphere(Vector3f origin, Vector3f direction, Vector3f centre, float radius) {
+		float toCentreX = centre.x - origin.x;
+		float toCentreY = centre.y - origin.y;
+		float toCentreZ = centre.z - origin.z;
+		float along = toCentreX * direction.x + toCentreY * direction.y + toCentreZ * direction.z;
+		float distanceSquared = toCentreX * toCentreX + toCentreY * toCentreY + toCentreZ * toCentreZ;
+		float offsetSquared = distanceSquared - along * along;
+		if (offsetSquared > radius * radius) {
+			return -1;
+		}
+		float halfChord = (float) Math.sqrt(radius * radius - offsetSquared);
+		if (along + halfChord < 0) {
+			return -1;
+		}
+		return Math.max(0, along - halfChord);
+	}
+	
+	/**
+	 * @return The radius of a sphere around the entity's position which contains its
+	 * model, or infinity if the model has no bounds.
+	 */
+	public static float getBoundingRadius(Entity entity) {
+		RawModel model = entity.getModel().getRawModel();
+		if (!model.hasBounds()) {
+			return Float.POSITIVE_INFINITY;
+		}
+		return model.getRadiusFromOrigin() * entity.getScale();
+	}
+	
+	private void insertNearest(Entity entity, float distance, int k, List<Entity> results) {
+		int count = results.size();
+		if (count == k && distance >= nearestDistances[k - 1]) {
+			return;
+		}
+		// Insertion sort, dropping the furthest entity once there are k.
+		int i = count == k ? k - 1 : count;
+		if (count == k) {
+			results.remove(k - 1);
+		}
+		while (i > 0 && nearestDistances[i - 1] > distance) {
+			nearestDistances[i] = nearestDistances[i - 1];
+			i--;
+		}
+		nearestDistances[i] = distance;
+		results.add(i, entity);
+	}
+	
+	private static float getDistanceSquared(Entity entity, float x, float z) {
+		float dx = entity.getPosition().x - x;
+		float dz = entity.getPosition().z - z;
+		return dx * dx + dz * dz;
+	}
+	
+	/**
+	 * Adds the entity to the cell at the grid position, which is the detached cell
+	 * if there is one.
+	 */
+	private void addToCell(Entity entity, int gridX, int gridZ) {
+		SpatialCell detached = detachedCells.get(ChunkMap.key(gridX, gridZ));
+		if (detached != null) {
+			detached.add(entity);
+			return;
+		}
+		getOrCreateCell(gridX, gridZ).add(entity);
+		size++;
+	}
+	
+	private SpatialCell getOrCreateCell(int gridX, int gridZ) {
+		long key = ChunkMap.key(gridX, gridZ);
+		SpatialCell cell = cells.get(key);
+		if (cell == null) {
+			cell = new SpatialCell(this, gridX, gridZ);
+			cells.put(key, cell);
+		}
+		return cell;
+	}
+	
+	private void removeIfEmpty(SpatialCell cell) {
+		if (cell.size() == 0) {
+			cells.remove(ChunkMap.key(cell.getGridX(), cell.getGridZ()));
+		}
+	}
+
+}
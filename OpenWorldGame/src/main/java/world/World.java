@@ -1,159 +1,364 @@
 package world;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.joml.Vector3f;
 
 import entities.Player;
+import loader.AssetManager;
+import terrain.HeightMapSource;
+import terrain.HeightSource;
 import terrain.Terrain;
+import terrain.TerrainMaterials;
 
 public class World {
 	
+	// Pass as the world size for a world with no edges.
+	public static final int UNBOUNDED = 0;
+	
+	// Chunk metadata kept around after a chunk is unloaded, so coming back to
+	// an area is cheap. The least recently used chunks beyond this are forgotten.
+	private static final int MAX_CACHED_CHUNKS = 256;
+	
+	// Used for every chunk unless the world is given another height source.
+	private static final String DEFAULT_HEIGHT_MAP = "heightmap";
+	
+	// Background, r, g and b ground textures, shared by every terrain.
+	private static final String[] GROUND_TEXTURES = {
+			"grassy2.png", "mud.png", "grassFlowers.png", "path.png"
+	};
+	
 	private int worldSize; // In chunks. Should be a multiple of 2.
 	// How many chunks are visible in any given direction from a chunk.
 	private int chunkViewDistance = 3;
 	
-	private Chunk[][] chunks;
+	// Only chunks which have come within view distance are ever created.
+	private ChunkMap chunks;
+	private ChunkStreamer streamer;
+	private AssetManager assets;
+	private TerrainMaterials terrainMaterials;
+	// Every chunk's terrain heights come from here, unless the chunk has been saved.
+	private HeightSource heightSource;
+	private RegionStore regionStore;
+	private EntitySpawner entitySpawner;
 	
 	private List<Terrain> terrains = new ArrayList<Terrain>();
+	// Cells of these are detached whilst their chunk is unloaded.
+	private List<SpatialIndex> entityIndices = new ArrayList<SpatialIndex>();
 	
 	private Vector3f initialPlayerPos = new Vector3f(0,0,0);
 	private Player player;
 	
 	// Used to check if the player has moved to a new chunk.
-	private int[] previousGridPos = new int[2];
-	private int[] gridPos = new int[2];
-	private int[] gridDelta = new int[2];
+	private int gridX;
+	private int gridZ;
+	
+	/**
+	 * @param worldSize
+	 * 	- Width of the world in chunks, or UNBOUNDED.
+	 * @param player
+	 * @param assets
+	 */
+	public World(int worldSize, Player player, AssetManager assets) {
+		this(worldSize, player, assets, new HeightMapSource(DEFAULT_HEIGHT_MAP));
+	}
 	
-	public World(int worldSize, Player player) {
+	/**
+	 * @param heightSource
+	 * 	- Gives each chunk its terrain heights, e.g. a NoiseHeightSource for a
+	 * 	procedurally generated world.
+	 */
+	public World(int worldSize, Player player, AssetManager assets, HeightSource heightSource) {
+		this(worldSize, player, assets, heightSource, null, null);
+	}
+	
+	/**
+	 * @param regionStore
+	 * 	- Saved chunks are loaded from here in place of the height source. Null for none.
+	 * @param entitySpawner
+	 * 	- Creates the entities saved in each chunk. Null to ignore them.
+	 */
+	public World(int worldSize, Player player, AssetManager assets, HeightSource heightSource,
+			RegionStore regionStore, EntitySpawner entitySpawner) {
+		this.heightSource = heightSource;
+		this.regionStore = regionStore;
+		this.entitySpawner = entitySpawner;
 		this.worldSize = worldSize;
 		this.player = player;
-		chunks = new Chunk[worldSize][worldSize];
-		connectChunks();
+		this.assets = assets;
+		this.terrainMaterials = new TerrainMaterials(assets.getLoader(), GROUND_TEXTURES);
+		int viewWidth = 2 * chunkViewDistance + 1;
+		chunks = new ChunkMap(Math.max(viewWidth * viewWidth, MAX_CACHED_CHUNKS));
+		streamer = new ChunkStreamer(this);
 		initialLoad(chunkViewDistance);
 	}
 	
-	// Will take a world XML file.
-	// Will load all chunks with their XML files.
-	public void connectChunks() {
-		// Should unpack XML file and produce a map of coordinates to
-		// chunk XML file name. Should then iterate through chunk array and
-		// instantiate new chunks with their relevant filenames.
-		// Then, we would be able to call chunk.load to load from its
-		// xml file.
-		
-		for (int j=0; j<worldSize; j++) {
-			for (int i=0; i<worldSize; i++) {
-				chunks[j][i] = new Chunk(new int[] {i, j});
-			}
+	public RegionStore getRegionStore() {
+		return regionStore;
+	}
+	
+	protected EntitySpawner getEntitySpawner() {
+		return entitySpawner;
+	}
+	
+	/**
+	 * Saves a loaded chunk's terrain to the region store, along with the entities
+	 * given. For world editing tools.
+	 */
+	public void saveChunk(Chunk chunk, List<EntityPlacement> placements) throws IOException {
+		if (regionStore == null) {
+			throw new IllegalStateException("The world has no region store to save to.");
+		}
+		if (!chunk.isLoaded()) {
+			throw new IllegalStateException("Chunk " + chunk.getGridX() + ", " + chunk.getGridZ() + " isn't loaded.");
 		}
+		regionStore.saveChunk(chunk.getGridX(), chunk.getGridZ(), chunk.getTerrain().getHeightfield(), placements);
 	}
 	
 	/**
 	 * Loads in the terrains and entities around the player.
 	 */
 	public void initialLoad(int chunkViewDistance) {
-		int[] initialGridPos = getGridPosition(initialPlayerPos);
+		gridX = getGridCoord(initialPlayerPos.x);
+		gridZ = getGridCoord(initialPlayerPos.z);
 		
-		// Load a square of side 
-		for (int j=initialGridPos[1] - chunkViewDistance; j <=initialGridPos[1] + chunkViewDistance; j++) {
-			for (int i=initialGridPos[0] - chunkViewDistance; i <=initialGridPos[0] + chunkViewDistance; i++) {
-				if (i >= 0 && j >= 0) {
-					chunks[j][i].load(this);
+		// Load a square of side 2 * chunkViewDistance + 1, centred on the player.
+		for (int j=gridZ - chunkViewDistance; j <= gridZ + chunkViewDistance; j++) {
+			for (int i=gridX - chunkViewDistance; i <= gridX + chunkViewDistance; i++) {
+				if (isInWorld(i, j)) {
+					getOrCreateChunk(i, j).load(this);
 				}
 			}
 		}
+		// Nothing can be stood on until these are in, so wait for them.
+		streamer.finishAll();
 	}
 	
 	// Both parameters will have to be worked out in the main game loop and so
 	// it is not worth working them out again.
 	public void update() {
-		previousGridPos = gridPos; 
-		gridPos = getGridPosition(player.getPosition());
+		// Uploads chunks which have finished loading in the background.
+		streamer.update();
 		
-		if ((gridPos[0] != previousGridPos[0]) || (gridPos[1] != previousGridPos[1])) {
-			gridDelta[0] = gridPos[0] - previousGridPos[0];
-			gridDelta[1] = gridPos[1] - previousGridPos[1];
-			
-			if (gridDelta[0] != 0 && gridDelta[1] != 0) {
-				int removeIndexX = previousGridPos[0] - gridDelta[0] * chunkViewDistance;
-				int addIndexX = gridPos[0] + gridDelta[0] * chunkViewDistance;
-				int removeIndexY = previousGridPos[1] - gridDelta[1] * chunkViewDistance;
-				int addIndexY = gridPos[1] + gridPos[1] * chunkViewDistance;
-				
-				for (int i=gridPos[0] - chunkViewDistance; i <= gridPos[0] + chunkViewDistance; i++) {
-					if (i>=0 && i<=worldSize) {
-						if (removeIndexY>=0 && removeIndexY<=worldSize) {
-							chunks[removeIndexY][i].unload(this);
-						}
-						if (addIndexY>=0 && addIndexY<=worldSize) {
-							chunks[addIndexY][i].load(this);
-						}
-					}
-				}
-				
-				// Saves repeating the actions for the same chunk on the corners of the 'square' around the player.
-				for (int j=gridPos[1] - chunkViewDistance + 1; j <= gridPos[1] + chunkViewDistance - 1; j++) {
-					if (j>=0 && j<=worldSize) {
-						if (removeIndexX>=0 && removeIndexX<=worldSize) {
-							chunks[j][removeIndexX].unload(this);
-						}
-						if (addIndexX>=0 && addIndexX<=worldSize) {
-							chunks[j][addIndexX].load(this);
-						}
-					}
-				}
-			} 
-			else if (gridDelta[0] != 0) {
-				int removeIndexX = previousGridPos[0] - gridDelta[0] * chunkViewDistance;
-				int addIndexX = gridPos[0] + gridDelta[0] * chunkViewDistance;
-				
-				for (int j=gridPos[1] - chunkViewDistance; j <= gridPos[1] + chunkViewDistance; j++) {
-					if (j>=0 && j<=worldSize) {
-						if (removeIndexX>=0 && removeIndexX<=worldSize) {
-							chunks[j][removeIndexX].unload(this);
-						}
-						if (addIndexX>=0 && addIndexX<=worldSize) {
-							chunks[j][addIndexX].load(this);
-						}
+		int previousGridX = gridX;
+		int previousGridZ = gridZ;
+		gridX = getGridCoord(player.getPosition().x);
+		gridZ = getGridCoord(player.getPosition().z);
+		
+		if (gridX == previousGridX && gridZ == previousGridZ) {
+			return;
+		}
+		
+		// Unloading chunks in the old square which aren't in the new one.
+		for (int j=previousGridZ - chunkViewDistance; j <= previousGridZ + chunkViewDistance; j++) {
+			for (int i=previousGridX - chunkViewDistance; i <= previousGridX + chunkViewDistance; i++) {
+				if (!isInView(i, j, gridX, gridZ)) {
+					Chunk chunk = chunks.get(ChunkMap.key(i, j));
+					if (chunk != null) {
+						chunk.unload(this);
 					}
 				}
-			} 
-			else if (gridDelta[1] != 0) {
-				int removeIndexY = previousGridPos[1] - gridDelta[1] * chunkViewDistance;
-				int addIndexY = gridPos[1] + gridDelta[1] * chunkViewDistance;
-				
-				for (int i=gridPos[0] - chunkViewDistance; i <= gridPos[0] + chunkViewDistance; i++) {
-					if (i>=0 && i<=worldSize) {
-						if (removeIndexY>=0 && removeIndexY<=worldSize) {
-							chunks[removeIndexY][i].unload(this);
-						}
-						if (addIndexY>=0 && addIndexY<=worldSize) {
-							chunks[addIndexY][i].load(this);
-						}
-					}
+			}
+		}
+		
+		// Loading chunks in the new square which weren't in the old one.
+		for (int j=gridZ - chunkViewDistance; j <= gridZ + chunkViewDistance; j++) {
+			for (int i=gridX - chunkViewDistance; i <= gridX + chunkViewDistance; i++) {
+				if (isInWorld(i, j) && !isInView(i, j, previousGridX, previousGridZ)) {
+					getOrCreateChunk(i, j).load(this);
 				}
 			}
 		}
+		
+		evictChunks();
+	}
+	
+	/**
+	 * Doesn't count as using the chunk, so queries don't keep chunks from being forgotten.
+	 * @return The chunk at this grid position, or null if it has never been near the player.
+	 */
+	public Chunk getChunk(int x, int z) {
+		return chunks.peek(ChunkMap.key(x, z));
+	}
+	
+	/**
+	 * @return The terrain at this world position, or null if its chunk isn't loaded.
+	 */
+	public Terrain getTerrain(float worldX, float worldZ) {
+		Chunk chunk = getChunk(getGridCoord(worldX), getGridCoord(worldZ));
+		if (chunk == null || !chunk.isLoaded()) {
+			return null;
+		}
+		return chunk.getTerrain();
+	}
+	
+	/**
+	 * Finds the height of the ground across chunks. Each position is sampled on the
+	 * terrain of the chunk it is in, so it makes no difference which side of a chunk
+	 * border it is on.
+	 * @return The height at this world position, or 0 if its chunk isn't loaded.
+	 */
+	public float getHeightOfTerrain(float worldX, float worldZ) {
+		Terrain terrain = getTerrain(worldX, worldZ);
+		if (terrain == null) {
+			return 0;
+		}
+		return terrain.getHeightOfTerrain(worldX, worldZ);
+	}
+	
+	/**
+	 * Samples many world positions at once. Neighbouring points are usually in the
+	 * same chunk, so the chunk is only looked up again when a point leaves it.
+	 * @param points
+	 * 	- x and z of each point, one after the other.
+	 * @param dest
+	 * 	- Filled with the height of each point, or 0 for points without a loaded
+	 * 	chunk. Its length is the number of points sampled.
+	 */
+	public void getHeightsOfTerrain(float[] points, float[] dest) {
+		int lastGridX = Integer.MIN_VALUE;
+		int lastGridZ = Integer.MIN_VALUE;
+		Terrain terrain = null;
+		for (int i=0; i<dest.length; i++) {
+			float worldX = points[i * 2];
+			float worldZ = points[i * 2 + 1];
+			int pointGridX = getGridCoord(worldX);
+			int pointGridZ = getGridCoord(worldZ);
+			if (pointGridX != lastGridX || pointGridZ != lastGridZ) {
+				terrain = getTerrain(worldX, worldZ);
+				lastGridX = pointGridX;
+				lastGridZ = pointGridZ;
+			}
+			dest[i] = terrain == null ? 0 : terrain.getHeightOfTerrain(worldX, worldZ);
+		}
 	}
 	
-	public Chunk getChunk(int x, int y) {
-		return chunks[y][x];
+	/**
+	 * Casts a ray into the world, against the terrain of every loaded chunk and the
+	 * entities in every entity index.
+	 * @param direction
+	 * 	- Should be normalised, so that distances are in world units.
+	 * @param hit
+	 * 	- Filled in with the nearest thing hit.
+	 * @return True if anything was hit within maxDistance.
+	 */
+	public boolean raycast(Vector3f origin, Vector3f direction, float maxDistance, RayHit hit) {
+		hit.reset(maxDistance);
+		raycastTerrain(origin, direction, maxDistance, hit);
+		for (SpatialIndex index : entityIndices) {
+			index.raycast(origin, direction, hit);
+		}
+		if (hit.isHit()) {
+			hit.setPoint(origin, direction);
+		}
+		return hit.isHit();
+	}
+	
+	/**
+	 * Walks the chunks under the ray in order (a 2D DDA over the chunk grid), testing
+	 * each loaded terrain until one is hit. Terrains only overlap at their edges, so
+	 * the first hit is the nearest.
+	 */
+	private void raycastTerrain(Vector3f origin, Vector3f direction, float maxDistance, RayHit hit) {
+		int chunkX = getGridCoord(origin.x);
+		int chunkZ = getGridCoord(origin.z);
+		int stepX = direction.x > 0 ? 1 : -1;
+		int stepZ = direction.z > 0 ? 1 : -1;
+		float tDeltaX = direction.x != 0 ? Terrain.SIZE / Math.abs(direction.x) : Float.POSITIVE_INFINITY;
+		float tDeltaZ = direction.z != 0 ? Terrain.SIZE / Math.abs(direction.z) : Float.POSITIVE_INFINITY;
+		float tNextX = direction.x != 0
+				? ((chunkX + (direction.x > 0 ? 1 : 0)) * Terrain.SIZE - origin.x) / direction.x
+				: Float.POSITIVE_INFINITY;
+		float tNextZ = direction.z != 0
+				? ((chunkZ + (direction.z > 0 ? 1 : 0)) * Terrain.SIZE - origin.z) / direction.z
+				: Float.POSITIVE_INFINITY;
+		while (true) {
+			Chunk chunk = getChunk(chunkX, chunkZ);
+			if (chunk != null && chunk.isLoaded()) {
+				Terrain terrain = chunk.getTerrain();
+				float distance = terrain.getHeightfield().intersectRay(
+						origin.x - terrain.getX(), origin.y, origin.z - terrain.getZ(),
+						direction.x, direction.y, direction.z, maxDistance);
+				if (distance >= 0) {
+					hit.setTerrain(terrain, distance);
+					return;
+				}
+			}
+			if (Math.min(tNextX, tNextZ) > maxDistance) {
+				return;
+			}
+			if (tNextX < tNextZ) {
+				chunkX += stepX;
+				tNextX += tDeltaX;
+			} else {
+				chunkZ += stepZ;
+				tNextZ += tDeltaZ;
+			}
+		}
 	}
 	
 	public int getWorldSize() {
 		return worldSize;
 	}
 	
-	public int[] getGridPosition(Vector3f worldPosition) {
-		return new int[] {(int)(worldPosition.x / Terrain.SIZE), (int)(worldPosition.z / Terrain.SIZE)};
+	public int getChunkCount() {
+		return chunks.size();
+	}
+	
+	/**
+	 * @return The grid coordinate of the chunk containing this world coordinate (x or z).
+	 */
+	public static int getGridCoord(float worldCoord) {
+		return (int) Math.floor(worldCoord / Terrain.SIZE);
+	}
+	
+	/**
+	 * Entities in the index will only be found whilst the chunk they are in is loaded.
+	 */
+	public void addEntityIndex(SpatialIndex index) {
+		entityIndices.add(index);
 	}
 	
 	public List<Terrain> getTerrains() {
 		return terrains;
 	}
 	
+	/**
+	 * Chunks nearer the player are loaded first. Uses the squared distance, in chunks,
+	 * from the chunk the player was last seen in.
+	 */
+	protected int getChunkPriority(int chunkGridX, int chunkGridZ) {
+		int dx = chunkGridX - gridX;
+		int dz = chunkGridZ - gridZ;
+		return dx * dx + dz * dz;
+	}
+	
+	protected List<SpatialIndex> getEntityIndices() {
+		return entityIndices;
+	}
+	
+	protected AssetManager getAssets() {
+		return assets;
+	}
+	
+	protected TerrainMaterials getTerrainMaterials() {
+		return terrainMaterials;
+	}
+	
+	protected HeightSource getHeightSource() {
+		return heightSource;
+	}
+	
+	protected ChunkStreamer getStreamer() {
+		return streamer;
+	}
+	
+	public void cleanUp() {
+		streamer.cleanUp();
+	}
+	
 	protected void addTerrain(Terrain terrain) {
 		terrains.add(terrain);
 	}
@@ -161,5 +366,42 @@ public class World {
 	protected void removeTerrain(Terrain terrain) {
 		terrains.remove(terrain);
 	}
+	
+	private Chunk getOrCreateChunk(int x, int z) {
+		long key = ChunkMap.key(x, z);
+		Chunk chunk = chunks.get(key);
+		if (chunk == null) {
+			chunk = new Chunk(x, z);
+			chunks.put(chunk);
+		}
+		return chunk;
+	}
+	
+	/**
+	 * Forgets the least recently used chunks once there are more than MAX_CACHED_CHUNKS.
+	 * Chunks which are loaded (or loading) are always kept, as are chunks holding
+	 * detached entity cells, as their entities would be lost with them.
+	 */
+	private void evictChunks() {
+		Chunk chunk = chunks.getLeastRecentlyUsed();
+		while (chunks.size() > MAX_CACHED_CHUNKS && chunk != null) {
+			Chunk next = chunk.getMoreRecentlyUsed();
+			if (!chunk.isLoaded() && !chunk.isLoading() && !chunk.hasDetachedCells()) {
+				chunks.remove(chunk.getKey());
+			}
+			chunk = next;
+		}
+	}
+	
+	private boolean isInWorld(int x, int z) {
+		if (worldSize == UNBOUNDED) {
+			return true;
+		}
+		return x >= 0 && z >= 0 && x < worldSize && z < worldSize;
+	}
+	
+	private boolean isInView(int x, int z, int centreX, int centreZ) {
+		return Math.abs(x - centreX) <= chunkViewDistance && Math.abs(z - centreZ) <= chunkViewDistance;
+	}
 
 }